@@ -0,0 +1,67 @@
+package pile.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pile.impl.Piles;
+import pile.specialized_int.IndependentInt;
+import pile.specialized_int.PileInt;
+import pile.specialized_int.combinations.ReadListenDependencyInt;
+
+/**
+ * Cost of changing one input of a large aggregate and reading the result,
+ * comparing the balanced tree built by {@link Piles#aggregate(Piles.AggregationMonoid, Iterable)}
+ * with the single-node {@link pile.impl.IncrementalAggregation}.
+ * @author bb
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateBenchmark {
+	@Param({"1000", "50000"})
+	public int inputs;
+	@Param({"tree", "incremental"})
+	public String kind;
+	@Param({"sum", "max"})
+	public String op;
+
+	IndependentInt[] in;
+	ReadListenDependencyInt result;
+	int counter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		in = new IndependentInt[inputs];
+		for(int i=0; i<inputs; ++i)
+			in[i] = Piles.independent(i).build();
+		boolean sum = "sum".equals(op);
+		if("tree".equals(kind))
+			result = Piles.aggregate(sum?PileInt.sumAggregator:PileInt.maxAggregator, Arrays.asList(in));
+		else
+			result = sum?PileInt.sum(in):PileInt.max(in);
+	}
+
+	@Benchmark
+	public Integer setOneAndRead() throws InterruptedException {
+		int c = ++counter;
+		in[(int)(((c*0x9E3779B9L)>>>7)%inputs)].set(c & 0xffff);
+		return result.getValid();
+	}
+}
@@ -0,0 +1,89 @@
+package pile.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pile.aspect.listen.ListenValue.ListenerManager;
+import pile.aspect.listen.RateLimitedValueListener;
+import pile.aspect.listen.ValueEvent;
+import pile.aspect.listen.ValueListener;
+
+/**
+ * Cost of {@link ListenerManager#fireValueChange(ValueEvent)} for a given number of listeners,
+ * with and without copy-on-write, and of delivering events to {@link RateLimitedValueListener}s.
+ * @author bb
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+	@Param({"1", "16", "256"})
+	public int listeners;
+	@Param({"false", "true"})
+	public boolean copyOnWrite;
+
+	ListenerManager manager;
+	ValueEvent event;
+	RateLimitedValueListener[] rateLimited;
+	/**
+	 * Written by the listeners so that their bodies cannot be optimized away
+	 */
+	volatile Object sink;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		manager = new ListenerManager(this, true, copyOnWrite);
+		event = new ValueEvent(this);
+		for(int i=0; i<listeners; ++i) {
+			ValueListener l = e->sink = e;
+			manager.addValueListener(l.withPrio(i%3));
+		}
+		rateLimited = new RateLimitedValueListener[listeners];
+		for(int i=0; i<listeners; ++i)
+			rateLimited[i] = ValueListener.rateLimited(1, 10, e->sink = e);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for(RateLimitedValueListener l: rateLimited)
+			l.disable();
+	}
+
+	@Benchmark
+	public void fire() {
+		manager.fireValueChange(event);
+	}
+	@Benchmark
+	@Threads(4)
+	public void fireContended() {
+		manager.fireValueChange(event);
+	}
+	@Benchmark
+	public void rateLimitedDeliver() {
+		for(RateLimitedValueListener l: rateLimited)
+			l.valueChanged(event);
+	}
+	@Benchmark
+	@Threads(4)
+	public void rateLimitedDeliverContended() {
+		for(RateLimitedValueListener l: rateLimited)
+			l.valueChanged(event);
+	}
+}
@@ -0,0 +1,106 @@
+package pile.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pile.impl.HeightOrderedPropagation;
+import pile.impl.Piles;
+import pile.specialized_int.IndependentInt;
+import pile.specialized_int.PileInt;
+import pile.specialized_int.combinations.ReadListenDependencyInt;
+
+/**
+ * Cost of setting an {@link IndependentInt} and reading back the recomputed values
+ * of a dependency graph of a given shape.
+ * <ul>
+ * <li><code>chain</code>: <code>size</code> values, each depending on its predecessor</li>
+ * <li><code>fanout</code>: <code>size</code> values, all depending on the root</li>
+ * <li><code>diamond</code>: <code>size</code> layers of two values, each depending on both values of the layer below</li>
+ * </ul>
+ * @author bb
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropagationBenchmark {
+	@Param({"chain", "fanout", "diamond"})
+	public String shape;
+	@Param({"10", "100", "1000"})
+	public int size;
+	@Param({"false", "true"})
+	public boolean heightOrdered;
+
+	IndependentInt root;
+	ReadListenDependencyInt[] sinks;
+	int counter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		HeightOrderedPropagation.setEnabled(heightOrdered);
+		root = Piles.independent(0).build();
+		ArrayList<ReadListenDependencyInt> out = new ArrayList<>();
+		switch(shape) {
+		case "chain":{
+			ReadListenDependencyInt last = root;
+			for(int i=0; i<size; ++i) {
+				ReadListenDependencyInt prev = last;
+				last = Piles.computeInt(()->prev.get()+1).whenChanged(prev);
+			}
+			out.add(last);
+			break;
+		}
+		case "fanout":
+			for(int i=0; i<size; ++i) {
+				int k = i;
+				out.add(Piles.computeInt(()->root.get()+k).whenChanged(root));
+			}
+			break;
+		case "diamond":{
+			ReadListenDependencyInt a = root, b = root;
+			for(int i=0; i<size; ++i) {
+				ReadListenDependencyInt pa = a, pb = b;
+				PileInt na = Piles.computeInt(()->pa.get()+pb.get()).whenChanged(pa, pb);
+				PileInt nb = Piles.computeInt(()->pa.get()-pb.get()).whenChanged(pa, pb);
+				a = na;
+				b = nb;
+			}
+			out.add(a);
+			out.add(b);
+			break;
+		}
+		default:
+			throw new IllegalArgumentException(shape);
+		}
+		sinks = out.toArray(new ReadListenDependencyInt[out.size()]);
+	}
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		HeightOrderedPropagation.setEnabled(false);
+	}
+
+	@Benchmark
+	public void setAndRead(Blackhole bh) throws InterruptedException {
+		root.set(++counter & 0xffff);
+		for(ReadListenDependencyInt s: sinks)
+			bh.consume(s.getValid());
+	}
+}
@@ -0,0 +1,82 @@
+package pile.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pile.impl.Piles;
+import pile.specialized_int.IndependentInt;
+import pile.specialized_int.PileInt;
+
+/**
+ * Cost of {@link IndependentInt#set(Integer)} and of opening and closing a transaction
+ * on a value with a given number of direct dependers, uncontended and with several threads
+ * hammering the same value.
+ * @author bb
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+	@Param({"0", "1", "16"})
+	public int dependers;
+
+	IndependentInt value;
+	/**
+	 * Strong references to the dependers; the value only references them weakly
+	 */
+	PileInt[] dependerPiles;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		value = Piles.independent(0).build();
+		dependerPiles = new PileInt[dependers];
+		for(int i=0; i<dependers; ++i)
+			dependerPiles[i] = Piles.computeInt(()->value.get()+1).whenChanged(value);
+	}
+
+	/**
+	 * Per-thread counter, so that every set actually changes the value
+	 */
+	@State(Scope.Thread)
+	public static class Counter{
+		int next;
+	}
+
+	@Benchmark
+	public void set(Counter c) {
+		value.set(++c.next & 0xffff);
+	}
+	@Benchmark
+	@Threads(4)
+	public void setContended(Counter c) {
+		value.set(++c.next & 0xffff);
+	}
+	@Benchmark
+	public void beginEndTransaction() {
+		value.__beginTransaction(false);
+		value.__endTransaction(false);
+	}
+	@Benchmark
+	@Threads(4)
+	public void beginEndTransactionContended() {
+		value.__beginTransaction(false);
+		value.__endTransaction(false);
+	}
+}
@@ -0,0 +1,23 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A deep revalidation of a reactive value.
+ * @author bb
+ *
+ */
+@Name("pile.DeepRevalidation")
+@Label("Deep Revalidation")
+@Category("Pile")
+@Description("A reactive value revalidating itself and its dependers")
+class DeepRevalidationEvent extends jdk.jfr.Event {
+	@Label("Value")
+	String value;
+	@Label("Cause")
+	@Description("The dependency that triggered it")
+	String cause;
+}
@@ -0,0 +1,22 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One pass of a thread working off the queue of pending notifications of a reactive value.
+ * @author bb
+ *
+ */
+@Name("pile.InformQueueDrain")
+@Label("Inform Queue Drain")
+@Category("Pile")
+@Description("A thread working off the pending notifications of a reactive value")
+class InformQueueDrainEvent extends jdk.jfr.Event {
+	@Label("Value")
+	String value;
+	@Label("Jobs")
+	int jobs;
+}
@@ -0,0 +1,20 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The listeners of a reactive value handling one value change event.
+ * @author bb
+ *
+ */
+@Name("pile.ListenerDispatch")
+@Label("Listener Dispatch")
+@Category("Pile")
+@Description("The listeners of a reactive value handling a change event")
+class ListenerDispatchEvent extends jdk.jfr.Event {
+	@Label("Value")
+	String value;
+}
@@ -0,0 +1,193 @@
+package pile.interop.jfr;
+
+import jdk.jfr.EventType;
+import pile.aspect.Dependency;
+import pile.aspect.listen.RateLimitedValueListener;
+
+/**
+ * Emits Java Flight Recorder events for what the reactive values do.
+ * <p>
+ * Each kind of event has a method that is called when it starts and returns a token, and one that is called
+ * when it ends and takes that token. The token is <code>null</code> if no recording has the event type enabled;
+ * in that case, nothing is allocated and the end method returns right away.
+ * Names and other details are only computed if the event is actually committed.
+ * <p>
+ * This class lives in the <code>jfr</code> source folder and needs Java 11 or an 8 update with JFR.
+ * Its twin in the <code>jfr_off</code> source folder has the same methods, does nothing, and compiles on any Java 8.
+ * Exactly one of the two is on the build path.
+ * @author bb
+ *
+ */
+public final class PileEvents {
+	private PileEvents() {}
+	/**
+	 * Whether this is the variant that actually emits events
+	 */
+	public static final boolean COMPILED_IN = true;
+
+	private static final EventType RECOMPUTATION = EventType.getEventType(RecomputationEvent.class);
+	private static final EventType TRANSACTION = EventType.getEventType(TransactionEvent.class);
+	private static final EventType INFORM_QUEUE_DRAIN = EventType.getEventType(InformQueueDrainEvent.class);
+	private static final EventType DEEP_REVALIDATION = EventType.getEventType(DeepRevalidationEvent.class);
+	private static final EventType LISTENER_DISPATCH = EventType.getEventType(ListenerDispatchEvent.class);
+	private static final EventType RATE_LIMITED_RUN = EventType.getEventType(RateLimitedListenerEvent.class);
+
+	/**
+	 * @param scout Whether the recomputation is a dependency scout
+	 * @return A token for {@link #recomputationEnded(Object, Dependency, boolean)}, or <code>null</code>
+	 */
+	public static Object recomputationStarted(boolean scout) {
+		if(!RECOMPUTATION.isEnabled())
+			return null;
+		RecomputationEvent e = new RecomputationEvent();
+		e.scout = scout;
+		e.startThread = Thread.currentThread();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #recomputationStarted(boolean)}
+	 * @param value
+	 * @param cancelled
+	 */
+	public static void recomputationEnded(Object token, Dependency value, boolean cancelled) {
+		if(token==null)
+			return;
+		RecomputationEvent e = (RecomputationEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.value = value==null?null:value.dependencyName();
+			e.outcome = cancelled?"cancelled":"fulfilled";
+			e.commit();
+		}
+	}
+	/**
+	 * @return A token for {@link #transactionEnded(Object, Dependency)}, or <code>null</code>
+	 */
+	public static Object transactionBegan() {
+		if(!TRANSACTION.isEnabled())
+			return null;
+		TransactionEvent e = new TransactionEvent();
+		e.startThread = Thread.currentThread();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #transactionBegan()}
+	 * @param value
+	 */
+	public static void transactionEnded(Object token, Dependency value) {
+		if(token==null)
+			return;
+		TransactionEvent e = (TransactionEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.value = value.dependencyName();
+			e.commit();
+		}
+	}
+	/**
+	 * @return A token for {@link #informQueueDrained(Object, Dependency, int)}, or <code>null</code>
+	 */
+	public static Object informQueueDrainStarted() {
+		if(!INFORM_QUEUE_DRAIN.isEnabled())
+			return null;
+		InformQueueDrainEvent e = new InformQueueDrainEvent();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #informQueueDrainStarted()}
+	 * @param value
+	 * @param jobs How many jobs were run
+	 */
+	public static void informQueueDrained(Object token, Dependency value, int jobs) {
+		if(token==null)
+			return;
+		InformQueueDrainEvent e = (InformQueueDrainEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.value = value.dependencyName();
+			e.jobs = jobs;
+			e.commit();
+		}
+	}
+	/**
+	 * @return A token for {@link #deepRevalidated(Object, Dependency, Dependency)}, or <code>null</code>
+	 */
+	public static Object deepRevalidationStarted() {
+		if(!DEEP_REVALIDATION.isEnabled())
+			return null;
+		DeepRevalidationEvent e = new DeepRevalidationEvent();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #deepRevalidationStarted()}
+	 * @param value
+	 * @param cause The dependency that triggered the deep revalidation, if any
+	 */
+	public static void deepRevalidated(Object token, Dependency value, Dependency cause) {
+		if(token==null)
+			return;
+		DeepRevalidationEvent e = (DeepRevalidationEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.value = value.dependencyName();
+			e.cause = cause==null?null:cause.dependencyName();
+			e.commit();
+		}
+	}
+	/**
+	 * @return A token for {@link #listenersDispatched(Object, Dependency)}, or <code>null</code>
+	 */
+	public static Object listenerDispatchStarted() {
+		if(!LISTENER_DISPATCH.isEnabled())
+			return null;
+		ListenerDispatchEvent e = new ListenerDispatchEvent();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #listenerDispatchStarted()}
+	 * @param value
+	 */
+	public static void listenersDispatched(Object token, Dependency value) {
+		if(token==null)
+			return;
+		ListenerDispatchEvent e = (ListenerDispatchEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.value = value.dependencyName();
+			e.commit();
+		}
+	}
+	/**
+	 * @return A token for {@link #rateLimitedRunEnded(Object, RateLimitedValueListener, int, boolean)}, or <code>null</code>
+	 */
+	public static Object rateLimitedRunStarted() {
+		if(!RATE_LIMITED_RUN.isEnabled())
+			return null;
+		RateLimitedListenerEvent e = new RateLimitedListenerEvent();
+		e.begin();
+		return e;
+	}
+	/**
+	 * @param token from {@link #rateLimitedRunStarted()}
+	 * @param listener
+	 * @param sources The number of accumulated event sources, or -1 if all sources are to be considered
+	 * @param inCallingThread Whether the handler ran in the thread that received the event
+	 */
+	public static void rateLimitedRunEnded(Object token, RateLimitedValueListener listener, int sources, boolean inCallingThread) {
+		if(token==null)
+			return;
+		RateLimitedListenerEvent e = (RateLimitedListenerEvent) token;
+		e.end();
+		if(e.shouldCommit()) {
+			e.listener = listener.toString();
+			e.sources = sources;
+			e.inCallingThread = inCallingThread;
+			e.commit();
+		}
+	}
+}
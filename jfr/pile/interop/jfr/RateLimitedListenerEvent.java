@@ -0,0 +1,25 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One run of the handler of a {@link pile.aspect.listen.RateLimitedValueListener}.
+ * @author bb
+ *
+ */
+@Name("pile.RateLimitedListenerRun")
+@Label("Rate-limited Listener Run")
+@Category("Pile")
+@Description("A run of a rate-limited listener's handler for the events accumulated since its last run")
+class RateLimitedListenerEvent extends jdk.jfr.Event {
+	@Label("Listener")
+	String listener;
+	@Label("Sources")
+	@Description("The number of event sources accumulated, or -1 for all sources")
+	int sources;
+	@Label("In Calling Thread")
+	boolean inCallingThread;
+}
@@ -0,0 +1,28 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A recomputation of a reactive value, from the moment it was started until it was fulfilled or cancelled.
+ * The event thread is the one that ended it.
+ * @author bb
+ *
+ */
+@Name("pile.Recomputation")
+@Label("Recomputation")
+@Category("Pile")
+@Description("A recomputation of a reactive value, from its start until it was fulfilled or cancelled")
+class RecomputationEvent extends jdk.jfr.Event {
+	@Label("Value")
+	String value;
+	@Label("Outcome")
+	@Description("fulfilled or cancelled")
+	String outcome;
+	@Label("Dependency Scout")
+	boolean scout;
+	@Label("Start Thread")
+	Thread startThread;
+}
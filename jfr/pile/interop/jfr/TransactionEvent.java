@@ -0,0 +1,23 @@
+package pile.interop.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The time a reactive value spent in transaction mode, from opening its first transaction until closing its last one.
+ * The event thread is the one that closed it.
+ * @author bb
+ *
+ */
+@Name("pile.Transaction")
+@Label("Transaction")
+@Category("Pile")
+@Description("The time a reactive value spent with open transactions")
+class TransactionEvent extends jdk.jfr.Event {
+	@Label("Value")
+	String value;
+	@Label("Start Thread")
+	Thread startThread;
+}
@@ -0,0 +1,51 @@
+package pile.interop.jfr;
+
+import pile.aspect.Dependency;
+import pile.aspect.listen.RateLimitedValueListener;
+
+/**
+ * Stand-in for the Java Flight Recorder events of the <code>jfr</code> source folder.
+ * It has the same methods, which do nothing, so that it compiles on any Java 8 and the calls
+ * are optimized away by the JIT compiler.
+ * Exactly one of the two is on the build path.
+ * @author bb
+ *
+ */
+public final class PileEvents {
+	private PileEvents() {}
+	/**
+	 * Whether this is the variant that actually emits events
+	 */
+	public static final boolean COMPILED_IN = false;
+
+	public static Object recomputationStarted(boolean scout) {
+		return null;
+	}
+	public static void recomputationEnded(Object token, Dependency value, boolean cancelled) {
+	}
+	public static Object transactionBegan() {
+		return null;
+	}
+	public static void transactionEnded(Object token, Dependency value) {
+	}
+	public static Object informQueueDrainStarted() {
+		return null;
+	}
+	public static void informQueueDrained(Object token, Dependency value, int jobs) {
+	}
+	public static Object deepRevalidationStarted() {
+		return null;
+	}
+	public static void deepRevalidated(Object token, Dependency value, Dependency cause) {
+	}
+	public static Object listenerDispatchStarted() {
+		return null;
+	}
+	public static void listenersDispatched(Object token, Dependency value) {
+	}
+	public static Object rateLimitedRunStarted() {
+		return null;
+	}
+	public static void rateLimitedRunEnded(Object token, RateLimitedValueListener listener, int sources, boolean inCallingThread) {
+	}
+}
@@ -0,0 +1,215 @@
+package pile.aspect;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import pile.aspect.HasAssociations.AssociationKey;
+import pile.aspect.HasAssociations.Mixin;
+import pile.aspect.HasAssociations.ReferencePolicy;
+
+/**
+ * The storage behind {@link HasAssociations.Mixin}. It maps {@link AssociationKey}s, compared by identity
+ * and referenced weakly, to values that have been {@link ReferencePolicy#wrap(Object, java.lang.ref.ReferenceQueue, Runnable) wrapped}
+ * by the key's {@link ReferencePolicy}.
+ * <p>
+ * Most objects only carry one or two associations, so up to {@value #INLINE} of them are kept in a small array
+ * that is searched linearly. When there are more, the same array is used as an open-addressing hash table.
+ * No {@link java.lang.ref.ReferenceQueue} is used: Entries whose key has been garbage collected or whose value
+ * is {@link ReferencePolicy#isAbsent(Object) absent} are dropped when the array needs to grow.
+ * <p>
+ * This class is not thread safe. The {@link Mixin} guards it with its mutex.
+ * @author bb
+ *
+ */
+public final class AssociationStore {
+	/**
+	 * The maximum number of entries that are searched linearly
+	 */
+	public static final int INLINE = 4;
+
+	/**
+	 * A weak reference to a key that remembers the key's identity hash code
+	 * @author bb
+	 *
+	 */
+	static final class KeyRef extends WeakReference<Object>{
+		final int hash;
+		KeyRef(Object key, int hash) {
+			super(key);
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Alternating {@link KeyRef}s and wrapped values
+	 */
+	private Object[] table;
+	/**
+	 * In linear mode, the number of entries, which occupy the beginning of the {@link #table}.
+	 * In hashed mode, the number of occupied slots, including those of stale entries.
+	 */
+	private int size;
+	private boolean hashed;
+
+	public AssociationStore() {
+		table = new Object[2];
+	}
+
+	/**
+	 * @param key
+	 * @return The wrapped value associated with the key, or <code>null</code> if there is none.
+	 */
+	public Object get(Object key) {
+		Object[] t = table;
+		if(!hashed) {
+			for(int i=0, n=2*size; i<n; i+=2)
+				if(((KeyRef)t[i]).get()==key)
+					return t[i+1];
+			return null;
+		}
+		int mask = t.length-2;
+		for(int i = indexFor(System.identityHashCode(key), mask); ; i = (i+2) & mask) {
+			KeyRef k = (KeyRef) t[i];
+			if(k==null)
+				return null;
+			if(k.get()==key)
+				return t[i+1];
+		}
+	}
+	/**
+	 * Associate a wrapped value with the key, replacing the previous one
+	 * @param key
+	 * @param wrapped
+	 */
+	public void put(AssociationKey<?> key, Object wrapped) {
+		Object[] t = table;
+		if(!hashed) {
+			for(int i=0, n=2*size; i<n; i+=2) {
+				if(((KeyRef)t[i]).get()==key) {
+					t[i+1] = wrapped;
+					return;
+				}
+			}
+			if(2*size==t.length) {
+				expungeLinear();
+				if(2*size==t.length) {
+					if(size<INLINE) {
+						t = table = Arrays.copyOf(t, Math.min(2*INLINE, 2*t.length));
+					}else {
+						rehash();
+						put(key, wrapped);
+						return;
+					}
+				}
+			}
+			t[2*size] = new KeyRef(key, System.identityHashCode(key));
+			t[2*size+1] = wrapped;
+			++size;
+			return;
+		}
+		putHashed(key, wrapped);
+	}
+	/**
+	 * @return The number of entries whose key still exists and whose value is present
+	 */
+	public int liveSize() {
+		Object[] t = table;
+		int ret = 0;
+		for(int i=0, n=hashed?t.length:2*size; i<n; i+=2) {
+			if(isLive(t[i], t[i+1]))
+				++ret;
+		}
+		return ret;
+	}
+
+	private void putHashed(AssociationKey<?> key, Object wrapped) {
+		int hash = System.identityHashCode(key);
+		Object[] t = table;
+		int mask = t.length-2;
+		int i = indexFor(hash, mask);
+		for(; ; i = (i+2) & mask) {
+			KeyRef k = (KeyRef) t[i];
+			if(k==null)
+				break;
+			if(k.get()==key) {
+				t[i+1] = wrapped;
+				return;
+			}
+		}
+		// keep the load factor at most 1/2
+		if(2*(size+1)>t.length/2) {
+			rehash();
+			put(key, wrapped);
+			return;
+		}
+		t[i] = new KeyRef(key, hash);
+		t[i+1] = wrapped;
+		++size;
+	}
+	/**
+	 * Rebuild the table without stale entries, with room for at least one more. 
+	 * Goes back to linear mode if few entries remain.
+	 */
+	private void rehash() {
+		Object[] old = table;
+		int oldSlots = hashed?old.length:2*size;
+		int live = 0;
+		for(int i=0; i<oldSlots; i+=2)
+			if(isLive(old[i], old[i+1]))
+				++live;
+		if(live<INLINE) {
+			Object[] t = new Object[2*INLINE];
+			int n = 0;
+			for(int i=0; i<oldSlots; i+=2) {
+				if(isLive(old[i], old[i+1])) {
+					t[n++] = old[i];
+					t[n++] = old[i+1];
+				}
+			}
+			table = t;
+			size = n/2;
+			hashed = false;
+			return;
+		}
+		int cap = Integer.highestOneBit(2*(live+1)-1)<<1;
+		Object[] t = new Object[2*cap];
+		int mask = t.length-2;
+		for(int i=0; i<oldSlots; i+=2) {
+			if(!isLive(old[i], old[i+1]))
+				continue;
+			KeyRef k = (KeyRef) old[i];
+			int j = indexFor(k.hash, mask);
+			while(t[j]!=null)
+				j = (j+2) & mask;
+			t[j] = k;
+			t[j+1] = old[i+1];
+		}
+		table = t;
+		size = live;
+		hashed = true;
+	}
+	private void expungeLinear() {
+		Object[] t = table;
+		int n = 0;
+		for(int i=0, e=2*size; i<e; i+=2) {
+			if(isLive(t[i], t[i+1])) {
+				t[n++] = t[i];
+				t[n++] = t[i+1];
+			}
+		}
+		for(int i=n, e=2*size; i<e; ++i)
+			t[i] = null;
+		size = n/2;
+	}
+	private static boolean isLive(Object keyRef, Object wrapped) {
+		if(keyRef==null)
+			return false;
+		Object key = ((KeyRef)keyRef).get();
+		if(key==null)
+			return false;
+		return !((AssociationKey<?>)key).referenceStrength().isAbsent(wrapped);
+	}
+	private static int indexFor(int hash, int mask) {
+		return ((hash ^ (hash>>>16))<<1) & mask;
+	}
+}
@@ -4,15 +4,11 @@ import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import pile.aspect.listen.ListenValue;
-import pile.interop.exec.StandardExecutors;
 
 /**
  * An object that can store values associated with keys.
@@ -66,40 +62,6 @@ public interface HasAssociations {
 		 * @return
 		 */
 		abstract boolean isAbsent(Object o);
-		/**
-		 * 
-		 * @return Whether this policy makes use of a reference queue.
-		 */
-		abstract boolean needsReferenceQueue();
-
-		public default <K> Object wrapRemoving(Object o, ReferenceQueue<Object> rq, Collection<? super K> removeFrom, K removeThis) {
-			return rq==null?wrap(o, null, null):wrap(o, rq, ()->removeFrom.remove(removeThis));
-		}
-
-		public default <K> Object wrapRemovingRef(Object o, ReferenceQueue<Object> rq, Collection<? super K> removeFrom, Reference<? extends K> removeThis) {
-			return rq==null?wrap(o, null, null):wrap(o, rq, ()->{
-				K k = removeThis.get();
-				if(k!=null)
-					removeFrom.remove(k);
-			});
-		}
-		public default <K> Object wrapRemoving(Object o, ReferenceQueue<Object> rq, Map<? super K, ?> removeFrom, K removeThis) {
-			return rq==null?wrap(o, null, null):wrap(o, rq, ()->removeFrom.remove(removeThis));
-		}
-
-		public default <K> Object wrapRemovingRef(Object o, ReferenceQueue<Object> rq, Map<? super K, ?> removeFrom, Reference<? extends K> removeThis) {
-			return rq==null?wrap(o, null, null):wrap(o, rq, ()->{
-				K k = removeThis.get();
-				if(k!=null)
-					removeFrom.remove(k);
-			});
-		}
-		public default <K> Object wrapRemovingWeakRef(Object o, ReferenceQueue<Object> rq, Collection<? super K> removeFrom, K removeThis) {
-			return rq==null?wrap(o, null, null):wrapRemovingRef(o, rq, removeFrom, new WeakReference<K>(removeThis));
-		}
-		public default <K> Object wrapRemovingWeakRef(Object o, ReferenceQueue<Object> rq, Map<? super K, ?> removeFrom, K removeThis) {
-			return rq==null?wrap(o, null, null):wrapRemovingRef(o, rq, removeFrom, new WeakReference<K>(removeThis));
-		}
 		/**
 		 * Policy: Store references as themselves, except for <code>null</code>, which uses
 		 * the {@link #NULL} sentinel value.
@@ -118,7 +80,6 @@ public interface HasAssociations {
 			public boolean isAbsent(Object o) {
 				return o==null;
 			}
-			@Override public boolean needsReferenceQueue() {return false;}
 		};
 		/**
 		 * A {@link WeakReference} that also implements {@link Runnable}
@@ -167,7 +128,6 @@ public interface HasAssociations {
 			public boolean isAbsent(Object o) {
 				return o==null || o!=__PrivateStuff.NULL && ((Reference<?>)o).get()==null;
 			}
-			@Override public boolean needsReferenceQueue() {return true;}
 
 		};
 		/**
@@ -187,7 +147,6 @@ public interface HasAssociations {
 			public boolean isAbsent(Object o) {
 				return o==null || o!=__PrivateStuff.NULL && ((Reference<?>)o).get()==null;
 			}	
-			@Override public boolean needsReferenceQueue() {return true;}
 		};
 	}
 
@@ -356,46 +315,31 @@ public interface HasAssociations {
 		public Object __HasAssocitations_Mixin_getMutex();
 		/**
 		 * Must not be called from outside {@link Mixin}'s methods.
-		 * @return The map used to store the associations
+		 * @return The store that holds the associations, or <code>null</code> if none have been made yet
 		 */
-		public WeakHashMap<Object, Object> __HasAssocitations_Mixin_getMap();
+		public AssociationStore __HasAssocitations_Mixin_getStore();
 		/**
 		 * Must not be called from outside {@link Mixin}'s methods.
-		 * Called to initialize the map reference
-		 * @param map
+		 * Called to initialize the store reference
+		 * @param store
 		 */
-		public void __HasAssocitations_Mixin_setMap(WeakHashMap<Object, Object> map);
-		/**
-		 * Must not be called from outside {@link Mixin}'s methods.
-		 * @return The {@link ReferenceQueue} used to clean up garbage collected associations
-		 */		
-		public ReferenceQueue<Object> __HasAssocitations_Mixin_getQueue();
+		public void __HasAssocitations_Mixin_setStore(AssociationStore store);
+
 		/**
 		 * Must not be called from outside {@link Mixin}'s methods.
-		 * Called to initialize the {@link ReferenceQueue}
-		 * used to clean up garbage collected associations
-		 * @param queue
+		 * Get the store, creating it if necessary. Must be called while holding the {@link #__HasAssocitations_Mixin_getMutex() mutex}.
+		 * @return
 		 */
-		public void __HasAssocitations_Mixin_setQueue(ReferenceQueue<Object> queue);
-
+		default AssociationStore __HasAssocitations_Mixin_store() {
+			AssociationStore ret = __HasAssocitations_Mixin_getStore();
+			if(ret==null)
+				__HasAssocitations_Mixin_setStore(ret = new AssociationStore());
+			return ret;
+		}
 
 		default public <K> void putAssociation(AssociationKey<? super K> key, K value) {
 			synchronized (__HasAssocitations_Mixin_getMutex()) {
-				ReferencePolicy refHandler = key.referenceStrength();
-				WeakHashMap<Object, Object> associations = __HasAssocitations_Mixin_getMap();
-				ReferenceQueue<Object> associationRq;
-				if(associations==null) {
-					__HasAssocitations_Mixin_setMap(associations=new WeakHashMap<>());
-					if(refHandler.needsReferenceQueue()) 
-						__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-					else
-						associationRq = null;
-
-				}else {
-					if((associationRq = __HasAssocitations_Mixin_getQueue())==null && refHandler.needsReferenceQueue()) 
-						__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-				}
-				associations.put(key, refHandler.wrapRemoving(value, associationRq, associations.keySet(), key));
+				__HasAssocitations_Mixin_store().put(key, key.referenceStrength().wrap(value, null, null));
 			}
 		}
 
@@ -404,26 +348,9 @@ public interface HasAssociations {
 				Function<? super P, ? extends K> valueMaker, P param) {
 			synchronized (__HasAssocitations_Mixin_getMutex()) {
 				ReferencePolicy refHandler = key.referenceStrength();
-				WeakHashMap<Object, Object> associations = __HasAssocitations_Mixin_getMap();
-				ReferenceQueue<Object> associationRq;
-				if(associations==null) {
-					__HasAssocitations_Mixin_setMap(associations=new WeakHashMap<>());
-					if(refHandler.needsReferenceQueue()) 
-						__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-					else
-						associationRq = null;
-					K value;
-					try {
-						ListenValue.DEFER.__incrementSuppressors();		
-						value = valueMaker.apply(param);
-					}finally {
-						ListenValue.DEFER.__decrementSuppressors();		
-					}
-					associations.put(key, refHandler.wrapRemovingWeakRef(value, associationRq, associations, key));
-					return value;
-				}
+				AssociationStore associations = __HasAssocitations_Mixin_store();
 				Object wv = associations.get(key);
-				if(!key.referenceStrength().isAbsent(wv)) {
+				if(!refHandler.isAbsent(wv)) {
 					@SuppressWarnings("unchecked")
 					K value = (K)refHandler.unwrap(wv);
 					return value;
@@ -435,9 +362,7 @@ public interface HasAssociations {
 				}finally {
 					ListenValue.DEFER.__decrementSuppressors();		
 				}
-				if((associationRq = __HasAssocitations_Mixin_getQueue())==null && refHandler.needsReferenceQueue()) 
-					__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-				associations.put(key, refHandler.wrapRemovingWeakRef(value, associationRq, associations, key));
+				associations.put(key, refHandler.wrap(value, null, null));
 				return value;
 			}	
 		}
@@ -445,27 +370,9 @@ public interface HasAssociations {
 		default public <K> K putAssociationIfAbsentAndGet(AssociationKey<? super K> key, Supplier<? extends K> valueMaker) {
 			synchronized (__HasAssocitations_Mixin_getMutex()) {
 				ReferencePolicy refHandler = key.referenceStrength();
-				WeakHashMap<Object, Object> associations = __HasAssocitations_Mixin_getMap();
-				ReferenceQueue<Object> associationRq;
-				if(associations==null) {
-					__HasAssocitations_Mixin_setMap(associations=new WeakHashMap<>());
-					if(refHandler.needsReferenceQueue()) 
-						__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-					else
-						associationRq = null;
-
-					K value;
-					try {
-						ListenValue.DEFER.__incrementSuppressors();		
-						value = valueMaker.get();
-					}finally {
-						ListenValue.DEFER.__decrementSuppressors();		
-					}
-					associations.put(key, refHandler.wrapRemovingWeakRef(value, associationRq, associations, key));
-					return value;
-				}
+				AssociationStore associations = __HasAssocitations_Mixin_store();
 				Object wv = associations.get(key);
-				if(!key.referenceStrength().isAbsent(wv)) {
+				if(!refHandler.isAbsent(wv)) {
 					@SuppressWarnings("unchecked")
 					K value = (K)refHandler.unwrap(wv);
 					return value;
@@ -477,40 +384,18 @@ public interface HasAssociations {
 				}finally {
 					ListenValue.DEFER.__decrementSuppressors();		
 				}
-				if((associationRq = __HasAssocitations_Mixin_getQueue())==null && refHandler.needsReferenceQueue()) 
-					__HasAssocitations_Mixin_setQueue(associationRq = new ReferenceQueue<>());
-				associations.put(key, refHandler.wrapRemovingWeakRef(value, associationRq, associations, key));
+				associations.put(key, refHandler.wrap(value, null, null));
 				return value;
 			}		
 		}
 		@Override
 		default public <K> K getAssociation(AssociationKey<K> key) {
-			WeakHashMap<Object, Object> associations;
-			ReferenceQueue<Object> associationRq;
-			Object mutex = __HasAssocitations_Mixin_getMutex();
-			synchronized (mutex) {
-				associations = __HasAssocitations_Mixin_getMap();
+			synchronized (__HasAssocitations_Mixin_getMutex()) {
+				AssociationStore associations = __HasAssocitations_Mixin_getStore();
 				if(associations==null)
 					return null;
-				associationRq = __HasAssocitations_Mixin_getQueue();
-			}
-			if(associationRq!=null)
-				synchronized (associationRq) {
-					while(true) {
-						Reference<? extends Object> next = associationRq.poll();
-						if(next==null)
-							break;
-						if(next instanceof Runnable) {
-							StandardExecutors.safe((Runnable) next);
-						}
-					}
-				}
-
-			synchronized (mutex) {
-				ReferencePolicy refHandler = key.referenceStrength();
-				Object wv = associations.get(key);
 				@SuppressWarnings("unchecked")
-				K value = (K)refHandler.unwrap(wv);
+				K value = (K)key.referenceStrength().unwrap(associations.get(key));
 				return value;
 			}
 		}
@@ -7,23 +7,27 @@ import pile.impl.PileImpl;
 /**
  * The aspect of a {@link PileImpl} that is can lazy-validate, that is, if it is lazy-validating,
  * recomputation is not started until the value is actually requested. 
- * 
  * <p>
- * Warning: The lazy-validating feature of Piles is not mature and will probably change in the future!
+ * This is the pull mode of the reactive values: When a dependency changes, a lazy-validating value only becomes invalid.
+ * When its value is requested (by {@link ReadValue#get()} and the other reading methods), it {@link #lazyValidate() validates}
+ * exactly the invalid part of the graph upstream of it. {@link ReadValue#get()} and {@link ReadValue#getValid()} wait until
+ * that is done, {@link ReadValue#getValid(long)} at most until its timeout, and {@link ReadValue#getOldIfInvalid()}
+ * and {@link ReadValue#getValidOrThrow()} not at all.
+ * Lazy-validating values can be built with {@link pile.builder.IPileBuilder#lazy()}, or for a whole part of the graph
+ * with {@link pile.impl.Piles#lazySubgraph()}.
+ * <p>
+ * Listeners on a lazy-validating value are informed when it becomes invalid, and again when a request has made it valid;
+ * they are not informed of new values that nobody has requested. Listening alone does not make the value recompute.
+ * A listener that wants to follow the value needs to request it, which validates it in the listener's {@link Thread}.
  * @author bb
  *
  */
 public interface LazyValidatable {
 	/**
-	 * Only to be used from {@link #lazyValidate()}.
-	 * This set should be empty or null whenever no {@link #lazyValidate()} call is on the stack.
-	 * (It is the responsibility of the first {@link #lazyValidate()} call to clean up after itself)
-	 * Each call to {@link #lazyValidate()} should abort itself whenever the {@link LazyValidatable} 
-	 * instance it was called on is already an element of this set. 
-	 * Otherwise it should add the instance to the set and proceed. 
-	 * This ensures that even in branching and rejoining dependency graphs, {@link #lazyValidate()}
-	 * is called only once per object, Thread and external {@link #autoValidate()}-call.
+	 * Formerly used by {@link #lazyValidate()} to visit each value only once.
+	 * {@link PileImpl#lazyValidate()} no longer uses it.
 	 */
+	@Deprecated
 	static ThreadLocal<HashSet<LazyValidatable>> lazyValidatingItt=new ThreadLocal<>();
 
 	/**
@@ -38,12 +42,12 @@ public interface LazyValidatable {
 	 */
 	public void setLazyValidating(boolean newState);
 	/**
-	 * If the value is already valid or is currently recomputing itself, this method does nothing.
-	 * Else it recursively calls itself on all {@link Dependency Dependencies} of this object
-	 * and then triggers recomputation of the value if the only reason is has not been computed already
-	 * is that the lazy-validating status of this object has been set to true or this object
-	 * has been invalidated explicitly.
-	 * Note: If lazy-validating the dependencies has not made all of them valid immediately, this 
+	 * If the value is already valid, this method does nothing.
+	 * Otherwise it validates the invalid {@link Dependency Dependencies} of this object, 
+	 * and theirs, recursively, then recomputes this object's value, 
+	 * and returns when that is done or no recomputation could be started.
+	 * Independent branches of the dependencies may be validated in parallel.
+	 * Note: If validating the dependencies has not made all of them valid, this 
 	 * object's value may not be recomputed.
 	 */
 	public void lazyValidate();
@@ -1,20 +1,345 @@
 package pile.aspect.limitedresource;
 
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import pile.aspect.combinations.ReadListenDependency;
+import pile.aspect.recompute.Recomputations;
+import pile.aspect.suppress.MockBlock;
+import pile.impl.Independent;
+import pile.interop.exec.StandardExecutors;
 import pile.interop.wait.GuardedCondition;
+import pile.interop.wait.LockMonitor;
 import pile.interop.wait.ObservableCondition;
+import pile.interop.wait.WaitService;
+import pile.specialized_int.IndependentInt;
+import pile.specialized_int.combinations.ReadListenDependencyInt;
+import pile.utils.Functional;
 
+/**
+ * A resource of which only a limited number of units may be in use at the same time,
+ * for example memory or database connections.
+ * <p>
+ * {@link Supplicant}s {@link #request(Supplicant) request} units and are {@link Supplicant#granted(LimitedResource) notified}
+ * when they get them. Waiting supplicants are served strictly in their natural order,
+ * so a large request is not starved by smaller ones behind it.
+ * A request for more units than the {@link #getMax() maximum} is granted when no units are in use.
+ * <p>
+ * Use {@link pile.builder.IPileBuilder#consumes(LimitedResource, long)} to make recomputations
+ * wait for units of a resource.
+ * @author bb
+ *
+ */
 public class LimitedResource {
-	static final ReentrantLock LR_LOCK = new ReentrantLock(true); 
+	static final ReentrantLock LR_LOCK = new ReentrantLock(true);
+	private static final ConcurrentHashMap<String, LimitedResource> NAMED = new ConcurrentHashMap<>();
+	/**
+	 * Get the resource that was registered under the given name, creating and registering
+	 * it if necessary.
+	 * @param name
+	 * @param max The capacity of the resource if it has to be created
+	 * @return
+	 */
+	public static LimitedResource named(String name, long max) {
+		return NAMED.computeIfAbsent(name, n->new LimitedResource(n, max));
+	}
+	/**
+	 * Get the resource that was registered under the given name using {@link #named(String, long)}.
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException if there is no such resource
+	 */
+	public static LimitedResource named(String name) {
+		LimitedResource ret = NAMED.get(name);
+		if(ret==null)
+			throw new IllegalArgumentException("No LimitedResource named '"+name+"'");
+		return ret;
+	}
+
+	private static final AtomicLong INST_COUNTER = new AtomicLong();
 	public final String name;
+	/**
+	 * Unique and increasing in order of creation; breaks ties when resources have to be ordered
+	 */
+	public final long serial = INST_COUNTER.incrementAndGet();
 	private long max;
 	private long used;
+	private final PriorityQueue<Supplicant> waiting = new PriorityQueue<>();
 	public final ObservableCondition available = new ObservableCondition(new GuardedCondition(LR_LOCK.newCondition(), ()->used<max));
 	public LimitedResource(String name, long max) {
+		if(max<0)
+			throw new IllegalArgumentException("negative capacity");
 		this.name = name;
 		this.max = max;
 		used=0;
 	}
-	
+	/**
+	 * @return The number of units that may be in use at the same time
+	 */
+	public long getMax() {
+		LR_LOCK.lock();
+		try {
+			return max;
+		}finally {
+			LR_LOCK.unlock();
+		}
+	}
+	/**
+	 * Change the capacity. Units that are in use beyond a reduced capacity are not revoked.
+	 * @param max
+	 */
+	public void setMax(long max) {
+		if(max<0)
+			throw new IllegalArgumentException("negative capacity");
+		ArrayList<Supplicant> granted;
+		LR_LOCK.lock();
+		try {
+			this.max = max;
+			granted = dispatch();
+			available.signalAll();
+		}finally {
+			LR_LOCK.unlock();
+		}
+		notifyGranted(granted);
+	}
+	/**
+	 * @return The number of units currently in use
+	 */
+	public long getUsed() {
+		LR_LOCK.lock();
+		try {
+			return used;
+		}finally {
+			LR_LOCK.unlock();
+		}
+	}
+	/**
+	 * @return The number of {@link Supplicant}s waiting for units
+	 */
+	public int getQueueLength() {
+		LR_LOCK.lock();
+		try {
+			return waiting.size();
+		}finally {
+			LR_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Request {@link Supplicant#units() units} for the given {@link Supplicant}.
+	 * If they are available and nobody with precedence is waiting, they are granted before this method returns.
+	 * @param s
+	 */
+	public void request(Supplicant s) {
+		ArrayList<Supplicant> granted;
+		LR_LOCK.lock();
+		try {
+			waiting.add(s);
+			granted = dispatch();
+		}finally {
+			LR_LOCK.unlock();
+		}
+		notifyGranted(granted);
+	}
+	/**
+	 * Stop waiting for units.
+	 * @param s
+	 * @return {@code true} if the {@link Supplicant} was still waiting; {@code false} if its request
+	 * has already been granted (in which case it must release the units) or it never requested any.
+	 */
+	public boolean withdraw(Supplicant s) {
+		ArrayList<Supplicant> granted;
+		boolean ret;
+		LR_LOCK.lock();
+		try {
+			ret = waiting.remove(s);
+			// the withdrawn supplicant may have been blocking the ones behind it
+			granted = ret?dispatch():null;
+		}finally {
+			LR_LOCK.unlock();
+		}
+		notifyGranted(granted);
+		return ret;
+	}
+	/**
+	 * Try to take units without waiting. This fails if other {@link Supplicant}s are waiting.
+	 * @param units
+	 * @return Whether the units have been taken
+	 */
+	public boolean tryAcquire(long units) {
+		LR_LOCK.lock();
+		try {
+			if(!waiting.isEmpty() || !fits(units))
+				return false;
+			used += units;
+		}finally {
+			LR_LOCK.unlock();
+		}
+		publish();
+		return true;
+	}
+	/**
+	 * Wait until the given number of units have been granted.
+	 * Waits outside of any monitor, in a {@link LockMonitor}, so that virtual {@link Thread}s are not pinned.
+	 * @param units
+	 * @param priority
+	 * @param deadline
+	 * @throws InterruptedException
+	 */
+	public void acquire(long units, int priority, long deadline) throws InterruptedException {
+		class Blocking extends Supplicant{
+			volatile boolean done;
+			final LockMonitor grant = new LockMonitor();
+			Blocking() {
+				super(units, priority, deadline);
+			}
+			@Override
+			protected void granted(LimitedResource r) {
+				done = true;
+				grant.signalAll();
+			}
+		}
+		Blocking b = new Blocking();
+		request(b);
+		WaitService ws = WaitService.get();
+		try {
+			while(true) {
+				int seen = b.grant.generation();
+				if(b.done)
+					return;
+				b.grant.awaitChangeMillis(ws, seen, 1000);
+			}
+		}catch(InterruptedException x) {
+			if(!withdraw(b)) {
+				// already granted: the units are counted as used, even if the notification is still on its way
+				release(units);
+			}
+			throw x;
+		}
+	}
+	/**
+	 * Give back units that have been granted or acquired.
+	 * @param units
+	 */
+	public void release(long units) {
+		ArrayList<Supplicant> granted;
+		LR_LOCK.lock();
+		try {
+			if(units>used)
+				throw new IllegalStateException("Releasing more units of "+name+" than are in use");
+			used -= units;
+			granted = dispatch();
+			available.signalAll();
+		}finally {
+			LR_LOCK.unlock();
+		}
+		notifyGranted(granted);
+	}
+
+	private boolean fits(long units) {
+		return used==0 || units<=max-used;
+	}
+	/**
+	 * Grant units to waiting {@link Supplicant}s in order, as long as they fit.
+	 * Must hold {@link #LR_LOCK}.
+	 * @return The {@link Supplicant}s that need to be {@link Supplicant#granted(LimitedResource) notified}, or {@code null}
+	 */
+	private ArrayList<Supplicant> dispatch() {
+		ArrayList<Supplicant> ret = null;
+		Supplicant s;
+		while((s = waiting.peek())!=null && fits(s.units())) {
+			waiting.poll();
+			used += s.units();
+			if(ret==null)
+				ret = new ArrayList<>();
+			ret.add(s);
+		}
+		return ret;
+	}
+	private void notifyGranted(ArrayList<Supplicant> granted) {
+		if(granted!=null)
+			for(Supplicant s: granted)
+				StandardExecutors.safe(()->s.granted(this));
+		publish();
+	}
+
+	private final Object publishMutex = new Object();
+	private volatile Independent<Long> usage;
+	private volatile IndependentInt queueLength;
+	private Consumer<? super Long> setUsage = Functional.NOP;
+	private Consumer<? super Integer> setQueueLength = Functional.NOP;
+
+	/**
+	 * Update the reactive values. The state is read while holding the {@link #publishMutex}
+	 * so that the last update always reflects the latest state.
+	 */
+	private void publish() {
+		if(usage==null && queueLength==null)
+			return;
+		synchronized (publishMutex) {
+			long u;
+			int q;
+			LR_LOCK.lock();
+			try {
+				u = used;
+				q = waiting.size();
+			}finally {
+				LR_LOCK.unlock();
+			}
+			setUsage.accept(u);
+			setQueueLength.accept(q);
+		}
+	}
+	/**
+	 * @return A reactive value that holds the number of units currently in use
+	 */
+	public ReadListenDependency<Long> usage() {
+		Independent<Long> localRef = usage;
+		if (localRef == null) {
+			synchronized (publishMutex) {
+				localRef = usage;
+				if (localRef == null) {
+					try(MockBlock b = Recomputations.withoutRecomputation()) {
+						localRef = new Independent<>(getUsed());
+					}
+					setUsage = localRef.makeSetter();
+					localRef.setName(name+" usage");
+					localRef.owner=this;
+					localRef.seal();
+					usage = localRef;
+				}
+			}
+		}
+		return localRef;
+	}
+	/**
+	 * @return A reactive value that holds the number of {@link Supplicant}s waiting for units
+	 */
+	public ReadListenDependencyInt queueLength() {
+		IndependentInt localRef = queueLength;
+		if (localRef == null) {
+			synchronized (publishMutex) {
+				localRef = queueLength;
+				if (localRef == null) {
+					try(MockBlock b = Recomputations.withoutRecomputation()) {
+						localRef = new IndependentInt(getQueueLength());
+					}
+					setQueueLength = localRef.makeSetter();
+					localRef.setName(name+" queue length");
+					localRef.owner=this;
+					localRef.seal();
+					queueLength = localRef;
+				}
+			}
+		}
+		return localRef;
+	}
+	@Override
+	public String toString() {
+		return "LimitedResource '"+name+"'";
+	}
 }
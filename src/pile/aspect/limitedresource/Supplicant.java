@@ -4,22 +4,57 @@ import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * A request for some units of a {@link LimitedResource}.
+ * Supplicants waiting for the same resource are served in their natural order:
+ * Lower priority values first, then earlier deadlines, then in order of creation.
+ * @author bb
+ *
+ */
 public abstract class Supplicant implements Comparable<Supplicant>{
 	public static final Comparator<? super Supplicant> BY_DEADLINE = (a, b)->Long.compare(a.deadline(), b.deadline());
-	
+
 	static final AtomicInteger INST_COUNTER = new AtomicInteger();
 	private final int id = INST_COUNTER.incrementAndGet();
 	private final int priority;
 	private final long deadline;
-	
+	private final long units;
+
 	public Supplicant(int priority, long deadline) {
+		this(1, priority, deadline);
+	}
+	/**
+	 *
+	 * @param units How many units of the resource are requested
+	 * @param priority Lower values are served first
+	 * @param deadline Among supplicants with the same priority, earlier deadlines are served first
+	 */
+	public Supplicant(long units, int priority, long deadline) {
+		if(units<0)
+			throw new IllegalArgumentException("negative number of units requested");
+		this.units = units;
 		this.priority = priority;
 		this.deadline = deadline;
 	}
-	
+
 	public long deadline() {
 		return deadline;
 	}
+	public int priority() {
+		return priority;
+	}
+	public long units() {
+		return units;
+	}
+	/**
+	 * Called after the {@link #units() requested units} have been {@link LimitedResource#request(Supplicant) granted}.
+	 * This may happen in the {@link Thread} that requested them or in one that
+	 * {@link LimitedResource#release(long) released} units, so implementations should not block.
+	 * The units must be released when they are no longer needed.
+	 * @param r
+	 */
+	protected abstract void granted(LimitedResource r);
+
 	@Override
 	public int compareTo(Supplicant o) {
 		int c = Integer.compare(priority, o.priority);
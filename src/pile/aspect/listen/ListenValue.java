@@ -156,6 +156,37 @@ public interface ListenValue {
 		 */
 		private Object source;
 		boolean sorting;
+		/**
+		 * Whether this manager keeps a {@link #snapshot} of its listeners
+		 */
+		final boolean copyOnWrite;
+		/**
+		 * If {@link #copyOnWrite} is set, this is an immutable array of all listeners, 
+		 * already ordered by {@linkplain ValueListener#priority() priority}. 
+		 * It is replaced whenever a listener is added or removed, so that 
+		 * {@link #fireValueChange(ValueEvent)} can read it without locking and without copying.
+		 */
+		private volatile ValueListener[] snapshot = NO_LISTENERS;
+		private static final ValueListener[] NO_LISTENERS = {};
+
+		private static volatile boolean copyOnWriteByDefault;
+		/**
+		 * Set whether {@link ListenerManager}s created by constructors that don't
+		 * explicitly specify it should be in {@linkplain #ListenerManager(Object, boolean, boolean) copy-on-write mode}.
+		 * This does not affect already existing {@link ListenerManager}s.
+		 * The default is <code>false</code>.
+		 * @param b
+		 */
+		public static void setCopyOnWriteByDefault(boolean b) {
+			copyOnWriteByDefault = b;
+		}
+		/**
+		 * @return Whether {@link ListenerManager}s are created in copy-on-write mode by default
+		 * @see #setCopyOnWriteByDefault(boolean)
+		 */
+		public static boolean isCopyOnWriteByDefault() {
+			return copyOnWriteByDefault;
+		}
 		
 		/**
 		 * 
@@ -169,9 +200,20 @@ public interface ListenValue {
 		 * @param sorting If <code>true</code>, the listeners will be sorted before firing an event. If false, the listeners will be stored in sorted order.
 		 */
 		public ListenerManager(Object source, boolean sorting) {
-
+			this(source, sorting, copyOnWriteByDefault);
+		}
+		/**
+		 * @param source The object that will be the source of the generated events
+		 * @param sorting If <code>true</code>, the listeners will be sorted before firing an event. If false, the listeners will be stored in sorted order.
+		 * @param copyOnWrite If <code>true</code>, an immutable array of the listeners in priority order is
+		 * rebuilt whenever a listener is added or removed, and events are fired to that array without
+		 * locking, copying or sorting. Use this for values that fire much more often than their 
+		 * listeners change. If this is set, the <code>sorting</code> parameter only affects how the listeners are stored.
+		 */
+		public ListenerManager(Object source, boolean sorting, boolean copyOnWrite) {
 			this.source=source;
 			this.sorting=sorting;
+			this.copyOnWrite=copyOnWrite;
 		}
 		/**
 		 * The {@link ListenerManager} itself will be the source of the generated events
@@ -186,6 +228,7 @@ public interface ListenValue {
 		public ListenerManager(boolean sorting) {
 			this.source=this;
 			this.sorting=sorting;
+			this.copyOnWrite=copyOnWriteByDefault;
 		}
 
 		/**
@@ -208,6 +251,8 @@ public interface ListenValue {
 				if(listeners==null)
 					listeners=sorting?new HashSet<>():new TreeSet<>(ValueListener.COMPARE_BY_PRIORITY_AND_IDENTITY);
 				success = listeners.add(l);
+				if(success && copyOnWrite)
+					updateSnapshot();
 			}
 			if(success)
 				l.youWereAdded(this);
@@ -225,16 +270,40 @@ public interface ListenValue {
 				if(listeners==null)
 					return;
 				success = listeners.remove(l);
+				if(success && copyOnWrite)
+					updateSnapshot();
 			}
 			if(success)
 				l.youWereRemoved(this);
 		}
 
 
+		/**
+		 * Rebuild the {@link #snapshot}.
+		 * The current thread must be in the monitor of this {@link ListenerManager}.
+		 */
+		private void updateSnapshot() {
+			assert Thread.holdsLock(this);
+			if(listeners==null || listeners.isEmpty()) {
+				snapshot = NO_LISTENERS;
+				return;
+			}
+			ValueListener[] cla = listeners.toArray(new ValueListener[listeners.size()]);
+			if(sorting)
+				Arrays.sort(cla, ValueListener.COMPARE_BY_PRIORITY);
+			snapshot = cla;
+		}
+
 		@Override
 		public synchronized boolean hasValueListener(ValueListener listener) {
 			return listeners!=null && listeners.contains(listener);
 		}
+		/**
+		 * @return Whether any {@link ValueListener} is registered
+		 */
+		public synchronized boolean hasValueListeners() {
+			return listeners!=null && !listeners.isEmpty();
+		}
 		/**
 		 * Fire a newly generated {@link ValueEvent}
 		 */
@@ -251,6 +320,13 @@ public interface ListenValue {
 			if(Thread.holdsLock(this))
 				throw new IllegalMonitorStateException();
 			ValueListener[] cla ;
+			if(copyOnWrite) {
+				cla = snapshot;
+				if(cla.length==0)
+					return;
+				fire(cla, ee==null?new ValueEvent(source):ee);
+				return;
+			}
 			synchronized (this) {
 				if(listeners == null || listeners.isEmpty())
 					return;
@@ -263,6 +339,9 @@ public interface ListenValue {
 
 			if(sorting)
 				Arrays.sort(cla, ValueListener.COMPARE_BY_PRIORITY);
+			fire(cla, e);
+		}
+		private void fire(ValueListener[] cla, ValueEvent e) {
 			for(ValueListener c: cla){
 				try{
 					c.valueChanged(e);
@@ -301,6 +380,8 @@ public interface ListenValue {
 						}
 					}
 				}
+				if(removed!=null && copyOnWrite)
+					updateSnapshot();
 			}
 			if(removed!=null)
 				removed.youWereRemoved(this);
@@ -12,6 +12,8 @@ import java.util.function.Predicate;
 import pile.aspect.ReadValue;
 import pile.impl.MutRef;
 import pile.interop.exec.StandardExecutors;
+import pile.interop.exec.TimerWheel;
+import pile.interop.jfr.PileEvents;
 
 /**
  * A {@link ValueListener} that runs the actual event handling at a limited rate,
@@ -104,6 +106,10 @@ public abstract class RateLimitedValueListener implements ValueListener{
 	boolean newEventsArrived;
 	boolean enabled=true;
 	ScheduledExecutorService exec=StandardExecutors.delayed();
+	/**
+	 * Where delayed runs are scheduled, unless a nonstandard executor has been {@link #setExecutor(ScheduledExecutorService) set}
+	 */
+	TimerWheel wheel=StandardExecutors.timerWheel();
 	
 	/**
 	 * 
@@ -138,8 +144,8 @@ public abstract class RateLimitedValueListener implements ValueListener{
 			}else {
 				if(scheduledRun==null) {
 					scheduleFutureRun(coolDownTime-runAgo);
-				}else {
-					
+				}else if(wheel!=null) {
+					wheel.recordCoalesced();
 				}
 			}
 		}
@@ -147,11 +153,13 @@ public abstract class RateLimitedValueListener implements ValueListener{
 	}
 	/**
 	 * Set a nonstandard executor for running the delayed handler.
-	 * @param exa
+	 * By default, delayed runs are scheduled on the shared {@link StandardExecutors#timerWheel() TimerWheel}.
+	 * @param exa <code>null</code> to go back to the default
 	 * @return
 	 */
 	public RateLimitedValueListener setExecutor(ScheduledExecutorService exa) {
 		exec=exa==null?StandardExecutors.delayed():exa;
+		wheel=exa==null?StandardExecutors.timerWheel():null;
 		return this;
 	}
 	
@@ -176,8 +184,8 @@ public abstract class RateLimitedValueListener implements ValueListener{
 			}else {
 				if(scheduledRun==null) {
 					scheduleFutureRun(coolDownTime-runAgo);
-				}else {
-					
+				}else if(wheel!=null) {
+					wheel.recordCoalesced();
 				}
 			}
 		}
@@ -186,14 +194,19 @@ public abstract class RateLimitedValueListener implements ValueListener{
 	private void scheduleFutureRun(long wait) {
 		assert Thread.holdsLock(this);
 		if(scheduledRun!=null)
-			if(!scheduledRun.isDone())
+			if(!scheduledRun.isDone()) {
+				if(wheel!=null)
+					wheel.recordCoalesced();
 				return;
-			else
+			}else
 				System.out.println("what???");
 		if(enabled && wait>=0) {
 			MutRef<Future<?>> selfHolder = new MutRef<>();
-			scheduledRun = exec.schedule(()->this.runBody(false, selfHolder),
-					wait, TimeUnit.MILLISECONDS);
+			Runnable run = ()->this.runBody(false, selfHolder);
+			if(wheel!=null)
+				scheduledRun = wheel.schedule(run, wait);
+			else
+				scheduledRun = exec.schedule(run, wait, TimeUnit.MILLISECONDS);
 			selfHolder.set(scheduledRun);
 		}
 		else
@@ -221,7 +234,12 @@ public abstract class RateLimitedValueListener implements ValueListener{
 					lastRun=System.currentTimeMillis();
 				}
 			}
-			doRun(e);
+			Object jfr = PileEvents.rateLimitedRunStarted();
+			try {
+				doRun(e);
+			}finally {
+				PileEvents.rateLimitedRunEnded(jfr, this, e==null || e.allSources()?-1:e.getSources().size(), itt);
+			}
 
 		} catch (InterruptedException e1) {
 			
@@ -82,6 +82,13 @@ public interface Recomputation<E> extends DependencyRecorder{
 	 * @return
 	 */
 	public boolean isFinished();
+	/**
+	 * Run the given action once this {@link Recomputation} has been cancelled or fulfilled.
+	 * If it already is {@link #isFinished() finished}, the action is run immediately.
+	 * Exceptions thrown by the action are logged.
+	 * @param action
+	 */
+	public void onFinish(Runnable action);
 	/**
 	 * Get the {@link Thread} that is currently performing the recomputation,
 	 * or the Future that is scheduled to start the task in case the recomputation is delayed.
@@ -373,6 +380,10 @@ public interface Recomputation<E> extends DependencyRecorder{
 			back.setSuccessHandler(handler);
 		};
 		@Override
+		public void onFinish(Runnable action) {
+			back.onFinish(action);
+		}
+		@Override
 		public void activateDynamicDependencies() {
 			back.activateDynamicDependencies();
 		}
@@ -0,0 +1,192 @@
+package pile.aspect.transform;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pile.aspect.AutoValidationSuppressible;
+import pile.aspect.Dependency;
+import pile.aspect.ReadValue.InvalidValueException;
+import pile.aspect.suppress.Suppressor;
+import pile.aspect.suppress.Suppressor.SuppressMany;
+import pile.interop.exec.StandardExecutors;
+
+/**
+ * Collects the {@link TransformReaction}s for a {@link TransformableValue#transform(Object, Runnable) transform}
+ * and claims the transform transactions of the values it visits.
+ * <p>
+ * The graph is walked with an explicit stack, so long chains of {@link pile.aspect.Depender}s do not
+ * grow the call stack. Transform transactions are claimed with
+ * {@link TransformableValue#tryBeginTransformTransaction()}. If a value is already claimed by another transform,
+ * all claims are given up, the collector waits for that value while holding nothing else, and starts over with it claimed.
+ * Therefore, transforms of disjoint parts of the graph do not wait for each other, and transforms of
+ * overlapping parts cannot deadlock.
+ * <p>
+ * Side effects of the reactions, like suppressing auto validation for {@link TransformReaction#UNCHANGING} values,
+ * only happen once all claims have been made. A {@link TransformHandler} may be asked to react more than once
+ * if the collection has to start over.
+ * @author bb
+ *
+ */
+final class TransformCollector {
+	private final Object transform;
+	private final LinkedHashMap<TransformableValue<?>, TransformReaction> reactions = new LinkedHashMap<>();
+	private final IdentityHashMap<TransformableValue<?>, Suppressor> claims = new IdentityHashMap<>();
+	private final ArrayDeque<TransformableValue<?>> stack = new ArrayDeque<>();
+
+	TransformCollector(Object transform) {
+		this.transform = transform;
+	}
+
+	/**
+	 * Collect the reactions of the root and the values it propagates the transform to.
+	 * @param root
+	 * @param block Whether to wait for each transform transaction in turn instead of claiming them without waiting.
+	 * This can deadlock with other transforms and is only used by {@link TransformableValue#collectTransformReactions}.
+	 * @throws InterruptedException
+	 */
+	void collect(TransformableValue<?> root, boolean block) throws InterruptedException {
+		boolean ok = false;
+		try {
+			TransformableValue<?> wait = null;
+			while(true) {
+				if(wait!=null)
+					claims.put(wait, wait.transformTransaction());
+				TransformableValue<?> conflict = tryCollect(root, block);
+				if(conflict==null)
+					break;
+				releaseAll();
+				wait = conflict;
+			}
+			ok = true;
+		}finally {
+			if(!ok)
+				releaseAll();
+		}
+	}
+	/**
+	 * @return <code>null</code> if all values could be claimed, otherwise the one that could not
+	 */
+	private TransformableValue<?> tryCollect(TransformableValue<?> root, boolean block) throws InterruptedException {
+		stack.clear();
+		stack.push(root);
+		while(!stack.isEmpty()) {
+			TransformableValue<?> v = stack.pop();
+			if(reactions.containsKey(v))
+				continue;
+			if(!claims.containsKey(v)) {
+				if(block) {
+					claims.put(v, v.transformTransaction());
+				}else if(v.tryBeginTransformTransaction()) {
+					claims.put(v, Suppressor.wrap(v::endTransformTransaction));
+				}else {
+					return v;
+				}
+			}
+			TransformReaction r = react(v);
+			reactions.put(v, r);
+			switch(r.getType()) {
+			case JUST_PROPAGATE_NO_TRANSACTION:
+			case JUST_PROPAGATE_WITH_TRANSACTION:
+			case MUTATE:
+			case REPLACE:
+				Dependency d = v.asDependency();
+				if(d!=null) {
+					d.giveDependers(dd->{
+						if(dd instanceof TransformableValue)
+							stack.push((TransformableValue<?>) dd);
+					});
+					StandardExecutors.checkInterrupt();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return null;
+	}
+	private <E> TransformReaction react(TransformableValue<E> v) {
+		TransformHandler<E> th = v.getTransformHandler(transform);
+		if(th==null)
+			return TransformReaction.RECOMPUTE;
+		TransformReaction r = th.react(v, transform);
+		return r==null?TransformReaction.IGNORE:r;
+	}
+	private void releaseAll() {
+		for(Suppressor s: claims.values())
+			s.release();
+		claims.clear();
+		reactions.clear();
+	}
+
+	/**
+	 * Hand the claimed transform transactions over and prepare the {@link TransformReaction#UNCHANGING} values.
+	 * @param tts Receives the transform transactions that must be held until the transform is finished
+	 * @param releaseAfterCollect Receives the transform transactions that may be released right after collecting
+	 * @param afterTransform Receives jobs to be run when the transform is finished
+	 * @return The collected reactions
+	 */
+	Map<TransformableValue<?>, TransformReaction> finish(SuppressMany tts, SuppressMany releaseAfterCollect, List<Runnable> afterTransform) {
+		for(Map.Entry<TransformableValue<?>, Suppressor> e: claims.entrySet()) {
+			TransformReaction r = reactions.get(e.getKey());
+			if(r==null) {
+				// claimed after a conflict, but not reached this time
+				e.getValue().release();
+				continue;
+			}
+			switch(r.getType()) {
+			case UNCHANGING:
+				prepareUnchanging(e.getKey(), afterTransform);
+				releaseAfterCollect.makePlaceFor1().add(e.getValue());
+				break;
+			case IGNORE:
+			case RECOMPUTE:
+				releaseAfterCollect.makePlaceFor1().add(e.getValue());
+				break;
+			default:
+				tts.makePlaceFor1().add(e.getValue());
+				break;
+			}
+		}
+		claims.clear();
+		return reactions;
+	}
+	private static <E> void prepareUnchanging(TransformableValue<E> v, List<Runnable> afterTransform) {
+		boolean valid = v.isValid();
+		E value;
+		Suppressor sup;
+		if(v instanceof AutoValidationSuppressible) {
+			sup = ((AutoValidationSuppressible)v)
+					.suppressAutoValidation()
+					.wrapWeak();
+		}else
+			sup = Suppressor.NOP;
+		Suppressor msup = sup;
+		try {
+			if(valid) {
+				try {
+					value = v.getValidOrThrow();
+
+					afterTransform.add(()->{
+						v.set(value);
+						sup.release();
+					});
+				}catch(InvalidValueException x) {
+					valid=false;
+				}
+			}
+			if(!valid) {
+				afterTransform.add(()->{
+					v.revalidate();
+					sup.release();
+				});
+			}
+			msup=null;
+		}finally {
+			if(msup!=null)
+				msup.release();
+		}
+	}
+}
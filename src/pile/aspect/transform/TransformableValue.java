@@ -1,11 +1,9 @@
 package pile.aspect.transform;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import pile.aspect.AutoValidationSuppressible;
 import pile.aspect.CorrigibleValue;
 import pile.aspect.Dependency;
 import pile.aspect.Depender;
@@ -25,10 +23,13 @@ import pile.interop.exec.StandardExecutors;
  * transform or recompute their values.
  * 
  * <p>
+ * Transforms of disjoint parts of the graph run concurrently. Transforms of overlapping parts 
+ * take turns: The values of a part are claimed without waiting, and if another transform holds one of them,
+ * the collection gives up all its claims, waits for that value and starts over (see {@link #transform(Object, Runnable)}).
+ * <p>
  * Warning: The transforming feature is quite primitive. 
  * It does what I need it to do, but it could be much more sophisticated,
- * such as supporting multiple concurrent transformations in overlapping parts of the graph,
- * or use of homomorphisms for forwarding transform requests, ans so on.
+ * such as the use of homomorphisms for forwarding transform requests, and so on.
  * @author bb
  * 
  *
@@ -81,6 +82,23 @@ public interface TransformableValue<E> extends ReadWriteValue<E>{
 	 * @throws InterruptedException
 	 */
 	void beginTransformTransaction() throws InterruptedException;
+	/**
+	 * Like {@link #beginTransformTransaction()}, but does not wait if another transform transaction 
+	 * is active on this value.
+	 * If this returns <code>true</code>, it must be paired with {@link #endTransformTransaction()}.
+	 * The default implementation cannot tell and just calls {@link #beginTransformTransaction()}, which may wait.
+	 * @return Whether the transform transaction was started; <code>false</code> if the default implementation
+	 * was interrupted while waiting, in which case the interrupted status is set again
+	 */
+	default public boolean tryBeginTransformTransaction() {
+		try {
+			beginTransformTransaction();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
 	/**
 	 * End a special transaction indicating hat the value is undergoing a transformation.
 	 * This method must always e paired with {@link #beginTransformTransaction()}.
@@ -90,6 +108,12 @@ public interface TransformableValue<E> extends ReadWriteValue<E>{
 	void endTransformTransaction();
 
 
+	/**
+	 * Formerly used by {@link #transform(Object, Runnable)} to make sure that only one transform
+	 * collected its {@link TransformReaction}s at a time. Transforms now only claim the values they touch.
+	 */
+	@Deprecated
+	public static final Object GLOBAL_TRANSFORM_COLLECT_MUTEX = new Object();
 	/**
 	 * Collect the {@link TransformReaction}s of this {@link TransformableValue}, and,
 	 * if it is a {@link Dependency}, of all {@link Depender}s that depend on it transitively.
@@ -97,13 +121,15 @@ public interface TransformableValue<E> extends ReadWriteValue<E>{
 	 * the {@link TransformReaction} is assumed to be {@link TransformReaction#RECOMPUTE}.
 	 * If a {@link TransformReaction} is <code>null</code>, {@link TransformReaction#IGNORE}
 	 * is used instead.
+	 * <p>
+	 * This waits for each transform transaction in turn, so concurrent calls on overlapping parts of the graph
+	 * can deadlock. {@link #transform(Object, Runnable)} does not use this method.
 	 * @param transform The Object describing the transformation
 	 * @param reactions The reaction collected so far. If this {@link TransformableValue} already is
 	 * a key in the map, it is ignored.
 	 * @param tts 
 	 * @throws InterruptedException 
 	 */
-	public static final Object GLOBAL_TRANSFORM_COLLECT_MUTEX = new Object();
 	default public void collectTransformReactions(
 			Object transform, 
 			Map<? super TransformableValue<?>, ? super TransformReaction> reactions, SuppressMany tts,
@@ -112,87 +138,21 @@ public interface TransformableValue<E> extends ReadWriteValue<E>{
 			) throws InterruptedException {
 		if(reactions.containsKey(this))
 			return;
-		Suppressor tt;
-		tts.makePlaceFor1().add(tt = transformTransaction());
-		TransformHandler<E> th = getTransformHandler(transform);
-		TransformReaction r;
-		if(th==null)
-			r=TransformReaction.RECOMPUTE;
-		else {
-			r=th.react(this, transform);
-			if(r==null)
-				r=TransformReaction.IGNORE;
-		}
-		reactions.put(this, r);
-		//		if(r.getType()==ReactionType.IGNORE)
-		switch(r.getType()) {
-		case UNCHANGING:
-		{
-			boolean valid = isValid();
-			E value;
-			Suppressor sup;
-			if(this instanceof AutoValidationSuppressible) {
-				sup = ((AutoValidationSuppressible)this)
-						.suppressAutoValidation()
-						.wrapWeak();
-			}else
-				sup = Suppressor.NOP;
-			Suppressor msup = sup;
-			try {
-				if(valid) {
-					try {
-						value = getValidOrThrow();
-
-						afterTransform.add(()->{
-							set(value);
-							sup.release();
-						});
-					}catch(InvalidValueException x) {
-						valid=false;
-					}
-				}
-				if(!valid) {
-					afterTransform.add(()->{
-						revalidate();
-						sup.release();
-					});
-				}
-				msup=null;
-			}finally {
-				if(msup!=null)
-					msup.release();
-			}
-		}
-		case IGNORE:
-		case RECOMPUTE:
-			releaseAfterCollect.makePlaceFor1().add(tt);
-			break;
-		case JUST_PROPAGATE_NO_TRANSACTION:
-		case JUST_PROPAGATE_WITH_TRANSACTION:
-		case MUTATE:
-		case REPLACE:
-			Dependency d = asDependency();
-			if(d!=null) {
-				d.giveDependers(dd->{
-					if(dd instanceof TransformableValue)
-						try {
-							((TransformableValue<?>)dd).collectTransformReactions(
-									transform, reactions, tts, 
-									releaseAfterCollect, afterTransform);
-						} catch (InterruptedException e) {
-							StandardExecutors.interruptSelf();
-						}
-				});
-				StandardExecutors.checkInterrupt();
-			}
-			break;
-		}
+		TransformCollector c = new TransformCollector(transform);
+		c.collect(this, true);
+		for(Map.Entry<TransformableValue<?>, TransformReaction> e: c.finish(tts, releaseAfterCollect, afterTransform).entrySet())
+			if(!reactions.containsKey(e.getKey()))
+				reactions.put(e.getKey(), e.getValue());
 	}
 
 	/**
 	 * Transform the Value. This first collects the {@link TransformReaction}s of this value and all
 	 * its transitive {@link Depender}s (The transformation request is not propagated from a {@link Dependency}
 	 * if its reaction was {@link TransformReaction#IGNORE}).
+	 * While collecting, the transform transactions of the visited values are claimed with 
+	 * {@link #tryBeginTransformTransaction()}; if one of them is held by another transform, all claims are released,
+	 * the value is waited for and the collection starts over. The graph is traversed iteratively, 
+	 * so deep graphs do not overflow the stack.
 	 * The transactions are started and the transformations are run in parallel {@link Thread}s
 	 * (except if they specify that they are {@link TransformReaction#fast() fast}; these are run 
 	 * sequentially in the current {@link Thread}). The the transactions are ended, causing those values
@@ -206,14 +166,13 @@ public interface TransformableValue<E> extends ReadWriteValue<E>{
 			ListenValue.DEFER.__incrementSuppressors();		
 
 
-			Map<TransformableValue<?>, TransformReaction> reactions=new HashMap<>();
+			Map<TransformableValue<?>, TransformReaction> reactions;
 			SuppressMany tts = Suppressor.many(); 
 			ArrayList<Runnable> afterTransform = new ArrayList<>();
 			try(Suppressor tts2=tts; SuppressMany rac=Suppressor.many()){
-				synchronized(GLOBAL_TRANSFORM_COLLECT_MUTEX) {
-					collectTransformReactions(transform, reactions, tts, 
-							rac, afterTransform);
-				}
+				TransformCollector collector = new TransformCollector(transform);
+				collector.collect(this, false);
+				reactions = collector.finish(tts, rac, afterTransform);
 				rac.release();
 				ArrayList<Runnable> asyncJobs=new ArrayList<>();
 				ArrayList<Runnable> syncJobs=new ArrayList<>();
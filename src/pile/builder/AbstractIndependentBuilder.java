@@ -223,6 +223,11 @@ implements IIndependentBuilder<Self, V, E>{
 		value._setEquivalence(equiv);
 		return self();
 	}
+	@Override
+	public Self conflating(boolean b) {
+		value._setConflating(b);
+		return self();
+	}
 	private boolean dob=true;
 	@Override
 	public Self dontDependOnBounds() {
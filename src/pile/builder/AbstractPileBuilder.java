@@ -3,6 +3,7 @@ package pile.builder;
 import static pile.interop.debug.DebugEnabled.RENAME_RECOMPUTATION_THREADS;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
@@ -23,6 +24,8 @@ import pile.aspect.HasAssociations.NamedAssociationKey;
 import pile.aspect.VetoException;
 import pile.aspect.bracket.ValueBracket;
 import pile.aspect.combinations.ReadListenDependency;
+import pile.aspect.limitedresource.LimitedResource;
+import pile.aspect.limitedresource.Supplicant;
 import pile.aspect.listen.ValueListener;
 import pile.aspect.recompute.Recomputation;
 import pile.aspect.recompute.Recomputations;
@@ -32,6 +35,7 @@ import pile.aspect.transform.TransformHandler;
 import pile.impl.DebugCallback;
 import pile.impl.PileImpl;
 import pile.impl.Piles;
+import pile.interop.exec.RecomputationScheduler;
 import pile.interop.exec.StandardExecutors;
 import pile.utils.Functional;
 
@@ -60,6 +64,8 @@ implements IPileBuilder<Self, V, E>{
 	protected V value;
 	public AbstractPileBuilder(V value) {
 		this.value=value;
+		if(Piles.shouldBuildLazy())
+			value.setLazyValidating(true);
 	}
 	public Self name(String n) {
 		value.avName=n;
@@ -353,7 +359,7 @@ implements IPileBuilder<Self, V, E>{
 				if(doDelay)
 					synchronized (re) {
 						re.enterDelayedMode();
-						re.setThread(myExec.submit(runThis));
+						re.setThread(StandardExecutors.submit(myExec, value, runThis));
 					}
 				else 
 					runThis.run();
@@ -498,7 +504,7 @@ implements IPileBuilder<Self, V, E>{
 			if(doDelay) 
 				synchronized (re) {
 					re.enterDelayedMode();
-					re.setThread(myExec.submit(runThis));
+					re.setThread(StandardExecutors.submit(myExec, value, runThis));
 				}
 			else 
 				runThis.run();
@@ -628,6 +634,199 @@ implements IPileBuilder<Self, V, E>{
 		}
 
 	}
+	/**
+	 * Wraps another {@link Recomputer} so that it only runs once the units of all 
+	 * {@link LimitedResource}s it consumes have been granted. The units are released 
+	 * when the {@link Recomputation} is fulfilled or cancelled.
+	 * @param <E>
+	 */
+	private static final class MyRecomputerWithResources<E> implements Recomputer<E>{
+		private final Recomputer<E> back;
+		private final PileImpl<E> value;
+		private final ResourceDemand[] demands;
+		private final ExecutorService myExec;
+
+		MyRecomputerWithResources(Recomputer<E> back, PileImpl<E> value, ResourceDemand[] demands, ExecutorService myExec) {
+			this.back = back;
+			this.value = value;
+			this.demands = demands;
+			this.myExec = myExec;
+		}
+		@Override public boolean useDependencyScouting() {return back.useDependencyScouting();}
+		@Override public boolean useDependencyScoutingIfInvalid(Dependency d) {return back.useDependencyScoutingIfInvalid(d);}
+		@Override public boolean mayRemoveDynamicDependency(Dependency dy, Depender dr) {return back.mayRemoveDynamicDependency(dy, dr);}
+
+		@Override
+		public void accept(Recomputation<E> re) {
+			if(re.isDependencyScout() && !back.useDependencyScouting()) {
+				// the recomputer will not compute anything
+				back.accept(re);
+				return;
+			}
+			Admission adm = new Admission(re);
+			re.onFinish(adm::finish);
+			if(adm.advance()) {
+				back.accept(re);
+			}else {
+				synchronized (re) {
+					if(!re.isFinished())
+						re.enterDelayedMode();
+				}
+			}
+		}
+		/**
+		 * Tracks which units have been granted for one {@link Recomputation}
+		 */
+		private final class Admission{
+			final Recomputation<E> re;
+			final long deadlineBase = System.currentTimeMillis();
+			final int priority = -RecomputationScheduler.getPriority(value);
+			/**
+			 * The number of demands that have been granted
+			 */
+			int granted;
+			Supplicant current;
+			boolean requesting, grantedWhileRequesting, finished;
+			Admission(Recomputation<E> re) {
+				this.re = re;
+			}
+			/**
+			 * Request the remaining demands in order. 
+			 * @return {@code true} if all have been granted and the recomputation may run in this thread;
+			 * {@code false} if it has to wait or is finished already
+			 */
+			boolean advance() {
+				while(true) {
+					Supplicant s;
+					ResourceDemand d;
+					synchronized (this) {
+						if(finished)
+							return false;
+						if(granted==demands.length)
+							return true;
+						d = demands[granted];
+						long deadline = d.deadlineMillis==Long.MAX_VALUE?Long.MAX_VALUE:deadlineBase+d.deadlineMillis;
+						current = s = new Supplicant(d.units, priority, deadline) {
+							@Override
+							protected void granted(LimitedResource r) {
+								Admission.this.granted(this, r);
+							}
+						};
+						requesting = true;
+						grantedWhileRequesting = false;
+					}
+					d.resource.request(s);
+					synchronized (this) {
+						requesting = false;
+						if(!grantedWhileRequesting)
+							return false;
+					}
+				}
+			}
+			void granted(Supplicant s, LimitedResource r) {
+				boolean cancelled;
+				synchronized (this) {
+					cancelled = finished;
+					if(!cancelled) {
+						assert s==current;
+						current = null;
+						++granted;
+						if(requesting) {
+							grantedWhileRequesting = true;
+							return;
+						}
+					}
+				}
+				if(cancelled) {
+					// the recomputation finished while the grant was on its way
+					r.release(s.units());
+					return;
+				}
+				if(advance())
+					start();
+			}
+			/**
+			 * Run the recomputer in a different thread, because the current one is releasing units
+			 */
+			void start() {
+				Runnable runThis = ()->{
+					if(re.isFinished())
+						return;
+					try (SafeCloseable _a = Recomputations.withCurrentRecomputation(re)){
+						synchronized (re) {re.setThread();}
+						back.accept(re);
+					}catch(FulfillInvalid x) {
+						re.fulfillInvalid();
+					}catch(Throwable x) {
+						log.log(Level.WARNING, "Exception in recomputer for "+value.avName+" (finished: "+re.isFinished()+")",	x);
+					}
+				};
+				synchronized (re) {
+					re.setThread(StandardExecutors.submit(myExec, value, runThis));
+				}
+			}
+			void finish() {
+				Supplicant s;
+				int g;
+				synchronized (this) {
+					finished = true;
+					s = current;
+					current = null;
+					g = granted;
+				}
+				releaseFrom(0, g, s);
+			}
+			/**
+			 * Release the units of the granted demands with indices {@code i} to {@code g-1}
+			 * and withdraw the pending {@link Supplicant}, if any.
+			 * Each step is attempted even if an earlier one throws.
+			 */
+			private void releaseFrom(int i, int g, Supplicant s) {
+				try {
+					if(i<g)
+						demands[i].resource.release(demands[i].units);
+					// If the supplicant is no longer waiting, its grant is on the way and granted(...) releases the units
+					else if(s!=null)
+						demands[g].resource.withdraw(s);
+				}finally {
+					if(i<g)
+						releaseFrom(i+1, g, s);
+				}
+			}
+		}
+	}
+	/**
+	 * A number of units of a {@link LimitedResource} that a recomputation needs
+	 */
+	static final class ResourceDemand{
+		final LimitedResource resource;
+		final long units;
+		final long deadlineMillis;
+		ResourceDemand(LimitedResource resource, long units, long deadlineMillis) {
+			this.resource = resource;
+			this.units = units;
+			this.deadlineMillis = deadlineMillis;
+		}
+	}
+	ArrayList<ResourceDemand> consumed;
+	@Override
+	public Self consumes(LimitedResource resource, long units, long deadlineMillis) {
+		Objects.requireNonNull(resource);
+		if(units<0 || deadlineMillis<0)
+			throw new IllegalArgumentException();
+		if(consumed==null)
+			consumed = new ArrayList<>(1);
+		for(int i=0; i<consumed.size(); ++i) {
+			ResourceDemand d = consumed.get(i);
+			if(d.resource==resource) {
+				// a single request, so that the recomputation doesn't wait for itself
+				consumed.set(i, new ResourceDemand(resource, d.units+units, Math.min(d.deadlineMillis, deadlineMillis)));
+				return self();
+			}
+		}
+		consumed.add(new ResourceDemand(resource, units, deadlineMillis));
+		return self();
+	}
 	boolean nullNotInvalid;
 	@Override
 	public V build() {
@@ -694,7 +893,7 @@ implements IPileBuilder<Self, V, E>{
 					combi=null;
 					if(delay==0) {
 						ExecutorService myExec = this.exec==null?
-								StandardExecutors.unlimited()
+								StandardExecutors.recomputation()
 								:this.exec;
 						reco=new MyRecomputerFor0Delay<E, V>(dynamic, myExec, dreco, value, logAllExceptions, delaySwitch, fov, ug, nni);
 					}else {
@@ -752,7 +951,7 @@ implements IPileBuilder<Self, V, E>{
 			assert delay>=0;
 			if(delay<=0) {
 				ExecutorService myExec = this.exec==null?
-						StandardExecutors.unlimited()
+						StandardExecutors.recomputation()
 						:this.exec;
 				reco=new MyRecomputerForStaged0Delay<E, V>(dynamic, ug, fov, value, delaySwitch, combi, logAllExceptions, myExec, nni);
 
@@ -774,7 +973,16 @@ implements IPileBuilder<Self, V, E>{
 			}
 		}
 
-		value._setRecompute(reco);
+		if(reco!=null && consumed!=null && !consumed.isEmpty()) {
+			// always acquire in the same order, so that two recomputations can't wait for each other's units
+			ResourceDemand[] demands = consumed.toArray(new ResourceDemand[consumed.size()]);
+			Arrays.sort(demands, Comparator.comparing((ResourceDemand d)->d.resource.name, Comparator.nullsFirst(Comparator.naturalOrder()))
+					.thenComparingLong(d->d.resource.serial));
+			ExecutorService myExec = this.exec==null ? StandardExecutors.recomputation() : this.exec;
+			value._setRecompute(new MyRecomputerWithResources<>(reco, value, demands, myExec));
+		}else {
+			value._setRecompute(reco);
+		}
 
 		return value;
 	}
@@ -936,6 +1144,11 @@ implements IPileBuilder<Self, V, E>{
 		value.setLazyValidating(true);
 		return self();
 	}
+	@Override
+	public Self coldWhenUnobserved() {
+		value.setColdWhenUnobserved(true);
+		return self();
+	}
 
 	@Override
 	public Self transformHandler(TransformHandler<E> th) {
@@ -141,6 +141,21 @@ extends ICorrigibleBuilder<Self, V, E>, IListenValueBuilder<Self, V>, ISealableB
 	 * @return {@code this} builder
 	 */
 	Self parent(Object p);
+	/**
+	 * Conflate writes while a depender is recomputing: Only the latest of the values written in the meantime
+	 * is applied after the recomputation has finished, instead of each of them cancelling and restarting it.
+	 * @param b
+	 * @see Independent#_setConflating(boolean)
+	 * @return {@code this} builder
+	 */
+	Self conflating(boolean b);
+	/**
+	 * Equivalent to {@link #conflating(boolean) conflating(true)}
+	 * @return {@code this} builder
+	 */
+	default Self conflating() {
+		return conflating(true);
+	}
 	/**
 	 * Don't add {@link ValueListener}s to the bounds; just check them whenever the value is changed.
 	 * @return {@code this} builder
@@ -20,12 +20,15 @@ import pile.aspect.bracket.HasBrackets;
 import pile.aspect.bracket.ValueBracket;
 import pile.aspect.combinations.Pile;
 import pile.aspect.combinations.ReadListenDependency;
+import pile.aspect.limitedresource.LimitedResource;
+import pile.aspect.limitedresource.Supplicant;
 import pile.aspect.recompute.Recomputation;
 import pile.aspect.transform.TransformHandler;
 import pile.impl.AbstractReadListenDependency;
 import pile.impl.DebugCallback;
 import pile.impl.Piles;
 import pile.interop.debug.DebugEnabled;
+import pile.interop.exec.RecomputationScheduler;
 import pile.interop.exec.StandardExecutors;
 import pile.utils.Functional;
 
@@ -329,9 +332,17 @@ extends ICorrigibleBuilder<Self, V, E>, IListenValueBuilder<Self, V>{
 	 * Set the {@link Pile#setLazyValidating(boolean) lazy-validating} flag of the value being build.
 	 * The {@link Pile} will then not recompute itself as soon as possible, but only if also its value 
 	 * has been requested.
+	 * To make all {@link Pile}s built in a block lazy-validating, use {@link pile.impl.Piles#lazySubgraph()}.
 	 * @return
 	 */
 	Self lazy();
+	/**
+	 * Make the {@link Pile} being built {@link pile.impl.PileImpl#setColdWhenUnobserved(boolean) go cold} 
+	 * whenever it has neither {@link Depender}s nor {@link pile.aspect.listen.ValueListener}s:
+	 * It then detaches itself from its dependencies and stops recomputing until it is read or observed again.
+	 * @return
+	 */
+	Self coldWhenUnobserved();
 	/**
 	 * Set the {@link TransformHandler} of the {@link Pile} to {@link TransformHandler#RECOMPUTE}
 	 * @return
@@ -440,6 +451,49 @@ extends ICorrigibleBuilder<Self, V, E>, IListenValueBuilder<Self, V>{
 	 * @return {@code this}
 	 */
 	public Self pool(ExecutorService exec);
+	/**
+	 * Set the priority with which recomputations of the value being built are started
+	 * when they are run by a {@link RecomputationScheduler} (as they are by default).
+	 * Higher priorities are started first; the default is {@code 0}.
+	 * @param priority
+	 * @return {@code this}
+	 * @see RecomputationScheduler#setPriority(pile.aspect.HasAssociations, int)
+	 */
+	public default Self recomputationPriority(int priority) {
+		RecomputationScheduler.setPriority(valueBeingBuilt(), priority);
+		return self();
+	}
+	/**
+	 * Declare that each recomputation of the value being built needs some units of a {@link LimitedResource}.
+	 * Recomputations wait as {@link Supplicant}s until the units have been granted, and
+	 * release them when they are fulfilled or cancelled. Recomputations with a higher
+	 * {@link #recomputationPriority(int) recomputation priority} are served first.
+	 * Calling this several times for the same resource adds up the units.
+	 * @param resource
+	 * @param units
+	 * @return {@code this}
+	 */
+	public default Self consumes(LimitedResource resource, long units) {
+		return consumes(resource, units, Long.MAX_VALUE);
+	}
+	/**
+	 * Like {@link #consumes(LimitedResource, long)}, with the resource given by its {@link LimitedResource#named(String) name}
+	 * @param resourceName
+	 * @param units
+	 * @return {@code this}
+	 */
+	public default Self consumes(String resourceName, long units) {
+		return consumes(LimitedResource.named(resourceName), units);
+	}
+	/**
+	 * Like {@link #consumes(LimitedResource, long)}. Among recomputations with the same priority,
+	 * those whose deadline is earlier are served first.
+	 * @param resource
+	 * @param units
+	 * @param deadlineMillis The deadline, relative to the start of the recomputation
+	 * @return {@code this}
+	 */
+	public Self consumes(LimitedResource resource, long units, long deadlineMillis);
 	public Self scoutIfInvalid(Predicate<? super Dependency> p);
 	public default Self scoutIfInvalid(Collection<? super Dependency> s) {
 		return scoutIfInvalid(s::contains);
@@ -40,9 +40,14 @@ import pile.aspect.recompute.Recomputer;
 import pile.aspect.suppress.MockBlock;
 import pile.aspect.suppress.Suppressor;
 import pile.interop.debug.DebugEnabled;
+import pile.interop.jfr.PileEvents;
+import pile.interop.metrics.NodeMetrics;
+import pile.interop.metrics.PileMetrics;
+import pile.interop.wait.LockMonitor;
 import pile.interop.wait.WaitService;
 import pile.specialized_bool.IndependentBool;
 import pile.specialized_bool.combinations.ReadListenDependencyBool;
+import pile.utils.FlaggedSet;
 import pile.utils.Functional;
 import pile.utils.WeakIdentityCleanup;
 
@@ -175,6 +180,11 @@ HasInternalLock
 	 * This "old value" field is used to detect whether the value has changed.
 	 */
 	private int openTransactions;
+	/**
+	 * Token from {@link PileEvents#transactionBegan()} for the transaction mode this value is in;
+	 * <code>null</code> unless a flight recording wants it. Guarded by {@link #mutex}.
+	 */
+	private Object jfrTransaction;
 	/**
 	 * A queue of things to run outside the locking provided by {@link #mutex}.
 	 * This includes updates to {@link Depender}s informing 
@@ -182,6 +192,12 @@ HasInternalLock
 	 * Access to this field must be synchronized using itself
 	 */
 	final protected ArrayDeque<Runnable> informQueue=new ArrayDeque<>();
+	/**
+	 * The topological height of this value, used to order change waves if
+	 * {@link HeightOrderedPropagation} is enabled. A {@link Depender} is higher than all of its
+	 * {@link Dependency Dependencies}.
+	 */
+	volatile int height;
 
 
 
@@ -193,6 +209,63 @@ HasInternalLock
 	public boolean holdsLock() {
 		return Thread.holdsLock(mutex);
 	}
+	/**
+	 * Lets {@link Thread}s wait for notifications of the {@link #mutex} without holding it.
+	 * Created by the first such {@link Thread}; <code>null</code> before that.
+	 * @see LockMonitor#isPreferred()
+	 */
+	private volatile LockMonitor lockMonitor;
+	/**
+	 * @return The {@link #lockMonitor}, creating it if necessary
+	 */
+	protected final LockMonitor lockMonitor() {
+		LockMonitor ret = lockMonitor;
+		if(ret==null) {
+			synchronized (mutex) {
+				ret = lockMonitor;
+				if(ret==null)
+					lockMonitor = ret = new LockMonitor();
+			}
+		}
+		return ret;
+	}
+	/**
+	 * The runtime metrics of this value; created by {@link #metrics()}
+	 */
+	private volatile NodeMetrics metrics;
+	/**
+	 * @return The {@link NodeMetrics} to record into, creating and registering them if necessary,
+	 * or <code>null</code> if {@link PileMetrics#isEnabled() metrics are disabled}.
+	 */
+	protected final NodeMetrics metrics() {
+		if(!PileMetrics.isEnabled())
+			return null;
+		NodeMetrics ret = metrics;
+		if(ret==null) {
+			boolean created = false;
+			synchronized (mutex) {
+				ret = metrics;
+				if(ret==null) {
+					metrics = ret = new NodeMetrics(this);
+					created = true;
+				}
+			}
+			if(created)
+				PileMetrics.register(ret);
+		}
+		return ret;
+	}
+	/**
+	 * Wake up all {@link Thread}s waiting for the {@link #mutex} to be notified,
+	 * whether they wait in its monitor or in the {@link #lockMonitor}.
+	 * The current thread must have locked the {@link #mutex}.
+	 */
+	protected final void notifyMutexWaiters() {
+		WaitService.get().notifyAll(mutex);
+		LockMonitor lm = lockMonitor;
+		if(lm!=null)
+			lm.signalAll();
+	}
 
 
 	/**
@@ -208,7 +281,7 @@ HasInternalLock
 	 * It is vital that these status changing events are tracked correctly because the {@link Depender}s
 	 * keep a transaction open while the dependency is changing. 
 	 */
-	HashSet<Depender> informed;
+	FlaggedSet<Depender> informed;
 
 	/**
 	 * Whether this value has been destroyed, or at least its destruction has begun
@@ -257,9 +330,25 @@ HasInternalLock
 					listeners = localRef = new ListenerManager(this) {
 						public void fireValueChange(ValueEvent e) {
 							if(isDeferringListeners)
-								ListenValue.DEFER.run(()->super.fireValueChange(e));
+								ListenValue.DEFER.run(()->dispatch(e));
 							else
+								dispatch(e);
+						}
+						private void dispatch(ValueEvent e) {
+							NodeMetrics m = metrics();
+							Object jfr = PileEvents.listenerDispatchStarted();
+							if(m==null && jfr==null) {
+								super.fireValueChange(e);
+								return;
+							}
+							long t0 = System.nanoTime();
+							try {
 								super.fireValueChange(e);
+							}finally {
+								if(m!=null)
+									m.listenersDispatched(System.nanoTime()-t0);
+								PileEvents.listenersDispatched(jfr, AbstractReadListenDependency.this);
+							}
 						}
 					};
 				}
@@ -294,6 +383,7 @@ HasInternalLock
 		if(d==this)
 			throw new IllegalArgumentException("Trivial dependency cycle detected!");
 		boolean wiq = false;
+		boolean added = false;
 		synchronized (mutex) {
 			//			boolean wasValid=valid();
 			if(destroyed)
@@ -306,16 +396,18 @@ HasInternalLock
 				@Override
 				public void run() {
 					dependOnThis.remove(this);
+					observerRemoved();
 				}
 			};
 			if(dependOnThis.add(ref)) {
+				added = true;
 				if(!__valid()) {
 					assert !Thread.holdsLock(informQueue);
 					// assert !Thread.holdsLock(informRunnerMutex);
 					synchronized (informQueue) {
 						informQueue.add(()->{
 							if(informed==null)
-								informed=new HashSet<>();
+								informed=new FlaggedSet<>();
 							if(informed.contains(d))
 								return;
 							if(ET_TRACE && traceEnabledFor(this))trace("Inform new depender "+d);
@@ -335,8 +427,12 @@ HasInternalLock
 				}
 			}
 		}
+		if(HeightOrderedPropagation.isEnabled() && d instanceof AbstractReadListenDependency)
+			HeightOrderedPropagation.raiseHeight((AbstractReadListenDependency<?>) d, height+1);
 		if(wiq)
 			__workInformQueue();
+		if(added)
+			observerAdded();
 	}
 
 	/**
@@ -350,6 +446,11 @@ HasInternalLock
 	 * Access to this field needs to be synchronized using {@link #informRunnerMutex}
 	 */
 	Thread someThreadIsWorkingInformQueue;
+	/**
+	 * Lets {@link Thread}s wait for notifications of the {@link #informRunnerMutex} without holding it.
+	 * Created by the first such {@link Thread}; <code>null</code> before that.
+	 */
+	private volatile LockMonitor informRunnerMonitor;
 	/**
 	 * Execute the elements in the {@link #informQueue} until it is empty.
 	 * This method calls {@link #__workInformQueue(boolean) workInformQueue(false)}.
@@ -410,13 +511,134 @@ HasInternalLock
 	 * If this parameter is false, a deadlock may arise; if that happens, the method returns after 
 	 * some time. The risk here is that some update are not sent in the right way, but I', not sure
 	 * if that'S ever relevant anyway. And at least we don't get a game-breaking deadlock forever. 
+	 * <p>
+	 * If {@link HeightOrderedPropagation} is enabled and the current thread is already processing a
+	 * change wave, this value is only enqueued into that wave and its informQueue will be worked
+	 * before the outermost call returns.
 	 */
 	public void __workInformQueue(boolean evade) {
+		if(HeightOrderedPropagation.workInformQueue(this, evade))
+			return;
 		//		ListenValue.DEFER.run(evade?workInformQueue__undeferred_evade:workInformQueue__undeferred_no_evade);
 		____workInformQueue__undeferred(evade);
 	}
 	//	private Runnable workInformQueue__undeferred_evade = ()->____workInformQueue__undeferred(true);
 	//	private Runnable workInformQueue__undeferred_no_evade = ()->____workInformQueue__undeferred(false);
+	/**
+	 * Wait until no other {@link Thread} works the {@link #informQueue} and then claim it for the current one
+	 * by setting {@link #someThreadIsWorkingInformQueue}. 
+	 * Waits in the monitor of {@link #informRunnerMutex}, or outside of it in the {@link #informRunnerMonitor}
+	 * if that is {@linkplain LockMonitor#isPreferred() preferred}.
+	 * @param evade Give up instead of waiting if another {@link Thread} works the queue
+	 * @return <code>false</code> if the caller must not work the queue: because the current {@link Thread}
+	 * already does further up the stack, because it should evade, because it was interrupted,
+	 * or because a likely deadlock has been resolved by giving up
+	 */
+	private boolean claimInformRunner(boolean evade) {
+		long t0 = System.currentTimeMillis();
+		boolean didntWarnYet=true;
+		long backOffTime = (int)(1000*Math.exp(2*Math.random()-1));
+		LockMonitor lm = LockMonitor.isPreferred()?informRunnerMonitor():null;
+		try {
+			while(true) {
+				Thread other;
+				int seen = 0;
+				long wait = (long)(20*Math.exp(2*Math.random()-1));
+				synchronized (informRunnerMutex) {
+					other = someThreadIsWorkingInformQueue;
+					if(other==Thread.currentThread())
+						return false;
+					if(other==null) {
+						someThreadIsWorkingInformQueue=Thread.currentThread();
+						return true;
+					}
+					if(evade)
+						return false;
+					//					if(ET_TRACE && traceEnabledFor(this))
+					//						trace("inform queue already running");
+					if(lm==null) {
+						WaitService.get().wait(informRunnerMutex, wait);
+						other = someThreadIsWorkingInformQueue;
+						if(other==null) {
+							someThreadIsWorkingInformQueue=Thread.currentThread();
+							return true;
+						}
+					}else {
+						seen = lm.generation();
+					}
+				}
+				if(lm!=null) {
+					lm.awaitChangeMillis(WaitService.get(), seen, wait);
+					synchronized (informRunnerMutex) {
+						other = someThreadIsWorkingInformQueue;
+						if(other==null) {
+							someThreadIsWorkingInformQueue=Thread.currentThread();
+							return true;
+						}
+					}
+				}
+				long timeElapsed=System.currentTimeMillis()-t0;
+
+				if(timeElapsed>backOffTime & didntWarnYet) {
+					didntWarnYet=false;
+					if(DE) {
+						DebugEnabled.requestStop(other, this);
+					}
+					try {
+						throw new RuntimeException("Stack trace");
+					}catch(RuntimeException x) {
+						log.log(Level.WARNING, "Likely informQueue deadlock involving "+avName+" in Thread "+Thread.currentThread().getName()
+								+" conflicting with Thread "+other.getName(), x);
+						StackTraceElement[] st = other.getStackTrace();
+
+						log.log(Level.WARNING, "Stack trace in conflicting thread "+other.getName(), 
+								new StackTraceWrapper(st));
+
+					}		
+				}
+				if(timeElapsed>backOffTime*2) {
+					log.severe("Resolved a likely informQueue deadlock involving "+avName);
+					//Ensure that we don't end up with long-term unprocessed items in the informQueue
+					if(Thread.currentThread().getName().startsWith("walkInformQueue deadlock resolver")) {
+						if(timeElapsed>backOffTime*4)
+							return false;
+					}else {
+						Thread resolveLater = new Thread(this::workInformQueueDelayed);
+						resolveLater.setDaemon(true);
+						resolveLater.setName("walkInformQueue deadlock resolver");
+						resolveLater.start();
+						return false;
+					}
+				}
+			}
+		}catch(InterruptedException x) {
+			return false;
+		}
+	}
+	/**
+	 * Wake up all {@link Thread}s waiting in {@link #claimInformRunner(boolean)}.
+	 * The current thread must have locked the {@link #informRunnerMutex}.
+	 */
+	private void notifyInformRunnerWaiters() {
+		WaitService.get().notifyAll(informRunnerMutex);
+		LockMonitor lm = informRunnerMonitor;
+		if(lm!=null)
+			lm.signalAll();
+	}
+	/**
+	 * @return The {@link #informRunnerMonitor}, creating it if necessary
+	 */
+	private LockMonitor informRunnerMonitor() {
+		LockMonitor ret = informRunnerMonitor;
+		if(ret==null) {
+			synchronized (informRunnerMutex) {
+				ret = informRunnerMonitor;
+				if(ret==null)
+					informRunnerMonitor = ret = new LockMonitor();
+			}
+		}
+		return ret;
+	}
 	public void ____workInformQueue__undeferred(boolean evade) {
 		assert !Thread.holdsLock(mutex);
 		if(Thread.holdsLock(informRunnerMutex))
@@ -426,68 +648,16 @@ HasInternalLock
 		try {
 			Recomputations.NOT_NOW.__incrementSuppressors();
 			while(true) {
-				synchronized (informRunnerMutex) {
-					if(!amRunning && someThreadIsWorkingInformQueue==Thread.currentThread())
+				if(!amRunning) {
+					if(!claimInformRunner(evade))
 						return;
-					if(!amRunning && someThreadIsWorkingInformQueue!=null) {
-						try {
-							long t0 = System.currentTimeMillis();
-							boolean didntWarnYet=true;
-							long backOffTime = (int)(1000*Math.exp(2*Math.random()-1));
-							while(someThreadIsWorkingInformQueue!=null) {
-								if(evade)
-									return;
-								//								if(ET_TRACE && traceEnabledFor(this))
-								//									trace("inform queue already running");
-								WaitService.get().wait(informRunnerMutex, (long)(20*Math.exp(2*Math.random()-1)));
-
-								if(someThreadIsWorkingInformQueue==null)
-									break;
-								long timeElapsed=System.currentTimeMillis()-t0;
-
-								if(timeElapsed>backOffTime & didntWarnYet) {
-									didntWarnYet=false;
-									if(DE) {
-										DebugEnabled.requestStop(someThreadIsWorkingInformQueue, this);
-									}
-									try {
-										throw new RuntimeException("Stack trace");
-									}catch(RuntimeException x) {
-										log.log(Level.WARNING, "Likely informQueue deadlock involving "+avName+" in Thread "+Thread.currentThread().getName()
-												+" conflicting with Thread "+someThreadIsWorkingInformQueue.getName(), x);
-										StackTraceElement[] st = someThreadIsWorkingInformQueue.getStackTrace();
-
-										log.log(Level.WARNING, "Stack trace in conflicting thread "+someThreadIsWorkingInformQueue.getName(), 
-												new StackTraceWrapper(st));
-
-									}		
-								}
-								if(timeElapsed>backOffTime*2) {
-									log.severe("Resolved a likely informQueue deadlock involving "+avName);
-									//Ensure that we don't end up with long-term unprocessed items in the informQueue
-									if(Thread.currentThread().getName().startsWith("walkInformQueue deadlock resolver")) {
-										if(timeElapsed>backOffTime*4)
-											return;
-									}else {
-										Thread resolveLater = new Thread(this::workInformQueueDelayed);
-										resolveLater.setDaemon(true);
-										resolveLater.setName("walkInformQueue deadlock resolver");
-										resolveLater.start();
-										return;
-									}
-								}
-							}
-
-						}catch(InterruptedException x) {
-							return;
-						}
-					}
 					amRunning=true;
-					someThreadIsWorkingInformQueue=Thread.currentThread();
 				}
 				assert amRunning;
 				assert someThreadIsWorkingInformQueue==Thread.currentThread();
 
+				Object jfr = PileEvents.informQueueDrainStarted();
+				int jobs = 0;
 				while(true) {
 					Runnable run;
 					assert !Thread.holdsLock(informQueue);
@@ -514,7 +684,7 @@ HasInternalLock
 							assert someThreadIsWorkingInformQueue==Thread.currentThread();
 							if(!wasRunningOnEntry)
 								someThreadIsWorkingInformQueue=null;
-							WaitService.get().notifyAll(informRunnerMutex);
+							notifyInformRunnerWaiters();
 							//							if(!amRunning && someThreadIsWorkingInformQueue==Thread.currentThread())
 							//								System.out.println();
 
@@ -526,6 +696,7 @@ HasInternalLock
 
 					if(ET_TRACE && traceEnabledFor(this))synchronized(trace) {trace.add("process informQueue item");}
 					assert !Thread.holdsLock(mutex);
+					++jobs;
 					try {
 						run.run();
 					}catch(Throwable t) {
@@ -539,6 +710,7 @@ HasInternalLock
 					}
 
 				}
+				PileEvents.informQueueDrained(jfr, this, jobs);
 				//				synchronized (informRunnerMutex) {
 				//					if(!amRunning && someThreadIsWorkingInformQueue==Thread.currentThread())
 				//						System.out.println();
@@ -558,7 +730,7 @@ HasInternalLock
 							assert someThreadIsWorkingInformQueue==Thread.currentThread();
 							if(!wasRunningOnEntry)
 								someThreadIsWorkingInformQueue=null;
-							WaitService.get().notifyAll(informRunnerMutex);
+							notifyInformRunnerWaiters();
 						}		
 					}
 				}
@@ -568,7 +740,7 @@ HasInternalLock
 						amRunning=false;
 //						assert someThreadIsWorkingInformQueue==Thread.currentThread();
 //						someThreadIsWorkingInformQueue=null;
-						WaitService.get().notifyAll(informRunnerMutex);
+						notifyInformRunnerWaiters();
 					}	
 				}
 			}finally {
@@ -620,7 +792,28 @@ HasInternalLock
 		if(wiq)
 			__workInformQueue();
 		//			StandardExecutors.unlimited().execute(this::__workInformQueue);
-
+		observerRemoved();
+	}
+	/**
+	 * Called after a {@link Depender} or a {@link ValueListener} has been added, 
+	 * without holding the {@link #mutex}. Subclasses might find this interesting.
+	 */
+	protected void observerAdded() {}
+	/**
+	 * Called after a {@link Depender} or a {@link ValueListener} has been removed, 
+	 * without holding the {@link #mutex}. Subclasses might find this interesting.
+	 * @see #__isObserved()
+	 */
+	protected void observerRemoved() {}
+	/**
+	 * @return Whether this value has any {@link Depender}s or {@link ValueListener}s.
+	 */
+	protected boolean __isObserved() {
+		Set<WeakIdentityCleanup<Depender>> dot = dependOnThis;
+		if(dot!=null && !dot.isEmpty())
+			return true;
+		ListenerManager lm = listeners;
+		return lm!=null && lm.hasValueListeners();
 	}
 
 	/**
@@ -671,6 +864,7 @@ HasInternalLock
 					if(openTransactions<=0) {
 						//enter transaction mode
 						openTransactions=1;
+						jfrTransaction = PileEvents.transactionBegan();
 						if(DE) __checkTransactionReasonCount(openTransactions);
 						setInTransaction.accept(Boolean.TRUE);
 						if(ET_TRACE && traceEnabledFor(this))trace("entered transaction mode");
@@ -713,7 +907,7 @@ HasInternalLock
 							informQueue.add(()->{
 								if(ET_TRACE && traceEnabledFor(this))trace("now informing dependers that I have become invalid");
 								if(informed==null)
-									informed=new HashSet<>();
+									informed=new FlaggedSet<>();
 								else {
 									//assert informed.isEmpty();
 								}
@@ -811,6 +1005,7 @@ HasInternalLock
 		boolean startRecomputation=false;
 		boolean cancelRecomputation=false;
 		boolean inform;
+		Object jfrEnded = null;
 
 		//		boolean changedToInvalid=false;
 		//		boolean firedChange=false;
@@ -898,7 +1093,7 @@ HasInternalLock
 									if(informed==null)
 										return;
 									//cause.clone();
-									Depender[] notify = informed.toArray(new Depender[informed.size()]);
+									Depender[] notify = informed.toArray(new Depender[0]);
 									informed.clear();
 									for(Depender d: notify) {
 										try {
@@ -916,6 +1111,8 @@ HasInternalLock
 					}finally {
 						if(openTransactions==0) {
 							setInTransaction.accept(false);
+							jfrEnded = jfrTransaction;
+							jfrTransaction = null;
 
 
 						}
@@ -936,6 +1133,7 @@ HasInternalLock
 				becameLongTermValid=false;
 			}
 		}finally {
+			PileEvents.transactionEnded(jfrEnded, this);
 			__workInformQueue();
 			//			if(isAutoValidating()) {
 			//
@@ -1012,6 +1210,13 @@ HasInternalLock
 	protected abstract int __recomputerTransactions();
 
 
+	/**
+	 * Whether {@link #informLongTermInvalid()} has put a notification into the {@link #informQueue}
+	 * that has not run yet. Lock-free reads call that method on every read of an invalid value;
+	 * this keeps them from queueing more than one notification at a time.
+	 * Access to this field needs to be synchronized using the {@link #mutex}.
+	 */
+	private boolean longTermInvalidPending;
 	/**
 	 * Inform the {@link Depender}s that this value's invalidity is now observable, and cause
 	 * setting the observed validity to false (using {@link #__setValidity(boolean)} 
@@ -1047,7 +1252,11 @@ HasInternalLock
 						assert !Thread.holdsLock(informQueue);
 						// assert !Thread.holdsLock(informRunnerMutex);
 						informing.add(this);
-						if(propagate) {
+						if(propagate && longTermInvalidPending) {
+							// one notification is already queued and has not run yet
+							propagate=false;
+						}else if(propagate) {
+							longTermInvalidPending=true;
 							synchronized (informQueue) {
 								//						RuntimeException xtrace=null;
 								//						try {
@@ -1059,6 +1268,7 @@ HasInternalLock
 								//						RuntimeException fxtrace = xtrace;
 								informQueue.add(()->{
 									synchronized(mutex) {
+										longTermInvalidPending=false;
 										boolean valid = __valid();
 										if(!valid) {
 											if(ET_TRACE && traceEnabledFor(this))trace("setValidity(false) invoked from informLongTermInvalid, ");
@@ -1127,7 +1337,7 @@ HasInternalLock
 				//changed=mutated;  //this doesn't work right
 				changed=false;
 				if(ET_TRACE && traceEnabledFor(this))trace("not changed but restored");
-				WaitService.get().notifyAll(mutex);
+				notifyMutexWaiters();
 			}else {
 				changed=false;
 				if(ET_TRACE && traceEnabledFor(this))trace("not changed but remained invalid");
@@ -1504,6 +1714,17 @@ HasInternalLock
 		synchronized (mutex) { //FIX?
 			ListenValue.Managed.super.addValueListener(l);
 		}
+		observerAdded();
+	}
+	@Override
+	public void removeValueListener(ValueListener l) {
+		ListenValue.Managed.super.removeValueListener(l);
+		observerRemoved();
+	}
+	@Override
+	public void removeWeakValueListener(ValueListener wrapped) {
+		ListenValue.Managed.super.removeWeakValueListener(wrapped);
+		observerRemoved();
 	}
 
 	@Override
@@ -1809,7 +2030,14 @@ HasInternalLock
 				dep.__dependerNeedsDeepRevalidate(self, true);
 		}else {
 			synchronized (mutex) {
+				// If neither this object nor any of its dependers needed deep revalidation,
+				// the dependencies have nothing to retract. Skipping this matters for values
+				// with many dependencies, since it happens at the end of every transaction.
+				boolean wasNeeded = thisNeedsDeepRevalidate ||
+						dependersNeedingDeepRevalidate!=null && !dependersNeedingDeepRevalidate.isEmpty();
 				thisNeedsDeepRevalidate=false;
+				if(!wasNeeded)
+					return;
 				if(dependersNeedingDeepRevalidate!=null) {
 					for(Iterator<WeakIdentityCleanup<Depender>> i = dependersNeedingDeepRevalidate.iterator(); i.hasNext(); ) {
 						WeakIdentityCleanup<Depender> ref = i.next();
@@ -1922,6 +2150,17 @@ HasInternalLock
 
 	@Override
 	public void await(WaitService ws, BooleanSupplier c) throws InterruptedException {
+		if(c.getAsBoolean())
+			return;
+		if(LockMonitor.isPreferred()) {
+			LockMonitor lm = lockMonitor();
+			while(true) {
+				int seen = lm.generation();
+				if(c.getAsBoolean())
+					return;
+				lm.awaitChangeMillis(ws, seen, 1000);
+			}
+		}
 		while(!c.getAsBoolean()) {
 			synchronized (mutex) {
 				ws.wait(mutex, 1000);
@@ -1931,6 +2170,18 @@ HasInternalLock
 	@Override
 	public boolean await(WaitService ws, BooleanSupplier c, long millis) throws InterruptedException {
 		long t0 = System.currentTimeMillis();
+		if(LockMonitor.isPreferred() && !c.getAsBoolean()) {
+			LockMonitor lm = lockMonitor();
+			while(true) {
+				int seen = lm.generation();
+				if(c.getAsBoolean())
+					return true;
+				long left = millis - (System.currentTimeMillis()-t0);
+				if(left<=0)
+					return false;
+				lm.awaitChangeMillis(ws, seen, Math.min(1000, left));
+			}
+		}
 		while(!c.getAsBoolean()) {
 			synchronized (mutex) {
 				long left = millis - (System.currentTimeMillis()-t0);
@@ -1,8 +1,14 @@
 package pile.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -15,6 +21,7 @@ import pile.aspect.combinations.ReadWriteListenDependency;
 import pile.aspect.recompute.Recomputations;
 import pile.aspect.suppress.MockBlock;
 import pile.aspect.suppress.Suppressor;
+import pile.aspect.WriteValue;
 import pile.specialized_bool.PileBool;
 import pile.specialized_bool.SealBool;
 import pile.specialized_bool.combinations.ReadListenDependencyBool;
@@ -83,7 +90,7 @@ implements Iterable<E>{
 		}finally {
 			head().autoValidate();
 		}
-		intervalRemoved(0, oldSize-1);
+		changed(ListChangeSet.removed(0, oldSize-1));
 	}
 	/**
 	 * Remove every element for which {@code filter} tests <code>true</code>. For each removed element,
@@ -95,20 +102,26 @@ implements Iterable<E>{
 		int oldSize=elems.size();
 		if(oldSize==0)
 			return;
-		int firstRemoved = -1;
 		int removedCount = 0;
+		// runs of removed elements, as pairs of (first, last) in the old indices
+		ArrayList<int[]> runs = null;
 		try(Suppressor s = head().suppressAutoValidation()){
-			for(int i=0; i<elems.size(); ++i){
+			for(int i=0; i<oldSize; ++i){
 				ReadWriteListenDependency<E> v = elems.get(i);
 				if(filter.test(v.get())) {
 					head().removeDependency(v);
 					elems.set(i, null);
 					v.destroy();
 					++ removedCount;
-					if(firstRemoved==-1) {
+					if(runs==null) {
 						head().permaInvalidate();
-						firstRemoved = i;
+						runs = new ArrayList<>();
 					}
+					int[] last = runs.isEmpty()?null:runs.get(runs.size()-1);
+					if(last!=null && last[1]==i-1)
+						last[1] = i;
+					else
+						runs.add(new int[] {i, i});
 				}else if(removedCount!=0) {
 					elems.set(i-removedCount, v);
 				}
@@ -119,8 +132,11 @@ implements Iterable<E>{
 		}finally {
 			head().autoValidate();
 		}
-		if(firstRemoved>=0) {
-			contentsChanged(firstRemoved, elems.size()+removedCount);
+		if(runs!=null) {
+			ListChangeSet.Builder cs = new ListChangeSet.Builder();
+			for(int r=runs.size()-1; r>=0; --r)
+				cs.add(ListChangeSet.Kind.REMOVED, runs.get(r)[0], runs.get(r)[1]);
+			changed(cs.build());
 		}
 	}
 	/**
@@ -145,6 +161,83 @@ implements Iterable<E>{
 	 * @param index1
 	 */
 	protected  void contentsChanged(int begin, int end) {}
+	/**
+	 * Call {@link #intervalRemoved(int, int)}, {@link #intervalAdded(int, int)} or {@link #contentsChanged(int, int)}
+	 * for each {@link ListChangeSet.Range} and publish the {@link ListChangeSet} on {@link #changes()}.
+	 * @param cs
+	 */
+	protected void changed(ListChangeSet cs) {
+		if(cs.isEmpty() || manipulating)
+			return;
+		for(ListChangeSet.Range r: cs.getRanges()) {
+			switch(r.kind) {
+			case INSERTED:
+				intervalAdded(r.begin, r.end);
+				break;
+			case REMOVED:
+				intervalRemoved(r.begin, r.end);
+				break;
+			case UPDATED:
+				contentsChanged(r.begin, r.end);
+				break;
+			}
+		}
+		ListView.Mirror<E> v = view;
+		if(v!=null)
+			v.sourceChanged(cs);
+		if(changesR!=null)
+			setChanges.set(cs);
+	}
+	/**
+	 * This field caches the result of {@link #view()}. Guarded by the monitor of {@code this}.
+	 */
+	ListView.Mirror<E> view;
+	/**
+	 * Get the {@link ListView} of this list, which follows its structural changes and the changes of the values of
+	 * its elements incrementally, and from which {@link ListView#map(Function) mapped}, 
+	 * {@link ListView#filter(Predicate) filtered} and {@link ListView#sorted(java.util.Comparator) sorted} views can be derived.
+	 * It is made when this method is first called, and {@link ListView#destroy() destroy}ed together with this list.
+	 * @return
+	 */
+	public synchronized ListView<E> view() {
+		if(view==null || view.isDestroyed())
+			view = new ListView.Mirror<>(this);
+		return view;
+	}
+	/**
+	 * This field caches the result of {@link #changes()}
+	 */
+	volatile Independent<ListChangeSet> changesR;
+	/**
+	 * Used to set {@link #changes()}
+	 */
+	WriteValue<ListChangeSet> setChanges;
+	/**
+	 * Get a lazily initialized value that takes on the {@link ListChangeSet} of each structural change of this list,
+	 * in the {@link Thread} that made the change.
+	 * Its value is <code>null</code> until the first change after it was created.
+	 * Each change set is a new object, so a {@link pile.aspect.listen.ValueListener} on this value 
+	 * is informed of every change, even if two change sets look alike.
+	 * @return
+	 */
+	public ReadListenDependency<ListChangeSet> changes() {
+		Independent<ListChangeSet> localRef = changesR;
+		if (localRef == null) {
+			synchronized (this) {
+				localRef = changesR;
+				if (localRef == null) {
+					localRef = new Independent<>(null);
+					localRef._setEquivalence((a, b)->a==b);
+					setChanges = localRef.makeSetter();
+					localRef.setName((name==null?"?":name)+".changes");
+					localRef.owner=this;
+					localRef.seal();
+					changesR = localRef;
+				}
+			}
+		}
+		return localRef;
+	}
 	/**
 	 * Add an element at the end of the list. 
 	 * It is wrapped in a {@link ReadDependency} by the {@link #wrap(Object)} method.
@@ -224,18 +317,37 @@ implements Iterable<E>{
 			elems.add(index, e);
 		}
 		
-		intervalAdded(index, index);
+		changed(ListChangeSet.inserted(index, index));
 	}
+	/**
+	 * Whether {@link #manipulate(Runnable)} is running. While it is, {@link #changed(ListChangeSet)} reports nothing.
+	 */
 	protected boolean manipulating;
+	/**
+	 * Run an action that changes the list, and report all of its changes as one {@link ListChangeSet}:
+	 * {@link ListChangeSet.Kind#UPDATED updated} over the indices that the old and the new size share,
+	 * then {@link ListChangeSet.Kind#REMOVED removed} or {@link ListChangeSet.Kind#INSERTED inserted} for the difference.
+	 * The changes made by the action itself are not reported.
+	 * @param action
+	 */
 	public synchronized void manipulate(Runnable action) {
 		boolean om = manipulating;
+		int oldSize = elems.size();
 		try(Suppressor s = head().suppressAutoValidation()){
 			manipulating=true;
 			action.run();
 		}finally {
 			manipulating=om;
+			if(!om) {
+				int size = elems.size();
+				int common = Math.min(oldSize, size);
+				changed(new ListChangeSet.Builder()
+						.add(ListChangeSet.Kind.UPDATED, 0, common-1)
+						.add(ListChangeSet.Kind.REMOVED, common, oldSize-1)
+						.add(ListChangeSet.Kind.INSERTED, common, size-1)
+						.build());
+			}
 		}
-		contentsChanged(0, size());
 	}
 	/**
 	 * Replace an element at the specified index, wrapped in the given {@link ReadWriteListenDependency}.
@@ -252,7 +364,179 @@ implements Iterable<E>{
 			head().addDependency(e);
 			elems.add(index, e);
 		}
-		intervalAdded(index, index);
+		changed(ListChangeSet.updated(index, index));
+	}
+	/**
+	 * Wrap each element with {@link #wrap(Object)}
+	 * @param es
+	 * @return
+	 */
+	private ArrayList<ReadWriteListenDependency<E>> wrapAll(Collection<? extends E> es){
+		ArrayList<ReadWriteListenDependency<E>> ret = new ArrayList<>(es.size());
+		for(E e: es)
+			ret.add(wrap(e));
+		return ret;
+	}
+	/**
+	 * Add elements at the end of the list. 
+	 * They are wrapped in {@link ReadDependency ReadDependencies} by the {@link #wrap(Object)} method.
+	 * @see #addAllV(int, Collection)
+	 * @param es
+	 */
+	public synchronized void addAll(Collection<? extends E> es){
+		addAllV(elems.size(), wrapAll(es));
+	}
+	/**
+	 * Insert elements at the specified index. 
+	 * They are wrapped in {@link ReadDependency ReadDependencies} by the {@link #wrap(Object)} method.
+	 * @see #addAllV(int, Collection)
+	 * @param index
+	 * @param es
+	 */
+	public synchronized void addAll(int index, Collection<? extends E> es){
+		addAllV(index, wrapAll(es));
+	}
+	/**
+	 * Insert elements at the specified index, wrapped in the given {@link ReadWriteListenDependency ReadWriteListenDependencies}.
+	 * The {@link #head()} is invalidated only once for all of them, and the change is reported as one {@link ListChangeSet}.
+	 * Note that the {@link ReadWriteListenDependency ReadWriteListenDependencies} will be 
+	 * {@link ReadDependency#destroy() destroy}ed when the elements are removed.
+	 * @param index
+	 * @param es
+	 */
+	public synchronized void addAllV(int index, Collection<? extends ReadWriteListenDependency<E>> es){
+		replaceRangeV(index, index, es);
+	}
+	/**
+	 * Replace all elements of the list. 
+	 * The new elements are wrapped in {@link ReadDependency ReadDependencies} by the {@link #wrap(Object)} method.
+	 * @see #replaceRangeV(int, int, Collection)
+	 * @param es
+	 */
+	public synchronized void setAll(Collection<? extends E> es){
+		replaceRangeV(0, elems.size(), wrapAll(es));
+	}
+	/**
+	 * Replace all elements of the list with the given {@link ReadWriteListenDependency ReadWriteListenDependencies}.
+	 * @see #replaceRangeV(int, int, Collection)
+	 * @param es
+	 */
+	public synchronized void setAllV(Collection<? extends ReadWriteListenDependency<E>> es){
+		replaceRangeV(0, elems.size(), es);
+	}
+	/**
+	 * Replace the elements from index <code>from</code> (inclusive) to <code>to</code> (exclusive) with new elements. 
+	 * The new elements are wrapped in {@link ReadDependency ReadDependencies} by the {@link #wrap(Object)} method.
+	 * @see #replaceRangeV(int, int, Collection)
+	 * @param from
+	 * @param to
+	 * @param es
+	 */
+	public synchronized void replaceRange(int from, int to, Collection<? extends E> es){
+		replaceRangeV(from, to, wrapAll(es));
+	}
+	/**
+	 * Replace the elements from index <code>from</code> (inclusive) to <code>to</code> (exclusive) with new elements,
+	 * wrapped in the given {@link ReadWriteListenDependency ReadWriteListenDependencies}.
+	 * <p>
+	 * The {@link #head()} stops depending on the removed elements and starts depending on the new ones without being 
+	 * invalidated for each of them; it is {@link Pile#revalidate() revalidated} once at the end. 
+	 * The removed elements are {@link ReadDependency#destroy() destroy}ed, unless they are among the new ones.
+	 * The change is reported as one {@link ListChangeSet}: The indices where an old element was replaced by a new one 
+	 * are {@link ListChangeSet.Kind#UPDATED updated}, followed by the surplus indices being 
+	 * {@link ListChangeSet.Kind#REMOVED removed} or {@link ListChangeSet.Kind#INSERTED inserted}.
+	 * @param from
+	 * @param to
+	 * @param es
+	 * @throws IndexOutOfBoundsException if the range is not within the list
+	 */
+	public synchronized void replaceRangeV(int from, int to, Collection<? extends ReadWriteListenDependency<E>> es){
+		if(from<0 || to>elems.size() || from>to)
+			throw new IndexOutOfBoundsException("from: "+from+", to: "+to+", size: "+elems.size());
+		int oldCount = to-from;
+		int newCount = es.size();
+		if(oldCount==0 && newCount==0)
+			return;
+		ArrayList<ReadWriteListenDependency<E>> add = new ArrayList<>(es);
+		List<ReadWriteListenDependency<E>> range = elems.subList(from, to);
+		ArrayList<ReadWriteListenDependency<E>> removed = new ArrayList<>(range);
+		Set<ReadWriteListenDependency<E>> keep = null;
+		if(oldCount!=0 && newCount!=0) {
+			keep = Collections.newSetFromMap(new IdentityHashMap<>());
+			keep.addAll(add);
+		}
+		try(Suppressor s = head().suppressAutoValidation()){
+			for(ReadWriteListenDependency<E> v: removed)
+				head().removeDependency(v, false);
+			for(ReadWriteListenDependency<E> v: add)
+				head().addDependency(v, false);
+			range.clear();
+			elems.addAll(from, add);
+			head().revalidate();
+			for(ReadWriteListenDependency<E> v: removed)
+				if(keep==null || !keep.contains(v))
+					v.destroy();
+		}
+		int common = Math.min(oldCount, newCount);
+		changed(new ListChangeSet.Builder()
+				.add(ListChangeSet.Kind.UPDATED, from, from+common-1)
+				.add(ListChangeSet.Kind.REMOVED, from+common, from+oldCount-1)
+				.add(ListChangeSet.Kind.INSERTED, from+common, from+newCount-1)
+				.build());
+	}
+	/**
+	 * Remove every element that is not {@link Object#equals(Object) equal} to an element of the given {@link Collection}.
+	 * The removed elements are {@link ReadDependency#destroy() destroy}ed. 
+	 * The {@link #head()} is invalidated only once, and the change is reported as one {@link ListChangeSet}
+	 * with a {@link ListChangeSet.Kind#REMOVED removed} range for each run of consecutive removed elements,
+	 * from the last to the first.
+	 * @param keep
+	 * @return Whether any element was removed
+	 */
+	public synchronized boolean retainAll(Collection<?> keep){
+		Collection<?> lookup = keep instanceof Set || keep.size()<8 ? keep : new HashSet<>(keep);
+		int size = elems.size();
+		// decide first, so that an exception from get() or contains() leaves the list untouched
+		boolean[] retain = new boolean[size];
+		ArrayList<ReadWriteListenDependency<E>> removed = null;
+		// runs of removed elements, as pairs of (first, last) in the old indices
+		ArrayList<int[]> runs = null;
+		for(int i=0; i<size; ++i) {
+			ReadWriteListenDependency<E> v = elems.get(i);
+			if(lookup.contains(v.get())) {
+				retain[i] = true;
+				continue;
+			}
+			if(removed==null) {
+				removed = new ArrayList<>();
+				runs = new ArrayList<>();
+			}
+			removed.add(v);
+			int[] last = runs.isEmpty()?null:runs.get(runs.size()-1);
+			if(last!=null && last[1]==i-1)
+				last[1] = i;
+			else
+				runs.add(new int[] {i, i});
+		}
+		if(removed==null)
+			return false;
+		ListChangeSet.Builder cs = new ListChangeSet.Builder();
+		try(Suppressor s = head().suppressAutoValidation()){
+			for(ReadWriteListenDependency<E> v: removed)
+				head().removeDependency(v, false);
+			int kept = 0;
+			for(int i=0; i<size; ++i)
+				if(retain[i])
+					elems.set(kept++, elems.get(i));
+			elems.subList(kept, size).clear();
+			head().revalidate();
+			for(ReadWriteListenDependency<E> v: removed)
+				v.destroy();
+		}
+		for(int r=runs.size()-1; r>=0; --r)
+			cs.add(ListChangeSet.Kind.REMOVED, runs.get(r)[0], runs.get(r)[1]);
+		changed(cs.build());
+		return true;
 	}
 	/**
 	 * Remove an element by index.
@@ -265,7 +549,7 @@ implements Iterable<E>{
 			elems.remove(i);
 			v.destroy();
 		}
-		intervalRemoved(i, i);
+		changed(ListChangeSet.removed(i, i));
 	}
 	/**
 	 * Get the {@link ReadWriteListenDependency} wrapping the element at the specified index.
@@ -334,7 +618,7 @@ implements Iterable<E>{
 						last.destroy();
 						last=null;
 					}
-					intervalRemoved(i, i);
+					changed(ListChangeSet.removed(i, i));
 				}
 				--i;
 			}
@@ -429,7 +713,7 @@ implements Iterable<E>{
 						last.destroy();
 						last=null;
 					}
-					intervalRemoved(i, i);
+					changed(ListChangeSet.removed(i, i));
 
 				}
 
@@ -669,6 +953,12 @@ implements Iterable<E>{
 			return;
 		destroyed=true;
 		subclassDestroy();
+		ListView<E> v;
+		synchronized (this) {
+			v = view;
+		}
+		if(v!=null)
+			v.destroy();
 
 	}
 
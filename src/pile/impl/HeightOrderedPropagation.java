@@ -0,0 +1,200 @@
+package pile.impl;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import pile.aspect.Depender;
+import pile.aspect.recompute.Recomputations;
+
+/**
+ * An optional propagation engine that replaces the recursive, node-by-node draining of the
+ * {@link AbstractReadListenDependency#informQueue informQueue}s with a per-thread
+ * <em>change wave</em> that visits the affected values in the order of their topological height.
+ * <p>
+ * Every {@link AbstractReadListenDependency} is assigned a {@link AbstractReadListenDependency#height height}:
+ * values without dependencies have height 0, and a {@link Depender} is always higher than all of its
+ * {@link pile.aspect.Dependency Dependencies}. Heights are maintained when dependers are added;
+ * they are never lowered when dependencies are removed, which only makes the ordering coarser.
+ * <p>
+ * When this mode is {@linkplain #setEnabled(boolean) enabled}, the first call to
+ * {@link AbstractReadListenDependency#__workInformQueue(boolean)} in a {@link Thread} starts a wave.
+ * Calls that happen while the wave is being processed (typically from the informing of
+ * {@link Depender}s) do not recurse into the informQueue of the next value; instead, that value is
+ * put into a priority queue ordered by height. Each value is contained at most once in that queue,
+ * so all notifications it has collected are processed in one go, and a value is only processed
+ * after all lower values that were already affected by the wave. The wave ends when the priority queue is
+ * empty; work deferred using {@link Recomputations#NOT_NOW}, such as the firing of {@link pile.aspect.listen.ValueEvent}s,
+ * is held back until then.
+ * <p>
+ * The per-value informQueue and its single-runner protocol remain in place and are still used to actually
+ * run the notifications, so values that are not involved in a wave, and the mode being disabled,
+ * behave exactly as before.
+ * <p>
+ * Heights are only tracked while the mode is enabled. It should therefore be enabled at startup,
+ * before the dependency graph is built; enabling it later is safe but yields a less precise order.
+ *
+ * @author bb
+ *
+ */
+public final class HeightOrderedPropagation {
+	private HeightOrderedPropagation() {}
+
+	/**
+	 * Heights are capped at this value so that dependency cycles cannot
+	 * make {@link #raiseHeight(AbstractReadListenDependency, int)} run forever.
+	 */
+	public static final int MAX_HEIGHT = 1<<16;
+
+	private static volatile boolean enabled;
+
+	/**
+	 * Enable or disable height-ordered propagation for all reactive values.
+	 * @param b
+	 */
+	public static void setEnabled(boolean b) {
+		enabled = b;
+	}
+	/**
+	 *
+	 * @return Whether height-ordered propagation is currently enabled.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Get the topological height that has been assigned to a value, mostly for debugging purposes.
+	 * @param v
+	 * @return The height, or -1 if the value is not an {@link AbstractReadListenDependency}
+	 */
+	public static int heightOf(Object v) {
+		return v instanceof AbstractReadListenDependency?((AbstractReadListenDependency<?>) v).height:-1;
+	}
+
+	/**
+	 * An entry in the priority queue of a {@link Wave}
+	 */
+	private static final class Entry implements Comparable<Entry>{
+		final AbstractReadListenDependency<?> value;
+		final int height;
+		final long seq;
+		boolean evade;
+		Entry(AbstractReadListenDependency<?> value, long seq, boolean evade) {
+			this.value = value;
+			this.height = value.height;
+			this.seq = seq;
+			this.evade = evade;
+		}
+		@Override
+		public int compareTo(Entry o) {
+			if(height!=o.height)
+				return height<o.height?-1:1;
+			return Long.compare(seq, o.seq);
+		}
+	}
+	/**
+	 * The state of the change wave that is being processed by a {@link Thread}
+	 */
+	private static final class Wave{
+		final PriorityQueue<Entry> queue = new PriorityQueue<>();
+		final IdentityHashMap<AbstractReadListenDependency<?>, Entry> queued = new IdentityHashMap<>();
+		long seq;
+		boolean running;
+
+		void add(AbstractReadListenDependency<?> v, boolean evade) {
+			Entry e = queued.get(v);
+			if(e!=null) {
+				e.evade &= evade;
+				return;
+			}
+			e = new Entry(v, seq++, evade);
+			queued.put(v, e);
+			queue.add(e);
+		}
+		Entry poll() {
+			Entry e = queue.poll();
+			if(e!=null)
+				queued.remove(e.value);
+			return e;
+		}
+		void clear() {
+			queue.clear();
+			queued.clear();
+			seq = 0;
+		}
+	}
+	private static final ThreadLocal<Wave> wave = ThreadLocal.withInitial(Wave::new);
+
+	/**
+	 * Called from {@link AbstractReadListenDependency#__workInformQueue(boolean)}.
+	 * @param v
+	 * @param evade
+	 * @return <code>false</code> if height-ordered propagation is disabled and the caller should
+	 * work its informQueue the traditional way.
+	 */
+	static boolean workInformQueue(AbstractReadListenDependency<?> v, boolean evade) {
+		if(!enabled)
+			return false;
+		Wave w = wave.get();
+		if(w.running) {
+			w.add(v, evade);
+			return true;
+		}
+		w.running = true;
+		try {
+			Recomputations.NOT_NOW.__incrementSuppressors();
+			try {
+				v.____workInformQueue__undeferred(evade);
+				for(Entry e = w.poll(); e!=null; e = w.poll())
+					e.value.____workInformQueue__undeferred(e.evade);
+			}finally {
+				w.running = false;
+				w.clear();
+			}
+		}finally {
+			Recomputations.NOT_NOW.__decrementSuppressors();
+		}
+		return true;
+	}
+
+	/**
+	 * Make sure that the given depender is higher than a dependency of height <code>h-1</code>,
+	 * and propagate the change to its own dependers.
+	 * The current thread must not have locked the {@link AbstractReadListenDependency#mutex mutex}
+	 * of any of the values involved.
+	 * @param d
+	 * @param h the minimum height
+	 */
+	static void raiseHeight(AbstractReadListenDependency<?> d, int h) {
+		if(d.height>=h)
+			return;
+		d.height = Math.min(h, MAX_HEIGHT);
+		HeightRaiser raiser = new HeightRaiser();
+		raiser.todo.add(d);
+		for(AbstractReadListenDependency<?> a = raiser.todo.poll(); a!=null; a = raiser.todo.poll()) {
+			if(a.height>=MAX_HEIGHT)
+				continue;
+			raiser.next = a.height+1;
+			a.giveDependers(raiser);
+		}
+	}
+	/**
+	 * Worklist for {@link HeightOrderedPropagation#raiseHeight(AbstractReadListenDependency, int)}
+	 */
+	private static final class HeightRaiser implements Consumer<Depender>{
+		final ArrayDeque<AbstractReadListenDependency<?>> todo = new ArrayDeque<>();
+		int next;
+		@Override
+		public void accept(Depender d) {
+			if(d instanceof AbstractReadListenDependency) {
+				AbstractReadListenDependency<?> a = (AbstractReadListenDependency<?>) d;
+				if(a.height<next) {
+					a.height = next;
+					todo.add(a);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package pile.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import pile.aspect.Dependency;
+import pile.aspect.combinations.ReadListenDependency;
+import pile.aspect.recompute.Recomputation;
+import pile.builder.SealPileBuilder;
+
+/**
+ * An alternative to {@link Piles#aggregate(Piles.AggregationMonoid, Iterable)} that aggregates
+ * any number of values using a single reactive value, instead of a binary tree of reactive values.
+ * The aggregate depends on all its inputs directly. When it is recomputed, it asks the
+ * {@link Recomputation} which {@link Recomputation#queryChangedDependencies(boolean) dependencies changed}
+ * and only folds those into its result:
+ * <ul>
+ * <li>For {@linkplain #invertible(Object, Function, BinaryOperator, BinaryOperator) invertible} operations
+ * (such as sums) the old value of an input is removed from the running result and the new one is added,
+ * which takes constant time per changed input.</li>
+ * <li>For all other {@linkplain #associative(Object, Function, BinaryOperator) associative} operations
+ * (such as minimum, maximum, conjunction and disjunction) an array-backed segment tree is maintained,
+ * which takes logarithmic time per changed input.</li>
+ * </ul>
+ * Like the binary operations of the specialized reactive types, the aggregate is <code>null</code>
+ * as long as any of the inputs is <code>null</code>.
+ * <p>
+ * If many inputs changed at once, or the state of the aggregate cannot be trusted (for example because
+ * the previous recomputation did not succeed), everything is recomputed from scratch.
+ * Invertible aggregates are also recomputed from scratch after as many incremental updates as there are
+ * inputs, so that rounding errors of floating point operations cannot accumulate.
+ * <p>
+ * Instances of this class are immutable descriptions of the operation and can be shared;
+ * the state of each aggregate is created by {@link #aggregate(SealPile, Iterable)}.
+ * @author bb
+ *
+ * @param <I> The type of the inputs
+ * @param <E> The type of the result
+ */
+public class IncrementalAggregation<I, E> {
+	final E neutral;
+	final Function<? super I, ? extends E> lift;
+	final BinaryOperator<E> op;
+	final BinaryOperator<E> inverse;
+	/**
+	 * Names the aggregate, given the names of two operands; <code>null</code> for no name
+	 */
+	final BinaryOperator<String> namer;
+
+	/**
+	 *
+	 * @param neutral The neutral element of the operation; also the result if there are no inputs
+	 * @param lift Converts a non-<code>null</code> input value into the result type
+	 * @param op The associative operation
+	 * @param inverse If not <code>null</code>, <code>inverse.apply(op.apply(a, b), b)</code> must be equal to <code>a</code>,
+	 * or <code>null</code> if the operation cannot be undone for these operands
+	 */
+	protected IncrementalAggregation(
+			E neutral,
+			Function<? super I, ? extends E> lift,
+			BinaryOperator<E> op,
+			BinaryOperator<E> inverse) {
+		this(neutral, lift, op, inverse, null);
+	}
+	/**
+	 * 
+	 * @param neutral
+	 * @param lift
+	 * @param op
+	 * @param inverse
+	 * @param namer See {@link #named(BinaryOperator)}
+	 */
+	protected IncrementalAggregation(
+			E neutral,
+			Function<? super I, ? extends E> lift,
+			BinaryOperator<E> op,
+			BinaryOperator<E> inverse,
+			BinaryOperator<String> namer) {
+		this.neutral = neutral;
+		this.lift = lift;
+		this.op = op;
+		this.inverse = inverse;
+		this.namer = namer;
+	}
+	/**
+	 * Describe an aggregation using an operation that can be undone,
+	 * so that changed inputs can be handled in constant time.
+	 * @param <I>
+	 * @param <E>
+	 * @param neutral The neutral element of the operation; also the result if there are no inputs
+	 * @param lift Converts a non-<code>null</code> input value into the result type
+	 * @param op An associative and commutative operation
+	 * @param inverse Undoes the operation: <code>inverse.apply(op.apply(a, b), b)</code> must be equal to <code>a</code>.
+	 * It may return <code>null</code> if the operation cannot be undone for these operands
+	 * (for example, an infinite sum), in which case the aggregate is recomputed from scratch.
+	 * @return
+	 */
+	public static <I, E> IncrementalAggregation<I, E> invertible(
+			E neutral,
+			Function<? super I, ? extends E> lift,
+			BinaryOperator<E> op,
+			BinaryOperator<E> inverse){
+		if(inverse==null)
+			throw new NullPointerException("inverse");
+		return new IncrementalAggregation<>(neutral, lift, op, inverse);
+	}
+	/**
+	 * Describe an aggregation using an associative operation,
+	 * so that changed inputs can be handled in logarithmic time.
+	 * The order of the inputs is preserved, so the operation need not be commutative.
+	 * @param <I>
+	 * @param <E>
+	 * @param neutral The neutral element of the operation; also the result if there are no inputs
+	 * @param lift Converts a non-<code>null</code> input value into the result type
+	 * @param op An associative operation
+	 * @return
+	 */
+	public static <I, E> IncrementalAggregation<I, E> associative(
+			E neutral,
+			Function<? super I, ? extends E> lift,
+			BinaryOperator<E> op){
+		return new IncrementalAggregation<>(neutral, lift, op, null);
+	}
+
+	/**
+	 * Make aggregates of two or more values get the name that the root of the tree built by 
+	 * {@link Piles#aggregate(Piles.AggregationMonoid, Iterable)} would have gotten, if the binary operation 
+	 * named its result using the given function.
+	 * @param namer Makes a name from the {@link Dependency#dependencyName() names} of two operands,
+	 * which may be <code>null</code>
+	 * @return A copy of this aggregation that names its aggregates
+	 */
+	public IncrementalAggregation<I, E> named(BinaryOperator<String> namer) {
+		return new IncrementalAggregation<>(neutral, lift, op, inverse, namer);
+	}
+	/**
+	 * Configure a not yet {@link SealPile#seal() seal}ed {@link SealPile} to take on the aggregate
+	 * of the given values, and seal it.
+	 * <code>null</code> items are ignored.
+	 * @param <V>
+	 * @param template
+	 * @param items
+	 * @return The <code>template</code>
+	 */
+	public <V extends SealPile<E>> V aggregate(V template, Iterable<? extends ReadListenDependency<? extends I>> items) {
+		ArrayList<ReadListenDependency<? extends I>> inputs = new ArrayList<>();
+		for(ReadListenDependency<? extends I> item: items)
+			if(item!=null)
+				inputs.add(item);
+		Node node = new Node(inputs);
+		SealPileBuilder<V, E> b = new SealPileBuilder<>(template)
+				.recompute(node)
+				.seal();
+		String name = name(inputs);
+		if(name!=null)
+			b.name(name);
+		return b.whenChanged(node.inputs);
+	}
+	/**
+	 * @param inputs
+	 * @return The name that the aggregate of the inputs would have had if it had been built by 
+	 * {@link Piles#aggregate(Piles.AggregationMonoid, Iterable)}, or <code>null</code>
+	 */
+	private String name(ArrayList<? extends ReadListenDependency<?>> inputs) {
+		if(inputs.size()==1)
+			// Piles.aggregate would have made a read-only wrapper
+			return inputs.get(0).dependencyName()+" readOnly";
+		if(namer==null || inputs.isEmpty())
+			return null;
+		// the same tree shape as in Piles.aggregate
+		ArrayList<String> stack = new ArrayList<>();
+		for(int index=0; index<inputs.size(); ++index) {
+			stack.add(inputs.get(index).dependencyName());
+			for(int bits = index; (bits&1)!=0; bits>>>=1) {
+				String op2 = stack.remove(stack.size()-1);
+				String op1 = stack.remove(stack.size()-1);
+				stack.add(namer.apply(op1, op2));
+			}
+		}
+		String op2 = stack.remove(stack.size()-1);
+		while(!stack.isEmpty())
+			op2 = namer.apply(stack.remove(stack.size()-1), op2);
+		return op2;
+	}
+	/**
+	 * The state of one aggregate
+	 */
+	private final class Node implements Consumer<Recomputation<E>>{
+		final ReadListenDependency<?>[] inputs;
+		/**
+		 * For each input, the indices at which it occurs in {@link #inputs}
+		 */
+		final IdentityHashMap<Dependency, int[]> positions = new IdentityHashMap<>();
+		/**
+		 * The lifted values of the inputs as of the last update, <code>null</code> for <code>null</code> inputs
+		 */
+		final Object[] values;
+		/**
+		 * Segment tree; the leaves start at index {@link #leaves}. <code>null</code> for invertible operations.
+		 */
+		final Object[] tree;
+		final int leaves;
+		int nulls;
+		E acc;
+		int sinceRebuild;
+		boolean initialized;
+		E lastResult;
+
+		Node(ArrayList<ReadListenDependency<? extends I>> in){
+			inputs = in.toArray(new ReadListenDependency<?>[in.size()]);
+			values = new Object[inputs.length];
+			for(int i=0; i<inputs.length; ++i) {
+				int[] old = positions.get(inputs[i]);
+				int[] pos;
+				if(old==null) {
+					pos = new int[] {i};
+				}else {
+					pos = new int[old.length+1];
+					System.arraycopy(old, 0, pos, 0, old.length);
+					pos[old.length]=i;
+				}
+				positions.put(inputs[i], pos);
+			}
+			if(inverse==null) {
+				int l = 1;
+				while(l<inputs.length)
+					l<<=1;
+				leaves = l;
+				tree = new Object[2*l];
+			}else {
+				leaves = 0;
+				tree = null;
+			}
+		}
+		@Override
+		public synchronized void accept(Recomputation<E> reco) {
+			boolean full = !initialized || !reco.hasOldValue() || !Objects.equals(reco.oldValue(), lastResult);
+			if(!full) {
+				Set<? extends Dependency> changed = reco.queryChangedDependencies(true);
+				if(changed==null || changed.size()*4>inputs.length)
+					full = true;
+				else if(inverse!=null && (sinceRebuild+=changed.size())>inputs.length)
+					full = true;
+				else {
+					for(Dependency d: changed) {
+						if(!positions.containsKey(d)) {
+							full = true;
+							break;
+						}
+					}
+					if(!full) {
+						update:
+						for(Dependency d: changed) {
+							for(int i: positions.get(d)) {
+								if(!update(i)) {
+									full = true;
+									break update;
+								}
+							}
+						}
+					}
+				}
+			}
+			if(full)
+				rebuild();
+			E result = nulls>0?null:inverse!=null?acc:get(1);
+			lastResult = result;
+			reco.fulfill(result);
+		}
+		@SuppressWarnings("unchecked")
+		E get(int treeIndex) {
+			return (E) tree[treeIndex];
+		}
+		@SuppressWarnings("unchecked")
+		E read(int i) {
+			I v = (I) inputs[i].get();
+			return v==null?null:lift.apply(v);
+		}
+		void rebuild() {
+			initialized = true;
+			sinceRebuild = 0;
+			nulls = 0;
+			E a = neutral;
+			for(int i=0; i<inputs.length; ++i) {
+				E v = read(i);
+				values[i] = v;
+				if(v==null)
+					++nulls;
+				else if(inverse!=null)
+					a = op.apply(a, v);
+			}
+			if(inverse!=null) {
+				acc = a;
+				return;
+			}
+			for(int i=0; i<leaves; ++i)
+				tree[leaves+i] = i<values.length && values[i]!=null?values[i]:neutral;
+			for(int k=leaves-1; k>=1; --k)
+				tree[k] = op.apply(get(2*k), get(2*k+1));
+		}
+		/**
+		 * Fold the current value of an input into the result
+		 * @param i
+		 * @return <code>false</code> if the result needs to be recomputed from scratch
+		 */
+		@SuppressWarnings("unchecked")
+		boolean update(int i) {
+			E old = (E) values[i];
+			E v = read(i);
+			if(old==v)
+				return true;
+			values[i] = v;
+			if(old==null)
+				--nulls;
+			if(v==null)
+				++nulls;
+			if(inverse!=null) {
+				if(old!=null) {
+					acc = inverse.apply(acc, old);
+					if(acc==null)
+						return false;
+				}
+				if(v!=null)
+					acc = op.apply(acc, v);
+				return true;
+			}
+			int k = leaves+i;
+			tree[k] = v==null?neutral:v;
+			for(k>>>=1; k>=1; k>>>=1)
+				tree[k] = op.apply(get(2*k), get(2*k+1));
+			return true;
+		}
+	}
+}
@@ -2,7 +2,6 @@ package pile.impl;
 
 import static pile.interop.debug.DebugEnabled.DE;
 
-import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Objects;
 import java.util.WeakHashMap;
@@ -12,6 +11,7 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import pile.aspect.AssociationStore;
 import pile.aspect.CorrigibleValue;
 import pile.aspect.Dependency;
 import pile.aspect.Depender;
@@ -28,6 +28,7 @@ import pile.aspect.combinations.ReadListenDependency;
 import pile.aspect.combinations.ReadListenValue;
 import pile.aspect.combinations.ReadWriteListenDependency;
 import pile.aspect.listen.ListenValue;
+import pile.aspect.listen.ValueEvent;
 import pile.aspect.listen.ValueListener;
 import pile.aspect.recompute.DependencyRecorder;
 import pile.aspect.recompute.Recomputation;
@@ -83,7 +84,10 @@ HasInfluencers
 
 	@Override public boolean isValid() {return true;}
 
-	E value;
+	/**
+	 * Written while holding the {@link #mutex}; volatile so that {@link #get()} does not need to lock it
+	 */
+	volatile E value;
 	E oldValue;
 	boolean oldValid;
 	/**
@@ -257,6 +261,21 @@ HasInfluencers
 			log.log(Level.SEVERE, "Exception in applyCorrection", x);
 			return get();
 		}
+		return write(val, true);
+	}
+	/**
+	 * The part of {@link #set0(Object)} after the correction
+	 * @param val
+	 * @param mayConflate Whether the write may be put into the {@link #conflation} slot
+	 * @return
+	 */
+	private E write(E val, boolean mayConflate) {
+		// before the equivalence check, because the value may have to replace a different one in the slot
+		if(mayConflate) {
+			Conflation c = conflation;
+			if(c!=null && c.offer(val))
+				return val;
+		}
 		try {
 			ListenValue.DEFER.__incrementSuppressors();		
 
@@ -271,35 +290,229 @@ HasInfluencers
 		try{
 			__beginTransaction();
 			fireDeepRevalidate();
-
-			try{
-				ListenValue.DEFER.__incrementSuppressors();		
-				synchronized (mutex) {
-					if(value!=val) {
-						closeBrackets();
-						value=val;
-						openBrackets();
-					}
-				}
-			}finally {
-				ListenValue.DEFER.__decrementSuppressors();		
-			}
-			setIsNullValue.accept(value==null);
+			assign(val);
 			return val;
 		}finally {
 			__endTransaction(true);
 			synchronized (mutex) {
-				WaitService.get().notifyAll(mutex);
+				notifyMutexWaiters();
+			}
+		}
+	}
+	private void assign(E val) {
+		try{
+			ListenValue.DEFER.__incrementSuppressors();		
+			synchronized (mutex) {
+				if(value!=val) {
+					closeBrackets();
+					value=val;
+					openBrackets();
+				}
+			}
+		}finally {
+			ListenValue.DEFER.__decrementSuppressors();		
+		}
+		setIsNullValue.accept(value==null);
+	}
+	/**
+	 * The first part of {@link #set(Object)}, used by {@link WriteBatch} before it decides whether
+	 * the value changes: apply the correction, unless the value is sealed, in which case the interceptor
+	 * gets the uncorrected value.
+	 * @param val
+	 * @return The value to pass to {@link #__setInTransaction(Object)}
+	 * @throws VetoException if a corrector vetoed the change
+	 */
+	E __correctForBatch(E val) {
+		if(sealed!=null)
+			return val;
+		if(DE && dc!=null) dc.set(this, val);
+		return applyCorrection(val);
+	}
+	/**
+	 * Like {@link #set(Object)}, but the caller has already opened a transaction on this value
+	 * and will end it, so that no events are fired and no dependers are informed until then.
+	 * Used by {@link WriteBatch}.
+	 * @param val A value returned by {@link #__correctForBatch(Object)}
+	 */
+	void __setInTransaction(E val) {
+		__supersedeConflatedWrite();
+		Consumer<? super E> interceptor = sealed;
+		if(interceptor!=null) {
+			interceptor.accept(val);
+			return;
+		}
+		if(equivalence.test(val, value))
+			return;
+		fireDeepRevalidate();
+		assign(val);
+	}
+
+	/**
+	 * Discard a write that waits in the {@link #conflation} slot, because it is older than a write
+	 * that is made past the slot. Used by {@link WriteBatch}.
+	 */
+	void __supersedeConflatedWrite() {
+		Conflation c = conflation;
+		if(c!=null)
+			c.supersede();
+	}
+	/**
+	 * Non-<code>null</code> if writes are conflated; see {@link #_setConflating(boolean)}
+	 */
+	volatile Conflation conflation;
+	/**
+	 * Turn conflation of writes on or off.
+	 * <p>
+	 * Normally, every write opens a transaction that cancels ongoing recomputations of the
+	 * {@link PileImpl}s depending on this value and starts them again. If writes arrive faster than
+	 * the dependers can recompute, no recomputation ever finishes. While conflation is on, a write that
+	 * would cancel an ongoing recomputation of a direct depender is put into a slot instead, replacing
+	 * any value that was already waiting there. When the recomputation has finished, the value in the slot
+	 * is written. So the values that are skipped are never observed, and the dependers recompute as often
+	 * as they are able to.
+	 * <p>
+	 * The write methods return the written value immediately, even if it has been put into the slot;
+	 * {@link #get()} keeps returning the previous value until then. Turning conflation off does not
+	 * discard a value waiting in the slot.
+	 * @param conflating
+	 */
+	public void _setConflating(boolean conflating) {
+		if(sealed!=null)
+			throw new IllegalStateException("Cannot change conflation of a sealed Independent value");
+		synchronized (mutex) {
+			if(conflating) {
+				if(conflation==null)
+					conflation = new Conflation();
+			}else {
+				conflation = null;
 			}
 		}
 	}
+	/**
+	 * @return Whether writes are conflated; see {@link #_setConflating(boolean)}
+	 */
+	public boolean isConflating() {
+		return conflation!=null;
+	}
+	/**
+	 * Holds a write that waits for the ongoing recomputation of a depender to finish.
+	 * This is also the {@link ValueListener} that waits for the {@link PileImpl#computing()} value
+	 * of that depender to become <code>false</code>.
+	 */
+	private final class Conflation implements ValueListener{
+		E pending;
+		boolean hasPending;
+		/**
+		 * Whether a write is waiting or the waiting writes are being applied;
+		 * all writes go into the slot while this is set.
+		 */
+		boolean active;
+		ReadListenDependencyBool waitingFor;
+
+		/**
+		 * @param val
+		 * @return Whether the value has been put into the slot, rather than having to be written now
+		 */
+		boolean offer(E val) {
+			synchronized (this) {
+				if(active) {
+					pending = val;
+					hasPending = true;
+					return true;
+				}
+			}
+			ReadListenDependencyBool busy = busyDepender();
+			if(busy==null)
+				return false;
+			synchronized (this) {
+				pending = val;
+				hasPending = true;
+				if(active)
+					return true;
+				active = true;
+			}
+			await(busy);
+			return true;
+		}
+		/**
+		 * Discard the waiting write, if any, because a newer value is being written past the slot
+		 */
+		synchronized void supersede() {
+			pending = null;
+			hasPending = false;
+		}
+		private void await(ReadListenDependencyBool busy) {
+			synchronized (this) {
+				waitingFor = busy;
+			}
+			busy.addValueListener(this);
+			// it may have finished before the listener was added
+			if(!Boolean.TRUE.equals(busy.get()))
+				settled(busy);
+		}
+		@Override
+		public void valueChanged(ValueEvent e) {
+			ReadListenDependencyBool w;
+			synchronized (this) {
+				w = waitingFor;
+			}
+			if(w!=null && !Boolean.TRUE.equals(w.get()))
+				settled(w);
+		}
+		private void settled(ReadListenDependencyBool from) {
+			synchronized (this) {
+				if(waitingFor!=from)
+					return;
+				waitingFor = null;
+			}
+			from.removeValueListener(this);
+			while(true) {
+				E val;
+				synchronized (this) {
+					if(!hasPending || destroyed) {
+						active = false;
+						pending = null;
+						hasPending = false;
+						return;
+					}
+					val = pending;
+					pending = null;
+					hasPending = false;
+				}
+				write(val, false);
+				ReadListenDependencyBool busy = busyDepender();
+				if(busy!=null) {
+					synchronized (this) {
+						if(!hasPending) {
+							active = false;
+							return;
+						}
+					}
+					await(busy);
+					return;
+				}
+			}
+		}
+	}
+	/**
+	 * @return The {@link PileImpl#computing()} value of a depender that is currently recomputing, or <code>null</code>
+	 */
+	private ReadListenDependencyBool busyDepender() {
+		ReadListenDependencyBool[] ret = {null};
+		giveDependers(d->{
+			if(ret[0]==null && d instanceof PileImpl && ((PileImpl<?>)d).isComputing()) {
+				ReadListenDependencyBool c = ((PileImpl<?>)d).computing();
+				if(Boolean.TRUE.equals(c.get()))
+					ret[0] = c;
+			}
+		});
+		return ret[0];
+	}
 
 	@Override
 	public E get() {
 		recordRead();
-		synchronized (mutex) {
-			return value;
-		}
+		return value;
 	}
 
 
@@ -408,28 +621,18 @@ HasInfluencers
 		super.__endTransaction(b);
 	}
 	//	@Override public Maybe<E> getWithValidity() {return Maybe.just(get());}
-	private WeakHashMap<Object, Object> associations;
-	private ReferenceQueue<Object> associationRq;
+	private AssociationStore associations;
 	@Override
 	public Object __HasAssocitations_Mixin_getMutex() {
 		return mutex;
 	}
 	@Override
-	public WeakHashMap<Object, Object> __HasAssocitations_Mixin_getMap() {
+	public AssociationStore __HasAssocitations_Mixin_getStore() {
 		return associations;
 	}
 	@Override
-	public ReferenceQueue<Object> __HasAssocitations_Mixin_getQueue() {
-		return associationRq;
-	}
-
-	@Override
-	public void __HasAssocitations_Mixin_setMap(WeakHashMap<Object, Object> map) {
-		associations = map;
-	}
-	@Override
-	public void __HasAssocitations_Mixin_setQueue(ReferenceQueue<Object> queue) {
-		associationRq = queue;
+	public void __HasAssocitations_Mixin_setStore(AssociationStore store) {
+		associations = store;
 	}
 
 	/**
@@ -475,6 +678,12 @@ HasInfluencers
 		}
 		return value;
 	}
+	/**
+	 * @return Whether {@link #applyCorrection(Object)} has any correctors to apply
+	 */
+	protected final boolean __hasCorrectors() {
+		return correctors!=null;
+	}
 
 
 
@@ -0,0 +1,166 @@
+package pile.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The structural changes that one mutation of an {@link AbstractValueList} made,
+ * as a sequence of {@link Range}s of indices that were inserted, removed or updated.
+ * <p>
+ * The {@link Range}s are to be applied in order. The indices of each {@link Range} refer to the list
+ * as it is after the preceding {@link Range}s have been applied; for a {@link Kind#REMOVED} range that is
+ * before the removal, for the others it is after it.
+ * This is the same convention as that of {@link AbstractValueList#intervalRemoved(int, int)},
+ * {@link AbstractValueList#intervalAdded(int, int)} and {@link AbstractValueList#contentsChanged(int, int)},
+ * which are called once per {@link Range}.
+ * @author bb
+ *
+ */
+public final class ListChangeSet {
+	/**
+	 * What happened to a {@link Range} of indices
+	 * @author bb
+	 *
+	 */
+	public enum Kind{
+		/**
+		 * Elements were inserted at these indices
+		 */
+		INSERTED,
+		/**
+		 * The elements at these indices were removed
+		 */
+		REMOVED,
+		/**
+		 * The elements at these indices were replaced or changed in place
+		 */
+		UPDATED
+	}
+	/**
+	 * A range of consecutive indices
+	 * @author bb
+	 *
+	 */
+	public static final class Range{
+		public final Kind kind;
+		/**
+		 * The first index, inclusive
+		 */
+		public final int begin;
+		/**
+		 * The last index, inclusive
+		 */
+		public final int end;
+		Range(Kind kind, int begin, int end) {
+			this.kind = kind;
+			this.begin = begin;
+			this.end = end;
+		}
+		/**
+		 * @return The number of indices in this range
+		 */
+		public int length() {
+			return end-begin+1;
+		}
+		@Override
+		public String toString() {
+			return kind+" ["+begin+", "+end+"]";
+		}
+	}
+
+	private final List<Range> ranges;
+
+	private ListChangeSet(List<Range> ranges) {
+		this.ranges = ranges;
+	}
+	static ListChangeSet of(Kind kind, int begin, int end) {
+		return new ListChangeSet(Collections.singletonList(new Range(kind, begin, end)));
+	}
+	static ListChangeSet inserted(int begin, int end) {
+		return of(Kind.INSERTED, begin, end);
+	}
+	static ListChangeSet removed(int begin, int end) {
+		return of(Kind.REMOVED, begin, end);
+	}
+	static ListChangeSet updated(int begin, int end) {
+		return of(Kind.UPDATED, begin, end);
+	}
+
+	/**
+	 * @return The {@link Range}s, in the order in which they are to be applied. Not modifiable.
+	 */
+	public List<Range> getRanges() {
+		return ranges;
+	}
+	/**
+	 * @return Whether nothing changed
+	 */
+	public boolean isEmpty() {
+		return ranges.isEmpty();
+	}
+	/**
+	 * @return By how much the size of the list changed
+	 */
+	public int sizeDelta() {
+		int ret = 0;
+		for(Range r: ranges) {
+			if(r.kind==Kind.INSERTED)
+				ret += r.length();
+			else if(r.kind==Kind.REMOVED)
+				ret -= r.length();
+		}
+		return ret;
+	}
+	@Override
+	public String toString() {
+		return ranges.toString();
+	}
+
+	/**
+	 * Collects the {@link Range}s of a {@link ListChangeSet}
+	 * @author bb
+	 *
+	 */
+	static final class Builder{
+		private final ArrayList<Range> ranges = new ArrayList<>();
+		/**
+		 * Append a {@link Range}, unless it is empty.
+		 * If it continues the last {@link Range}, that one is extended instead.
+		 * @param kind
+		 * @param begin
+		 * @param end inclusive
+		 * @return {@code this}
+		 */
+		Builder add(Kind kind, int begin, int end) {
+			if(end<begin)
+				return this;
+			int n = ranges.size();
+			Range last = n==0?null:ranges.get(n-1);
+			if(last!=null && last.kind==kind) {
+				if(kind!=Kind.REMOVED && begin==last.end+1) {
+					ranges.set(n-1, new Range(kind, last.begin, end));
+					return this;
+				}
+				if(kind==Kind.REMOVED && begin==last.begin) {
+					// removing right after a removal at the same place
+					ranges.set(n-1, new Range(kind, last.begin, last.end+end-begin+1));
+					return this;
+				}
+				if(kind==Kind.REMOVED && end==last.begin-1) {
+					// removing right before the last removal
+					ranges.set(n-1, new Range(kind, begin, last.end));
+					return this;
+				}
+			}
+			ranges.add(new Range(kind, begin, end));
+			return this;
+		}
+		boolean isEmpty() {
+			return ranges.isEmpty();
+		}
+		ListChangeSet build() {
+			return new ListChangeSet(Collections.unmodifiableList(ranges));
+		}
+	}
+}
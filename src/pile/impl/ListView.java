@@ -0,0 +1,820 @@
+package pile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import pile.aspect.WriteValue;
+import pile.aspect.combinations.Pile;
+import pile.aspect.combinations.ReadListenDependency;
+import pile.aspect.combinations.ReadWriteListenDependency;
+import pile.aspect.listen.ValueEvent;
+import pile.aspect.listen.ValueListener;
+
+/**
+ * A read-only projection of an {@link AbstractValueList} that is kept up to date incrementally.
+ * Get one with {@link AbstractValueList#view()}, and derive {@link #map(Function) mapped},
+ * {@link #filter(Predicate) filtered} and {@link #sorted(Comparator) sorted} views from it, in any combination.
+ * <p>
+ * A view does not recompute itself from scratch. It consumes the {@link ListChangeSet}s of its source
+ * and translates them into {@link ListChangeSet}s of its own, which it publishes on {@link #changes()}
+ * and hands on to the views derived from it. A change of the value of one element of the list costs
+ * a mapped view one call of its {@link Function}, a filtered view one test and O(log n) steps,
+ * and a sorted view O(log n) comparisons, and each of them reports only the indices that actually changed.
+ * The views keep their elements in {@link ArrayList}s, so an element that enters, leaves or moves within
+ * a filtered or sorted view also costs shifting the elements behind it, which is O(n).
+ * <p>
+ * The {@link ListChangeSet}s of a view have the property that the elements at the indices of
+ * {@link ListChangeSet.Kind#INSERTED inserted} and {@link ListChangeSet.Kind#UPDATED updated} ranges
+ * can be read from the view when the change set is delivered, because no later range of the same set shifts them.
+ * <p>
+ * The {@link #head()} is {@link Pile#revalidate() revalidated} after each change, and the reading methods
+ * record a read of it, so that a {@link pile.aspect.recompute.Recomputation} reading a view depends on it.
+ * <p>
+ * A view is kept reachable by its source until it is {@link #destroy() destroy}ed.
+ * Views are updated in the {@link Thread} that changed the list or the element,
+ * while holding the monitors of their sources and themselves.
+ * @author bb
+ *
+ * @param <E> The type of the elements
+ */
+public abstract class ListView<E> extends PileCompound.PublicHead implements Iterable<E>{
+	/**
+	 * The views derived from this one. Guarded by the monitor of {@code this}.
+	 */
+	final ArrayList<ListView<?>> downstream = new ArrayList<>();
+	/**
+	 * A name for debugging purposes
+	 */
+	final String name;
+	volatile boolean destroyed;
+
+	ListView(String name) {
+		this.name = name;
+		head().setName(name+".head");
+	}
+	@Override
+	public String autoCompoundName() {
+		return name==null?"A list view":name;
+	}
+
+	/**
+	 * @return The number of elements, without recording a read
+	 */
+	abstract int size0();
+	/**
+	 * @param index
+	 * @return The element at the index, without recording a read
+	 */
+	abstract E get0(int index);
+	/**
+	 * Update this view after its source has changed, and report the consequences with {@link #changed(ListChangeSet)}.
+	 * Called while holding the monitor of the source.
+	 * @param cs
+	 */
+	abstract void sourceChanged(ListChangeSet cs);
+	/**
+	 * Stop listening to the source. Called from {@link #destroy()}.
+	 */
+	abstract void detach();
+
+	/**
+	 * Hand a change of this view on to the views derived from it, then publish it on {@link #changes()}
+	 * and revalidate the {@link #head()}.
+	 * The current {@link Thread} must hold the monitor of {@code this}.
+	 * @param cs
+	 */
+	void changed(ListChangeSet cs) {
+		assert Thread.holdsLock(this);
+		if(cs.isEmpty())
+			return;
+		for(ListView<?> d: downstream)
+			d.sourceChanged(cs);
+		if(changesR!=null)
+			setChanges.set(cs);
+		head().revalidate();
+	}
+
+	/**
+	 * Get the number of elements
+	 * @return
+	 */
+	public synchronized int size() {
+		head().recordRead();
+		return size0();
+	}
+	/**
+	 * Test if this view is empty
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return size()==0;
+	}
+	/**
+	 * Get the element at the given index
+	 * @param index
+	 * @throws IndexOutOfBoundsException
+	 * @return
+	 */
+	public synchronized E get(int index) {
+		head().recordRead();
+		if(index<0 || index>=size0())
+			throw new IndexOutOfBoundsException("index: "+index+", size: "+size0());
+		return get0(index);
+	}
+	/**
+	 * @return A new {@link ArrayList} containing the current elements
+	 */
+	public synchronized ArrayList<E> toArrayList() {
+		head().recordRead();
+		int n = size0();
+		ArrayList<E> ret = new ArrayList<>(n);
+		for(int i=0; i<n; ++i)
+			ret.add(get0(i));
+		return ret;
+	}
+	/**
+	 * Iterate over a snapshot of the current elements
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return Collections.unmodifiableList(toArrayList()).iterator();
+	}
+
+	/**
+	 * This field caches the result of {@link #changes()}
+	 */
+	volatile Independent<ListChangeSet> changesR;
+	/**
+	 * Used to set {@link #changes()}
+	 */
+	WriteValue<ListChangeSet> setChanges;
+	/**
+	 * Get a lazily initialized value that takes on the {@link ListChangeSet} of each change of this view.
+	 * @see AbstractValueList#changes()
+	 * @return
+	 */
+	public ReadListenDependency<ListChangeSet> changes() {
+		Independent<ListChangeSet> localRef = changesR;
+		if (localRef == null) {
+			synchronized (this) {
+				localRef = changesR;
+				if (localRef == null) {
+					localRef = new Independent<>(null);
+					localRef._setEquivalence((a, b)->a==b);
+					setChanges = localRef.makeSetter();
+					localRef.setName(name+".changes");
+					localRef.owner=this;
+					localRef.seal();
+					changesR = localRef;
+				}
+			}
+		}
+		return localRef;
+	}
+
+	/**
+	 * Make a view of the results of applying a {@link Function} to the elements of this view.
+	 * The {@link Function} is applied once to each element when the view is made, and then
+	 * once to each element that is inserted or updated.
+	 * @param <R>
+	 * @param f
+	 * @return
+	 */
+	public synchronized <R> ListView<R> map(Function<? super E, ? extends R> f){
+		return register(new Mapped<>(this, f));
+	}
+	/**
+	 * Make a view of the elements of this view that pass a {@link Predicate}, in the same order.
+	 * @param p
+	 * @return
+	 */
+	public synchronized ListView<E> filter(Predicate<? super E> p){
+		return register(new Filtered<>(this, p));
+	}
+	/**
+	 * Make a view of the elements of this view, sorted by a {@link Comparator}.
+	 * Elements that compare equal are kept in the order in which they entered the view.
+	 * @param c
+	 * @return
+	 */
+	public synchronized ListView<E> sorted(Comparator<? super E> c){
+		return register(new Sorted<>(this, c));
+	}
+	private <V extends ListView<?>> V register(V v) {
+		if(destroyed)
+			throw new IllegalStateException("This view has been destroyed: "+name);
+		downstream.add(v);
+		return v;
+	}
+
+	/**
+	 *
+	 * @return whether this view has been destroyed and should not be used anymore.
+	 */
+	public boolean isDestroyed() {
+		return destroyed;
+	}
+	/**
+	 * Stop updating this view and the views derived from it, and let the source forget about them.
+	 */
+	@Override
+	public void destroy() {
+		if(destroyed)
+			return;
+		detach();
+		ArrayList<ListView<?>> ds;
+		synchronized (this) {
+			destroyed = true;
+			ds = new ArrayList<>(downstream);
+		}
+		for(ListView<?> d: ds)
+			d.destroy();
+		head().destroy();
+	}
+	@Override
+	public String toString() {
+		return toArrayList().toString();
+	}
+
+	/**
+	 * The {@link ListView} of an {@link AbstractValueList} itself, see {@link AbstractValueList#view()}.
+	 * It listens to each element, so that it can report the change of an element's value as an
+	 * {@link ListChangeSet.Kind#UPDATED updated} index.
+	 * @author bb
+	 *
+	 * @param <E>
+	 */
+	static final class Mirror<E> extends ListView<E>{
+		/**
+		 * An element of the list, together with its current index
+		 * @author bb
+		 *
+		 * @param <E>
+		 */
+		static final class Cell<E> implements ValueListener{
+			final Mirror<E> mirror;
+			final ReadWriteListenDependency<E> value;
+			/**
+			 * The index in the list, or -1 if the cell no longer belongs to it.
+			 * Guarded by the monitor of the {@link #mirror}.
+			 */
+			int index;
+			Cell(Mirror<E> mirror, ReadWriteListenDependency<E> value, int index) {
+				this.mirror = mirror;
+				this.value = value;
+				this.index = index;
+			}
+			@Override
+			public void valueChanged(ValueEvent e) {
+				mirror.cellChanged(this);
+			}
+		}
+		final AbstractValueList<?, E> source;
+		final ArrayList<Cell<E>> cells = new ArrayList<>();
+
+		/**
+		 * Must be called while holding the monitor of the source
+		 * @param source
+		 */
+		Mirror(AbstractValueList<?, E> source) {
+			super((source.name==null?"?":source.name)+".view");
+			assert Thread.holdsLock(source);
+			this.source = source;
+			for(int i=0; i<source.elems.size(); ++i)
+				cells.add(attach(source.elems.get(i), i));
+		}
+		private Cell<E> attach(ReadWriteListenDependency<E> v, int index) {
+			Cell<E> c = new Cell<>(this, v, index);
+			v.addValueListener(c);
+			return c;
+		}
+		private void detach(Cell<E> c) {
+			c.index = -1;
+			c.value.removeValueListener(c);
+		}
+		@Override
+		int size0() {
+			return cells.size();
+		}
+		@Override
+		E get0(int index) {
+			return cells.get(index).value.getAsync();
+		}
+		synchronized void cellChanged(Cell<E> c) {
+			if(c.index<0 || destroyed || !c.value.isValid())
+				return;
+			changed(ListChangeSet.updated(c.index, c.index));
+		}
+		@Override
+		synchronized void sourceChanged(ListChangeSet cs) {
+			if(destroyed)
+				return;
+			ArrayList<ReadWriteListenDependency<E>> elems = source.elems;
+			if(!readableFromTarget(cs, cells.size(), elems.size())) {
+				resync();
+				return;
+			}
+			int first = Integer.MAX_VALUE;
+			for(ListChangeSet.Range r: cs.getRanges()) {
+				first = Math.min(first, r.begin);
+				switch(r.kind) {
+				case REMOVED:
+					for(int i=r.begin; i<=r.end; ++i)
+						detach(cells.get(i));
+					cells.subList(r.begin, r.end+1).clear();
+					break;
+				case INSERTED:
+					ArrayList<Cell<E>> add = new ArrayList<>(r.length());
+					for(int i=r.begin; i<=r.end; ++i)
+						add.add(attach(elems.get(i), i));
+					cells.addAll(r.begin, add);
+					break;
+				case UPDATED:
+					for(int i=r.begin; i<=r.end; ++i) {
+						Cell<E> c = cells.get(i);
+						if(c.value!=elems.get(i)) {
+							detach(c);
+							cells.set(i, attach(elems.get(i), i));
+						}
+					}
+					break;
+				}
+			}
+			for(int i=first; i<cells.size(); ++i)
+				cells.get(i).index = i;
+			changed(cs);
+		}
+		/**
+		 * Replace all cells after a change that could not be followed range by range
+		 */
+		private void resync() {
+			ArrayList<ReadWriteListenDependency<E>> elems = source.elems;
+			int oldSize = cells.size();
+			for(Cell<E> c: cells)
+				detach(c);
+			cells.clear();
+			for(int i=0; i<elems.size(); ++i)
+				cells.add(attach(elems.get(i), i));
+			int common = Math.min(oldSize, cells.size());
+			changed(new ListChangeSet.Builder()
+					.add(ListChangeSet.Kind.UPDATED, 0, common-1)
+					.add(ListChangeSet.Kind.REMOVED, common, oldSize-1)
+					.add(ListChangeSet.Kind.INSERTED, common, cells.size()-1)
+					.build());
+		}
+		@Override
+		void detach() {
+			synchronized (source) {
+				synchronized (this) {
+					if(source.view==this)
+						source.view = null;
+					for(Cell<E> c: cells)
+						detach(c);
+					cells.clear();
+				}
+			}
+		}
+	}
+	/**
+	 * Check that the ranges of a {@link ListChangeSet} stay within the list while it goes from the old to the new size,
+	 * and that no range shifts the indices of an earlier inserted or updated range, so that the inserted and updated
+	 * elements can be read from the changed list.
+	 * @param cs
+	 * @param oldSize
+	 * @param newSize
+	 * @return
+	 */
+	static boolean readableFromTarget(ListChangeSet cs, int oldSize, int newSize) {
+		int size = oldSize;
+		int touched = -1;
+		for(ListChangeSet.Range r: cs.getRanges()) {
+			if(r.begin<0)
+				return false;
+			switch(r.kind) {
+			case REMOVED:
+				if(r.end>=size || r.begin<=touched)
+					return false;
+				size -= r.length();
+				break;
+			case INSERTED:
+				if(r.begin>size || r.begin<=touched)
+					return false;
+				size += r.length();
+				touched = Math.max(touched, r.end);
+				break;
+			case UPDATED:
+				if(r.end>=size)
+					return false;
+				touched = Math.max(touched, r.end);
+				break;
+			}
+		}
+		return size==newSize;
+	}
+
+	/**
+	 * See {@link ListView#map(Function)}
+	 * @author bb
+	 *
+	 * @param <E>
+	 * @param <R>
+	 */
+	static final class Mapped<E, R> extends ListView<R>{
+		final ListView<E> source;
+		final Function<? super E, ? extends R> f;
+		final ArrayList<R> values;
+		Mapped(ListView<E> source, Function<? super E, ? extends R> f) {
+			super(source.name+".map");
+			assert Thread.holdsLock(source);
+			this.source = source;
+			this.f = f;
+			int n = source.size0();
+			values = new ArrayList<>(n);
+			for(int i=0; i<n; ++i)
+				values.add(f.apply(source.get0(i)));
+		}
+		@Override
+		int size0() {
+			return values.size();
+		}
+		@Override
+		R get0(int index) {
+			return values.get(index);
+		}
+		@Override
+		synchronized void sourceChanged(ListChangeSet cs) {
+			if(destroyed)
+				return;
+			for(ListChangeSet.Range r: cs.getRanges()) {
+				switch(r.kind) {
+				case REMOVED:
+					values.subList(r.begin, r.end+1).clear();
+					break;
+				case INSERTED:
+					ArrayList<R> add = new ArrayList<>(r.length());
+					for(int i=r.begin; i<=r.end; ++i)
+						add.add(f.apply(source.get0(i)));
+					values.addAll(r.begin, add);
+					break;
+				case UPDATED:
+					for(int i=r.begin; i<=r.end; ++i)
+						values.set(i, f.apply(source.get0(i)));
+					break;
+				}
+			}
+			changed(cs);
+		}
+		@Override
+		void detach() {
+			synchronized (source) {
+				source.downstream.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * See {@link ListView#filter(Predicate)}.
+	 * Keeps a flag per element of the source, and a Fenwick tree over the flags
+	 * to translate between indices of the source and of the view in O(log n).
+	 * The elements that pass are kept in a list of their own, so that reading the view does not read the source.
+	 * @author bb
+	 *
+	 * @param <E>
+	 */
+	static final class Filtered<E> extends ListView<E>{
+		final ListView<E> source;
+		final Predicate<? super E> p;
+		/**
+		 * Whether the element at each index of the source passes
+		 */
+		boolean[] passes;
+		/**
+		 * The number of elements of the source
+		 */
+		int n;
+		/**
+		 * Fenwick tree over {@link #passes}, 1-based
+		 */
+		int[] tree;
+		/**
+		 * The number of elements that pass
+		 */
+		int count;
+		/**
+		 * The elements that pass, in the order of the source
+		 */
+		final ArrayList<E> values = new ArrayList<>();
+
+		Filtered(ListView<E> source, Predicate<? super E> p) {
+			super(source.name+".filter");
+			assert Thread.holdsLock(source);
+			this.source = source;
+			this.p = p;
+			n = source.size0();
+			passes = new boolean[Math.max(16, n)];
+			for(int i=0; i<n; ++i) {
+				E e = source.get0(i);
+				if(passes[i] = p.test(e))
+					values.add(e);
+			}
+			rebuild();
+		}
+		/**
+		 * Rebuild the {@link #tree} from the {@link #passes} in O(n)
+		 */
+		private void rebuild() {
+			if(tree==null || tree.length<n+1)
+				tree = new int[passes.length+1];
+			else
+				Arrays.fill(tree, 0);
+			count = 0;
+			for(int i=1; i<=n; ++i) {
+				if(passes[i-1]) {
+					++tree[i];
+					++count;
+				}
+				int j = i + (i & -i);
+				if(j<=n)
+					tree[j] += tree[i];
+			}
+		}
+		private void add(int index, int delta) {
+			for(int i=index+1; i<=n; i+=i & -i)
+				tree[i] += delta;
+			count += delta;
+		}
+		/**
+		 * @param index An index into the source
+		 * @return The number of elements before the index that pass
+		 */
+		private int rank(int index) {
+			int ret = 0;
+			for(int i=index; i>0; i-=i & -i)
+				ret += tree[i];
+			return ret;
+		}
+		@Override
+		int size0() {
+			return count;
+		}
+		@Override
+		E get0(int index) {
+			return values.get(index);
+		}
+		@Override
+		synchronized void sourceChanged(ListChangeSet cs) {
+			if(destroyed)
+				return;
+			ListChangeSet.Builder out = new ListChangeSet.Builder();
+			for(ListChangeSet.Range r: cs.getRanges()) {
+				switch(r.kind) {
+				case REMOVED:{
+					int from = rank(r.begin);
+					int removed = rank(r.end+1)-from;
+					System.arraycopy(passes, r.end+1, passes, r.begin, n-r.end-1);
+					n -= r.length();
+					rebuild();
+					values.subList(from, from+removed).clear();
+					out.add(ListChangeSet.Kind.REMOVED, from, from+removed-1);
+					break;
+				}
+				case INSERTED:{
+					int len = r.length();
+					if(n+len>passes.length)
+						passes = Arrays.copyOf(passes, Math.max(n+len, 2*passes.length));
+					System.arraycopy(passes, r.begin, passes, r.end+1, n-r.begin);
+					ArrayList<E> add = new ArrayList<>();
+					for(int i=r.begin; i<=r.end; ++i) {
+						E e = source.get0(i);
+						if(passes[i] = p.test(e))
+							add.add(e);
+					}
+					n += len;
+					rebuild();
+					int from = rank(r.begin);
+					values.addAll(from, add);
+					out.add(ListChangeSet.Kind.INSERTED, from, from+add.size()-1);
+					break;
+				}
+				case UPDATED:
+					for(int i=r.begin; i<=r.end; ++i) {
+						boolean was = passes[i];
+						E e = source.get0(i);
+						boolean is = p.test(e);
+						int k = rank(i);
+						if(was && is) {
+							values.set(k, e);
+							out.add(ListChangeSet.Kind.UPDATED, k, k);
+						}else if(was) {
+							passes[i] = false;
+							add(i, -1);
+							values.remove(k);
+							out.add(ListChangeSet.Kind.REMOVED, k, k);
+						}else if(is) {
+							passes[i] = true;
+							add(i, 1);
+							values.add(k, e);
+							out.add(ListChangeSet.Kind.INSERTED, k, k);
+						}
+					}
+					break;
+				}
+			}
+			changed(out.build());
+		}
+		@Override
+		void detach() {
+			synchronized (source) {
+				source.downstream.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * See {@link ListView#sorted(Comparator)}.
+	 * Keeps the elements in a sorted {@link ArrayList} of nodes, each with the element as it was when it was last
+	 * placed, so that it can be found again by binary search when it changes.
+	 * Finding a node's old and new place costs O(log n) comparisons, but moving it shifts the nodes in between, in O(n).
+	 * @author bb
+	 *
+	 * @param <E>
+	 */
+	static final class Sorted<E> extends ListView<E>{
+		static final class Node<E>{
+			E value;
+			/**
+			 * Breaks ties, so that elements that compare equal keep the order in which they were placed
+			 */
+			long seq;
+		}
+		final ListView<E> source;
+		final Comparator<? super E> c;
+		final Comparator<Node<E>> order;
+		/**
+		 * The nodes in the order of the source
+		 */
+		final ArrayList<Node<E>> bySource;
+		/**
+		 * The nodes in sorted order
+		 */
+		final ArrayList<Node<E>> sorted;
+		long seq;
+		/**
+		 * Scratch sets for {@link #sourceChanged(ListChangeSet)}, empty between calls
+		 */
+		private final Set<Node<E>> fresh = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<Node<E>> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<Node<E>> in = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		Sorted(ListView<E> source, Comparator<? super E> c) {
+			super(source.name+".sorted");
+			assert Thread.holdsLock(source);
+			this.source = source;
+			this.c = c;
+			order = (a, b)->{
+				int ret = c.compare(a.value, b.value);
+				return ret!=0?ret:Long.compare(a.seq, b.seq);
+			};
+			int n = source.size0();
+			bySource = new ArrayList<>(n);
+			for(int i=0; i<n; ++i)
+				bySource.add(node(source.get0(i)));
+			sorted = new ArrayList<>(bySource);
+			sorted.sort(order);
+		}
+		private Node<E> node(E value) {
+			Node<E> ret = new Node<>();
+			ret.value = value;
+			ret.seq = seq++;
+			return ret;
+		}
+		/**
+		 * @param node
+		 * @return The index of the node, which must be in {@link #sorted}
+		 */
+		private int indexOf(Node<E> node) {
+			int ret = Collections.binarySearch(sorted, node, order);
+			assert ret>=0 && sorted.get(ret)==node;
+			return ret;
+		}
+		/**
+		 * @param node
+		 * @return Where the node, which must not be in {@link #sorted}, belongs
+		 */
+		private int insertionPoint(Node<E> node) {
+			return -Collections.binarySearch(sorted, node, order)-1;
+		}
+		@Override
+		int size0() {
+			return sorted.size();
+		}
+		@Override
+		E get0(int index) {
+			return sorted.get(index).value;
+		}
+		@Override
+		synchronized void sourceChanged(ListChangeSet cs) {
+			if(destroyed)
+				return;
+			// A single updated element that stays in place is the common case
+			if(cs.getRanges().size()==1) {
+				ListChangeSet.Range r = cs.getRanges().get(0);
+				if(r.kind==ListChangeSet.Kind.UPDATED && r.begin==r.end) {
+					Node<E> node = bySource.get(r.begin);
+					int at = indexOf(node);
+					E value = source.get0(r.begin);
+					E old = node.value;
+					node.value = value;
+					if((at==0 || order.compare(sorted.get(at-1), node)<0)
+							&& (at==sorted.size()-1 || order.compare(node, sorted.get(at+1))<0)) {
+						changed(ListChangeSet.updated(at, at));
+						return;
+					}
+					node.value = old;
+				}
+			}
+			// Take out all nodes that are removed or updated, then put in all that are inserted or updated,
+			// so that no later range shifts an earlier inserted one
+			ListChangeSet.Builder b = new ListChangeSet.Builder();
+			try {
+				ArrayList<Node<E>> out = new ArrayList<>();
+				boolean structural = false;
+				for(ListChangeSet.Range r: cs.getRanges()) {
+					switch(r.kind) {
+					case REMOVED:
+						structural = true;
+						for(Node<E> node: bySource.subList(r.begin, r.end+1)) {
+							in.remove(node);
+							if(!fresh.remove(node) && taken.add(node))
+								out.add(node);
+						}
+						bySource.subList(r.begin, r.end+1).clear();
+						break;
+					case INSERTED:
+						structural = true;
+						ArrayList<Node<E>> add = new ArrayList<>(r.length());
+						for(int i=r.begin; i<=r.end; ++i)
+							add.add(node(null));
+						bySource.addAll(r.begin, add);
+						fresh.addAll(add);
+						in.addAll(add);
+						break;
+					case UPDATED:
+						for(Node<E> node: bySource.subList(r.begin, r.end+1))
+							if(in.add(node) && !fresh.contains(node) && taken.add(node))
+								out.add(node);
+						break;
+					}
+				}
+				int[] at = new int[out.size()];
+				for(int i=0; i<at.length; ++i)
+					at[i] = indexOf(out.get(i));
+				Arrays.sort(at);
+				for(int i=at.length-1; i>=0; --i) {
+					sorted.remove(at[i]);
+					b.add(ListChangeSet.Kind.REMOVED, at[i], at[i]);
+				}
+				if(structural && cs.getRanges().size()>1) {
+					// the ranges may have shifted each other; find the nodes to put in
+					for(int i=0; i<bySource.size(); ++i) {
+						Node<E> node = bySource.get(i);
+						if(in.contains(node))
+							node.value = source.get0(i);
+					}
+				}else {
+					for(ListChangeSet.Range r: cs.getRanges())
+						if(r.kind!=ListChangeSet.Kind.REMOVED)
+							for(int i=r.begin; i<=r.end; ++i)
+								bySource.get(i).value = source.get0(i);
+				}
+				for(Node<E> node: in)
+					sorted.add(insertionPoint(node), node);
+				int[] to = new int[in.size()];
+				int k = 0;
+				for(Node<E> node: in)
+					to[k++] = indexOf(node);
+				Arrays.sort(to);
+				for(int i: to)
+					b.add(ListChangeSet.Kind.INSERTED, i, i);
+			}finally {
+				fresh.clear();
+				taken.clear();
+				in.clear();
+			}
+			changed(b.build());
+		}
+		@Override
+		void detach() {
+			synchronized (source) {
+				source.downstream.remove(this);
+			}
+		}
+	}
+}
@@ -5,21 +5,23 @@ import static pile.interop.debug.DebugEnabled.ET_TRACE;
 import static pile.interop.debug.DebugEnabled.RENAME_RECOMPUTATION_THREADS;
 import static pile.interop.debug.DebugEnabled.traceEnabledFor;
 
-import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import pile.aspect.AssociationStore;
 import pile.aspect.CanAutoValidate;
 import pile.aspect.Dependency;
 import pile.aspect.Depender;
@@ -44,10 +46,14 @@ import pile.aspect.transform.TransformValueEvent;
 import pile.aspect.transform.TransformingException;
 import pile.interop.debug.DebugEnabled;
 import pile.interop.exec.StandardExecutors;
+import pile.interop.jfr.PileEvents;
+import pile.interop.metrics.NodeMetrics;
+import pile.interop.wait.LockMonitor;
 import pile.interop.wait.WaitService;
 import pile.specialized_bool.IndependentBool;
 import pile.specialized_bool.combinations.ReadListenDependencyBool;
 import pile.specialized_int.MutInt;
+import pile.utils.FlaggedSet;
 import pile.utils.Functional;
 import pile.utils.WeakCleanupWithRunnable;
 import pile.utils.WeakIdentityCleanup;
@@ -69,8 +75,18 @@ implements Pile<E>, HasAssociations.Mixin
 	//	private boolean dontRetry = false;
 
 	//Value fields
-	E __value;
+	/**
+	 * Only changed while {@link #valid} is {@code false}, so that {@link #readStamp} can tell readers
+	 * that do not hold the {@link #mutex} whether it is current.
+	 */
+	volatile E __value;
 	volatile boolean valid;
+	/**
+	 * Incremented whenever {@link #valid} changes, so it is odd while the value is invalid.
+	 * A reader that does not hold the {@link #mutex} has read a current {@link #__value}
+	 * if the stamp was even before reading it and has not changed afterwards.
+	 */
+	volatile int readStamp = 1;
 	boolean observedValid;
 	@Override
 	public final boolean observedValid() {
@@ -83,6 +99,23 @@ implements Pile<E>, HasAssociations.Mixin
 	E oldValue;
 	boolean oldValid;
 	volatile boolean lazyValidating;
+	/**
+	 * @see #setColdWhenUnobserved(boolean)
+	 */
+	volatile boolean coldWhenUnobserved;
+	/**
+	 * Whether this value is currently detached from its dependencies because nothing observes it.
+	 * Changed while holding the {@link #mutex}.
+	 * @see #setColdWhenUnobserved(boolean)
+	 */
+	volatile boolean cold;
+	/**
+	 * Whether this value should go cold again instead of recomputing once its dependencies have stopped changing,
+	 * because a read made it warm and nothing has observed it since. Set when a dependency begins changing,
+	 * cleared by reads.
+	 * @see #setColdWhenUnobserved(boolean)
+	 */
+	volatile boolean coolWhenSettled;
 
 	BehaviorDuringTransform bdt=BehaviorDuringTransform.NOP;
 
@@ -92,13 +125,162 @@ implements Pile<E>, HasAssociations.Mixin
 	}
 
 	//dependency fields
-	HashSet<Dependency> _thisDependsOn;
+	/**
+	 * Flag in {@link #deps}: The {@link Dependency} is one of this value's dependencies
+	 */
+	static final int DEPENDS_ON = 1;
+	/**
+	 * Flag in {@link #deps}: The {@link Dependency} is known to be invalid. Guarded by {@link #invalidDependenciesMutex}.
+	 */
+	static final int INVALID = 2;
+	/**
+	 * Flag in {@link #deps}: The {@link Dependency} is in a transaction. Guarded by {@link #invalidDependenciesMutex}.
+	 */
+	static final int CHANGING = 4;
+	/**
+	 * Flag in {@link #deps}: The {@link Dependency} has changed since the last recomputation
+	 */
+	static final int CHANGED = 8;
+	/**
+	 * Flag in {@link #deps}: The {@link Dependency} is {@link #setDependencyEssential(boolean, Dependency) essential}
+	 */
+	static final int ESSENTIAL = 16;
+	/**
+	 * Flag in {@link #deps}: Whether this value is registered as a {@link Depender} of the {@link Dependency}
+	 * differs from what {@link #DEPENDS_ON} and {@link #cold} ask for. Toggled whenever one of them changes
+	 * or this value is attached to or detached from the {@link Dependency}. See {@link #syncAttachment(Dependency, boolean)}.
+	 */
+	static final int UNSYNCED = 32;
+	/**
+	 * Flag in {@link #deps}: A {@link Thread} is in {@link #syncAttachment(Dependency, boolean)} for the {@link Dependency}
+	 */
+	static final int SYNCING = 64;
+	/**
+	 * The dependencies and their state, in one compact structure instead of a set per state.
+	 * Created lazily while holding the {@link #mutex}. 
+	 */
+	volatile FlaggedSet<Dependency> deps;
+	/**
+	 * Incremented whenever a {@link Dependency} is added to or removed from {@link #deps}. Written while holding the {@link #mutex}.
+	 */
+	volatile int dependencyModCount;
+	/**
+	 * The dynamic dependencies recorded by the last recomputation, lent to one recomputation at a time.
+	 * Guarded by the {@link #mutex}.
+	 */
+	RecordedDependencies recordedDependencies;
 	Object invalidDependenciesMutex=new Object();
-	HashSet<Dependency> invalidDependencies;
-	HashSet<Dependency> changingDependencies;
-	HashSet<Dependency> changedDependencies;
 	volatile Set<Dependency> changedDependenciesReadOnly;
 
+	/**
+	 * Must hold the {@link #mutex}
+	 * @return {@link #deps}, creating it if necessary
+	 */
+	private FlaggedSet<Dependency> deps(){
+		FlaggedSet<Dependency> ret = deps;
+		if(ret==null)
+			deps = ret = new FlaggedSet<>();
+		return ret;
+	}
+	/**
+	 * Record in the {@link #metrics() metrics} that a dependency was added or removed
+	 */
+	private void dependenciesChanged() {
+		NodeMetrics m = metrics();
+		if(m!=null)
+			m.dependenciesChanged();
+	}
+	private boolean hasDependencyFlag(Dependency d, int flag) {
+		FlaggedSet<Dependency> localRef = deps;
+		return localRef!=null && localRef.has(d, flag);
+	}
+	/**
+	 * Take the {@link #recordedDependencies} for a recomputation that records dynamic dependencies
+	 * @return <code>null</code> if another recomputation has them
+	 */
+	RecordedDependencies borrowRecordedDependencies() {
+		synchronized (mutex) {
+			RecordedDependencies ret = recordedDependencies;
+			recordedDependencies = null;
+			return ret;
+		}
+	}
+	void returnRecordedDependencies(RecordedDependencies r) {
+		synchronized (mutex) {
+			if(recordedDependencies==null)
+				recordedDependencies = r;
+		}
+	}
+	private boolean anyDependencyFlag(int flag) {
+		FlaggedSet<Dependency> localRef = deps;
+		return localRef!=null && localRef.any(flag);
+	}
+	private boolean unsetDependencyFlag(Dependency d, int flag) {
+		FlaggedSet<Dependency> localRef = deps;
+		return localRef!=null && localRef.unset(d, flag);
+	}
+	/**
+	 * Must hold the {@link #mutex}. Call when whether this value should be attached to a {@link Dependency} changes,
+	 * or after it has been attached to or detached from it.
+	 * @param d
+	 */
+	private void toggleUnsynced(Dependency d) {
+		FlaggedSet<Dependency> deps = deps();
+		if(!deps.unset(d, UNSYNCED))
+			deps.set(d, UNSYNCED);
+	}
+	/**
+	 * Attach this value to a {@link Dependency} or detach it from it, until that matches what {@link #DEPENDS_ON}
+	 * and {@link #cold} ask for. The calls into the {@link Dependency} are made without holding any lock, since they
+	 * take the {@link Dependency}'s locks and may work its inform queue. 
+	 * If another {@link Thread} is already doing this for the same {@link Dependency}, return at once: 
+	 * that {@link Thread} checks again before it stops.
+	 * @param d
+	 * @param invalidate passed to {@link Dependency#__addDepender(Depender, boolean)}
+	 * @throws IllegalStateException if the {@link Dependency} has been destroyed and this value should be attached to it
+	 */
+	private void syncAttachment(Dependency d, boolean invalidate) {
+		assert !Thread.holdsLock(mutex);
+		synchronized (mutex) {
+			FlaggedSet<Dependency> deps = this.deps;
+			if(deps==null || !deps.has(d, UNSYNCED) || !deps.set(d, SYNCING))
+				return;
+		}
+		boolean done = false;
+		try {
+			while(true) {
+				boolean attach;
+				synchronized (mutex) {
+					if(!deps.has(d, UNSYNCED)) {
+						deps.unset(d, SYNCING);
+						done = true;
+						return;
+					}
+					attach = !cold && deps.has(d, DEPENDS_ON);
+				}
+				if(attach)
+					d.__addDepender(this, invalidate);
+				else
+					d.__removeDepender(this);
+				synchronized (mutex) {
+					toggleUnsynced(d);
+				}
+			}
+		}finally {
+			if(!done) {
+				synchronized (mutex) {
+					deps.unset(d, SYNCING);
+				}
+			}
+		}
+	}
+	private Dependency[] dependenciesWith(int flag) {
+		FlaggedSet<Dependency> localRef = deps;
+		if(localRef==null)
+			return NO_DEPENDENCIES;
+		return localRef.toArray(flag, NO_DEPENDENCIES);
+	}
+
 	int autoValidationSuppressors;
 
 
@@ -144,19 +326,26 @@ implements Pile<E>, HasAssociations.Mixin
 	public E get() {
 		assert !Thread.holdsLock(mutex);
 		checkForTransformEnd();
+		warmForRead();
 		if(lazyValidating)
 			lazyValidate();
 		informLongTermInvalid();
+		if(destroyed) {
+			//	throw new IllegalStateException("This value has been destroyed: "+avName);
+			return null;
+		}
+		recordRead();
+		int stamp = readStamp;
+		if((stamp & 1)!=0)
+			return null;
+		E ret = __value;
+		if(readStamp==stamp)
+			return ret;
+		// the value changed while reading it
 		synchronized (mutex) {
-			if(destroyed) {
-				//	throw new IllegalStateException("This value has been destroyed: "+avName);
-				return null;
-			}
-			recordRead();
-			if(__valid())
-				return __value;
-			else
+			if(destroyed || !__valid())
 				return null;
+			return __value;
 		}
 	}
 
@@ -164,26 +353,56 @@ implements Pile<E>, HasAssociations.Mixin
 	public E getValid(WaitService ws) throws InterruptedException {
 		assert !Thread.holdsLock(mutex);
 		checkForTransformEnd();
+		warmForRead();
 		if(lazyValidating)
 			lazyValidate();
 		//		informLongTermInvalid();
 		synchronized (mutex) {
+			boolean park = false;
 			while(!__valid()) {
 				if(destroyed)
 					throw new IllegalStateException("This value has been destroyed: "+avName);
+				if(park = LockMonitor.isPreferred())
+					break;
 				ws.wait(mutex, 1000);
 			}
-			recordRead();
-			return __value;
+			if(!park) {
+				recordRead();
+				return __value;
+			}
+		}
+		LockMonitor lm = lockMonitor();
+		while(true) {
+			int seen;
+			synchronized (mutex) {
+				if(__valid()) {
+					recordRead();
+					return __value;
+				}
+				if(destroyed)
+					throw new IllegalStateException("This value has been destroyed: "+avName);
+				seen = lm.generation();
+			}
+			lm.awaitChangeMillis(ws, seen, 1000);
 		}
 	}
 	@Override
 	public E getOldIfInvalid() {
 		assert !Thread.holdsLock(mutex);
 		checkForTransformEnd();
+		warmForRead();
 		if(lazyValidating)
-			lazyValidate();
+			startLazyValidation();
 		informLongTermInvalid();
+		int stamp = readStamp;
+		if((stamp & 1)==0) {
+			E ret = __value;
+			if(readStamp==stamp) {
+				recordRead();
+				return ret;
+			}
+		}
+		// invalid, or the value changed while reading it
 		synchronized (mutex) {
 			if(!__valid()) {
 				if(destroyed)
@@ -201,8 +420,9 @@ implements Pile<E>, HasAssociations.Mixin
 	public E getValidOrThrow() throws InvalidValueException {
 		assert !Thread.holdsLock(mutex);
 		checkForTransformEnd();
+		warmForRead();
 		if(lazyValidating)
-			lazyValidate();
+			startLazyValidation();
 		informLongTermInvalid();
 		recordRead();
 		synchronized (mutex) {
@@ -216,21 +436,47 @@ implements Pile<E>, HasAssociations.Mixin
 	public E getValid(WaitService ws, long timeout) throws InterruptedException {
 		assert !Thread.holdsLock(mutex);
 		checkForTransformEnd();
-		if(lazyValidating)
-			lazyValidate();
+		warmForRead();
+		if(lazyValidating) {
+			long t0 = System.currentTimeMillis();
+			lazyValidate(timeout);
+			timeout -= System.currentTimeMillis()-t0;
+		}
 		try {
 			synchronized (mutex) {
+				boolean park = false;
 				while(!__valid() && timeout>0) {
 					if(destroyed)
 						throw new IllegalStateException("This value has been destroyed: "+avName);
+					if(park = LockMonitor.isPreferred())
+						break;
 					long t0 = System.currentTimeMillis(); 
 					ws.wait(mutex, Math.min(1000, timeout));
 					long t1 = System.currentTimeMillis();
 					timeout -= t1-t0;
 				}
-				recordRead();
+				if(!park) {
+					recordRead();
 
-				return __value;
+					return __value;
+				}
+			}
+			LockMonitor lm = lockMonitor();
+			while(true) {
+				int seen;
+				synchronized (mutex) {
+					if(__valid() || timeout<=0) {
+						recordRead();
+						return __value;
+					}
+					if(destroyed)
+						throw new IllegalStateException("This value has been destroyed: "+avName);
+					seen = lm.generation();
+				}
+				long t0 = System.currentTimeMillis(); 
+				lm.awaitChangeMillis(ws, seen, Math.min(1000, timeout));
+				long t1 = System.currentTimeMillis();
+				timeout -= t1-t0;
 			}
 		}finally {
 			informLongTermInvalid();
@@ -248,9 +494,7 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 		//		recordRead();
-		synchronized (mutex) {
-			return __valid();
-		}
+		return valid;
 	}
 	@Override
 	public boolean isValidNull() {
@@ -258,6 +502,12 @@ implements Pile<E>, HasAssociations.Mixin
 		informLongTermInvalid();
 		recordRead();
 
+		int stamp = readStamp;
+		if((stamp & 1)!=0)
+			return false;
+		boolean ret = __value==null;
+		if(readStamp==stamp)
+			return ret;
 		synchronized (mutex) {
 			return __valid() & __value==null;
 		}
@@ -269,8 +519,6 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 
-	HashSet<Dependency> essentialDependencies;
-
 	//	private Object scoutMutex;
 	@Override
 	public void setDependencyEssential(boolean essential, Dependency d) {
@@ -279,16 +527,13 @@ implements Pile<E>, HasAssociations.Mixin
 		if(essential) {
 			d.__setEssentialFor(this, true);
 			synchronized (mutex) {
-				if(essentialDependencies==null)
-					essentialDependencies=new HashSet<>();
-				essentialDependencies.add(d);
+				deps().set(d, ESSENTIAL);
 				d.__setEssentialFor(this, true);
 			}
 		}else {
 			d.__setEssentialFor(this, false);
 			synchronized (mutex) {
-				if(essentialDependencies!=null)
-					essentialDependencies.remove(d);
+				unsetDependencyFlag(d, ESSENTIAL);
 				d.__setEssentialFor(this, false);
 			}
 		}
@@ -298,10 +543,7 @@ implements Pile<E>, HasAssociations.Mixin
 	@Override
 	public boolean isEssential(Dependency value) {
 		synchronized (mutex) {
-			if(essentialDependencies==null)
-				return false;
-			else
-				return essentialDependencies.contains(value);
+			return hasDependencyFlag(value, ESSENTIAL);
 		}
 
 	}
@@ -332,24 +574,23 @@ implements Pile<E>, HasAssociations.Mixin
 				throw new IllegalStateException("This value has been destroyed: "+avName);
 			}
 			wasValid=__valid();
-			if(_thisDependsOn==null)
-				_thisDependsOn=new HashSet<>();
-			if(_thisDependsOn.add(d)) {
+			FlaggedSet<Dependency> deps = deps();
+			if(deps.set(d, DEPENDS_ON)) {
+				++dependencyModCount;
+				dependenciesChanged();
 				if(recordChange) {
-					if(changedDependencies==null)
-						changedDependencies=new HashSet<Dependency>();
-					changedDependencies.add(d);
+					deps.set(d, CHANGED);
 				}
 				synchronized (invalidDependenciesMutex) {
 					//					checkForDestroyedDeps();
 					if(!d.isValidAsync()) {
-						if(invalidDependencies==null)
-							invalidDependencies=new HashSet<>();
-						invalidDependencies.add(d);
+						deps.set(d, INVALID);
 					}
 					//					checkForDestroyedDeps();
 
 				}
+				if(!cold)
+					toggleUnsynced(d);
 				actuallyAdded=true;
 
 				recompute = invalidate && wasValid;
@@ -359,11 +600,10 @@ implements Pile<E>, HasAssociations.Mixin
 			}
 
 		}
+		if(actuallyAdded) 
+			syncAttachment(d, invalidate);			
 		if(actuallyAdded) {
-			d.__addDepender(this, invalidate);			
 			dependencyAdded(d);
-		}else {
-
 		}
 		if(recompute) {
 			revalidate();
@@ -405,7 +645,7 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 		synchronized (mutex) {
-			if(!destroyed && essentialDependencies!=null && essentialDependencies.contains(d)) {
+			if(!destroyed && hasDependencyFlag(d, ESSENTIAL)) {
 				if(d.isDestroyed())
 					destroy=true;
 				else {
@@ -423,21 +663,23 @@ implements Pile<E>, HasAssociations.Mixin
 		}
 		synchronized (mutex) {
 			//			wasValid=valid();
-			if(_thisDependsOn==null)
+			FlaggedSet<Dependency> deps = this.deps;
+			if(deps==null)
 				return;
-			if(_thisDependsOn.remove(d)) {
+			if(deps.unset(d, DEPENDS_ON)) {
+				++dependencyModCount;
+				dependenciesChanged();
 				if(recordChange) {
-					if(changedDependencies==null)
-						changedDependencies=new HashSet<Dependency>();
-					changedDependencies.add(d);
+					deps.set(d, CHANGED);
 				}
 				synchronized (invalidDependenciesMutex) {
 
-					if(invalidDependencies!=null)
-						invalidDependencies.remove(d);
+					deps.unset(d, INVALID);
 					//					checkForDestroyedDeps();
 
 				}
+				if(!cold)
+					toggleUnsynced(d);
 				actuallyRemoved=true;
 				//				recompute = invalidate && wasValid && allDependenciesValid() && openTransactions()==0 && isAutoValidating() && !isDestroyed();
 				//					
@@ -461,7 +703,7 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 		if(actuallyRemoved) {
-			d.__removeDepender(this);			
+			syncAttachment(d, false);			
 			dependencyRemoved(d);
 		}
 		if(invalidate && !destroyed)
@@ -477,8 +719,7 @@ implements Pile<E>, HasAssociations.Mixin
 	protected boolean allDependenciesValid() {
 		synchronized (invalidDependenciesMutex) {
 			//			checkForDestroyedDeps();
-			return (invalidDependencies==null || invalidDependencies.isEmpty())
-					&& (changingDependencies==null || changingDependencies.isEmpty());
+			return !anyDependencyFlag(INVALID) && !anyDependencyFlag(CHANGING);
 		}
 	}
 
@@ -532,6 +773,8 @@ implements Pile<E>, HasAssociations.Mixin
 		}
 	}
 	private void ___startPendingRecompute_undeferred(boolean force, boolean _scout) {
+		if(coolWhenSettled && !force && !_scout && coolInsteadOfRecomputing())
+			return;
 		final Consumer<? super Recomputation<E>> rc;
 		WrapWeak<E> ww;
 		int deactivate;
@@ -573,7 +816,7 @@ implements Pile<E>, HasAssociations.Mixin
 			}
 			if(//!canRecomputeWithInvalidDependencies && 
 					!allDependenciesValid() && !scout) {
-				if(ET_TRACE && traceEnabledFor(this))trace("recomputation not started: invalid dependencies "+invalidDependencies);
+				if(ET_TRACE && traceEnabledFor(this))trace("recomputation not started: invalid dependencies "+Arrays.toString(dependenciesWith(INVALID)));
 
 				return;
 			}
@@ -625,6 +868,9 @@ implements Pile<E>, HasAssociations.Mixin
 			}
 			if(deactivate==0) {
 				MyRecomputation<E> mr = new MyRecomputation<>(this, true, scout);
+				if(!scout && metrics()!=null)
+					mr.startedNanos = System.nanoTime();
+				mr.jfrEvent = PileEvents.recomputationStarted(scout);
 				isComputing=true;
 				setComputing.accept(!scout);
 				mr.t=Thread.currentThread();
@@ -640,8 +886,9 @@ implements Pile<E>, HasAssociations.Mixin
 				if(DE && dc!=null) dc.startPendingRecomputation(this);
 				recomputationTransactions--;
 				ongoingRecomputation=mr;
+				++recomputationsStarted;
 				ww=mr.wrapWeak(dependencyName());
-				WaitService.get().notifyAll(mutex);
+				notifyMutexWaiters();
 			}else {
 				//				if(scout)
 				//					System.out.println();
@@ -721,7 +968,7 @@ implements Pile<E>, HasAssociations.Mixin
 				}
 			}
 			else
-				StandardExecutors.unlimited().execute(()->{
+				StandardExecutors.execute(StandardExecutors.recomputation(), this, ()->{
 					ww.setThread();
 					try (MockBlock b = Recomputations.withCurrentRecomputation(ww)){
 						if(ET_TRACE && traceEnabledFor(this))trace("recomputation started in different Thread (because informing of long term invalidity)");
@@ -738,8 +985,9 @@ implements Pile<E>, HasAssociations.Mixin
 	//	ThreadLocal<MyRecomputation<?>> currentlyRevalidating=new ThreadLocal<>();
 
 	private void ccd() {
-		if(changedDependencies!=null)
-			changedDependencies.clear();
+		FlaggedSet<Dependency> deps = this.deps;
+		if(deps!=null)
+			deps.unsetAll(CHANGED);
 	}
 	@Override
 	public boolean isAutoValidating() {
@@ -758,6 +1006,12 @@ implements Pile<E>, HasAssociations.Mixin
 		}
 		return value;
 	}
+	/**
+	 * @return Whether {@link #applyCorrection(Object)} has any correctors to apply
+	 */
+	protected final boolean __hasCorrectors() {
+		return correctors!=null;
+	}
 	/**
 	 * Lazily initialize the {@link #correctors} field
 	 * @return
@@ -801,9 +1055,34 @@ implements Pile<E>, HasAssociations.Mixin
 		Consumer<? super E> failHandler;
 		Consumer<? super E> successHandler;
 		Predicate<? super Dependency> dependencyVeto = Functional.CONST_FALSE;
+		Runnable onFinish;
 
 		boolean recording, delayedMode;
+		/**
+		 * Whether {@link #activateDynamicDependencies()} has been called
+		 */
+		boolean dynamic;
+		/**
+		 * Borrowed from the {@link PileImpl} while {@link #dynamic}; records dependencies as long as they are the same as last time
+		 */
+		RecordedDependencies marks;
+		/**
+		 * The recorded dependencies once they differ from those of last time; <code>null</code> before that
+		 */
 		HashSet<Dependency> recorded;
+		/**
+		 * Set by {@link #diffRecorded(PileImpl)} if the dependencies did not need to be changed
+		 */
+		boolean sameDependencies;
+		/**
+		 * {@link System#nanoTime()} when this recomputation started, if {@link PileImpl#metrics() metrics} are being recorded; 0 otherwise
+		 */
+		long startedNanos;
+		boolean cancelled;
+		/**
+		 * Token from {@link PileEvents#recomputationStarted(boolean)}; <code>null</code> unless a flight recording wants it
+		 */
+		Object jfrEvent;
 
 		public MyRecomputation(PileImpl<E> outer, boolean ta, boolean scout) {
 			//			if(scout)
@@ -836,6 +1115,7 @@ implements Pile<E>, HasAssociations.Mixin
 				//				System.out.println("recorder deactivated");
 				//			}
 				boolean et, ret;
+				Runnable of;
 				synchronized (this) {
 					if(RENAME_RECOMPUTATION_THREADS && threadNameBeforeRenaming!=null && t!=null) {
 						try {
@@ -847,6 +1127,11 @@ implements Pile<E>, HasAssociations.Mixin
 					}
 					ret = !finished;
 					finished=true;
+					of = onFinish;
+					onFinish = null;
+					LockMonitor lm = joinMonitor;
+					if(lm!=null)
+						lm.signalAll();
 					if(transactionActive) {
 						transactionActive=false;
 						WaitService.get().notifyAll(this);
@@ -856,9 +1141,18 @@ implements Pile<E>, HasAssociations.Mixin
 					}
 
 				}
+				if(of!=null)
+					StandardExecutors.safe(of);
 				PileImpl<E> outer=this.outer.get();
+				if(ret && jfrEvent!=null)
+					PileEvents.recomputationEnded(jfrEvent, outer, cancelled);
 				if(outer==null) 
 					return ret;
+				if(ret && startedNanos!=0) {
+					NodeMetrics m = outer.metrics();
+					if(m!=null)
+						m.recomputationFinished(System.nanoTime()-startedNanos, cancelled);
+				}
 
 				if(et) {
 
@@ -885,7 +1179,7 @@ implements Pile<E>, HasAssociations.Mixin
 					}else {
 						owiq=false;
 					}
-					WaitService.get().notifyAll(outer.mutex);
+					outer.notifyMutexWaiters();
 				}
 				if(owiq)
 					outer.__workInformQueue();
@@ -896,6 +1190,14 @@ implements Pile<E>, HasAssociations.Mixin
 				failHandler=null;
 				recording=false;
 				recorded=null;
+				dynamic=false;
+				RecordedDependencies m = marks;
+				marks=null;
+				if(m!=null) {
+					PileImpl<E> o = outer.get();
+					if(o!=null)
+						o.returnRecordedDependencies(m);
+				}
 			}
 
 		}
@@ -972,7 +1274,7 @@ implements Pile<E>, HasAssociations.Mixin
 				synchronized (outer.mutex) {++outer.fulfillNesting;}
 
 				HashSet<Dependency> rec;
-				if(recorded!=null) {
+				if(dynamic) {
 					recording=false;
 					rec = diffRecorded(outer);	
 					if(rec!=null && !rec.isEmpty()) {
@@ -1040,6 +1342,8 @@ implements Pile<E>, HasAssociations.Mixin
 					if(rec!=null) {
 						//						System.out.println("recorded: "+recorded.stream().map(Dependency::dependencyName).collect(Collectors.toList()));
 						dependOnRecorded(outer, rec);
+					}else if(sameDependencies) {
+						checkDeepRevalidateAfterRecording(outer);
 					}
 					recording=false;
 					if(!scout)
@@ -1087,7 +1391,7 @@ implements Pile<E>, HasAssociations.Mixin
 				synchronized (outer.mutex) {++outer.fulfillNesting;}
 
 				HashSet<Dependency> rec;
-				if(recorded!=null) {
+				if(dynamic) {
 					recording=false;
 					rec = diffRecorded(outer);	
 					if(rec!=null && !rec.isEmpty()) {
@@ -1131,6 +1435,8 @@ implements Pile<E>, HasAssociations.Mixin
 					if(rec!=null) {
 						//						System.out.println("recorded: "+recorded.stream().map(Dependency::dependencyName).collect(Collectors.toList()));
 						dependOnRecorded(outer, rec);
+					}else if(sameDependencies) {
+						checkDeepRevalidateAfterRecording(outer);
 					}
 					restart=scout && !outer.isValidAsync();
 					if(!scout)
@@ -1173,6 +1479,7 @@ implements Pile<E>, HasAssociations.Mixin
 				if(finishing &!finished)
 					return false;
 				finishing=true;
+				cancelled=true;
 				if(transactionActive) {
 					if(interruptible && t!=null && t!=Thread.currentThread())
 						WaitService.get().interrupt(t);
@@ -1269,26 +1576,74 @@ implements Pile<E>, HasAssociations.Mixin
 			if(outer==null) return Collections.emptySet();
 			if(copy) {
 				synchronized (outer.mutex) {
-					if(outer.changedDependencies==null)
+					Dependency[] changed = outer.dependenciesWith(CHANGED);
+					if(changed.length==0)
 						return Collections.emptySet();
-					return new HashSet<>(outer.changedDependencies);
+					return new HashSet<>(Arrays.asList(changed));
 				}
 			}
 			return outer.changedDependencies();
 		}
 
+		/**
+		 * Lets {@link Thread}s wait for this recomputation to finish without holding its monitor.
+		 * Created by the first such {@link Thread}; <code>null</code> before that.
+		 * @see LockMonitor#isPreferred()
+		 */
+		private volatile LockMonitor joinMonitor;
+		private LockMonitor joinMonitor() {
+			LockMonitor ret = joinMonitor;
+			if(ret==null) {
+				synchronized (this) {
+					ret = joinMonitor;
+					if(ret==null)
+						joinMonitor = ret = new LockMonitor();
+				}
+			}
+			return ret;
+		}
 		@Override
-		public synchronized void join(WaitService ws) throws InterruptedException {
-			while(!isFinished())
-				ws.wait(this, 1000);
-
+		public void join(WaitService ws) throws InterruptedException {
+			if(!LockMonitor.isPreferred()) {
+				synchronized (this) {
+					while(!finished)
+						ws.wait(this, 1000);
+				}
+				return;
+			}
+			LockMonitor lm = joinMonitor();
+			while(true) {
+				int seen;
+				synchronized (this) {
+					if(finished)
+						return;
+					seen = lm.generation();
+				}
+				lm.awaitChangeMillis(ws, seen, 1000);
+			}
 		}
 
 		@Override
-		public synchronized void join(WaitService ws, long timeout) throws InterruptedException {
-			while(!isFinished() && timeout>0) {
+		public void join(WaitService ws, long timeout) throws InterruptedException {
+			boolean park = LockMonitor.isPreferred();
+			LockMonitor lm = park?joinMonitor():null;
+			while(timeout>0) {
 				long t0 = System.currentTimeMillis(); 
-				ws.wait(this, Math.min(1000, timeout));
+				if(park) {
+					int seen;
+					synchronized (this) {
+						if(finished)
+							return;
+						seen = lm.generation();
+					}
+					lm.awaitChangeMillis(ws, seen, Math.min(1000, timeout));
+				}else {
+					synchronized (this) {
+						if(finished)
+							return;
+						ws.wait(this, Math.min(1000, timeout));
+					}
+				}
 				long t1 = System.currentTimeMillis();
 				timeout -= t1-t0;
 			}
@@ -1358,6 +1713,21 @@ implements Pile<E>, HasAssociations.Mixin
 			return fulfill(oldValue, onSuccess);
 		}
 		@Override
+		public void onFinish(Runnable action) {
+			Objects.requireNonNull(action);
+			synchronized (this) {
+				if(!finished) {
+					Runnable before = onFinish;
+					onFinish = before==null?action:()->{
+						StandardExecutors.safe(before);
+						action.run();
+					};
+					return;
+				}
+			}
+			StandardExecutors.safe(action);
+		}
+		@Override
 		public void setFailHandler(Consumer<? super E> handler) {
 			failHandler=handler;
 		}
@@ -1367,7 +1737,14 @@ implements Pile<E>, HasAssociations.Mixin
 		}
 		@Override
 		public void activateDynamicDependencies() {
-			recorded=new HashSet<>();
+			PileImpl<E> o = outer.get();
+			RecordedDependencies m = o==null?null:o.borrowRecordedDependencies();
+			if(m==null)
+				m = new RecordedDependencies();
+			m.begin();
+			marks=m;
+			recorded=null;
+			dynamic=true;
 			recording=true;
 		}
 
@@ -1380,15 +1757,29 @@ implements Pile<E>, HasAssociations.Mixin
 			if(d==null)
 				return;
 			boolean localRecording = recording;
-			HashSet<Dependency> localRecorded = recorded;
-			if(!localRecording || localRecorded==null)
+			RecordedDependencies m = marks;
+			if(!localRecording || m==null)
 				return;
 			if(d==outer.get())
 				return;
 			if(DebugEnabled.DE && dependencyVeto.test(d))
 				throw new IllegalArgumentException("The current recomputation must not depend on "+d.dependencyName());
 			if(d!=null && !d.isDestroyed()) {
-				localRecorded.add(d);
+				HashSet<Dependency> localRecorded = recorded;
+				if(localRecorded==null) {
+					if(m.mark(d)) {
+						// Same as last time; if the dependencies have not been changed since, d is one of them
+						if(scout)
+							return;
+						PileImpl<?> o = outer.get();
+						if(o!=null && m.modCount==o.dependencyModCount)
+							return;
+					}else {
+						recorded = localRecorded = m.marked();
+					}
+				}
+				if(localRecorded!=null)
+					localRecorded.add(d);
 				if(!scout) {
 					PileImpl<?> o = outer.get();
 					if(!o.dependsOn(d)) {
@@ -1401,15 +1792,32 @@ implements Pile<E>, HasAssociations.Mixin
 			}
 		}
 		ArrayList<Dependency> remove;
+		/**
+		 * @return The recorded dependencies that the value does not depend on yet,
+		 * or <code>null</code> if nothing needs to be changed because the same dependencies as last time were recorded
+		 */
 		private HashSet<Dependency> diffRecorded(PileImpl<?> outer){
-			HashSet<Dependency> rec = recorded;
+			HashSet<Dependency> rec;
+			RecordedDependencies m;
 			synchronized (this) {
 				if(finished)
 					return null;
 				rec = recorded;
-				if(rec==null)
+				m = marks;
+				if(m==null)
 					return null;
 			}
+			if(rec==null) {
+				if(m.sameAsLast() && m.modCount==outer.dependencyModCount) {
+					sameDependencies=true;
+					return null;
+				}
+				rec = m.marked();
+			}
+			NodeMetrics nm = outer.metrics();
+			if(nm!=null)
+				nm.dynamicDependenciesCompared();
+			m.reset(rec);
 			for(Dependency d: outer.getDependencies()) {
 
 				if(rec.contains(d)) {
@@ -1439,7 +1847,7 @@ implements Pile<E>, HasAssociations.Mixin
 					return;
 			}
 			/*
-			StandardExecutors.unlimited().execute(()->{
+			StandardExecutors.execute(StandardExecutors.recomputation(), outer, ()->{
 				__dependOnRecorded(outer, rec);
 			});
 			 */
@@ -1465,14 +1873,24 @@ implements Pile<E>, HasAssociations.Mixin
 				}else {
 					//					System.out.println("Recorded dependency was destroyed: "+d.dependencyName());
 				}
+			RecordedDependencies m = marks;
+			if(m!=null) {
+				synchronized (outer.mutex) {
+					if(m.allMatch(d->outer.hasDependencyFlag(d, DEPENDS_ON)))
+						m.modCount = outer.dependencyModCount;
+				}
+			}
+			checkDeepRevalidateAfterRecording(outer);
+		}
+		private void checkDeepRevalidateAfterRecording(PileImpl<?> outer) {
 			if(!scout){
 				boolean needDeepRevalidate;
 				synchronized (outer.mutex) {
 					synchronized (outer.invalidDependenciesMutex) {
 						needDeepRevalidate = 
-								(outer.invalidDependencies!=null && !outer.invalidDependencies.isEmpty())
+								outer.anyDependencyFlag(INVALID)
 								||
-								(outer.changingDependencies!=null && !outer.changingDependencies.isEmpty())
+								outer.anyDependencyFlag(CHANGING)
 								;
 					}
 				}
@@ -1593,7 +2011,7 @@ implements Pile<E>, HasAssociations.Mixin
 		try {
 			//			ListenValue.DEFER.__incrementSuppressors();
 			synchronized (mutex) {
-				if(_thisDependsOn!=null && !_thisDependsOn.contains(d)) {
+				if(deps!=null && !hasDependencyFlag(d, DEPENDS_ON)) {
 					System.err.println(d.dependencyName()+" is not a dependency of "+dependencyName());
 				}
 				//			if(selWasValid && !wasValid) {
@@ -1607,9 +2025,7 @@ implements Pile<E>, HasAssociations.Mixin
 
 				invalidated=false;
 				synchronized (invalidDependenciesMutex) {
-					if(changingDependencies==null)
-						changingDependencies=new HashSet<Dependency>();
-					if(!changingDependencies.add(d)) {
+					if(!deps().set(d, CHANGING)) {
 						
 						try {
 							throw new IllegalStateException("Dependency was already changing: "+d.dependencyName()+" of "+dependencyName());
@@ -1619,6 +2035,8 @@ implements Pile<E>, HasAssociations.Mixin
 					}
 				}
 				dependencyTransactions++;
+				if(coldWhenUnobserved && !cold && !__isObserved())
+					coolWhenSettled = true;
 				recomputationWasScheduledOrOngoing = recomputationTransactions>=1;
 				recomputationWasScout = nextRecomputationIsScout || (ongoingRecomputation!=null && ongoingRecomputation.isDependencyScout());
 				recompute = this.recompute;
@@ -1676,12 +2094,12 @@ implements Pile<E>, HasAssociations.Mixin
 		try {
 			ListenValue.DEFER.__incrementSuppressors();		
 			synchronized (mutex) {
-				if(_thisDependsOn!=null && !_thisDependsOn.contains(d)) {
+				if(deps!=null && !hasDependencyFlag(d, DEPENDS_ON)) {
 					System.err.println(d.dependencyName()+" is not a dependency of "+dependencyName());
 				}
 				synchronized (invalidDependenciesMutex) {
 
-					if(changingDependencies == null || !changingDependencies.contains(d)) {
+					if(!hasDependencyFlag(d, CHANGING)) {
 						try {
 							throw new IllegalStateException("Dependency was not changing");
 						}catch(IllegalStateException x) {
@@ -1689,9 +2107,7 @@ implements Pile<E>, HasAssociations.Mixin
 						}
 						return;
 					}
-					if(invalidDependencies==null)
-						invalidDependencies=new HashSet<Dependency>();
-                    if(!invalidDependencies.add(d)) {
+                    if(!deps().set(d, INVALID)) {
 //                    	throw new IllegalStateException("Dependency was already known as invalid");
                     }
 				}
@@ -1746,16 +2162,10 @@ implements Pile<E>, HasAssociations.Mixin
 	public Set<Dependency> changedDependencies() {
 		Set<Dependency> localRef = changedDependenciesReadOnly;
 		if (localRef == null) {
-			HashSet<Dependency> changedDependencies2;
 			synchronized (mutex) {
-				changedDependencies2 = changedDependencies;
-				if(changedDependencies2==null)
-					return Collections.emptySet();
-			}
-			synchronized (changedDependencies2) {
 				localRef = changedDependenciesReadOnly;
 				if (localRef == null) {
-					localRef = Collections.unmodifiableSet(changedDependencies2);
+					localRef = deps().view(CHANGED);
 					changedDependenciesReadOnly = localRef;
 				}
 			}
@@ -1784,20 +2194,19 @@ implements Pile<E>, HasAssociations.Mixin
 			try {
 				ListenValue.DEFER.__incrementSuppressors();
 				synchronized (mutex) {
-					if(_thisDependsOn!=null && !_thisDependsOn.contains(d)) {
+					if(deps!=null && !hasDependencyFlag(d, DEPENDS_ON)) {
 						System.err.println(d.dependencyName()+" is not a dependency of "+dependencyName());
 					}
 
-					if(changingDependencies==null)
+					if(!anyDependencyFlag(CHANGING))
 						throw new IllegalStateException("There are no changing dependencies!");
+					FlaggedSet<Dependency> deps = this.deps;
 
 					synchronized(invalidDependenciesMutex) {
 
-						if(changingDependencies.remove(d)) {
+						if(deps.unset(d, CHANGING)) {
 							if(changed) {
-								if(changedDependencies==null)
-									changedDependencies=new HashSet<>();
-								changedDependencies.add(d);
+								deps.set(d, CHANGED);
 							}
 							dependencyTransactions--;
 							invalidated=false;
@@ -1811,15 +2220,13 @@ implements Pile<E>, HasAssociations.Mixin
 							}
 							
 						}
-						changed |= changedDependencies!=null && !changedDependencies.isEmpty();
+						changed |= deps.any(CHANGED);
 						//					checkForDestroyedDeps();
 
-						if(invalidDependencies==null)
-							invalidDependencies=new HashSet<>();
 						if(d.isValidAsync() || !dependsOn(d))
-							invalidDependencies.remove(d);
+							deps.unset(d, INVALID);
 						else
-							invalidDependencies.add(d);
+							deps.set(d, INVALID);
 						//					checkForDestroyedDeps();
 
 					}
@@ -1833,7 +2240,7 @@ implements Pile<E>, HasAssociations.Mixin
 						) {
 					scout=true;
 					synchronized (mutex) {
-						for(Dependency d2: _thisDependsOn) {
+						for(Dependency d2: dependenciesWith(DEPENDS_ON)) {
 							//						if(d2!=d && d2.isValidAsync())
 							//							continue;
 							if(!d2.isValidAsync()) {
@@ -1940,7 +2347,7 @@ implements Pile<E>, HasAssociations.Mixin
 				throw new IllegalStateException("autoValueSuppressors is negative!");
 			}
 
-			needsRecompute = !valid && (changedDependencies!=null && !changedDependencies.isEmpty());
+			needsRecompute = !valid && anyDependencyFlag(CHANGED);
 			recompute = autoValidationSuppressors==0;
 		}
 		setAutoValidating.accept(isAutoValidating());
@@ -1963,15 +2370,14 @@ implements Pile<E>, HasAssociations.Mixin
 	@Override
 	public boolean dependsOn(Dependency d) {
 		synchronized (mutex) {
-			return _thisDependsOn!=null && _thisDependsOn.contains(d);
+			return hasDependencyFlag(d, DEPENDS_ON);
 		}
 	}
 	@Override
 	public void giveDependencies(Consumer<? super Dependency> out) {
 		if(Thread.holdsLock(mutex)) {
-			if(_thisDependsOn==null || _thisDependsOn.isEmpty())
-				return;
-			_thisDependsOn.forEach(out);
+			for(Dependency d: dependenciesWith(DEPENDS_ON))
+				out.accept(d);
 		} else {
 			Dependency[] arr = getDependencies();
 			for(Dependency d: arr)
@@ -1981,9 +2387,7 @@ implements Pile<E>, HasAssociations.Mixin
 	@Override
 	public Dependency[] getDependencies() {
 		synchronized (mutex) {
-			if(_thisDependsOn==null || _thisDependsOn.isEmpty())
-				return NO_DEPENDENCIES;
-			return _thisDependsOn.toArray(new Dependency[_thisDependsOn.size()]);
+			return dependenciesWith(DEPENDS_ON);
 		}
 	}
 	@Override
@@ -2025,7 +2429,11 @@ implements Pile<E>, HasAssociations.Mixin
 			}			
 		}
 		if(cancel!=null) {
-			cancel.cancel();
+			if(cancel.cancel()) {
+				NodeMetrics m = metrics();
+				if(m!=null)
+					m.recomputationRestarted();
+			}
 		}
 
 		boolean bt=false;
@@ -2137,7 +2545,7 @@ implements Pile<E>, HasAssociations.Mixin
 				__endTransaction(false);
 			}
 			synchronized (mutex) {
-				WaitService.get().notifyAll(mutex);
+				notifyMutexWaiters();
 			}
 		}
 	}
@@ -2188,9 +2596,7 @@ implements Pile<E>, HasAssociations.Mixin
 			}
 
 			synchronized (mutex) {
-				if(changedDependencies==null)
-					changedDependencies=new HashSet<>();
-				changedDependencies.add(this);
+				deps().set(this, CHANGED);
 
 				invalidated=false;
 			}
@@ -2292,9 +2698,9 @@ implements Pile<E>, HasAssociations.Mixin
 			synchronized (mutex) {
 				synchronized (invalidDependenciesMutex) {
 					needDeepRevalidate = 
-							(invalidDependencies!=null && !invalidDependencies.isEmpty())
+							anyDependencyFlag(INVALID)
 							||
-							(changingDependencies!=null && !changingDependencies.isEmpty())
+							anyDependencyFlag(CHANGING)
 							;
 				}
 				invalidated=false;
@@ -2315,8 +2721,8 @@ implements Pile<E>, HasAssociations.Mixin
 				//				}else {
 				//					detach = null;
 				//				}
-				if(valid && changedDependencies!=null)
-					changedDependencies.clear();
+				if(valid)
+					ccd();
 
 			}
 
@@ -2360,7 +2766,7 @@ implements Pile<E>, HasAssociations.Mixin
 				__endTransaction(true);
 			}
 			synchronized (mutex) {
-				WaitService.get().notifyAll(mutex);
+				notifyMutexWaiters();
 			}
 		}
 
@@ -2394,7 +2800,7 @@ implements Pile<E>, HasAssociations.Mixin
 		}
 		Recomputation<E> pr;
 		WeakHashMap<Depender, ?> ief;
-		HashSet<Dependency> essDep = null;
+		Dependency[] essDep = null;
 		synchronized (mutex) {
 			if(destroyed)
 				return;
@@ -2402,8 +2808,9 @@ implements Pile<E>, HasAssociations.Mixin
 			pr=ongoingRecomputation;
 			ief = isEssentialFor;
 			isEssentialFor = null;
-			essDep = essentialDependencies;
-			essentialDependencies=null;
+			essDep = dependenciesWith(ESSENTIAL);
+			if(deps!=null)
+				deps.unsetAll(ESSENTIAL);
 		}
 		if(ief!=null) {
 			synchronized (ief) {
@@ -2418,7 +2825,6 @@ implements Pile<E>, HasAssociations.Mixin
 		if(essDep !=null) {
 			for(Dependency d: essDep)
 				d.__setEssentialFor(this, false);
-			essDep.clear();
 		}
 
 
@@ -2455,7 +2861,6 @@ implements Pile<E>, HasAssociations.Mixin
 		setAutoValidating=Functional.NOP;		
 		th=null;
 		associations=null;
-		associationRq=null;
 		transformMutex=null;
 		transformThread=null;
 
@@ -2582,7 +2987,7 @@ implements Pile<E>, HasAssociations.Mixin
 				if((
 						//					!canRecomputeWithInvalidDependencies && 
 						!allDependenciesValid()))
-					trace("Should remain invalid bc invalid dependencies: , "+invalidDependencies);
+					trace("Should remain invalid bc invalid dependencies: , "+Arrays.toString(dependenciesWith(INVALID)));
 			}
 		}
 
@@ -2594,9 +2999,9 @@ implements Pile<E>, HasAssociations.Mixin
 	@Override
 	protected boolean __hasChangedDependencies(){
 		assert Thread.holdsLock(mutex);
-		return changedDependencies!=null && !(changedDependencies.isEmpty()
+		return anyDependencyFlag(CHANGED)
 				//|| latecomers!=null && latecomers.containsAll(changedDependencies)
-				);
+				;
 	}
 	@Override
 	protected int __recomputerTransactions() {
@@ -2635,6 +3040,9 @@ implements Pile<E>, HasAssociations.Mixin
 	protected void __restoreValueFromOldValue() {
 		assert Thread.holdsLock(mutex);
 		assert ListenValue.DEFER.isDeferring();
+		if(valid)
+			// make concurrent readers retry; both values are valid ones
+			readStamp+=2;
 		__value = oldValue;
 		openBrackets();
 		closeOldBrackets();
@@ -2745,7 +3153,7 @@ implements Pile<E>, HasAssociations.Mixin
 				if(propagate) {
 					if(informed==null || informed.isEmpty())
 						return;
-					Depender[] notify = informed.toArray(new Depender[informed.size()]);
+					Depender[] notify = informed.toArray(new Depender[0]);
 					for(Depender d: notify) {
 						d.__dependencyBecameLongTermInvalid(this);
 					}
@@ -2788,7 +3196,7 @@ implements Pile<E>, HasAssociations.Mixin
 								if(propagate) {
 									if(informed==null || informed.isEmpty())
 										return;
-									Depender[] notify = informed.toArray(new Depender[informed.size()]);
+									Depender[] notify = informed.toArray(new Depender[0]);
 									HashSet<Object> informing = Depender.informingLongTermInvalid.get();
 									boolean starter;
 									if(informing==null || informing.isEmpty()) {
@@ -2938,9 +3346,9 @@ implements Pile<E>, HasAssociations.Mixin
 				}
 				synchronized (invalidDependenciesMutex) {
 					needDeepRevalidate = valid && (
-							(invalidDependencies!=null && !invalidDependencies.isEmpty())
+							anyDependencyFlag(INVALID)
 							||
-							(changingDependencies!=null && !changingDependencies.isEmpty())
+							anyDependencyFlag(CHANGING)
 							)
 							;
 				}	
@@ -2993,28 +3401,18 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 	//	@Override public Maybe<E> getWithValidity() {return Maybe.just(get());}
-	private WeakHashMap<Object, Object> associations;
-	private ReferenceQueue<Object> associationRq;
+	private AssociationStore associations;
 	@Override
 	public Object __HasAssocitations_Mixin_getMutex() {
 		return mutex;
 	}
 	@Override
-	public WeakHashMap<Object, Object> __HasAssocitations_Mixin_getMap() {
+	public AssociationStore __HasAssocitations_Mixin_getStore() {
 		return associations;
 	}
 	@Override
-	public ReferenceQueue<Object> __HasAssocitations_Mixin_getQueue() {
-		return associationRq;
-	}
-
-	@Override
-	public void __HasAssocitations_Mixin_setMap(WeakHashMap<Object, Object> map) {
-		associations = map;
-	}
-	@Override
-	public void __HasAssocitations_Mixin_setQueue(ReferenceQueue<Object> queue) {
-		associationRq = queue;
+	public void __HasAssocitations_Mixin_setStore(AssociationStore store) {
+		associations = store;
 	}
 
 
@@ -3057,7 +3455,13 @@ implements Pile<E>, HasAssociations.Mixin
 		super.openBrackets();
 		//		if(avName == "baseNormalShift_minValue" && __value==null)
 		//			System.out.println();
-		valid=true;
+		if(!valid) {
+			valid=true;
+			readStamp++;
+			NodeMetrics m = metrics();
+			if(m!=null)
+				m.becameValid();
+		}
 		if(ET_TRACE && traceEnabledFor(this))trace("valid set to true");
 
 		setValidNull.accept(__value==null);
@@ -3072,6 +3476,10 @@ implements Pile<E>, HasAssociations.Mixin
 		if(!__valid())
 			return true;
 		valid=false;
+		readStamp++;
+		NodeMetrics m = metrics();
+		if(m!=null)
+			m.becameInvalid();
 		if(ET_TRACE && traceEnabledFor(this))trace("valid set to false");
 		setValidNull.accept(false);
 
@@ -3163,48 +3571,302 @@ implements Pile<E>, HasAssociations.Mixin
 			return lazyValidating;
 		}
 	}
-
-
+	/**
+	 * Set whether this value should go cold whenever nothing observes it, that is, 
+	 * when it has neither {@link Depender}s nor {@link ValueListener}s.
+	 * A cold value detaches itself from its dependencies, so that it is no longer
+	 * informed of their changes and stops recomputing, and they no longer reference it.
+	 * It attaches itself again and {@link #revalidate() revalidates} when its value is requested 
+	 * or when a {@link Depender} or {@link ValueListener} is added.
+	 * <p>
+	 * While a value is cold, {@link #isValid()} and {@link #getAsync()} report the state it had when it went cold.
+	 * A value that has been made warm by reading it, and that nothing observes, goes cold again
+	 * the next time its dependencies change, instead of recomputing.
+	 * @param newState If <code>true</code>, the value goes cold right away if nothing observes it. 
+	 * If <code>false</code>, it is made warm if it is cold.
+	 */
+	public void setColdWhenUnobserved(boolean newState) {
+		coldWhenUnobserved = newState;
+		if(newState)
+			coolIfUnobserved();
+		else
+			activate();
+	}
+	/**
+	 * @return Whether this value goes cold when nothing observes it
+	 * @see #setColdWhenUnobserved(boolean)
+	 */
+	public boolean isColdWhenUnobserved() {
+		return coldWhenUnobserved;
+	}
+	/**
+	 * @return Whether this value is currently cold, that is, detached from its dependencies
+	 * @see #setColdWhenUnobserved(boolean)
+	 */
+	public boolean isCold() {
+		return cold;
+	}
 	@Override
-	public void lazyValidate() {
-
-		HashSet<LazyValidatable> validating = lazyValidatingItt.get();
-		boolean starter = validating==null || validating.isEmpty();
-		try {
-			if(starter) {
-				if(validating==null)
-					lazyValidatingItt.set(validating=new HashSet<>());
-			}else {
-				if(validating.contains(this))
-					return;
+	protected void observerAdded() {
+		if(cold)
+			activate();
+	}
+	/**
+	 * Called by the getters: Attach this value again if it is cold, and keep it from going cold again
+	 * before what is being read has been recomputed.
+	 */
+	private void warmForRead() {
+		if(coolWhenSettled)
+			coolWhenSettled = false;
+		if(cold)
+			activate();
+	}
+	/**
+	 * Make this value cold instead of starting its pending recomputation if a read has made it warm,
+	 * nothing has observed it since, and its dependencies have stopped changing.
+	 * The recomputation stays pending, and {@link #activate()} starts it when the value is read again.
+	 * @return Whether the value has gone cold, so that the recomputation must not be started
+	 */
+	private boolean coolInsteadOfRecomputing() {
+		if(Thread.holdsLock(mutex))
+			return false;
+		synchronized (mutex) {
+			if(!coolWhenSettled || dependencyTransactions>0)
+				return false;
+			coolWhenSettled = false;
+			if(cold || valid || destroyed || !coldWhenUnobserved || __isObserved())
+				return false;
+		}
+		coolIfUnobserved();
+		return cold;
+	}
+	@Override
+	protected void observerRemoved() {
+		if(coldWhenUnobserved && !cold)
+			coolIfUnobserved();
+	}
+	/**
+	 * Detach this value from its dependencies if it should go cold and nothing observes it.
+	 * The dependencies stay recorded, so that {@link #activate()} can attach it again.
+	 */
+	private void coolIfUnobserved() {
+		assert !Thread.holdsLock(mutex);
+		Dependency[] detach;
+		synchronized (mutex) {
+			if(cold || !coldWhenUnobserved || destroyed || __isObserved())
+				return;
+			cold = true;
+			detach = dependenciesWith(DEPENDS_ON);
+			for(Dependency d: detach)
+				toggleUnsynced(d);
+		}
+		if(ET_TRACE && traceEnabledFor(this))trace("Going cold");
+		for(Dependency d: detach)
+			syncAttachment(d, false);
+	}
+	/**
+	 * Attach this value to its dependencies again if it is cold, and {@link #revalidate()} it,
+	 * since it has missed any changes of them.
+	 */
+	private void activate() {
+		assert !Thread.holdsLock(mutex);
+		ArrayList<Dependency> lost = null;
+		Dependency[] attach;
+		synchronized (mutex) {
+			if(!cold)
+				return;
+			cold = false;
+			if(destroyed)
+				return;
+			attach = dependenciesWith(DEPENDS_ON);
+			synchronized (invalidDependenciesMutex) {
+				FlaggedSet<Dependency> deps = this.deps;
+				for(Dependency d: attach) {
+					if(d.isValidAsync())
+						deps.unset(d, INVALID);
+					else
+						deps.set(d, INVALID);
+				}
 			}
-			validating.add(this);
-			boolean wasValid;
-
-			synchronized (mutex) {
+			for(Dependency d: attach)
+				toggleUnsynced(d);
+		}
+		if(ET_TRACE && traceEnabledFor(this))trace("Going warm");
+		for(Dependency d: attach) {
+			try {
+				syncAttachment(d, false);
+			}catch(IllegalStateException x) {
+				// destroyed while this value was not attached to it, so it did not remove itself from here
+				if(lost==null)
+					lost = new ArrayList<>();
+				lost.add(d);
+			}
+		}
+		if(lost!=null) {
+			boolean destroy = false;
+			for(Dependency d: lost) {
+				synchronized (mutex) {
+					destroy |= hasDependencyFlag(d, ESSENTIAL);
+					if(deps.unset(d, DEPENDS_ON)) {
+						++dependencyModCount;
+						dependenciesChanged();
+						if(!cold)
+							toggleUnsynced(d);
+					}
+					synchronized (invalidDependenciesMutex) {
+						deps.unset(d, INVALID);
+						deps.unset(d, CHANGING);
+					}
+				}
+				dependencyRemoved(d);
+			}
+			if(destroy) {
+				destroy();
+				return;
+			}
+		}
+		revalidate();
+	}
 
-				wasValid=__valid();
-				if(wasValid)
-					return;
-				if(ongoingRecomputation!=null && !ongoingRecomputation.isFinished())
-					return;
 
+	/**
+	 * Validates this value and the invalid part of the graph upstream of it, recomputing independent branches 
+	 * in parallel on {@link StandardExecutors#pull()}, and waits until that is done. 
+	 * See {@link PullValidation}.
+	 */
+	@Override
+	public void lazyValidate() {
+		if(valid || destroyed)
+			return;
+		PullValidation.validate(this, PullValidation.NO_DEADLINE);
+	}
+	/**
+	 * Like {@link #lazyValidate()}, but stop waiting after the given time
+	 * @param timeoutMillis
+	 */
+	void lazyValidate(long timeoutMillis) {
+		if(valid || destroyed)
+			return;
+		PullValidation.validate(this, System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis)));
+	}
+	/**
+	 * Start what {@link #lazyValidate()} does, without waiting for it.
+	 * Used by the reading methods that do not wait.
+	 */
+	void startLazyValidation() {
+		if(valid || destroyed)
+			return;
+		PullValidation.start(this);
+	}
+	/**
+	 * Whether a pull from {@link #startLazyValidation()} is running. Guarded by the {@link #mutex}.
+	 */
+	boolean startedPull;
+	/**
+	 * @return Whether no pull from {@link #startLazyValidation()} was running, so that the caller may start one
+	 */
+	boolean __claimStartedPull() {
+		synchronized (mutex) {
+			if(startedPull)
+				return false;
+			startedPull = true;
+			return true;
+		}
+	}
+	void __releaseStartedPull() {
+		synchronized (mutex) {
+			startedPull = false;
+		}
+	}
+	/**
+	 * Incremented whenever a recomputation is started. Guarded by the {@link #mutex}.
+	 */
+	int recomputationsStarted;
+	/**
+	 * Used by {@link PullValidation}: Recompute this value, whose dependencies should be valid by now, 
+	 * and wait until the recomputation has ended or the deadline of the pull has passed.
+	 * If a recomputation is already running, only wait for it.
+	 * <p>
+	 * The {@link #INVALID} flags are refreshed from the dependencies first, because a dependency that has just
+	 * become valid may not have informed this value yet. A recomputation may still be refused for
+	 * dependencies that are flagged as {@link #CHANGING} until they have informed this value that they have ended changing.
+	 * @param pull
+	 * @return {@link PullValidation#DONE} if the value is valid, or there is nothing more to do;
+	 * {@link PullValidation#AGAIN} if the value is still invalid, but the recomputation has changed its dependencies,
+	 * so that another attempt might succeed; {@link PullValidation#NOT_STARTED} if no recomputation could be started,
+	 * for example because a dependency has not informed this value yet that it has stopped changing
+	 * @throws InterruptedException
+	 */
+	int __pullRecompute(PullValidation pull) throws InterruptedException {
+		boolean start;
+		int mc = dependencyModCount;
+		int started;
+		synchronized (mutex) {
+			started = recomputationsStarted;
+			if(__valid() || destroyed || recompute==null)
+				return PullValidation.DONE;
+			start = ongoingRecomputation==null || ongoingRecomputation.isFinished();
+			if(start) {
 				invalidated=false;
+				FlaggedSet<Dependency> deps = this.deps;
+				if(deps!=null) {
+					synchronized (invalidDependenciesMutex) {
+						for(Dependency d: dependenciesWith(INVALID))
+							if(d.isValidAsync())
+								deps.unset(d, INVALID);
+					}
+				}
 			}
+		}
+		if(start) {
 			__scheduleRecomputation(false);
-
-			if(!allDependenciesValid()) {
-				giveDependencies(Dependency::lazyValidate);
-			}	
 			__startPendingRecompute(true);
-		}finally{
-			if(starter)
-				lazyValidatingItt.set(null);
+			synchronized (mutex) {
+				if(!__valid() && !destroyed && recomputationsStarted==started)
+					return PullValidation.NOT_STARTED;
+			}
+		}
+		pull.awaitRecomputation(this);
+		return !valid && dependencyModCount!=mc ? PullValidation.AGAIN : PullValidation.DONE;
+	}
+	/**
+	 * @return Whether this value is invalid and a recomputation is running
+	 */
+	boolean __isRecomputingForPull() {
+		synchronized (mutex) {
+			return !__valid() && !destroyed && ongoingRecomputation!=null && !ongoingRecomputation.isFinished();
+		}
+	}
+	/**
+	 * Wait until {@link #__isRecomputingForPull()} is <code>false</code>.
+	 * Waits in the monitor of the {@link #mutex}, or outside of it in the {@link #lockMonitor()} 
+	 * if that is {@linkplain LockMonitor#isPreferred() preferred}.
+	 * @param deadline {@link System#nanoTime()} after which to stop waiting, or {@link PullValidation#NO_DEADLINE}
+	 * @throws InterruptedException
+	 */
+	void __awaitRecomputationEnd(long deadline) throws InterruptedException {
+		WaitService ws = WaitService.get();
+		LockMonitor lm = LockMonitor.isPreferred()?lockMonitor():null;
+		while(true) {
+			long wait = 1000;
+			int seen;
+			synchronized (mutex) {
+				if(__valid() || destroyed || ongoingRecomputation==null || ongoingRecomputation.isFinished())
+					return;
+				if(deadline!=PullValidation.NO_DEADLINE) {
+					long left = deadline-System.nanoTime();
+					if(left<=0)
+						return;
+					wait = Math.min(wait, Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+				}
+				if(lm==null) {
+					ws.wait(mutex, wait);
+					continue;
+				}
+				seen = lm.generation();
+			}
+			lm.awaitChangeMillis(ws, seen, wait);
 		}
-
-
-
-
 	}
 	//	@Override public boolean couldBeValid(boolean onlyIfLazyValidating) {
 	//		if(isValid())
@@ -3321,6 +3983,17 @@ implements Pile<E>, HasAssociations.Mixin
 
 
 	}
+	@Override
+	public boolean tryBeginTransformTransaction() {
+		synchronized (getTransformMutex()) {
+			if(transformTransactions>0)
+				return false;
+			transformTransactions=1;
+			transformTransactionStarterThread=Thread.currentThread();
+			WaitService.get().notifyAll(getTransformMutex());
+			return true;
+		}
+	}
 
 	@Override
 	public void endTransformTransaction() {
@@ -3522,8 +4195,7 @@ implements Pile<E>, HasAssociations.Mixin
 	@Override
 	public void __dependencyIsNowValid(Dependency d) {
 		synchronized (invalidDependenciesMutex) {
-			if(invalidDependencies!=null)
-				invalidDependencies.remove(d);
+			unsetDependencyFlag(d, INVALID);
 		}
 
 	}
@@ -3547,15 +4219,16 @@ implements Pile<E>, HasAssociations.Mixin
 		//				System.out.println();
 		//		}
 		//		System.out.println("DeepRevalidate: "+this);
+		Object jfr = PileEvents.deepRevalidationStarted();
 		revalidate();
 		fireDeepRevalidate();
+		PileEvents.deepRevalidated(jfr, this, d);
 	}
 	@Override
 	protected Dependency[] __dependencies() {
 		synchronized (mutex) {
-			if(_thisDependsOn==null || _thisDependsOn.isEmpty())
-				return null;
-			return _thisDependsOn.toArray(new Dependency[_thisDependsOn.size()]);
+			Dependency[] ret = dependenciesWith(DEPENDS_ON);
+			return ret.length==0?null:ret;
 		}
 	}
 	@Override public boolean remembersLastValue() {return false;}
@@ -10,7 +10,9 @@ import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
@@ -79,6 +81,7 @@ public class Piles {
 
 	private static ThreadLocal<Boolean> shouldFireDeepRevalidateOnSet=new ThreadLocal<>();
 	private static ThreadLocal<Boolean> shouldDeepRevalidate=new ThreadLocal<>();
+	private static ThreadLocal<Boolean> shouldBuildLazy=new ThreadLocal<>();
 
 	
 	public static final ConstantBool TRUE = constant(true);
@@ -252,6 +255,16 @@ public class Piles {
 	public static <E> IndependentBuilder<Independent<E>, E> genericIndependent(){
 		return new IndependentBuilder<>(new Independent<>(null));
 	}
+	/**
+	 * Start a batch of writes to {@link Independent}s that propagates as one wave:
+	 * <pre>
+	 * Piles.writeBatch().set(price, 10.5).set(volume, 300).set(symbol, "ABC").apply();
+	 * </pre>
+	 * @see WriteBatch
+	 */
+	public static WriteBatch writeBatch() {
+		return new WriteBatch();
+	}
 
 	/**
 	 * Method for starting a {@link PileBuilder} by specifying how the value should be recomputed.
@@ -292,6 +305,28 @@ public class Piles {
 	public static PileBuilder<PileDoubleImpl, Double> computeDouble(Supplier<? extends Double> howToRecompute){
 		return new PileBuilder<>(new PileDoubleImpl()).ordering(Comparator.naturalOrder()).recompute(howToRecompute::get);
 	}
+	/**
+	 * Method for starting a {@link PileBuilder} by specifying how the value should be recomputed as a primitive {@code int}.
+	 * The recomputation is fulfilled using {@link PileInt#fulfill(Recomputation, int)}, which 
+	 * avoids boxing if the value did not change.
+	 * The natural ordering relation is pre-configured in case you want to put bounds on the value. 
+	 * @see PileBuilder#recompute(Consumer)
+	 */
+	public static PileBuilder<PileIntImpl, Integer> computeAsInt(IntSupplier howToRecompute){
+		return new PileBuilder<>(new PileIntImpl()).ordering(Comparator.naturalOrder())
+				.recompute((Recomputation<Integer> reco)->PileInt.fulfill(reco, howToRecompute.getAsInt()));
+	}
+	/**
+	 * Method for starting a {@link PileBuilder} by specifying how the value should be recomputed as a primitive {@code double}.
+	 * The recomputation is fulfilled using {@link PileDouble#fulfill(Recomputation, double)}, which 
+	 * avoids boxing if the value did not change.
+	 * The natural ordering relation is pre-configured in case you want to put bounds on the value. 
+	 * @see PileBuilder#recompute(Consumer)
+	 */
+	public static PileBuilder<PileDoubleImpl, Double> computeAsDouble(DoubleSupplier howToRecompute){
+		return new PileBuilder<>(new PileDoubleImpl()).ordering(Comparator.naturalOrder())
+				.recompute((Recomputation<Double> reco)->PileDouble.fulfill(reco, howToRecompute.getAsDouble()));
+	}
 	/**
 	 * Method for starting a {@link PileBuilder} by specifying how the value should be recomputed.
 	 * The natural ordering relation is pre-configured in case you want to put bounds on the value. 
@@ -2870,6 +2905,35 @@ public class Piles {
 		return ret;
 	}
 
+	/**
+	 * @return Whether {@link pile.builder.AbstractPileBuilder}s created in the current {@link Thread} make their
+	 * {@link PileImpl}s {@link PileImpl#setLazyValidating(boolean) lazy-validating}.
+	 * @see #lazySubgraph()
+	 */
+	public static boolean shouldBuildLazy() {
+		return Boolean.TRUE.equals(shouldBuildLazy.get());
+	}
+	/**
+	 * Make all {@link PileImpl}s whose builders are created in the current {@link Thread} until the returned 
+	 * {@link MockBlock} is closed {@link PileImpl#setLazyValidating(boolean) lazy-validating}, 
+	 * as if {@link pile.builder.IPileBuilder#lazy()} had been called on each of them:
+	 * <pre>
+	 * try(MockBlock b = Piles.lazySubgraph()){
+	 *     // build the part of the graph that is only computed on demand
+	 * }
+	 * </pre>
+	 * @return
+	 */
+	public static MockBlock lazySubgraph() {
+		return withShouldBuildLazy(true);
+	}
+	public static MockBlock withShouldBuildLazy(Boolean should) {
+		Boolean old = shouldBuildLazy.get();
+		MockBlock ret = MockBlock.closeOnly(()->shouldBuildLazy.set(old));
+		shouldBuildLazy.set(should);
+		return ret;
+	}
+
 	@SafeVarargs
 	public static <T> ReadListenDependency<T> firstNonNull(
 			ReadDependency<? extends T>... possibilities){
@@ -0,0 +1,230 @@
+package pile.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import pile.aspect.Dependency;
+import pile.interop.exec.StandardExecutors;
+
+/**
+ * Validates a lazy-validating {@link PileImpl} together with exactly the part of the graph upstream of it
+ * that is invalid, for {@link PileImpl#lazyValidate()}.
+ * <p>
+ * Each invalid {@link PileImpl} in that cone becomes a {@link RecursiveAction}. A task first validates the
+ * dependencies of its value, forking one task per invalid dependency onto {@link StandardExecutors#pull()}
+ * and running the last one itself, and then recomputes its value and waits for the recomputation to end.
+ * Values that are reachable along several paths get only one task, which the other paths join,
+ * so no {@link ThreadLocal} set of visited values is needed.
+ * <p>
+ * A recomputation may read dependencies it did not have before, in which case it is repeated,
+ * up to {@value #MAX_ROUNDS} times.
+ * A dependency may also be valid before it has informed the value, which then refuses to start recomputing;
+ * the task waits a little and tries again, up to {@value #MAX_NOT_STARTED} times.
+ * <p>
+ * A pull can have a deadline. The tasks stop waiting for recomputations when it has passed, and the caller
+ * stops waiting for the tasks. The recomputations that have been started go on.
+ * @author bb
+ *
+ */
+final class PullValidation extends RecursiveAction{
+	private static final long serialVersionUID = 1L;
+	/**
+	 * How often a value is recomputed at most in one pull if its dependencies keep changing
+	 */
+	static final int MAX_ROUNDS = 8;
+	/**
+	 * How often a pull waits at most for dependencies that are valid, but have not informed the value yet,
+	 * before it gives up
+	 */
+	static final int MAX_NOT_STARTED = 12;
+	/**
+	 * Results of {@link PileImpl#__pullRecompute(PullValidation)}
+	 */
+	static final int DONE = 0, AGAIN = 1, NOT_STARTED = 2;
+	/**
+	 * The deadline of a pull that waits as long as it takes
+	 */
+	static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private final PileImpl<?> value;
+	private final ConcurrentHashMap<PileImpl<?>, PullValidation> tasks;
+	/**
+	 * {@link System#nanoTime()} after which the pull stops waiting, or {@link #NO_DEADLINE}
+	 */
+	private final long deadline;
+	/**
+	 * Whether this is the root task of a pull started by {@link #start(PileImpl)}
+	 */
+	private final boolean started;
+
+	private PullValidation(PileImpl<?> value, ConcurrentHashMap<PileImpl<?>, PullValidation> tasks, long deadline, boolean started) {
+		this.value = value;
+		this.tasks = tasks;
+		this.deadline = deadline;
+		this.started = started;
+	}
+	private static PullValidation root(PileImpl<?> root, long deadline, boolean started) {
+		ConcurrentHashMap<PileImpl<?>, PullValidation> tasks = new ConcurrentHashMap<>();
+		PullValidation task = new PullValidation(root, tasks, deadline, started);
+		tasks.put(root, task);
+		return task;
+	}
+
+	/**
+	 * Validate the value and the invalid part of the graph upstream of it, and wait until that is done
+	 * or the deadline has passed.
+	 * Inside a {@link ForkJoinPool}, the pull runs in the calling {@link Thread}, and only its waits for
+	 * recomputations observe the deadline.
+	 * @param root
+	 * @param deadline {@link System#nanoTime()} after which to stop waiting, or {@link #NO_DEADLINE}
+	 */
+	static void validate(PileImpl<?> root, long deadline) {
+		PullValidation task = root(root, deadline, false);
+		if(ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		}else if(deadline==NO_DEADLINE) {
+			StandardExecutors.pull().invoke(task);
+		}else {
+			StandardExecutors.pull().execute(task);
+			try {
+				task.get(Math.max(0, deadline-System.nanoTime()), TimeUnit.NANOSECONDS);
+			}catch(TimeoutException | ExecutionException | CancellationException x) {
+				// the value stays invalid for now
+			}catch(InterruptedException x) {
+				StandardExecutors.interruptSelf();
+			}
+		}
+	}
+	/**
+	 * Start validating the value and the invalid part of the graph upstream of it, without waiting.
+	 * Does nothing if a pull started this way is still running for the value.
+	 * @param root
+	 */
+	static void start(PileImpl<?> root) {
+		if(root.__claimStartedPull())
+			StandardExecutors.pull().execute(root(root, NO_DEADLINE, true));
+	}
+	/**
+	 * @return Whether the deadline has passed
+	 */
+	boolean expired() {
+		return deadline!=NO_DEADLINE && deadline-System.nanoTime()<=0;
+	}
+
+	@Override
+	protected void compute() {
+		try {
+			int notStarted = 0;
+			for(int round=0; round<MAX_ROUNDS; ) {
+				if(value.isValidAsync() || value.isDestroyed() || expired())
+					return;
+				validateDependencies();
+				if(expired())
+					return;
+				switch(value.__pullRecompute(this)) {
+				case AGAIN:
+					++round;
+					break;
+				case NOT_STARTED:
+					// the dependencies will inform the value soon, but a lazy value won't start recomputing by itself then
+					if(++notStarted>MAX_NOT_STARTED)
+						return;
+					pause(notStarted);
+					break;
+				default:
+					return;
+				}
+			}
+		}catch(InterruptedException x) {
+			StandardExecutors.interruptSelf();
+		}finally {
+			if(started)
+				value.__releaseStartedPull();
+		}
+	}
+	private void validateDependencies() {
+		ArrayList<PullValidation> join = null;
+		PullValidation inline = null;
+		for(Dependency d: value.getDependencies()) {
+			if(!(d instanceof PileImpl)) {
+				d.lazyValidate();
+				continue;
+			}
+			PileImpl<?> p = (PileImpl<?>) d;
+			if(p.isValidAsync())
+				continue;
+			PullValidation t = new PullValidation(p, tasks, deadline, false);
+			PullValidation old = tasks.putIfAbsent(p, t);
+			if(join==null)
+				join = new ArrayList<>();
+			if(old!=null) {
+				join.add(old);
+				continue;
+			}
+			if(inline!=null) {
+				inline.fork();
+				join.add(inline);
+			}
+			inline = t;
+		}
+		if(inline!=null)
+			inline.invoke();
+		if(join!=null)
+			for(PullValidation t: join)
+				t.join();
+	}
+
+	/**
+	 * Wait in a {@link ForkJoinPool}-friendly way for a little while, longer the more often it has been done,
+	 * but not past the deadline
+	 * @param attempt Counts from 1
+	 * @throws InterruptedException
+	 */
+	private void pause(int attempt) throws InterruptedException {
+		long nanos = TimeUnit.MICROSECONDS.toNanos(Math.min(50_000, 100L<<attempt));
+		if(deadline!=NO_DEADLINE)
+			nanos = Math.min(nanos, deadline-System.nanoTime());
+		if(nanos<=0)
+			return;
+		long until = System.nanoTime()+nanos;
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean isReleasable() {
+				return until-System.nanoTime()<=0 || value.isValidAsync();
+			}
+			@Override
+			public boolean block() throws InterruptedException {
+				long left = until-System.nanoTime();
+				if(left>0)
+					TimeUnit.NANOSECONDS.sleep(left);
+				return true;
+			}
+		});
+	}
+	/**
+	 * Wait in a {@link ForkJoinPool}-friendly way until the value has finished its recomputation
+	 * or the deadline of this pull has passed
+	 * @param v
+	 * @throws InterruptedException
+	 */
+	void awaitRecomputation(PileImpl<?> v) throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean isReleasable() {
+				return expired() || !v.__isRecomputingForPull();
+			}
+			@Override
+			public boolean block() throws InterruptedException {
+				v.__awaitRecomputationEnd(deadline);
+				return true;
+			}
+		});
+	}
+}
@@ -0,0 +1,132 @@
+package pile.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.function.Predicate;
+
+import pile.aspect.Dependency;
+
+/**
+ * The set of dynamic dependencies that the last recomputation of a {@link PileImpl} recorded,
+ * kept so that the next recomputation can check whether it reads the same ones without allocating anything.
+ * <p>
+ * The dependencies are kept in an open-addressing identity hash table. Each slot has a stamp.
+ * Every recomputation starts a new epoch with {@link #begin()}; {@link #mark(Dependency)} stamps the slot of a
+ * dependency that is read with the current epoch. If every dependency of the last set has been stamped
+ * and nothing else has been read, the set is {@link #sameAsLast() the same} and the dependencies of the
+ * {@link PileImpl} need not be touched.
+ * <p>
+ * Not thread safe. A {@link PileImpl} lends its instance to one recomputation at a time.
+ * @author bb
+ *
+ */
+final class RecordedDependencies {
+	private static final Dependency[] EMPTY = {};
+	private static final int[] NO_STAMPS = {};
+
+	private Dependency[] table = EMPTY;
+	private int[] stamps = NO_STAMPS;
+	private int size;
+	private int epoch;
+	private int hits;
+	/**
+	 * The {@link PileImpl#dependencyModCount} after the dependencies were last made to match this set,
+	 * or -1 if they haven't been.
+	 */
+	int modCount = -1;
+
+	/**
+	 * Start recording for a new recomputation
+	 */
+	void begin() {
+		if(++epoch==0) {
+			// the stamps wrapped around; clear them so that no old stamp looks current
+			for(int i=0; i<stamps.length; ++i)
+				stamps[i] = 0;
+			epoch = 1;
+		}
+		hits = 0;
+	}
+	/**
+	 * Stamp a dependency that has been read
+	 * @param d
+	 * @return Whether the dependency was part of the last set
+	 */
+	boolean mark(Dependency d) {
+		if(size==0)
+			return false;
+		int mask = table.length-1;
+		for(int i = System.identityHashCode(d) & mask; ; i = (i+1) & mask) {
+			Dependency k = table[i];
+			if(k==null)
+				return false;
+			if(k==d) {
+				if(stamps[i]!=epoch) {
+					stamps[i] = epoch;
+					++hits;
+				}
+				return true;
+			}
+		}
+	}
+	/**
+	 * @return Whether all dependencies of the last set have been {@link #mark(Dependency) marked} in this epoch.
+	 * The caller must know that nothing outside the set has been recorded.
+	 */
+	boolean sameAsLast() {
+		return hits==size;
+	}
+	/**
+	 * @return A new {@link HashSet} with the dependencies that have been marked in this epoch
+	 */
+	HashSet<Dependency> marked() {
+		HashSet<Dependency> ret = new HashSet<>();
+		for(int i=0; i<table.length; ++i)
+			if(table[i]!=null && stamps[i]==epoch)
+				ret.add(table[i]);
+		return ret;
+	}
+	/**
+	 * @param test
+	 * @return Whether all dependencies of the set pass the test
+	 */
+	boolean allMatch(Predicate<? super Dependency> test) {
+		for(Dependency d: table)
+			if(d!=null && !test.test(d))
+				return false;
+		return true;
+	}
+	/**
+	 * Replace the set. All its members count as marked in the current epoch.
+	 * @param deps
+	 */
+	void reset(Collection<? extends Dependency> deps) {
+		int n = deps.size();
+		int cap = n==0?0:Integer.highestOneBit(2*n-1)<<1;
+		if(cap!=table.length) {
+			table = cap==0?EMPTY:new Dependency[cap];
+			stamps = cap==0?NO_STAMPS:new int[cap];
+		}else {
+			for(int i=0; i<cap; ++i)
+				table[i] = null;
+		}
+		int mask = cap-1;
+		for(Dependency d: deps) {
+			int i = System.identityHashCode(d) & mask;
+			while(table[i]!=null)
+				i = (i+1) & mask;
+			table[i] = d;
+			stamps[i] = epoch;
+		}
+		size = n;
+		hits = n;
+		modCount = -1;
+	}
+	/**
+	 * Forget the set
+	 */
+	void clear() {
+		reset(Collections.emptyList());
+	}
+}
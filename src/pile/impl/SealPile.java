@@ -202,7 +202,7 @@ public class SealPile<E> extends PileImpl<E> implements Sealable<E> {
 	@Override
 	public boolean willNeverChange() {
 		return isDefaultSealed() && !privilegedDependerExists()  && !setterExists() && 
-				(recompute==null || _thisDependsOn==null);
+				(recompute==null || deps==null);
 	}
 //	@Override
 //	public void setDontRetry(boolean dont) {
@@ -0,0 +1,135 @@
+package pile.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pile.aspect.VetoException;
+import pile.aspect.listen.ListenValue;
+
+/**
+ * Collects new values for several {@link Independent}s and assigns them together,
+ * so that the change propagates through the dependency graph as one wave.
+ * <p>
+ * {@link #apply()} first opens a transaction on every target whose value changes, then assigns
+ * all the values, and then ends all the transactions. A {@link PileImpl} that depends on several of the targets
+ * stays in a transaction until the last of them ends, so it recomputes once, and its listeners fire once.
+ * The listeners of the targets themselves are deferred until all transactions have ended, so they
+ * observe the complete batch.
+ * <p>
+ * Primitive specializations like {@link pile.specialized_int.IndependentInt} are {@link Independent}s, too,
+ * and can be mixed freely. Sealed targets are written through their interceptor, as by {@link Independent#set(Object)};
+ * if the interceptor writes the value, it does so in a nested transaction that fires on its own.
+ * <p>
+ * Correctors are applied before it is decided whether a value changes, as by {@link Independent#set(Object)}.
+ * <p>
+ * Obtain instances using {@link Piles#writeBatch()}. A batch is not thread safe and can be applied only once.
+ * @author bb
+ *
+ */
+public final class WriteBatch {
+	private final static Logger log=Logger.getLogger("WriteBatch");
+
+	private final LinkedHashMap<Independent<?>, Object> writes = new LinkedHashMap<>();
+	private boolean applied;
+
+	WriteBatch() {
+	}
+
+	/**
+	 * Schedule a value to be assigned. If the same target is given more than once,
+	 * the last value wins.
+	 * @param <E>
+	 * @param target
+	 * @param value
+	 * @return {@code this}
+	 */
+	public <E> WriteBatch set(Independent<E> target, E value) {
+		if(applied)
+			throw new IllegalStateException("This batch has already been applied");
+		writes.put(target, value);
+		return this;
+	}
+	/**
+	 * @return The number of targets in this batch
+	 */
+	public int size() {
+		return writes.size();
+	}
+	/**
+	 * Assign all values. Exceptions thrown by individual assignments (for example by sealed targets)
+	 * do not prevent the other values from being assigned; the first of them is rethrown after all
+	 * transactions have been ended.
+	 * @return The number of targets whose value has been assigned
+	 * @throws IllegalStateException if the batch has already been applied
+	 */
+	@SuppressWarnings("unchecked")
+	public int apply() {
+		if(applied)
+			throw new IllegalStateException("This batch has already been applied");
+		applied = true;
+		ArrayList<Independent<Object>> open = new ArrayList<>(writes.size());
+		ArrayList<Object> values = new ArrayList<>(writes.size());
+		RuntimeException failure = null;
+		int assigned = 0;
+		try {
+			for(Map.Entry<Independent<?>, Object> e: writes.entrySet()) {
+				Independent<Object> target = (Independent<Object>) e.getKey();
+				Object value = e.getValue();
+				// before the transaction begins, because that may end the recomputation the slot waits for
+				target.__supersedeConflatedWrite();
+				if(target.isDestroyed())
+					continue;
+				// before the equivalence check, because the corrected value may be the current one even if the given one is not
+				try {
+					value = target.__correctForBatch(value);
+				}catch(VetoException x) {
+					log.log(Level.WARNING, "Correction vetoed for "+target.dependencyName(), x);
+					continue;
+				}catch(RuntimeException x) {
+					log.log(Level.SEVERE, "Exception in applyCorrection", x);
+					continue;
+				}
+				// sealed targets always get the value, as with set(), because what the interceptor does with it
+				// need not show in the target's own value
+				if(target.sealed==null && target._getEquivalence().test(value, target.value))
+					continue;
+				target.__beginTransaction();
+				open.add(target);
+				values.add(value);
+			}
+			for(int i=0; i<open.size(); ++i) {
+				try {
+					open.get(i).__setInTransaction(values.get(i));
+					++assigned;
+				}catch(RuntimeException x) {
+					if(failure==null)
+						failure = x;
+					else
+						failure.addSuppressed(x);
+				}
+			}
+		}finally {
+			ListenValue.DEFER.__incrementSuppressors();
+			try {
+				for(Independent<Object> target: open) {
+					try {
+						target.__endTransaction(true);
+						synchronized (target.mutex) {
+							target.notifyMutexWaiters();
+						}
+					}catch(RuntimeException x) {
+						log.log(Level.SEVERE, "Error ending transaction of "+target.dependencyName(), x);
+					}
+				}
+			}finally {
+				ListenValue.DEFER.__decrementSuppressors();
+			}
+		}
+		if(failure!=null)
+			throw failure;
+		return assigned;
+	}
+}
@@ -0,0 +1,441 @@
+package pile.interop.exec;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pile.aspect.HasAssociations;
+import pile.aspect.HasAssociations.NamedAssociationKey;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} meant for running recomputations.
+ * <p>
+ * Unlike the {@link StandardExecutors#unlimited() unlimited} pool, it keeps at most
+ * {@link #getParallelism() parallelism} worker threads busy. Queued tasks are started in order of
+ * descending priority, ties are broken in order of submission.
+ * <p>
+ * Tasks {@link #submit(Object, Runnable) submitted with a key} coalesce:
+ * If a task with the same key is still waiting to be started, it is cancelled and replaced
+ * by the new one. The key is normally the {@link pile.aspect.combinations.Pile Pile}
+ * being recomputed, and its priority is the one set with {@link #setPriority(HasAssociations, int)}.
+ * Cancelled tasks are dropped without being started.
+ * <p>
+ * Recomputations may block waiting for other recomputations that are still queued.
+ * To avoid deadlocks, if tasks are waiting while fewer than {@code parallelism} workers
+ * are actually {@linkplain Thread.State#RUNNABLE running},
+ * additional workers are started after {@link #getStallMillis() a short while},
+ * up to {@link #getMaximumPoolSize() a hard limit}. Idle workers terminate after
+ * {@link #getKeepAliveMillis() their keep-alive time}.
+ * @author bb
+ *
+ */
+public class RecomputationScheduler extends AbstractExecutorService {
+	private final static Logger log=Logger.getLogger("RecomputationScheduler");
+
+	/**
+	 * The association key under which the priority of a recomputation key is stored
+	 */
+	private static final NamedAssociationKey<Integer> PRIORITY = new NamedAssociationKey<>("recomputationPriority");
+	/**
+	 * Set the priority that recomputations of the given object should get when
+	 * they are submitted to a {@link RecomputationScheduler}. Higher priorities are started first.
+	 * The default priority is {@code 0}.
+	 * @param key
+	 * @param priority
+	 */
+	public static void setPriority(HasAssociations key, int priority) {
+		key.putAssociation(PRIORITY, priority==0?null:priority);
+	}
+	/**
+	 * @param key
+	 * @return The priority set for the given key using {@link #setPriority(HasAssociations, int)},
+	 * or {@code 0} if there is none.
+	 */
+	public static int getPriority(Object key) {
+		if(key instanceof HasAssociations) {
+			Integer p = ((HasAssociations) key).getAssociation(PRIORITY);
+			if(p!=null)
+				return p;
+		}
+		return 0;
+	}
+
+	private final int parallelism;
+	private final int maximumPoolSize;
+	private final long keepAliveMillis;
+	private final long stallMillis;
+	private final ThreadFactory threadFactory;
+
+	private final PriorityQueue<Task<?>> queue = new PriorityQueue<>(QUEUE_ORDER);
+	private final HashMap<Object, Task<?>> waitingByKey = new HashMap<>();
+	private final HashSet<Thread> workers = new HashSet<>();
+	private int idle;
+	/**
+	 * The number of idle workers that have been notified but not woken up yet
+	 */
+	private int signalled;
+	private long seq;
+	private boolean stallCheckScheduled;
+	private boolean shutdown;
+
+	private static final Comparator<Task<?>> QUEUE_ORDER = (a, b)->{
+		if(a.priority!=b.priority)
+			return a.priority>b.priority?-1:1;
+		return Long.compare(a.seq, b.seq);
+	};
+
+	/**
+	 * Create a {@link RecomputationScheduler} with one worker per available processor.
+	 */
+	public RecomputationScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * Create a {@link RecomputationScheduler} with the given number of workers, using the
+	 * {@link StandardExecutors#DEFAULT_THREAD_FACTORY}.
+	 * @param parallelism
+	 */
+	public RecomputationScheduler(int parallelism) {
+		this(parallelism, Math.max(256, parallelism), 1000, 50, StandardExecutors.DEFAULT_THREAD_FACTORY);
+	}
+	/**
+	 *
+	 * @param parallelism The number of workers that should be running at the same time
+	 * @param maximumPoolSize The number of workers that will never be exceeded, even if all of them are blocked
+	 * @param keepAliveMillis How long idle workers should wait for new tasks before terminating
+	 * @param stallMillis How long tasks may wait while workers are blocked before additional workers are started
+	 * @param threadFactory
+	 */
+	public RecomputationScheduler(int parallelism, int maximumPoolSize, long keepAliveMillis, long stallMillis, ThreadFactory threadFactory) {
+		if(parallelism<1 || maximumPoolSize<parallelism || keepAliveMillis<0 || stallMillis<1)
+			throw new IllegalArgumentException();
+		this.parallelism = parallelism;
+		this.maximumPoolSize = maximumPoolSize;
+		this.keepAliveMillis = keepAliveMillis;
+		this.stallMillis = stallMillis;
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * @return The number of workers that should be running at the same time
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	/**
+	 * @return The number of workers that will never be exceeded
+	 */
+	public int getMaximumPoolSize() {
+		return maximumPoolSize;
+	}
+	/**
+	 * @return How long idle workers wait for new tasks before terminating
+	 */
+	public long getKeepAliveMillis() {
+		return keepAliveMillis;
+	}
+	/**
+	 * @return How long tasks may wait while workers are blocked before additional workers are started
+	 */
+	public long getStallMillis() {
+		return stallMillis;
+	}
+	/**
+	 * @return The number of worker threads currently alive
+	 */
+	public synchronized int getPoolSize() {
+		return workers.size();
+	}
+	/**
+	 * @return The number of tasks that are waiting to be started. Cancelled tasks that have
+	 * not been dropped yet may be included.
+	 */
+	public synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	private final class Task<T> extends FutureTask<T>{
+		final Object key;
+		final int priority;
+		final boolean logFailure;
+		long seq;
+		boolean started;
+		Task(Object key, int priority, boolean logFailure, Callable<T> c) {
+			super(c);
+			this.key = key;
+			this.priority = priority;
+			this.logFailure = logFailure;
+		}
+		Task(Object key, int priority, boolean logFailure, Runnable r, T result) {
+			super(r, result);
+			this.key = key;
+			this.priority = priority;
+			this.logFailure = logFailure;
+		}
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean ret = super.cancel(mayInterruptIfRunning);
+			if(ret && key!=null)
+				forget(this);
+			return ret;
+		}
+		@Override
+		protected void done() {
+			if(logFailure && !isCancelled()) {
+				try {
+					get();
+				} catch (ExecutionException e) {
+					log.log(Level.WARNING, "Uncaught Throwable thrown from submitted task", e.getCause());
+				} catch (InterruptedException e) {
+					StandardExecutors.interruptSelf();
+				}
+			}
+		}
+	}
+	private synchronized void forget(Task<?> t) {
+		if(!t.started && waitingByKey.get(t.key)==t)
+			waitingByKey.remove(t.key);
+	}
+
+	/**
+	 * Submit a task that coalesces with other tasks with the same key.
+	 * Its priority is {@link #getPriority(Object) the priority of the key}.
+	 * @param key
+	 * @param task
+	 * @return A {@link Future} for the task. It will be cancelled if the task is superseded by another
+	 * one with the same key before it starts.
+	 */
+	public Future<?> submit(Object key, Runnable task) {
+		return submit(key, getPriority(key), task);
+	}
+	/**
+	 * Submit a task that coalesces with other tasks with the same key.
+	 * @param key if {@code null}, the task does not coalesce
+	 * @param priority
+	 * @param task
+	 * @return A {@link Future} for the task. It will be cancelled if the task is superseded by another
+	 * one with the same key before it starts.
+	 */
+	public Future<?> submit(Object key, int priority, Runnable task) {
+		if(task==null)
+			throw new NullPointerException();
+		Task<Object> t = new Task<>(key, priority, false, task, null);
+		enqueue(t);
+		return t;
+	}
+	@Override
+	public Future<?> submit(Runnable task) {
+		return submit(null, 0, task);
+	}
+	@Override
+	public <T> Future<T> submit(Runnable task, T result) {
+		if(task==null)
+			throw new NullPointerException();
+		Task<T> t = new Task<>(null, 0, false, task, result);
+		enqueue(t);
+		return t;
+	}
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		if(task==null)
+			throw new NullPointerException();
+		Task<T> t = new Task<>(null, 0, false, task);
+		enqueue(t);
+		return t;
+	}
+	@Override
+	public void execute(Runnable command) {
+		execute(null, 0, command);
+	}
+	/**
+	 * Like {@link #submit(Object, Runnable)}, but {@link Throwable}s thrown by the task are logged.
+	 * @param key
+	 * @param command
+	 */
+	public void execute(Object key, Runnable command) {
+		execute(key, getPriority(key), command);
+	}
+	/**
+	 * Like {@link #submit(Object, int, Runnable)}, but {@link Throwable}s thrown by the task are logged.
+	 * @param key
+	 * @param priority
+	 * @param command
+	 */
+	public void execute(Object key, int priority, Runnable command) {
+		if(command==null)
+			throw new NullPointerException();
+		enqueue(new Task<Object>(key, priority, true, command, null));
+	}
+
+	private void enqueue(Task<?> t) {
+		Task<?> superseded = null;
+		synchronized (this) {
+			if(shutdown)
+				throw new RejectedExecutionException("RecomputationScheduler has been shut down");
+			t.seq = seq++;
+			if(t.key!=null)
+				superseded = waitingByKey.put(t.key, t);
+			queue.add(t);
+			if(idle>signalled) {
+				++signalled;
+				notify();
+			}
+			else if(workers.size()<parallelism)
+				startWorker();
+			else
+				scheduleStallCheck();
+		}
+		if(superseded!=null)
+			superseded.cancel(false);
+	}
+	/**
+	 * Remove the first task that has not been cancelled from the queue.
+	 * Must hold the lock.
+	 * @return
+	 */
+	private Task<?> poll() {
+		while(true) {
+			Task<?> t = queue.poll();
+			if(t==null || !t.isDone()) {
+				if(t!=null) {
+					t.started = true;
+					if(t.key!=null && waitingByKey.get(t.key)==t)
+						waitingByKey.remove(t.key);
+				}
+				return t;
+			}
+		}
+	}
+	private Task<?> peek() {
+		Task<?> t;
+		while((t = queue.peek())!=null && t.isDone())
+			queue.poll();
+		return t;
+	}
+	private void startWorker() {
+		Thread t = threadFactory.newThread(this::work);
+		workers.add(t);
+		t.start();
+	}
+	private void scheduleStallCheck() {
+		if(stallCheckScheduled)
+			return;
+		stallCheckScheduled = true;
+		StandardExecutors.delayed().schedule(this::checkStall, stallMillis, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * If tasks are waiting and too few workers are running, start additional workers.
+	 */
+	private synchronized void checkStall() {
+		stallCheckScheduled = false;
+		if(shutdown || idle>0 || peek()==null)
+			return;
+		int running = 0;
+		for(Thread w: workers) {
+			Thread.State s = w.getState();
+			if(s==Thread.State.RUNNABLE || s==Thread.State.NEW)
+				++running;
+		}
+		int add = Math.min(parallelism - running, maximumPoolSize - workers.size());
+		add = Math.min(add, queue.size());
+		for(int i=0; i<add; ++i)
+			startWorker();
+		if(workers.size()>=maximumPoolSize && running<parallelism)
+			log.warning("All "+workers.size()+" workers of a RecomputationScheduler are blocked");
+		scheduleStallCheck();
+	}
+
+	private void work() {
+		Thread me = Thread.currentThread();
+		try {
+			while(true) {
+				Task<?> t;
+				synchronized (this) {
+					while((t = poll())==null) {
+						if(shutdown)
+							return;
+						long start = System.currentTimeMillis();
+						++idle;
+						try {
+							wait(keepAliveMillis);
+						} catch (InterruptedException e) {
+							// only shutdownNow interrupts idle workers
+						}finally {
+							--idle;
+							if(signalled>0)
+								--signalled;
+						}
+						if(System.currentTimeMillis()-start>=keepAliveMillis && peek()==null)
+							return;
+					}
+				}
+				// a cancelled recomputation may have left the interrupt flag set
+				Thread.interrupted();
+				t.run();
+			}
+		}finally {
+			synchronized (this) {
+				workers.remove(me);
+				if(workers.isEmpty())
+					notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		ArrayList<Runnable> ret = new ArrayList<>();
+		synchronized (this) {
+			shutdown = true;
+			Task<?> t;
+			while((t=poll())!=null)
+				ret.add(t);
+			waitingByKey.clear();
+			for(Thread w: workers)
+				w.interrupt();
+			notifyAll();
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown && workers.isEmpty();
+	}
+
+	@Override
+	public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while(!isTerminated()) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining<=0)
+				return false;
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+}
@@ -36,6 +36,9 @@ public class StandardExecutors {
 	private static volatile ExecutorService unlimited;
 	private static volatile ExecutorService limited;
 	private static volatile ScheduledExecutorService delayed;
+	private static volatile ExecutorService recomputation;
+	private static volatile TimerWheel timerWheel;
+	private static volatile ForkJoinPool pull;
 	/**
 	 * Get the {@link ExecutorService} to be used for unlimited parallelity.
 	 * If none has been set, a default is created.
@@ -88,6 +91,67 @@ public class StandardExecutors {
 		}
 		return local;
 	}
+	/**
+	 * Get the {@link ExecutorService} to be used for running recomputations in a different thread.
+	 * If none has been set, a {@link RecomputationScheduler} with one worker per 
+	 * available processor is created.
+	 * @return
+	 */
+	public static ExecutorService recomputation() {
+		ExecutorService local = recomputation;
+		if(local==null) {
+			synchronized (StandardExecutors.class) {
+				local = recomputation;
+				if(local==null) {
+					recomputation = local = createDefaultRecomputation();
+				}
+			}
+		}
+		return local;
+	}
+	/**
+	 * Get the {@link TimerWheel} shared by {@link pile.aspect.listen.RateLimitedValueListener}s.
+	 * If none has been set, a default is created that ticks on {@link #delayed()} and runs the due tasks
+	 * on {@link #unlimited()}.
+	 * @return
+	 */
+	public static TimerWheel timerWheel() {
+		TimerWheel local = timerWheel;
+		if(local==null) {
+			synchronized (StandardExecutors.class) {
+				local = timerWheel;
+				if(local==null) {
+					timerWheel = local = new TimerWheel();
+				}
+			}
+		}
+		return local;
+	}
+	/**
+	 * Set the {@link TimerWheel} to be shared by {@link pile.aspect.listen.RateLimitedValueListener}s
+	 * that are created afterwards.
+	 * @param w
+	 */
+	public static void setTimerWheel(TimerWheel w) {
+		timerWheel = w;
+	}
+	/**
+	 * Get the {@link ForkJoinPool} on which lazy-validating values validate the independent branches
+	 * of their dependencies in parallel when their value is requested (see {@link pile.aspect.LazyValidatable}).
+	 * If none has been set, {@link ForkJoinPool#commonPool()} is used.
+	 * @return
+	 */
+	public static ForkJoinPool pull() {
+		ForkJoinPool local = pull;
+		return local==null?ForkJoinPool.commonPool():local;
+	}
+	/**
+	 * Set the {@link ForkJoinPool} to be used for validating lazy-validating values.
+	 * @param p <code>null</code> to use {@link ForkJoinPool#commonPool()}
+	 */
+	public static void setPull(ForkJoinPool p) {
+		pull = p;
+	}
 	/**
 	 * Set the {@link ExecutorService} to be used for unlimited parallelity.
 	 * @param e
@@ -109,6 +173,16 @@ public class StandardExecutors {
 	public static void setDelayed(ScheduledExecutorService e) {
 		delayed = e;
 	}
+	/**
+	 * Set the {@link ExecutorService} to be used for running recomputations in a different thread.
+	 * Note that recomputations may block waiting for other recomputations, so the 
+	 * {@link ExecutorService} must not let tasks wait indefinitely while all its threads are blocked. 
+	 * To get the old behavior, use {@code setRecomputation(unlimited())}.
+	 * @param e
+	 */
+	public static void setRecomputation(ExecutorService e) {
+		recomputation = e;
+	}
 	/**
 	 * Use the same {@link ExecutorService} for both unlimited parallelity and delayed execution.
 	 * @param e
@@ -117,6 +191,42 @@ public class StandardExecutors {
 		unlimited = e;
 		delayed = e;
 	}
+	private static volatile boolean virtual;
+	/**
+	 * Run tasks that are submitted to the {@link #unlimited()}, {@link #delayed()} and {@link #recomputation()}
+	 * {@link ExecutorService}s in virtual {@link Thread}s, each in a new one, if the JVM supports them
+	 * (see {@link VirtualThreads}). This suits many recomputations that spend most of their time waiting.
+	 * The {@link #limited()} {@link ExecutorService} is not changed.
+	 * <p>
+	 * The {@link ExecutorService}s are only looked up when values are built or listeners and queues are
+	 * created, so this should be called at startup. Priorities set with
+	 * {@link RecomputationScheduler#setPriority(pile.aspect.HasAssociations, int)} have no effect in this mode,
+	 * since every recomputation gets its own {@link Thread} right away.
+	 * @return Whether virtual threads are being used now. If not, nothing has been changed.
+	 */
+	public static boolean useVirtualThreads() {
+		if(!VirtualThreads.isSupported()) {
+			log.log(Level.INFO, "Virtual threads are not available in this JVM; keeping platform threads");
+			return false;
+		}
+		synchronized (StandardExecutors.class) {
+			if(virtual)
+				return true;
+			ExecutorService perTask = VirtualThreads.newPerTaskExecutor("PileVirtualThread-");
+			unlimited = perTask;
+			recomputation = perTask;
+			delayed = VirtualThreads.handingOffTo(perTask, DEFAULT_THREAD_FACTORY);
+			virtual = true;
+		}
+		return true;
+	}
+	/**
+	 * @return Whether {@link #useVirtualThreads()} has switched the default {@link ExecutorService}s to virtual threads.
+	 * Setting any of them afterwards does not change this.
+	 */
+	public static boolean isUsingVirtualThreads() {
+		return virtual;
+	}
 	private static ExecutorService createDefaultUnlimited() {
 		long keepAlive=1000;
 		ThreadPoolExecutor ret = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
@@ -132,6 +242,9 @@ public class StandardExecutors {
 		ret.setThreadFactory(DEFAULT_THREAD_FACTORY);
 		return ret;
 	}
+	private static ExecutorService createDefaultRecomputation() {
+		return new RecomputationScheduler();
+	}
 	private static ScheduledExecutorService createDefaultDelayed() {
 		ScheduledThreadPoolExecutor ret = new ScheduledThreadPoolExecutor(0);
 		ret.setKeepAliveTime(1000, TimeUnit.MILLISECONDS);
@@ -180,6 +293,33 @@ public class StandardExecutors {
 		
 		return t;
 	};
+	/**
+	 * Submit a task on behalf of the given key. If the {@link ExecutorService} is a
+	 * {@link RecomputationScheduler}, the task gets the key's priority and coalesces
+	 * with waiting tasks for the same key; otherwise, this is just {@link ExecutorService#submit(Runnable)}.
+	 * @param exec
+	 * @param key usually the {@link pile.aspect.combinations.Pile Pile} that is being recomputed
+	 * @param task
+	 * @return
+	 */
+	public static Future<?> submit(ExecutorService exec, Object key, Runnable task) {
+		if(exec instanceof RecomputationScheduler)
+			return ((RecomputationScheduler) exec).submit(key, task);
+		return exec.submit(task);
+	}
+	/**
+	 * Like {@link #submit(ExecutorService, Object, Runnable)}, but uses
+	 * {@link ExecutorService#execute(Runnable)}.
+	 * @param exec
+	 * @param key
+	 * @param task
+	 */
+	public static void execute(ExecutorService exec, Object key, Runnable task) {
+		if(exec instanceof RecomputationScheduler)
+			((RecomputationScheduler) exec).execute(key, task);
+		else
+			exec.execute(task);
+	}
 	/**
 	 * Catches and logs any {@link Throwable}s thrown from the {@link Runnable#run() run} method of the {@link Runnable}
 	 * @param r
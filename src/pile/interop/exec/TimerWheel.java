@@ -0,0 +1,324 @@
+package pile.interop.exec;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pile.aspect.listen.RateLimitedValueListener;
+import pile.interop.wait.WaitService;
+
+/**
+ * A hashed timer wheel for many short, coarse delays, such as those of {@link RateLimitedValueListener}s.
+ * <p>
+ * Time is divided into ticks of fixed length. A task is put into the bucket of the tick in which it is due,
+ * which costs O(1) no matter how many tasks are pending. While any task is pending, a single periodic job on a
+ * {@link ScheduledExecutorService} advances the wheel once per tick and hands all tasks that became due to an
+ * {@link Executor} as one batch. When nothing is pending, the periodic job is cancelled.
+ * <p>
+ * Delays are rounded up to whole ticks, so a task runs between its delay and its delay plus one tick later.
+ * Tasks with a delay of 0 or less are handed to the {@link Executor} right away.
+ * Tasks of one batch run one after the other in the same {@link Thread}; a task that blocks delays the rest of its batch.
+ * @author bb
+ *
+ */
+public final class TimerWheel {
+	private final static Logger log=Logger.getLogger("TimerWheel");
+
+	public static final long DEFAULT_TICK_MILLIS = 10;
+	public static final int DEFAULT_BUCKETS = 512;
+
+	private final long tickNanos;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long origin = System.nanoTime();
+	private final Supplier<? extends ScheduledExecutorService> ticker;
+	private final Supplier<? extends Executor> runner;
+
+	/**
+	 * The last tick whose bucket has been processed. Guarded by <code>this</code>.
+	 */
+	private long processedTick;
+	/**
+	 * Number of {@link Timeout}s in the buckets, including cancelled ones. Guarded by <code>this</code>.
+	 */
+	private int pending;
+	/**
+	 * The periodic job that advances the wheel, or <code>null</code> if nothing is pending. Guarded by <code>this</code>.
+	 */
+	private Future<?> tickJob;
+
+	private final LongAdder scheduled = new LongAdder();
+	private final LongAdder fired = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder cancelled = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * A {@link TimerWheel} with {@value #DEFAULT_TICK_MILLIS} ms ticks that uses {@link StandardExecutors#delayed()}
+	 * to tick and {@link StandardExecutors#unlimited()} to run the due tasks.
+	 */
+	public TimerWheel() {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS, StandardExecutors::delayed, StandardExecutors::unlimited);
+	}
+	/**
+	 *
+	 * @param tickMillis The length of a tick in milliseconds
+	 * @param buckets The number of buckets; rounded up to a power of two. Tasks that are due more than this many ticks
+	 * in the future share a bucket with earlier ones and are skipped until their tick comes.
+	 * @param ticker Supplies the {@link ScheduledExecutorService} for the periodic job. Looked up each time the job is started.
+	 * @param runner Supplies the {@link Executor} for the batches of due tasks. Looked up for each batch.
+	 */
+	public TimerWheel(long tickMillis, int buckets,
+			Supplier<? extends ScheduledExecutorService> ticker, Supplier<? extends Executor> runner) {
+		if(tickMillis<=0)
+			throw new IllegalArgumentException("tickMillis must be positive");
+		if(buckets<=0)
+			throw new IllegalArgumentException("buckets must be positive");
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int n = Integer.highestOneBit(buckets);
+		if(n<buckets)
+			n<<=1;
+		this.buckets = new Timeout[n];
+		this.mask = n-1;
+		this.ticker = ticker;
+		this.runner = runner;
+	}
+
+	/**
+	 * Run a task after a delay
+	 * @param task
+	 * @param delayMillis
+	 * @return A {@link Future} that can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout t = new Timeout(this, task);
+		scheduled.increment();
+		if(delayMillis<=0) {
+			fired.increment();
+			batches.increment();
+			execute(t::run);
+			return t;
+		}
+		long dueNanos = System.nanoTime() - origin + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		long due = (dueNanos + tickNanos - 1) / tickNanos;
+		synchronized (this) {
+			if(due<=processedTick)
+				due = processedTick+1;
+			t.due = due;
+			int b = (int)due & mask;
+			t.next = buckets[b];
+			buckets[b] = t;
+			++pending;
+			if(tickJob==null)
+				tickJob = ticker.get().scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+		}
+		return t;
+	}
+	/**
+	 * Advance the wheel to the current time and run the tasks that have become due
+	 */
+	private void tick() {
+		ArrayList<Timeout> due = null;
+		synchronized (this) {
+			long now = (System.nanoTime() - origin) / tickNanos;
+			long from = processedTick+1;
+			long ticks = Math.min(now - from + 1, buckets.length);
+			for(long i = 0; i < ticks; ++i) {
+				int b = (int)(from+i) & mask;
+				Timeout prev = null;
+				for(Timeout t = buckets[b]; t != null; ) {
+					Timeout next = t.next;
+					if(t.due <= now) {
+						if(prev==null)
+							buckets[b] = next;
+						else
+							prev.next = next;
+						t.next = null;
+						--pending;
+						if(t.state==Timeout.PENDING) {
+							if(due==null)
+								due = new ArrayList<>();
+							due.add(t);
+						}
+					}else {
+						prev = t;
+					}
+					t = next;
+				}
+			}
+			if(now>processedTick)
+				processedTick = now;
+			if(pending==0 && tickJob!=null) {
+				tickJob.cancel(false);
+				tickJob = null;
+			}
+		}
+		if(due!=null) {
+			ArrayList<Timeout> batch = due;
+			fired.add(batch.size());
+			batches.increment();
+			execute(()->{
+				for(Timeout t: batch)
+					t.run();
+			});
+		}
+	}
+	private void execute(Runnable r) {
+		try {
+			runner.get().execute(r);
+		}catch(RejectedExecutionException x) {
+			log.log(Level.WARNING, "Executor rejected due timer tasks; running them in the ticking thread", x);
+			r.run();
+		}
+	}
+	/**
+	 * @return The number of tasks that have been scheduled and have not run or been cancelled yet
+	 * (cancelled ones may be counted until their tick).
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+	/**
+	 * @return How many tasks have been {@link #schedule(Runnable, long) scheduled}
+	 */
+	public long getScheduled() {
+		return scheduled.sum();
+	}
+	/**
+	 * @return How many tasks have been handed to the {@link Executor}
+	 */
+	public long getFired() {
+		return fired.sum();
+	}
+	/**
+	 * @return How many batches the fired tasks have been handed over in
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+	/**
+	 * @return How many tasks have been cancelled before they ran
+	 */
+	public long getCancelled() {
+		return cancelled.sum();
+	}
+	/**
+	 * @return How many events users of the wheel have {@link #recordCoalesced() merged} into an already scheduled task
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+	/**
+	 * Record that an event did not need a task of its own because one was already scheduled
+	 */
+	public void recordCoalesced() {
+		coalesced.increment();
+	}
+	/**
+	 * Set all counters back to 0
+	 */
+	public void resetCounters() {
+		scheduled.reset();
+		fired.reset();
+		batches.reset();
+		cancelled.reset();
+		coalesced.reset();
+	}
+	@Override
+	public String toString() {
+		return "TimerWheel: "+getPending()+" pending, "+getScheduled()+" scheduled, "+getFired()+" fired in "
+				+getBatches()+" batches, "+getCancelled()+" cancelled, "+getCoalesced()+" coalesced";
+	}
+
+	/**
+	 * A task scheduled on a {@link TimerWheel}. {@link #isDone()} becomes <code>true</code> when it has run or been cancelled.
+	 * @author bb
+	 *
+	 */
+	public static final class Timeout implements Future<Void>{
+		static final int PENDING = 0;
+		static final int RUNNING = 1;
+		static final int DONE = 2;
+		static final int CANCELLED = 3;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		final TimerWheel wheel;
+		final Runnable task;
+		volatile int state;
+		/**
+		 * The tick in which this is due. Guarded by the {@link TimerWheel}.
+		 */
+		long due;
+		/**
+		 * The next {@link Timeout} in the same bucket. Guarded by the {@link TimerWheel}.
+		 */
+		Timeout next;
+
+		Timeout(TimerWheel wheel, Runnable task) {
+			this.wheel = wheel;
+			this.task = task;
+		}
+		void run() {
+			if(!STATE.compareAndSet(this, PENDING, RUNNING))
+				return;
+			try {
+				StandardExecutors.safe(task);
+			}finally {
+				synchronized (this) {
+					state = DONE;
+					WaitService.get().notifyAll(this);
+				}
+			}
+		}
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			wheel.cancelled.increment();
+			synchronized (this) {
+				WaitService.get().notifyAll(this);
+			}
+			return true;
+		}
+		@Override
+		public boolean isCancelled() {
+			return state==CANCELLED;
+		}
+		@Override
+		public boolean isDone() {
+			return state>=DONE;
+		}
+		@Override
+		public synchronized Void get() throws InterruptedException {
+			while(state<DONE)
+				WaitService.get().wait(this);
+			if(state==CANCELLED)
+				throw new CancellationException();
+			return null;
+		}
+		@Override
+		public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while(state<DONE) {
+				long left = deadline - System.nanoTime();
+				if(left<=0)
+					throw new TimeoutException();
+				WaitService.get().wait(this, Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+			}
+			if(state==CANCELLED)
+				throw new CancellationException();
+			return null;
+		}
+	}
+}
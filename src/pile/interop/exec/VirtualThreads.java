@@ -0,0 +1,202 @@
+package pile.interop.exec;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual {@link Thread}s on Java versions that have them (21 and later), without requiring them
+ * at compile time or at run time. On older versions, {@link #isSupported()} returns <code>false</code>
+ * and the factory methods throw an {@link UnsupportedOperationException}.
+ * <p>
+ * Use {@link StandardExecutors#useVirtualThreads()} to switch the default {@link ExecutorService}s over.
+ * <p>
+ * Note that {@link Object#wait()} and blocking inside <code>synchronized</code> blocks pin the virtual thread to its
+ * carrier thread before Java 24. Virtual threads that wait for a value therefore do so outside its mutex,
+ * using a {@link pile.interop.wait.LockMonitor}.
+ * @author bb
+ *
+ */
+public final class VirtualThreads {
+	private final static Logger log=Logger.getLogger("VirtualThreads");
+	private VirtualThreads() {}
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+	private static final Method IS_VIRTUAL;
+	static {
+		Method ofVirtual = null, name = null, factory = null, perTask = null, isVirtual = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			isVirtual = Thread.class.getMethod("isVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// fails if virtual threads are a preview feature that is not enabled
+			ofVirtual.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			log.log(Level.FINE, "Virtual threads are not available", e);
+			ofVirtual = null;
+			isVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+		IS_VIRTUAL = isVirtual;
+	}
+	/**
+	 * @return Whether this JVM can create virtual {@link Thread}s
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL!=null;
+	}
+	/**
+	 * @param t
+	 * @return Whether the given {@link Thread} is a virtual one. Always <code>false</code> if virtual threads
+	 * are not {@link #isSupported() supported}.
+	 */
+	public static boolean isVirtual(Thread t) {
+		if(IS_VIRTUAL==null)
+			return false;
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(t);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			return false;
+		}
+	}
+	/**
+	 * @return Whether the current {@link Thread} is a virtual one.
+	 * @see #isVirtual(Thread)
+	 */
+	public static boolean isCurrentThreadVirtual() {
+		return IS_VIRTUAL!=null && isVirtual(Thread.currentThread());
+	}
+	/**
+	 * Make a {@link ThreadFactory} that creates virtual {@link Thread}s
+	 * @param prefix The names of the threads will be this, followed by a number
+	 * @return
+	 * @throws UnsupportedOperationException if virtual threads are not {@link #isSupported() supported}
+	 */
+	public static ThreadFactory factory(String prefix) {
+		if(!isSupported())
+			throw new UnsupportedOperationException("Virtual threads are not available in this JVM");
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = NAME.invoke(builder, prefix, 0L);
+			return (ThreadFactory) FACTORY.invoke(builder);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("Cannot create virtual threads", e);
+		}
+	}
+	/**
+	 * Make an {@link ExecutorService} that runs each task in a new virtual {@link Thread}
+	 * @param prefix The names of the threads will be this, followed by a number
+	 * @return
+	 * @throws UnsupportedOperationException if virtual threads are not {@link #isSupported() supported}
+	 */
+	public static ExecutorService newPerTaskExecutor(String prefix) {
+		ThreadFactory f = factory(prefix);
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, f);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("Cannot create virtual threads", e);
+		}
+	}
+	/**
+	 * Make a {@link ScheduledExecutorService} that runs each task in a new virtual {@link Thread} when it is due.
+	 * One platform {@link Thread} keeps time.
+	 * @param prefix The names of the threads will be this, followed by a number
+	 * @return
+	 * @throws UnsupportedOperationException if virtual threads are not {@link #isSupported() supported}
+	 */
+	public static ScheduledExecutorService newScheduler(String prefix) {
+		return handingOffTo(newPerTaskExecutor(prefix), StandardExecutors.DEFAULT_THREAD_FACTORY);
+	}
+	/**
+	 * Make a {@link ScheduledExecutorService} that uses one {@link Thread} to wait until tasks are due and
+	 * then runs them with the given {@link Executor}, so that they do not occupy the timer thread.
+	 * Cancelling a running task with {@link java.util.concurrent.Future#cancel(boolean) cancel(true)}
+	 * interrupts the {@link Thread} that runs it, as usual.
+	 * Shutting the {@link ScheduledExecutorService} down does not shut the {@link Executor} down.
+	 * @param target
+	 * @param timerThreadFactory
+	 * @return
+	 */
+	public static ScheduledExecutorService handingOffTo(Executor target, ThreadFactory timerThreadFactory) {
+		return new HandOffScheduler(target, timerThreadFactory);
+	}
+
+	private static final class HandOffScheduler extends ScheduledThreadPoolExecutor{
+		final Executor target;
+		HandOffScheduler(Executor target, ThreadFactory timerThreadFactory) {
+			super(1, timerThreadFactory);
+			this.target = target;
+			setRemoveOnCancelPolicy(true);
+		}
+		@Override
+		protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+			return new HandOff<>(task);
+		}
+		@Override
+		protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+			return new HandOff<>(task);
+		}
+		/**
+		 * Runs the actual task in the target {@link Executor}. A periodic task re-enqueues this wrapper
+		 * after each run, from the target's {@link Thread}.
+		 */
+		final class HandOff<V> implements RunnableScheduledFuture<V>{
+			final RunnableScheduledFuture<V> task;
+			HandOff(RunnableScheduledFuture<V> task) {
+				this.task = task;
+			}
+			@Override
+			public void run() {
+				if(task.isDone())
+					return;
+				try {
+					target.execute(task);
+				}catch(RuntimeException x) {
+					// the target has been shut down; don't lose the task
+					task.run();
+				}
+			}
+			@Override public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean ret = task.cancel(mayInterruptIfRunning);
+				if(ret)
+					remove(this);
+				return ret;
+			}
+			@Override public boolean isCancelled() {return task.isCancelled();}
+			@Override public boolean isDone() {return task.isDone();}
+			@Override public V get() throws InterruptedException, ExecutionException {return task.get();}
+			@Override public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+				return task.get(timeout, unit);
+			}
+			@Override public long getDelay(TimeUnit unit) {return task.getDelay(unit);}
+			@Override public int compareTo(Delayed o) {
+				if(o instanceof HandOff)
+					return task.compareTo(((HandOff<?>) o).task);
+				return task.compareTo(o);
+			}
+			@Override public boolean isPeriodic() {return task.isPeriodic();}
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package pile.interop.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import pile.aspect.Dependency;
+
+/**
+ * The runtime metrics of one reactive value. Instances are created and {@link PileMetrics#register(NodeMetrics) registered}
+ * by the value itself the first time it records something while {@link PileMetrics#isEnabled() metrics are enabled}.
+ * <p>
+ * Counters are {@link LongAdder}s, so that concurrent updates from many threads do not contend.
+ * Recomputation times are additionally sorted into a histogram with one bucket per power of two nanoseconds.
+ * @author bb
+ *
+ */
+public final class NodeMetrics {
+	/**
+	 * Number of histogram buckets. Bucket <code>i</code> counts durations <code>d</code> with
+	 * <code>2^i &lt;= d &lt; 2^(i+1)</code> nanoseconds; bucket 0 also counts 0 and the last one everything longer.
+	 */
+	public static final int BUCKETS = 40;
+
+	final WeakReference<Dependency> node;
+	private final LongAdder recomputations = new LongAdder();
+	private final LongAdder cancelled = new LongAdder();
+	private final LongAdder restarted = new LongAdder();
+	private final LongAdder recomputeNanos = new LongAdder();
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+	private final LongAdder invalidNanos = new LongAdder();
+	private final LongAdder dispatches = new LongAdder();
+	private final LongAdder dispatchNanos = new LongAdder();
+	private final LongAdder dependencyChanges = new LongAdder();
+	private final LongAdder dynamicDependencyDiffs = new LongAdder();
+	/**
+	 * {@link System#nanoTime()} when the value last became invalid, or 0 if it is valid
+	 * or became invalid before it recorded anything.
+	 */
+	private volatile long invalidSince;
+
+	public NodeMetrics(Dependency node) {
+		this.node = new WeakReference<>(node);
+	}
+	/**
+	 * @return The value these metrics are about, or <code>null</code> if it has been garbage collected
+	 */
+	public Dependency getNode() {
+		return node.get();
+	}
+	/**
+	 * Record the end of a recomputation
+	 * @param nanos How long it took from starting it until it was fulfilled or cancelled
+	 * @param wasCancelled
+	 */
+	public void recomputationFinished(long nanos, boolean wasCancelled) {
+		if(wasCancelled) {
+			cancelled.increment();
+		}else {
+			recomputations.increment();
+		}
+		recomputeNanos.add(nanos);
+		histogram.incrementAndGet(bucket(nanos));
+	}
+	/**
+	 * Record that a running recomputation was cancelled because a new one is needed
+	 */
+	public void recomputationRestarted() {
+		restarted.increment();
+	}
+	/**
+	 * Record a dispatch of a value change event to the listeners
+	 * @param nanos How long the listeners took
+	 */
+	public void listenersDispatched(long nanos) {
+		dispatches.increment();
+		dispatchNanos.add(nanos);
+	}
+	/**
+	 * Record that a dependency was added or removed
+	 */
+	public void dependenciesChanged() {
+		dependencyChanges.increment();
+	}
+	/**
+	 * Record that a recomputation recorded other dynamic dependencies than the one before it,
+	 * so that they had to be compared to the current ones
+	 */
+	public void dynamicDependenciesCompared() {
+		dynamicDependencyDiffs.increment();
+	}
+	/**
+	 * Record that the value became invalid
+	 */
+	public void becameInvalid() {
+		if(invalidSince==0)
+			invalidSince = nonZeroNanoTime();
+	}
+	/**
+	 * Record that the value became valid
+	 */
+	public void becameValid() {
+		long since = invalidSince;
+		if(since!=0) {
+			invalidSince = 0;
+			invalidNanos.add(System.nanoTime()-since);
+		}
+	}
+	/**
+	 * Set all counters back to 0
+	 */
+	public void reset() {
+		recomputations.reset();
+		cancelled.reset();
+		restarted.reset();
+		recomputeNanos.reset();
+		for(int i=0; i<BUCKETS; ++i)
+			histogram.set(i, 0);
+		invalidNanos.reset();
+		dispatches.reset();
+		dispatchNanos.reset();
+		dependencyChanges.reset();
+		dynamicDependencyDiffs.reset();
+		if(invalidSince!=0)
+			invalidSince = nonZeroNanoTime();
+	}
+	/**
+	 * @return A copy of the current state of the metrics, or <code>null</code> if the value has been garbage collected
+	 */
+	public Snapshot snapshot() {
+		Dependency d = node.get();
+		if(d==null)
+			return null;
+		int[] fanOut = {0};
+		d.giveDependers(x->fanOut[0]++);
+		long[] h = new long[BUCKETS];
+		for(int i=0; i<BUCKETS; ++i)
+			h[i] = histogram.get(i);
+		long since = invalidSince;
+		long invalid = invalidNanos.sum();
+		if(since!=0)
+			invalid += System.nanoTime() - since;
+		return new Snapshot(d.dependencyName(), recomputations.sum(), cancelled.sum(), restarted.sum(),
+				recomputeNanos.sum(), h, invalid, dispatches.sum(), dispatchNanos.sum(), fanOut[0],
+				dependencyChanges.sum(), dynamicDependencyDiffs.sum());
+	}
+	static int bucket(long nanos) {
+		if(nanos<=1)
+			return 0;
+		return Math.min(BUCKETS-1, 63 - Long.numberOfLeadingZeros(nanos));
+	}
+	private static long nonZeroNanoTime() {
+		long ret = System.nanoTime();
+		return ret==0?1:ret;
+	}
+
+	/**
+	 * An immutable copy of the {@link NodeMetrics} of one reactive value
+	 * @author bb
+	 *
+	 */
+	public static final class Snapshot {
+		public static final Comparator<Snapshot> BY_RECOMPUTATIONS = Comparator.comparingLong(Snapshot::getRecomputations);
+		public static final Comparator<Snapshot> BY_RECOMPUTE_TIME = Comparator.comparingLong(Snapshot::getRecomputeNanos);
+		public static final Comparator<Snapshot> BY_CANCELLED = Comparator.comparingLong(Snapshot::getCancelled);
+		public static final Comparator<Snapshot> BY_INVALID_TIME = Comparator.comparingLong(Snapshot::getInvalidNanos);
+		public static final Comparator<Snapshot> BY_DISPATCH_TIME = Comparator.comparingLong(Snapshot::getListenerDispatchNanos);
+		public static final Comparator<Snapshot> BY_FAN_OUT = Comparator.comparingInt(Snapshot::getFanOut);
+
+		private final String name;
+		private final long recomputations;
+		private final long cancelled;
+		private final long restarted;
+		private final long recomputeNanos;
+		private final long[] histogram;
+		private final long invalidNanos;
+		private final long dispatches;
+		private final long dispatchNanos;
+		private final int fanOut;
+		private final long dependencyChanges;
+		private final long dynamicDependencyDiffs;
+
+		Snapshot(String name, long recomputations, long cancelled, long restarted, long recomputeNanos,
+				long[] histogram, long invalidNanos, long dispatches, long dispatchNanos, int fanOut,
+				long dependencyChanges, long dynamicDependencyDiffs) {
+			this.name = name;
+			this.recomputations = recomputations;
+			this.cancelled = cancelled;
+			this.restarted = restarted;
+			this.recomputeNanos = recomputeNanos;
+			this.histogram = histogram;
+			this.invalidNanos = invalidNanos;
+			this.dispatches = dispatches;
+			this.dispatchNanos = dispatchNanos;
+			this.fanOut = fanOut;
+			this.dependencyChanges = dependencyChanges;
+			this.dynamicDependencyDiffs = dynamicDependencyDiffs;
+		}
+		/**
+		 * @return The {@link Dependency#dependencyName() name} of the value
+		 */
+		public String getName() {
+			return name;
+		}
+		/**
+		 * @return How many recomputations were fulfilled
+		 */
+		public long getRecomputations() {
+			return recomputations;
+		}
+		/**
+		 * @return How many recomputations were cancelled, including {@link #getRestarted() restarted} ones
+		 */
+		public long getCancelled() {
+			return cancelled;
+		}
+		/**
+		 * @return How many running recomputations were cancelled because a new one was needed
+		 */
+		public long getRestarted() {
+			return restarted;
+		}
+		/**
+		 * @return The total wall time of all fulfilled and cancelled recomputations, including delays
+		 */
+		public long getRecomputeNanos() {
+			return recomputeNanos;
+		}
+		/**
+		 * @return A copy of the recomputation time histogram
+		 * @see NodeMetrics#BUCKETS
+		 */
+		public long[] getHistogram() {
+			return histogram.clone();
+		}
+		/**
+		 * Estimate a percentile of the recomputation times from the histogram
+		 * @param p between 0 and 1
+		 * @return The upper bound of the bucket that contains the percentile, or 0 if there were no recomputations
+		 */
+		public long getRecomputeNanosPercentile(double p) {
+			long total = 0;
+			for(long c: histogram)
+				total += c;
+			if(total==0)
+				return 0;
+			long rank = (long)Math.ceil(p*total);
+			long seen = 0;
+			for(int i=0; i<histogram.length; ++i) {
+				seen += histogram[i];
+				if(seen>=rank && seen>0)
+					return i==histogram.length-1?Long.MAX_VALUE:(2L<<i)-1;
+			}
+			return Long.MAX_VALUE;
+		}
+		/**
+		 * @return How long the value has been invalid, including the current period if it is invalid now
+		 */
+		public long getInvalidNanos() {
+			return invalidNanos;
+		}
+		/**
+		 * @return How often value change events were dispatched to the listeners
+		 */
+		public long getListenerDispatches() {
+			return dispatches;
+		}
+		/**
+		 * @return The total time the listeners took
+		 */
+		public long getListenerDispatchNanos() {
+			return dispatchNanos;
+		}
+		/**
+		 * @return The number of {@link pile.aspect.Depender}s when the snapshot was taken
+		 */
+		public int getFanOut() {
+			return fanOut;
+		}
+		/**
+		 * @return How often a dependency was added or removed
+		 */
+		public long getDependencyChanges() {
+			return dependencyChanges;
+		}
+		/**
+		 * @return How often a recomputation recorded other dynamic dependencies than the one before it
+		 */
+		public long getDynamicDependencyDiffs() {
+			return dynamicDependencyDiffs;
+		}
+		@Override
+		public String toString() {
+			return name+": "+recomputations+" recomputations ("+cancelled+" cancelled, "+restarted+" restarted, "
+					+recomputeNanos/1000+" us), invalid for "+invalidNanos/1000+" us, "
+					+dispatches+" dispatches ("+dispatchNanos/1000+" us), fan-out "+fanOut;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package pile.interop.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runtime switch and registry for per-value {@link NodeMetrics}.
+ * <p>
+ * Metrics are disabled by default. While they are, the reactive values only read a <code>volatile</code> flag
+ * where they would otherwise record something. When {@link #setEnabled(boolean) enabled}, each value creates its
+ * {@link NodeMetrics} the first time it records something and registers it here.
+ * The registry only holds the values weakly.
+ * <p>
+ * Typical use: enable the metrics, let the application run for a while, then look at {@link #hottest(Comparator, int)}.
+ * @author bb
+ *
+ */
+public final class PileMetrics {
+	private PileMetrics() {}
+
+	private static volatile boolean enabled;
+	private static final ConcurrentLinkedQueue<NodeMetrics> registry = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger registrations = new AtomicInteger();
+	/**
+	 * Forget collected values every this many registrations
+	 */
+	private static final int PRUNE_INTERVAL = 4096;
+
+	/**
+	 * Turn recording of metrics on or off. Metrics that have been recorded are kept when turning it off.
+	 * @param enable
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+	/**
+	 * @return Whether metrics are being recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	/**
+	 * Add {@link NodeMetrics} to the registry. Called by the reactive values.
+	 * @param m
+	 */
+	public static void register(NodeMetrics m) {
+		registry.add(m);
+		if(registrations.incrementAndGet()%PRUNE_INTERVAL==0)
+			prune();
+	}
+	/**
+	 * Remove the {@link NodeMetrics} of reactive values that have been garbage collected
+	 */
+	public static void prune() {
+		registry.removeIf(m->m.getNode()==null);
+	}
+	/**
+	 * @return The number of registered {@link NodeMetrics}, including those of collected values that have not been pruned yet
+	 */
+	public static int size() {
+		return registry.size();
+	}
+	/**
+	 * Set the counters of all registered {@link NodeMetrics} back to 0
+	 */
+	public static void reset() {
+		for(Iterator<NodeMetrics> i = registry.iterator(); i.hasNext(); ) {
+			NodeMetrics m = i.next();
+			if(m.getNode()==null)
+				i.remove();
+			else
+				m.reset();
+		}
+	}
+	/**
+	 * @return A {@link NodeMetrics.Snapshot} for each registered value that still exists
+	 */
+	public static List<NodeMetrics.Snapshot> snapshot() {
+		ArrayList<NodeMetrics.Snapshot> ret = new ArrayList<>();
+		for(Iterator<NodeMetrics> i = registry.iterator(); i.hasNext(); ) {
+			NodeMetrics.Snapshot s = i.next().snapshot();
+			if(s==null)
+				i.remove();
+			else
+				ret.add(s);
+		}
+		return ret;
+	}
+	/**
+	 * Find the values that rank highest by some metric, without sorting all of them.
+	 * @param by One of the comparators in {@link NodeMetrics.Snapshot}, for example {@link NodeMetrics.Snapshot#BY_RECOMPUTE_TIME}
+	 * @param n How many to return at most
+	 * @return The snapshots of the <code>n</code> highest ranking values, highest first
+	 */
+	public static List<NodeMetrics.Snapshot> hottest(Comparator<? super NodeMetrics.Snapshot> by, int n) {
+		if(n<=0)
+			return Collections.emptyList();
+		PriorityQueue<NodeMetrics.Snapshot> top = new PriorityQueue<>(n+1, by);
+		for(Iterator<NodeMetrics> i = registry.iterator(); i.hasNext(); ) {
+			NodeMetrics.Snapshot s = i.next().snapshot();
+			if(s==null) {
+				i.remove();
+				continue;
+			}
+			if(top.size()<n) {
+				top.add(s);
+			}else if(by.compare(s, top.peek())>0) {
+				top.poll();
+				top.add(s);
+			}
+		}
+		ArrayList<NodeMetrics.Snapshot> ret = new ArrayList<>(top);
+		ret.sort(by.reversed());
+		return ret;
+	}
+}
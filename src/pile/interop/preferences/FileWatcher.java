@@ -0,0 +1,362 @@
+package pile.interop.preferences;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import pile.aspect.suppress.SafeCloseable;
+import pile.interop.exec.StandardExecutors;
+import pile.utils.WeakCleanupWithRunnable;
+
+/**
+ * Watches files for changes using a {@link WatchService}.
+ * <p>
+ * Each directory that contains a watched file is registered once, no matter how many
+ * files in it are watched, and there is one watcher {@link Thread} per {@link FileSystem}.
+ * Events are debounced: A {@link Watch} is notified once, {@link #getDebounceMillis() a short while}
+ * after the first event for any of its files, no matter how many events arrive in between.
+ * The notifications are run by the {@link StandardExecutors#unlimited() unlimited} pool.
+ * <p>
+ * Watch events are not reliable on all file systems (network file systems in particular),
+ * and directories that do not exist cannot be watched; see {@link Watch#isComplete()}.
+ * @author bb
+ *
+ */
+public class FileWatcher {
+	private static final Logger logger = Logger.getLogger("FileWatcher");
+
+	private static volatile FileWatcher shared;
+	/**
+	 * Get the {@link FileWatcher} that is shared by default. It debounces events for 50ms.
+	 * @return
+	 */
+	public static FileWatcher shared() {
+		FileWatcher local = shared;
+		if(local==null) {
+			synchronized (FileWatcher.class) {
+				local = shared;
+				if(local==null)
+					shared = local = new FileWatcher(50);
+			}
+		}
+		return local;
+	}
+
+	private final long debounceMillis;
+	private final HashMap<FileSystem, Service> services = new HashMap<>();
+
+	/**
+	 * @param debounceMillis How long to wait after the first event for a {@link Watch}
+	 * before notifying it. Further events that arrive in the meantime are coalesced.
+	 */
+	public FileWatcher(long debounceMillis) {
+		if(debounceMillis<0)
+			throw new IllegalArgumentException();
+		this.debounceMillis = debounceMillis;
+	}
+	public long getDebounceMillis() {
+		return debounceMillis;
+	}
+
+	/**
+	 * Start watching the given files.
+	 * @param files
+	 * @param onChange Called with {@code false} if files have been created or modified, and with {@code true}
+	 * if files may have been deleted or events may have been lost. It is only weakly referenced;
+	 * the {@link Watch} closes itself when it is garbage collected.
+	 * @return
+	 */
+	public Watch watch(Collection<? extends Path> files, Consumer<? super Boolean> onChange) {
+		Watch w = new Watch(onChange);
+		w.update(files);
+		return w;
+	}
+
+	/**
+	 * A set of files being watched on behalf of one listener.
+	 * @author bb
+	 *
+	 */
+	public final class Watch implements SafeCloseable{
+		final WeakCleanupWithRunnable<Consumer<? super Boolean>> onChange;
+		/**
+		 * The directories with the names of the files in them that are watched
+		 */
+		private Map<Path, Set<Path>> files = Collections.emptyMap();
+		private boolean complete = true;
+		private boolean closed;
+
+		Watch(Consumer<? super Boolean> onChange) {
+			this.onChange = new WeakCleanupWithRunnable<>(onChange, this::close);
+		}
+		/**
+		 * Change the set of files being watched
+		 * @param newFiles
+		 */
+		public void update(Collection<? extends Path> newFiles) {
+			HashMap<Path, Set<Path>> nf = new HashMap<>();
+			for(Path p: newFiles) {
+				if(p==null)
+					continue;
+				p = p.toAbsolutePath().normalize();
+				Path dir = p.getParent();
+				if(dir==null)
+					continue;
+				nf.computeIfAbsent(dir, k->new HashSet<>()).add(p.getFileName());
+			}
+			synchronized (this) {
+				if(closed)
+					return;
+				boolean c = true;
+				for(Map.Entry<Path, Set<Path>> e: files.entrySet())
+					if(!e.getValue().equals(nf.get(e.getKey())))
+						service(e.getKey()).unsubscribe(e.getKey(), e.getValue(), this);
+				for(Map.Entry<Path, Set<Path>> e: nf.entrySet()) {
+					Set<Path> old = files.get(e.getKey());
+					if(old==null || !old.equals(e.getValue()))
+						c &= service(e.getKey()).subscribe(e.getKey(), e.getValue(), this);
+					else
+						c &= service(e.getKey()).ensureRegistered(e.getKey());
+				}
+				files = nf;
+				complete = c;
+			}
+		}
+		/**
+		 * @return Whether all directories containing the watched files could be registered.
+		 * If not, changes to some of them will go unnoticed.
+		 */
+		public synchronized boolean isComplete() {
+			return complete && !closed;
+		}
+		@Override
+		public void close() {
+			synchronized (this) {
+				if(closed)
+					return;
+				closed = true;
+				for(Map.Entry<Path, Set<Path>> e: files.entrySet())
+					service(e.getKey()).unsubscribe(e.getKey(), e.getValue(), this);
+				files = Collections.emptyMap();
+			}
+		}
+		void fire(boolean full) {
+			Consumer<? super Boolean> c = onChange.get();
+			if(c==null)
+				close();
+			else
+				StandardExecutors.safe(()->c.accept(full));
+		}
+	}
+	private synchronized Service service(Path dir) {
+		return services.computeIfAbsent(dir.getFileSystem(), Service::new);
+	}
+
+	/**
+	 * The registered directories of one {@link FileSystem} and the {@link Thread} that waits for their events
+	 */
+	private final class Service{
+		final FileSystem fs;
+		WatchService ws;
+		boolean unsupported;
+		Thread thread;
+		final HashMap<Path, Dir> dirs = new HashMap<>();
+		final HashMap<WatchKey, Dir> byKey = new HashMap<>();
+		/**
+		 * Watches to be notified, with whether a full update is needed, in order of their deadline
+		 */
+		final LinkedHashMap<Watch, Pending> pending = new LinkedHashMap<>();
+
+		Service(FileSystem fs){
+			this.fs = fs;
+		}
+
+		/**
+		 * Try again to register a directory that could not be registered before,
+		 * for example because it did not exist yet.
+		 */
+		synchronized boolean ensureRegistered(Path dir) {
+			Dir d = dirs.get(dir);
+			if(d==null)
+				return false;
+			if(d.key==null)
+				register(d);
+			return d.key!=null;
+		}
+		synchronized boolean subscribe(Path dir, Set<Path> names, Watch w) {
+			Dir d = dirs.get(dir);
+			if(d==null) {
+				d = new Dir(dir);
+				dirs.put(dir, d);
+				register(d);
+			}
+			for(Path n: names)
+				d.watches.computeIfAbsent(n, k->new HashSet<>()).add(w);
+			return d.key!=null;
+		}
+		synchronized void unsubscribe(Path dir, Set<Path> names, Watch w) {
+			Dir d = dirs.get(dir);
+			if(d==null)
+				return;
+			for(Path n: names) {
+				Set<Watch> ws = d.watches.get(n);
+				if(ws!=null && ws.remove(w) && ws.isEmpty())
+					d.watches.remove(n);
+			}
+			if(d.watches.isEmpty()) {
+				dirs.remove(dir);
+				if(d.key!=null) {
+					byKey.remove(d.key);
+					d.key.cancel();
+				}
+			}
+			pending.remove(w);
+		}
+		/**
+		 * Must hold the lock
+		 * @param d
+		 */
+		private void register(Dir d) {
+			if(unsupported)
+				return;
+			try {
+				if(ws==null)
+					ws = fs.newWatchService();
+				d.key = d.dir.register(ws,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				byKey.put(d.key, d);
+			} catch (UnsupportedOperationException e) {
+				unsupported = true;
+				logger.log(Level.WARNING, "File system does not support watching: "+fs, e);
+				return;
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Cannot watch directory "+d.dir, e);
+				return;
+			}
+			if(thread==null) {
+				WatchService myWs = ws;
+				thread = StandardExecutors.DEFAULT_THREAD_FACTORY.newThread(()->run(myWs));
+				thread.setName("FileWatcher "+fs);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		private void run(WatchService myWs) {
+			ArrayList<Map.Entry<Watch, Pending>> due = new ArrayList<>();
+			try {
+				while(true) {
+					long wait;
+					synchronized (this) {
+						if(byKey.isEmpty() && pending.isEmpty()) {
+							// nothing left to do; the next registration starts a new thread
+							thread = null;
+							try {
+								myWs.close();
+							} catch (IOException e) {
+								logger.log(Level.FINE, "Error closing WatchService", e);
+							}
+							if(ws==myWs)
+								ws = null;
+							return;
+						}
+						Iterator<Pending> i = pending.values().iterator();
+						wait = i.hasNext()?Math.max(0, i.next().due - System.currentTimeMillis()):1000;
+					}
+					WatchKey k = wait==0?myWs.poll():myWs.poll(wait, TimeUnit.MILLISECONDS);
+					long now = System.currentTimeMillis();
+					synchronized (this) {
+						for(; k!=null; k = myWs.poll()) {
+							Dir d = byKey.get(k);
+							events: for(WatchEvent<?> e: k.pollEvents()) {
+								if(d==null)
+									continue;
+								if(e.kind()==StandardWatchEventKinds.OVERFLOW) {
+									for(Set<Watch> ws: d.watches.values())
+										for(Watch w: ws)
+											schedule(w, true, now);
+									break events;
+								}
+								Set<Watch> ws = d.watches.get((Path) e.context());
+								if(ws!=null)
+									for(Watch w: ws)
+										schedule(w, e.kind()==StandardWatchEventKinds.ENTRY_DELETE, now);
+							}
+							if(!k.reset() && d!=null) {
+								// the directory is gone; the watches re-register it on their next update()
+								byKey.remove(k);
+								d.key = null;
+								for(Set<Watch> ws: d.watches.values())
+									for(Watch w: ws)
+										schedule(w, true, now);
+							}
+						}
+						for(Iterator<Map.Entry<Watch, Pending>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+							Map.Entry<Watch, Pending> e = i.next();
+							if(e.getValue().due>now)
+								break;
+							due.add(e);
+							i.remove();
+						}
+					}
+					for(Map.Entry<Watch, Pending> e: due) {
+						Watch w = e.getKey();
+						boolean full = e.getValue().full;
+						StandardExecutors.unlimited().execute(()->w.fire(full));
+					}
+					due.clear();
+				}
+			}catch(InterruptedException | ClosedWatchServiceException x) {
+				synchronized (this) {
+					if(thread==Thread.currentThread())
+						thread = null;
+				}
+			}
+		}
+		/**
+		 * Must hold the lock
+		 */
+		private void schedule(Watch w, boolean full, long now) {
+			Pending p = pending.get(w);
+			if(p==null)
+				pending.put(w, new Pending(now+debounceMillis, full));
+			else
+				p.full |= full;
+		}
+	}
+	private static final class Dir{
+		final Path dir;
+		WatchKey key;
+		final HashMap<Path, Set<Watch>> watches = new HashMap<>();
+		Dir(Path dir){
+			this.dir = dir;
+		}
+	}
+	private static final class Pending{
+		final long due;
+		boolean full;
+		Pending(long due, boolean full){
+			this.due = due;
+			this.full = full;
+		}
+	}
+}
@@ -31,6 +31,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiPredicate;
 import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -45,6 +46,7 @@ import pile.aspect.combinations.ReadWriteDependency;
 import pile.aspect.combinations.ReadWriteListenValue;
 import pile.aspect.listen.ListenValue;
 import pile.aspect.listen.ValueListener;
+import pile.aspect.suppress.SafeCloseable;
 import pile.aspect.suppress.Suppressor;
 import pile.impl.EarlyMutRef;
 import pile.impl.Independent;
@@ -431,6 +433,88 @@ AlwaysValid<T>
 		return autoPoll(this::pollOnce, Functional.not(this::isDestroyed), scheduler, period);
 	}
 
+	/**
+	 * Strongly referenced by this value; the {@link FileWatcher} only holds it weakly.
+	 */
+	final Consumer<Boolean> onFilesChanged = full->{
+		if(isDestroyed())
+			return;
+		if(full)
+			pollOnce();
+		else
+			read();
+	};
+	private volatile SafeCloseable autoWatch;
+	/**
+	 * Keep this value up to date by watching the backing files with the {@link FileWatcher#shared() shared FileWatcher},
+	 * without polling.
+	 * @return A handle that stops watching when closed
+	 * @see #autoWatch(FileWatcher, ScheduledExecutorService, long)
+	 */
+	public SafeCloseable autoWatch() {
+		return autoWatch(FileWatcher.shared(), null, 0);
+	}
+	/**
+	 * Keep this value up to date by watching the backing files with the {@link FileWatcher#shared() shared FileWatcher},
+	 * and poll with a long period in case watch events get lost.
+	 * @param fallbackScheduler
+	 * @param fallbackPeriodMillis
+	 * @return A handle that stops watching and polling when closed
+	 * @see #autoWatch(FileWatcher, ScheduledExecutorService, long)
+	 */
+	public SafeCloseable autoWatch(ScheduledExecutorService fallbackScheduler, long fallbackPeriodMillis) {
+		return autoWatch(FileWatcher.shared(), fallbackScheduler, fallbackPeriodMillis);
+	}
+	/**
+	 * Keep this value up to date by watching the backing files. Only the files of this value are
+	 * re-read when they change. If a file is deleted or events have been lost, the value
+	 * is {@link #pollOnce() polled}, which recreates missing files.
+	 * <p>
+	 * Watching does not work reliably on all file systems; if that is a concern, give a
+	 * {@code fallbackScheduler} to also {@link #autoPoll(ScheduledExecutorService, long) poll},
+	 * typically with a much longer period than one would use without watching.
+	 * Calling this again replaces the previous watch.
+	 * @param watcher
+	 * @param fallbackScheduler May be {@code null} to disable polling
+	 * @param fallbackPeriodMillis
+	 * @return A handle that stops watching and polling when closed. The watch also stops when this value is
+	 * {@link #destroy() destroyed}.
+	 */
+	public synchronized SafeCloseable autoWatch(FileWatcher watcher, ScheduledExecutorService fallbackScheduler, long fallbackPeriodMillis) {
+		if(isDestroyed())
+			throw new IllegalStateException("Value is destroyed");
+		SafeCloseable old = autoWatch;
+		if(old!=null)
+			old.close();
+		FileWatcher.Watch w = watcher.watch(Collections.emptyList(), onFilesChanged);
+		ValueListener l = e->{
+			if(files.isValid())
+				w.update(files.get());
+		};
+		files.addValueListener(l);
+		l.valueChanged(null);
+		Future<?> poll = fallbackScheduler==null?null:autoPoll(fallbackScheduler, fallbackPeriodMillis);
+		if(poll==null && files.isValid() && !w.isComplete())
+			logger.warning("Not all backing files of "+dependencyName()+" can be watched; changes may go unnoticed");
+		SafeCloseable ret = new SafeCloseable() {
+			boolean closed;
+			@Override
+			public void close() {
+				synchronized (this) {
+					if(closed)
+						return;
+					closed = true;
+				}
+				files.removeValueListener(l);
+				w.close();
+				if(poll!=null)
+					poll.cancel(false);
+			}
+		};
+		autoWatch = ret;
+		return ret;
+	}
+
 	public static Future<?> autoPoll(Runnable poll, BooleanSupplier whileTrue, ScheduledExecutorService scheduler, long periodMillis) {
 		EarlyMutRef<Future<?>> job = new EarlyMutRef<>();
 		WeakCleanupWithRunnable<BooleanSupplier> condRef = whileTrue==null?null:new WeakCleanupWithRunnable<>(whileTrue, ()->job.get().cancel(false));
@@ -631,6 +715,9 @@ AlwaysValid<T>
 	}
 	public void destroy() {
 		destroyed = true;
+		SafeCloseable w = autoWatch;
+		if(w!=null)
+			w.close();
 		currentValue=null;
 		notifyAll();
 	}
@@ -0,0 +1,101 @@
+package pile.interop.wait;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pile.interop.exec.VirtualThreads;
+
+/**
+ * A companion to an object's monitor that lets {@link Thread}s wait for the monitor to be notified
+ * without holding it, using a {@link ReentrantLock} and its {@link Condition} instead of {@link Object#wait()}.
+ * This matters for virtual {@link Thread}s, which are pinned to their carrier thread while they
+ * {@link Object#wait() wait} inside a <code>synchronized</code> block (before Java 24).
+ * <p>
+ * Usage: While holding the monitor, check the awaited state and, if it is not there yet,
+ * remember the {@link #generation()}. Then leave the monitor and call {@link #awaitChange(WaitService, int, long)}
+ * with that generation. Whoever changes the state does so while holding the monitor and then calls
+ * {@link #signalAll()}, also while holding it, which increments the generation. Therefore, no notification can
+ * be lost between leaving the monitor and starting to wait.
+ * <p>
+ * The waiting goes through the {@link WaitService}, so its semantics apply.
+ * @author bb
+ *
+ */
+public final class LockMonitor {
+	private static volatile boolean usedByAllThreads;
+	/**
+	 * Whether threads that wait for reactive values should use a {@link LockMonitor} and leave the value's mutex,
+	 * even if they are not virtual. This is off by default, so that platform threads keep using the plain
+	 * monitor of the mutex.
+	 * @param use
+	 */
+	public static void setUsedByAllThreads(boolean use) {
+		usedByAllThreads = use;
+	}
+	/**
+	 * @return Whether the current {@link Thread} should wait outside the monitor, using a {@link LockMonitor}.
+	 * This is the case for virtual {@link Thread}s, or for all of them if {@link #setUsedByAllThreads(boolean)}
+	 * has been turned on.
+	 */
+	public static boolean isPreferred() {
+		return usedByAllThreads || VirtualThreads.isCurrentThreadVirtual();
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private volatile int generation;
+
+	/**
+	 * @return A number that changes whenever {@link #signalAll()} is called
+	 */
+	public int generation() {
+		return generation;
+	}
+	/**
+	 * Wait until {@link #signalAll()} has been called since the given {@link #generation()} was obtained,
+	 * or the timeout elapses. Must not be called while holding the monitor this {@link LockMonitor} accompanies.
+	 * @param ws
+	 * @param seen
+	 * @param nanosTimeout
+	 * @return <code>true</code> if there was a signal, <code>false</code> if the timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitChange(WaitService ws, int seen, long nanosTimeout) throws InterruptedException {
+		lock.lock();
+		try {
+			long left = nanosTimeout;
+			while(generation==seen) {
+				if(left<=0)
+					return false;
+				left = ws.awaitNanos(changed, left);
+			}
+			return true;
+		}finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Like {@link #awaitChange(WaitService, int, long)}, with the timeout given in milliseconds
+	 * @param ws
+	 * @param seen
+	 * @param millis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean awaitChangeMillis(WaitService ws, int seen, long millis) throws InterruptedException {
+		return awaitChange(ws, seen, TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+	/**
+	 * Wake up all {@link Thread}s that are waiting in {@link #awaitChange(WaitService, int, long)}.
+	 */
+	public void signalAll() {
+		lock.lock();
+		try {
+			generation++;
+			WaitService.get().signalAll(changed);
+		}finally {
+			lock.unlock();
+		}
+	}
+}
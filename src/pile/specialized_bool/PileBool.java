@@ -1,5 +1,7 @@
 package pile.specialized_bool;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.concurrent.CancellationException;
@@ -11,6 +13,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 
@@ -28,6 +31,7 @@ import pile.builder.IBuilder;
 import pile.builder.IndependentBuilder;
 import pile.builder.PileBuilder;
 import pile.builder.SealPileBuilder;
+import pile.impl.IncrementalAggregation;
 import pile.impl.Independent;
 import pile.impl.MutRef;
 import pile.impl.PileImpl;
@@ -970,18 +974,35 @@ extends Depender, ReadWriteListenDependencyBool, Pile<Boolean>{
 
 	}
 
+	/**
+	 * Incremental aggregation using the {@link PileBool#and(ReadDependency)} operation
+	 */
+	public static final IncrementalAggregation<Boolean, Boolean> incrementalAnd = IncrementalAggregation.<Boolean, Boolean>associative(
+			true, Function.identity(), Boolean::logicalAnd)
+			.named((a, b)->"("+(a==null?"?":a)+" & " + (b==null?"?":b)+")");
+	/**
+	 * Incremental aggregation using the {@link PileBool#or(ReadDependency)} operation
+	 */
+	public static final IncrementalAggregation<Boolean, Boolean> incrementalOr = IncrementalAggregation.<Boolean, Boolean>associative(
+			false, Function.identity(), Boolean::logicalOr)
+			.named((a, b)->"("+(a==null?"?":a)+" | " + (b==null?"?":b)+")");
+
 	/**
 	 * Aggregate some reactive values using the {@link PileBool#and(ReadDependency)} operation.
 	 */
 	public static ReadListenDependencyBool conjunction(Iterable<? extends ReadListenDependency<? extends Boolean>> items) {
-		return Piles.aggregate(i->i==Piles.TRUE, Piles.andAggregator, items);
+		ArrayList<ReadListenDependency<? extends Boolean>> in = new ArrayList<>();
+		for(ReadListenDependency<? extends Boolean> item: items)
+			if(item!=Piles.TRUE)
+				in.add(item);
+		return incrementalAnd.aggregate(new SealBool(), in);
 	}
 	/**
 	 * Aggregate some reactive values using the {@link PileBool#and(ReadDependency)} operation.
 	 */
 	@SafeVarargs
 	public static ReadListenDependencyBool conjunction(ReadListenDependency<? extends Boolean>... items) {
-		return Piles.aggregate(i->i==Piles.TRUE, Piles.andAggregator, items);
+		return conjunction(Arrays.asList(items));
 	}
 	/**
 	 * Aggregate some reactive values using the {@link PileBool#and2(ReadDependency)} operation.
@@ -1026,14 +1047,18 @@ extends Depender, ReadWriteListenDependencyBool, Pile<Boolean>{
 	  * Aggregate some reactive values using the {@link PileBool#or(ReadDependency)} operation.
 	  */
 	 public static ReadListenDependencyBool disjunction(Iterable<? extends ReadListenDependency<? extends Boolean>> items) {
-		 return Piles.aggregate(i->i==Piles.FALSE, Piles.orAggregator, items);
+		 ArrayList<ReadListenDependency<? extends Boolean>> in = new ArrayList<>();
+		 for(ReadListenDependency<? extends Boolean> item: items)
+			 if(item!=Piles.FALSE)
+				 in.add(item);
+		 return incrementalOr.aggregate(new SealBool(), in);
 	 }
 	 /**
 	  * Aggregate some reactive values using the {@link PileBool#or(ReadDependency)} operation.
 	  */
 	 @SafeVarargs
 	 public static ReadListenDependencyBool disjunction(ReadListenDependency<? extends Boolean>... items) {
-		 return Piles.aggregate(i->i==Piles.FALSE, Piles.orAggregator, items);
+		 return disjunction(Arrays.asList(items));
 	 }
 	 /**
 	  * Aggregate some reactive values using the {@link PileBool#or2(ReadDependency)} operation.
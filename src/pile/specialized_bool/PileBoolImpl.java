@@ -3,6 +3,11 @@ package pile.specialized_bool;
 import pile.impl.PileImpl;
 import pile.specialized_bool.combinations.ReadWriteListenDependencyBool;
 
+/**
+ * A {@link PileImpl} of {@link Boolean}s.
+ * The value is stored boxed, like in any other {@link PileImpl}, but since it is always
+ * {@link Boolean#TRUE} or {@link Boolean#FALSE}, that never allocates.
+ */
 public class PileBoolImpl 
 extends PileImpl<Boolean>
 implements PileBool{
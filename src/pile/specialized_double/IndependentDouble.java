@@ -11,6 +11,20 @@ ReadWriteListenDependencyDouble{
 	public IndependentDouble(Double init) {
 		super(init);
 	}
+	/**
+	 * {@inheritDoc}
+	 * If the equivalence is a {@link PileDouble#withinTolerance(double) tolerance} and there are 
+	 * no correctors, a value within the tolerance of the current one is not boxed either.
+	 */
+	@Override
+	public void setDouble(double v) {
+		Double old = getAsync();
+		if(PileDoubleImpl.keepsBox(old, v, equivalence, __hasCorrectors())) {
+			set(old);
+			return;
+		}
+		set(Double.valueOf(v));
+	}
 	@Override
 	public IndependentDouble setName(String name) {
 		super.setName(name);
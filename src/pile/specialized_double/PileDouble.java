@@ -1,5 +1,6 @@
 package pile.specialized_double;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.function.BiFunction;
@@ -14,12 +15,14 @@ import pile.aspect.combinations.Pile;
 import pile.aspect.combinations.ReadDependency;
 import pile.aspect.combinations.ReadListenDependency;
 import pile.aspect.combinations.ReadWriteDependency;
+import pile.aspect.recompute.Recomputation;
 import pile.aspect.suppress.Suppressor;
 import pile.builder.FulfillInvalid;
 import pile.builder.IBuilder;
 import pile.builder.IndependentBuilder;
 import pile.builder.PileBuilder;
 import pile.builder.SealPileBuilder;
+import pile.impl.IncrementalAggregation;
 import pile.impl.Independent;
 import pile.impl.MutRef;
 import pile.impl.PileImpl;
@@ -585,34 +588,56 @@ extends Depender, ReadWriteListenDependencyDouble, PileComparable<Double>{
 	 * Aggregator for computing maxima
 	 */
 	public static final DoubleAggregator maxAggregator = new DoubleAggregator(Double.NEGATIVE_INFINITY, PileDouble::max);
+	/**
+	 * Incremental aggregation for computing sums. 
+	 * Sums involving infinite values are recomputed from scratch when they change.
+	 */
+	public static final IncrementalAggregation<Number, Double> incrementalSum = IncrementalAggregation.invertible(
+			0d, Number::doubleValue, Double::sum, 
+			(a, b)->Double.isFinite(a) && Double.isFinite(b)?a-b:null);
+	/**
+	 * Incremental aggregation for computing products
+	 */
+	public static final IncrementalAggregation<Number, Double> incrementalProduct = IncrementalAggregation.associative(
+			1d, Number::doubleValue, (a, b)->a*b);
+	/**
+	 * Incremental aggregation for computing minima
+	 */
+	public static final IncrementalAggregation<Number, Double> incrementalMin = IncrementalAggregation.associative(
+			Double.POSITIVE_INFINITY, Number::doubleValue, Math::min);
+	/**
+	 * Incremental aggregation for computing maxima
+	 */
+	public static final IncrementalAggregation<Number, Double> incrementalMax = IncrementalAggregation.associative(
+			Double.NEGATIVE_INFINITY, Number::doubleValue, Math::max);
 
 	public static ReadListenDependencyDouble sum(Iterable<? extends ReadListenDependency<? extends Number>> items) {
-		return Piles.aggregate(sumAggregator, items);
+		return incrementalSum.aggregate(new SealDouble(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyDouble sum(ReadListenDependency<? extends Number>... items) {
-		return Piles.aggregate(sumAggregator, items);
+		return sum(Arrays.asList(items));
 	}
 	public static ReadListenDependencyDouble product(Iterable<? extends ReadListenDependency<? extends Number>> items) {
-		return Piles.aggregate(productAggregator, items);
+		return incrementalProduct.aggregate(new SealDouble(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyDouble product(ReadListenDependency<? extends Number>... items) {
-		return Piles.aggregate(productAggregator, items);
+		return product(Arrays.asList(items));
 	}
 	public static ReadListenDependencyDouble min(Iterable<? extends ReadListenDependency<? extends Number>> items) {
-		return Piles.aggregate(minAggregator, items);
+		return incrementalMin.aggregate(new SealDouble(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyDouble min(ReadListenDependency<? extends Number>... items) {
-		return Piles.aggregate(minAggregator, items);
+		return min(Arrays.asList(items));
 	}
 	public static ReadListenDependencyDouble max(Iterable<? extends ReadListenDependency<? extends Number>> items) {
-		return Piles.aggregate(maxAggregator, items);
+		return incrementalMax.aggregate(new SealDouble(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyDouble max(ReadListenDependency<? extends Number>... items) {
-		return Piles.aggregate(maxAggregator, items);
+		return max(Arrays.asList(items));
 	}
 	/**
 	 * Make a reactive integer that computes itself as the sign of the given value
@@ -937,4 +962,58 @@ extends Depender, ReadWriteListenDependencyDouble, PileComparable<Double>{
 				.whenChanged(sum);
 	}
 
+	/**
+	 * Fulfill a {@link Recomputation} with a primitive {@code double}.
+	 * If the value being replaced is {@link Double#equals(Object) equal} to <code>v</code>, 
+	 * it is {@linkplain Recomputation#fulfillRestoreOldValue() restored} so that no new box needs to be allocated.
+	 * @param reco
+	 * @param v
+	 * @return see {@link Recomputation#fulfill(Object)}
+	 */
+	public static boolean fulfill(Recomputation<Double> reco, double v) {
+		if(reco.hasOldValue()) {
+			Double old = reco.oldValue();
+			if(old!=null && Double.doubleToLongBits(old)==Double.doubleToLongBits(v) && reco.fulfillRestoreOldValue())
+				return true;
+		}
+		return reco.fulfill(v);
+	}
+	/**
+	 * Make an equivalence relation that considers two non-<code>null</code> numbers equivalent if they differ
+	 * by at most <code>tolerance</code>. 
+	 * It can be passed to {@link pile.builder.ICorrigibleBuilder#equivalence(BiPredicate)} to suppress change events for small fluctuations.
+	 * A {@link PileDoubleImpl} with this equivalence also applies it in {@link PileDoubleImpl#setDouble(double) setDouble},
+	 * so that a value within the tolerance is dropped before it is boxed.
+	 * @param tolerance
+	 * @return
+	 */
+	public static Tolerance withinTolerance(double tolerance) {
+		return new Tolerance(tolerance);
+	}
+	/**
+	 * The equivalence made by {@link PileDouble#withinTolerance(double)}.
+	 * @author bb
+	 *
+	 */
+	public static final class Tolerance implements BiPredicate<Double, Double>{
+		final double tolerance;
+		Tolerance(double tolerance) {
+			this.tolerance = tolerance;
+		}
+		@Override
+		public boolean test(Double a, Double b) {
+			if(a==null || b==null)
+				return a==b;
+			return test(a.doubleValue(), b.doubleValue());
+		}
+		/**
+		 * Unboxed version of {@link #test(Double, Double)}
+		 * @param x
+		 * @param y
+		 * @return Whether <code>x</code> and <code>y</code> differ by at most the tolerance, or both are NaN
+		 */
+		public boolean test(double x, double y) {
+			return x==y || Math.abs(x-y)<=tolerance || (x!=x && y!=y);
+		}
+	}
 }
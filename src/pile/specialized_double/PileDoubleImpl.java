@@ -1,10 +1,53 @@
 package pile.specialized_double;
 
+import java.util.function.BiPredicate;
+
+import pile.impl.PileImpl;
 import pile.specialized_Comparable.PileComparableImpl;
 
+/**
+ * A {@link PileImpl} of {@link Double}s.
+ * The value is stored boxed, like in any other {@link PileImpl}, so a value that changes costs one {@link Double}.
+ * Only values that do not change avoid a new box; see {@link #setDouble(double)}, 
+ * {@link PileDouble#fulfill(pile.aspect.recompute.Recomputation, double)} and {@link PileDouble#withinTolerance(double)}.
+ * {@link #getAsDouble()} unboxes {@link #get()}.
+ */
 public class PileDoubleImpl 
 extends PileComparableImpl<Double>
 implements PileDouble{
+	/**
+	 * {@inheritDoc}
+	 * If the equivalence is a {@link PileDouble#withinTolerance(double) tolerance} and there are 
+	 * no correctors, a value within the tolerance of the current one is not boxed either.
+	 */
+	@Override
+	public void setDouble(double v) {
+		if(isValidAsync()) {
+			Double old = getAsync();
+			if(keepsBox(old, v, equivalence, __hasCorrectors())) {
+				set(old);
+				return;
+			}
+		}
+		set(Double.valueOf(v));
+	}
+	/**
+	 * Decide whether {@code setDouble(v)} can pass the current box on instead of boxing <code>v</code>.
+	 * @param old The current value
+	 * @param v The new value
+	 * @param equivalence The equivalence of the value
+	 * @param hasCorrectors Whether the value has correctors that a tolerated value would bypass
+	 * @return
+	 */
+	static boolean keepsBox(Double old, double v, BiPredicate<? super Double, ? super Double> equivalence, boolean hasCorrectors) {
+		if(old==null)
+			return false;
+		double x = old;
+		if(Double.doubleToLongBits(x)==Double.doubleToLongBits(v))
+			return true;
+		return equivalence instanceof Tolerance && !hasCorrectors && ((Tolerance)equivalence).test(x, v);
+	}
+
 	@Override
 	public PileDoubleImpl setName(String name) {
 		avName=name;
@@ -1,8 +1,28 @@
 package pile.specialized_double.combinations;
 
+import java.util.function.DoubleSupplier;
+
 import pile.specialized_Comparable.combinations.ReadValueComparable;
 
-public interface ReadValueDouble extends ReadValueComparable<Double>{
+public interface ReadValueDouble extends ReadValueComparable<Double>, DoubleSupplier{
+	/**
+	 * Get the held value as a primitive {@code double}.
+	 * @return The held value, or {@link Double#NaN} if it is <code>null</code>
+	 */
+	@Override
+	public default double getAsDouble() {
+		Double ret = get();
+		return ret==null?Double.NaN:ret;
+	}
+	/**
+	 * Get the held value as a primitive {@code double}.
+	 * @param ifNull
+	 * @return The held value, or <code>ifNull</code> if it is <code>null</code>
+	 */
+	public default double getAsDouble(double ifNull) {
+		Double ret = get();
+		return ret==null?ifNull:ret;
+	}
 	/**
 	 * Get the held value as a boxed {@link Float}, preserving <code>null</code> references.
 	 * @return
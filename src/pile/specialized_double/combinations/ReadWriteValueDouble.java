@@ -12,6 +12,22 @@ public interface ReadWriteValueDouble extends ReadValueDouble, WriteValueDouble,
 			return;
 		set(-v);
 	}
+	/**
+	 * Set the held value from a primitive {@code double}.
+	 * If the current value is valid and {@link Double#equals(Object) equal}, the existing box is passed to
+	 * {@link #set(Object) set} instead of allocating a new one.
+	 * @param v
+	 */
+	default void setDouble(double v) {
+		if(isValidAsync()) {
+			Double old = getAsync();
+			if(old!=null && Double.doubleToLongBits(old)==Double.doubleToLongBits(v)) {
+				set(old);
+				return;
+			}
+		}
+		set(Double.valueOf(v));
+	}
 	@Override default ReadWriteValueDouble setNull() {
 		set(null);
 		return this;
@@ -1,7 +1,9 @@
 package pile.specialized_int;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.ToIntBiFunction;
 
 import pile.aspect.Depender;
@@ -9,9 +11,11 @@ import pile.aspect.WriteValue;
 import pile.aspect.combinations.ReadDependency;
 import pile.aspect.combinations.ReadListenDependency;
 import pile.aspect.combinations.ReadWriteDependency;
+import pile.aspect.recompute.Recomputation;
 import pile.builder.IndependentBuilder;
 import pile.builder.PileBuilder;
 import pile.builder.SealPileBuilder;
+import pile.impl.IncrementalAggregation;
 import pile.impl.Independent;
 import pile.impl.Piles;
 import pile.impl.Piles.AggregationMonoid;
@@ -942,35 +946,55 @@ extends Depender, ReadWriteListenDependencyInt, PileComparable<Integer>{
 	 * Aggregator for computing maxima
 	 */
 	public static final IntAggregator maxAggregator = new IntAggregator(Integer.MIN_VALUE, PileInt::max);
+	/**
+	 * Incremental aggregation for computing sums
+	 */
+	public static final IncrementalAggregation<Integer, Integer> incrementalSum = IncrementalAggregation.invertible(
+			0, Function.identity(), Integer::sum, (a, b)->a-b);
+	/**
+	 * Incremental aggregation for computing products
+	 */
+	public static final IncrementalAggregation<Integer, Integer> incrementalProduct = IncrementalAggregation.associative(
+			1, Function.identity(), (a, b)->a*b);
+	/**
+	 * Incremental aggregation for computing minima
+	 */
+	public static final IncrementalAggregation<Integer, Integer> incrementalMin = IncrementalAggregation.associative(
+			Integer.MAX_VALUE, Function.identity(), Math::min);
+	/**
+	 * Incremental aggregation for computing maxima
+	 */
+	public static final IncrementalAggregation<Integer, Integer> incrementalMax = IncrementalAggregation.associative(
+			Integer.MIN_VALUE, Function.identity(), Math::max);
 
 
 	public static ReadListenDependencyInt sum(Iterable<? extends ReadListenDependency<? extends Integer>> items) {
-		return Piles.aggregate(sumAggregator, items);
+		return incrementalSum.aggregate(new SealInt(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyInt sum(ReadListenDependency<? extends Integer>... items) {
-		return Piles.aggregate(sumAggregator, items);
+		return sum(Arrays.asList(items));
 	}
 	public static ReadListenDependencyInt product(Iterable<? extends ReadListenDependency<? extends Integer>> items) {
-		return Piles.aggregate(productAggregator, items);
+		return incrementalProduct.aggregate(new SealInt(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyInt product(ReadListenDependency<? extends Integer>... items) {
-		return Piles.aggregate(productAggregator, items);
+		return product(Arrays.asList(items));
 	}
 	public static ReadListenDependencyInt min(Iterable<? extends ReadListenDependency<? extends Integer>> items) {
-		return Piles.aggregate(minAggregator, items);
+		return incrementalMin.aggregate(new SealInt(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyInt min(ReadListenDependency<? extends Integer>... items) {
-		return Piles.aggregate(minAggregator, items);
+		return min(Arrays.asList(items));
 	}
 	public static ReadListenDependencyInt max(Iterable<? extends ReadListenDependency<? extends Integer>> items) {
-		return Piles.aggregate(maxAggregator, items);
+		return incrementalMax.aggregate(new SealInt(), items);
 	}
 	@SafeVarargs
 	public static ReadListenDependencyInt max(ReadListenDependency<? extends Integer>... items) {
-		return Piles.aggregate(maxAggregator, items);
+		return max(Arrays.asList(items));
 	}
 	/**
 	 * Make a reactive integer that computes itself as the sign of the given value
@@ -1004,6 +1028,20 @@ extends Depender, ReadWriteListenDependencyInt, PileComparable<Integer>{
 	 */
 	public static IndependentBuilder<IndependentInt, Integer> ib(Integer init){return new IndependentBuilder<>(new IndependentInt(init)).ordering(Comparator.naturalOrder());}
 
-
+	/**
+	 * Fulfill a {@link Recomputation} with a primitive {@code int}.
+	 * If the value being replaced is equal to <code>v</code>, it is 
+	 * {@linkplain Recomputation#fulfillRestoreOldValue() restored} so that no new box needs to be allocated.
+	 * @param reco
+	 * @param v
+	 * @return see {@link Recomputation#fulfill(Object)}
+	 */
+	public static boolean fulfill(Recomputation<Integer> reco, int v) {
+		if(reco.hasOldValue()) {
+			Integer old = reco.oldValue();
+			if(old!=null && old==v && reco.fulfillRestoreOldValue())
+				return true;
+		}
+		return reco.fulfill(v);
+	}
 }
-
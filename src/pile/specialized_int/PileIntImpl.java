@@ -1,7 +1,15 @@
 package pile.specialized_int;
 
+import pile.impl.PileImpl;
 import pile.specialized_Comparable.PileComparableImpl;
 
+/**
+ * A {@link PileImpl} of {@link Integer}s.
+ * The value is stored boxed, like in any other {@link PileImpl}, so a value that changes outside the 
+ * {@link Integer#valueOf(int) cached range} costs one {@link Integer}. Only values that do not change avoid a new box; 
+ * see {@link #setInt(int)} and {@link PileInt#fulfill(pile.aspect.recompute.Recomputation, int)}.
+ * {@link #getAsInt()} unboxes {@link #get()}.
+ */
 public class PileIntImpl 
 extends PileComparableImpl<Integer>
 implements PileInt{
@@ -1,7 +1,26 @@
 package pile.specialized_int.combinations;
 
-import pile.specialized_Comparable.combinations.ReadValueComparable;
+import java.util.function.IntSupplier;
 
-public interface ReadValueInt extends ReadValueComparable<Integer>{
+import pile.specialized_Comparable.combinations.ReadValueComparable;
 
+public interface ReadValueInt extends ReadValueComparable<Integer>, IntSupplier{
+	/**
+	 * Get the held value as a primitive {@code int}.
+	 * @return The held value, or 0 if it is <code>null</code>
+	 */
+	@Override
+	public default int getAsInt() {
+		Integer ret = get();
+		return ret==null?0:ret;
+	}
+	/**
+	 * Get the held value as a primitive {@code int}.
+	 * @param ifNull
+	 * @return The held value, or <code>ifNull</code> if it is <code>null</code>
+	 */
+	public default int getAsInt(int ifNull) {
+		Integer ret = get();
+		return ret==null?ifNull:ret;
+	}
 }
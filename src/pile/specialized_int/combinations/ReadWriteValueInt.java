@@ -12,6 +12,22 @@ public interface ReadWriteValueInt extends ReadValueInt, WriteValueInt, ReadWrit
 			return;
 		set(-v);
 	}
+	/**
+	 * Set the held value from a primitive {@code int}.
+	 * If the current value is valid and numerically equal, the existing box is passed to
+	 * {@link #set(Object) set} instead of allocating a new one.
+	 * @param v
+	 */
+	default void setInt(int v) {
+		if(isValidAsync()) {
+			Integer old = getAsync();
+			if(old!=null && old==v) {
+				set(old);
+				return;
+			}
+		}
+		set(Integer.valueOf(v));
+	}
 	@Override default ReadWriteValueInt setNull() {
 		set(null);
 		return this;
@@ -2,101 +2,516 @@ package pile.utils;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 /**
- * A {@link ReferenceQueue} of {@link Reference}s that are also {@link Runnable} together with a {@link Thread}
+ * One or more {@link ReferenceQueue}s of {@link Reference}s that are also {@link Runnable}, each together with a {@link Thread}
  * that polls the {@link ReferenceQueue} and runs the returned {@link Reference}s.
+ * <p>
+ * Each worker moves what has been enqueued into a buffer of due cleanups, where it is counted and timestamped,
+ * and runs up to {@link #getBatchSize()} of them at a time, so that a burst of cleanups, such as after a large part 
+ * of the object graph became unreachable at once, is worked off without waiting on the queue for each one.
+ * With more than one shard, {@link #getQueueAndStartWorker()} hands out the queues in turn and the cleanups
+ * run in parallel; a slow cleanup only holds up the others of its shard.
+ * <p>
+ * {@link #register(Object, Consumer, Object)} runs a cleanup action without needing a {@link Reference} subclass
+ * or a capturing {@link Runnable} per registration.
  * @author bb
  *
  */
 public class DefaultReferenceManager implements AbstractReferenceManager{
 	private final static Logger log=Logger.getLogger("DefaultReferenceManager");
 
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
 	/**
-	 * The reference queue
-	 */
-	ReferenceQueue<? super Object> rq=new ReferenceQueue<Object>();
-	/**
-	 * The worker thread. Is a daemon thread.
-	 */
-	volatile Thread worker;
-	/**
-	 * lock that synchronizes starting the worker
-	 */
-	Object lock=new Object();
-	/**
-	 * This is what the worker thread runs
+	 * A {@link ReferenceQueue} and the worker that runs what is enqueued there.
+	 * Also keeps the {@link Registration}s of {@link DefaultReferenceManager#register(Object, Consumer, Object)}
+	 * reachable in a doubly linked list.
+	 * @author bb
+	 *
 	 */
-	private Runnable workerRunnable=() -> {
-		try{
-			while(true){
-				Runnable ref;
-				try {
-					ref = (Runnable) rq.remove();
-				} catch (InterruptedException e) {
-					log.warning("Who interrupted the ReferenceManager?");
-					e.printStackTrace();
-					continue;
+	final class Shard{
+		final int index;
+		/**
+		 * The reference queue
+		 */
+		final ReferenceQueue<? super Object> rq=new ReferenceQueue<Object>();
+		/**
+		 * The worker thread. Is a daemon thread.
+		 */
+		volatile Thread worker;
+		/**
+		 * lock that synchronizes starting the worker
+		 */
+		final Object lock=new Object();
+		/**
+		 * Head of the list of live {@link Registration}s. Guarded by {@link #lock}.
+		 */
+		Registration<?> registrations;
+		/**
+		 * Guards the buffer of due cleanups: {@link #due}, {@link #dueSince}, {@link #dueHead}, {@link #dueSize}
+		 * and {@link #workerWaiting}
+		 */
+		final Object dueLock=new Object();
+		/**
+		 * Ring buffer of references that have been taken off {@link #rq} and have not started to run yet
+		 */
+		Runnable[] due = new Runnable[16];
+		/**
+		 * {@link System#nanoTime()} at which the corresponding element of {@link #due} was taken off {@link #rq}
+		 */
+		long[] dueSince = new long[16];
+		int dueHead, dueSize;
+		/**
+		 * Whether the worker is blocked in {@link ReferenceQueue#remove()} or about to be, because {@link #due} is empty.
+		 * While it is, only the worker takes references off {@link #rq}, or it might miss them.
+		 */
+		boolean workerWaiting;
+		/**
+		 * The number of references in {@link #due}, readable without the {@link #dueLock}
+		 */
+		final AtomicLong backlog = new AtomicLong();
+
+		Shard(int index) {
+			this.index = index;
+		}
+		/**
+		 * This is what the worker thread runs
+		 */
+		private final Runnable workerRunnable=() -> {
+			Runnable[] batch = new Runnable[batchSize];
+			long[] since = new long[batchSize];
+			try{
+				while(true){
+					int n = takeDue(batch, since);
+					if(n==0) {
+						Runnable r;
+						try {
+							r = (Runnable) rq.remove();
+						} catch (InterruptedException e) {
+							log.warning("Who interrupted the ReferenceManager?");
+							e.printStackTrace();
+							continue;
+						}finally {
+							synchronized (dueLock) {
+								workerWaiting = false;
+							}
+						}
+						addDue(r, System.nanoTime());
+						moveFromQueue();
+						continue;
+					}
+					runBatch(batch, since, n);
+				}
+			}catch(Error e) {
+				//recovery by restarting, once per dying worker
+				if(restartAfter(e)) {
+					synchronized (lock) {
+						if(worker==Thread.currentThread())
+							newWorker();
+					}
+				}
+				throw e;
+			}finally{
+				synchronized (lock) {
+					if(worker==Thread.currentThread())
+						worker=null;
 				}
-				safeRun(ref);
 			}
-		}finally{
-			synchronized (lock) {
-				if(worker==Thread.currentThread())
-					worker=null;
+		};
+		/**
+		 * Called by the worker. Take up to <code>batch.length</code> references out of {@link #due}.
+		 * If there are none, mark the worker as {@link #workerWaiting waiting}.
+		 * @return The number of references taken
+		 */
+		private int takeDue(Runnable[] batch, long[] since) {
+			synchronized (dueLock) {
+				int n = Math.min(dueSize, batch.length);
+				if(n==0) {
+					workerWaiting = true;
+					return 0;
+				}
+				for(int i=0; i<n; ++i) {
+					batch[i] = due[dueHead];
+					since[i] = dueSince[dueHead];
+					due[dueHead] = null;
+					dueHead = dueHead+1==due.length?0:dueHead+1;
+				}
+				dueSize -= n;
+				return n;
 			}
 		}
-	};
-	/**
-	 * Start the worker thread if it is not already running
-	 */
-	public void startWorker(){
-		if(worker!=null)
-			return;
-		synchronized(lock) {
+		private void addDue(Runnable r, long now) {
+			synchronized (dueLock) {
+				pushDue(r, now);
+			}
+		}
+		/**
+		 * Must be called while holding the {@link #dueLock}
+		 */
+		private void pushDue(Runnable r, long now) {
+			if(dueSize==due.length) {
+				Runnable[] nd = new Runnable[due.length*2];
+				long[] ns = new long[nd.length];
+				for(int i=0; i<dueSize; ++i) {
+					int j = dueHead+i<due.length?dueHead+i:dueHead+i-due.length;
+					nd[i] = due[j];
+					ns[i] = dueSince[j];
+				}
+				due = nd;
+				dueSince = ns;
+				dueHead = 0;
+			}
+			int j = dueHead+dueSize<due.length?dueHead+dueSize:dueHead+dueSize-due.length;
+			due[j] = r;
+			dueSince[j] = now;
+			++dueSize;
+			backlog.incrementAndGet();
+		}
+		/**
+		 * Move everything that has been enqueued in {@link #rq} into {@link #due}, unless the worker is
+		 * {@link #workerWaiting waiting} for it and will take it off the queue itself.
+		 */
+		void moveFromQueue() {
+			synchronized (dueLock) {
+				if(workerWaiting)
+					return;
+				long now = 0;
+				boolean timed = false;
+				Reference<?> r;
+				while((r = rq.poll())!=null) {
+					if(!timed) {
+						now = System.nanoTime();
+						timed = true;
+					}
+					pushDue((Runnable) r, now);
+				}
+			}
+		}
+		private void runBatch(Runnable[] batch, long[] since, int n) {
+			long start = System.nanoTime();
+			batches.increment();
+			Error error = null;
+			for(int i=0; i<n; ++i) {
+				Runnable r = batch[i];
+				batch[i] = null;
+				long started = System.nanoTime();
+				backlog.decrementAndGet();
+				long waited = started-since[i];
+				latencyNanos.add(waited);
+				maxLatencyNanos.accumulateAndGet(waited, Math::max);
+				try {
+					safeRun(r);
+				}catch(Error e) {
+					// finish the batch, since its references are no longer in the queue
+					if(error==null)
+						error = e;
+				}finally {
+					processed.increment();
+				}
+				// timestamp what has been enqueued meanwhile
+				moveFromQueue();
+			}
+			long nanos = System.nanoTime()-start;
+			batchNanos.add(nanos);
+			maxBatchNanos.accumulateAndGet(nanos, Math::max);
+			if(error!=null)
+				throw error;
+		}
+		/**
+		 * Start the worker thread if it is not already running
+		 */
+		void startWorker(){
 			if(worker!=null)
 				return;
+			synchronized(lock) {
+				if(worker!=null)
+					return;
+				newWorker();
+			}
+		}
+		/**
+		 * Must be called while holding {@link #lock}
+		 */
+		void newWorker() {
 			worker=new Thread(workerRunnable);
-			worker.setName("util.memory.ReferenceManager");
+			worker.setName(shards.length==1?"util.memory.ReferenceManager":"util.memory.ReferenceManager-"+index);
 			worker.setDaemon(true);
 			worker.start();
 		}
-	}
-	void safeRun(Runnable r){
-		try{
-			r.run();
-		}catch (Exception e) {
-			log.log(Level.WARNING, "Exception in cleanup handler", e);
-		}catch (Error e) {
-			log.log(Level.SEVERE, "Error in cleanup handler", e);
-			if(e instanceof UnknownError) throw e;
-			if(e instanceof InternalError) throw e;
-			if(e instanceof ThreadDeath) throw e;
-			//recovery by restarting
+		void safeRun(Runnable r){
+			try{
+				r.run();
+			}catch (Exception e) {
+				log.log(Level.WARNING, "Exception in cleanup handler", e);
+			}catch (Error e) {
+				log.log(Level.SEVERE, "Error in cleanup handler", e);
+				throw e;
+			}
+		}
+		/**
+		 * @return whether a worker that dies of the given {@link Error} should be replaced
+		 */
+		boolean restartAfter(Error e) {
+			return !(e instanceof UnknownError || e instanceof InternalError || e instanceof ThreadDeath);
+		}
+		void link(Registration<?> r) {
+			synchronized (lock) {
+				r.next = registrations;
+				if(registrations!=null)
+					registrations.prev = r;
+				registrations = r;
+			}
+			registered.increment();
+		}
+		/**
+		 * @return whether the {@link Registration} was still linked
+		 */
+		boolean unlink(Registration<?> r) {
 			synchronized (lock) {
-				worker=new Thread(workerRunnable);
-				worker.setDaemon(true);
-				worker.start();
+				if(r.prev==null && registrations!=r)
+					return false;
+				if(r.prev==null)
+					registrations = r.next;
+				else
+					r.prev.next = r.next;
+				if(r.next!=null)
+					r.next.prev = r.prev;
+				r.prev = r.next = null;
 			}
-			throw e;
+			registered.decrement();
+			return true;
 		}
 	}
 
+	/**
+	 * A cleanup action registered with {@link DefaultReferenceManager#register(Object, Consumer, Object)}.
+	 * The action runs at most once: either when the referent has become weakly reachable, or never if the
+	 * {@link Registration} is {@link #cancel() cancelled} before that.
+	 * @author bb
+	 *
+	 * @param <A> The type of the argument of the action
+	 */
+	public static final class Registration<A> extends WeakReference<Object> implements Runnable{
+		private final Shard shard;
+		private Consumer<? super A> action;
+		private A argument;
+		Registration<?> prev, next;
+		Registration(Object referent, Shard shard, Consumer<? super A> action, A argument) {
+			super(referent, shard.rq);
+			this.shard = shard;
+			this.action = action;
+			this.argument = argument;
+		}
+		/**
+		 * Run the action now, unless it has already run or has been cancelled
+		 */
+		@Override
+		public void run() {
+			if(!shard.unlink(this))
+				return;
+			Consumer<? super A> a = action;
+			A arg = argument;
+			action = null;
+			argument = null;
+			a.accept(arg);
+		}
+		/**
+		 * Make sure the action will not run
+		 * @return Whether the action had neither run nor been cancelled before
+		 */
+		public boolean cancel() {
+			if(!shard.unlink(this))
+				return false;
+			action = null;
+			argument = null;
+			clear();
+			return true;
+		}
+	}
+
+	private final Shard[] shards;
+	private final int batchSize;
+	/**
+	 * Used to hand out the shards in turn. Updated without synchronization, since it only needs to spread the load.
+	 */
+	private int nextShard;
+
+	private final LongAdder registered = new LongAdder();
+	private final LongAdder processed = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batchNanos = new LongAdder();
+	private final AtomicLong maxBatchNanos = new AtomicLong();
+	private final LongAdder latencyNanos = new LongAdder();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+	/**
+	 * A {@link DefaultReferenceManager} with one queue and one worker
+	 */
+	public DefaultReferenceManager() {
+		this(1, DEFAULT_BATCH_SIZE);
+	}
+	/**
+	 *
+	 * @param shards The number of queues, each with its own worker thread
+	 * @param batchSize The maximum number of references a worker takes off its queue before running them
+	 */
+	public DefaultReferenceManager(int shards, int batchSize) {
+		if(shards<=0)
+			throw new IllegalArgumentException("shards must be positive");
+		if(batchSize<=0)
+			throw new IllegalArgumentException("batchSize must be positive");
+		this.batchSize = batchSize;
+		this.shards = new Shard[shards];
+		for(int i=0; i<shards; ++i)
+			this.shards[i] = new Shard(i);
+	}
+	private Shard nextShard() {
+		if(shards.length==1)
+			return shards[0];
+		int i = nextShard;
+		nextShard = i+1==shards.length?0:i+1;
+		return shards[i<shards.length?i:0];
+	}
+
+	/**
+	 * Start the worker threads if they are not already running
+	 */
+	public void startWorker(){
+		for(Shard s: shards)
+			s.startWorker();
+	}
 
 	@Override
 	public ReferenceQueue<? super Object> getQueueAndStartWorker() {
-		if(worker==null)
-			startWorker();
-		return rq;
+		Shard s = nextShard();
+		if(s.worker==null)
+			s.startWorker();
+		return s.rq;
 	}
 	@Override
 	public void runIfWeak(Object o, Runnable r) {
-		WeakCleanup.runIfWeak(o, r, this);
-		
+		register(o, Runnable::run, r);
+	}
+	/**
+	 * Call <code>action.accept(argument)</code> in a worker thread once the referent has become weakly reachable.
+	 * The {@link Registration} is kept reachable by this manager until it has run or has been cancelled.
+	 * <p>
+	 * Pass a non-capturing action (such as a method reference to a static method) and put the state into the
+	 * argument, so that the only allocation is that of the {@link Registration} itself.
+	 * The argument must not reference the referent strongly, or it will never become weakly reachable.
+	 * @param referent
+	 * @param action
+	 * @param argument
+	 * @return A handle that can be used to {@link Registration#cancel() cancel} the action
+	 */
+	public <A> Registration<A> register(Object referent, Consumer<? super A> action, A argument) {
+		Shard s = nextShard();
+		if(s.worker==null)
+			s.startWorker();
+		Registration<A> ret = new Registration<>(referent, s, action, argument);
+		s.link(ret);
+		return ret;
+	}
+
+	/**
+	 * @return The number of shards, each with its own queue and worker
+	 */
+	public int getShards() {
+		return shards.length;
+	}
+	/**
+	 * @return The maximum number of references a worker takes off its queue at a time
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * @return The number of {@link #register(Object, Consumer, Object) registered} actions that have neither run
+	 * nor been cancelled
+	 */
+	public long getRegistered() {
+		return registered.sum();
+	}
+	/**
+	 * The number of cleanups that are due but have not started yet: references that have been taken off a queue
+	 * and have not started to run. This first takes what has been enqueued meanwhile off the queues of busy workers,
+	 * so that it counts the references that wait behind a slow cleanup. 
+	 * It does not count what an idle worker is just about to take off its queue.
+	 * @return
+	 */
+	public long getBacklog() {
+		long ret = 0;
+		for(Shard s: shards) {
+			s.moveFromQueue();
+			ret += s.backlog.get();
+		}
+		return ret;
+	}
+	/**
+	 * @return The number of cleanups that have been run
+	 */
+	public long getProcessed() {
+		return processed.sum();
+	}
+	/**
+	 * @return The number of batches the cleanups were taken off the queues in
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+	/**
+	 * @return The mean time in milliseconds a cleanup waited: from when its reference was taken off a queue 
+	 * until the cleanup started. A worker takes references off its queue after each cleanup it runs, 
+	 * and {@link #getBacklog()} does so for busy workers, so this includes the time spent behind slow cleanups.
+	 */
+	public double getMeanLatencyMillis() {
+		long p = processed.sum();
+		return p==0?0:latencyNanos.sum()/(double)p/TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	/**
+	 * @return The longest time in milliseconds a cleanup waited, see {@link #getMeanLatencyMillis()}
+	 */
+	public double getMaxLatencyMillis() {
+		return maxLatencyNanos.get()/(double)TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	/**
+	 * @return The mean time in milliseconds from taking a batch out of the due cleanups until its last cleanup has run
+	 */
+	public double getMeanBatchRunMillis() {
+		long b = batches.sum();
+		return b==0?0:batchNanos.sum()/(double)b/TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	/**
+	 * @return The longest time in milliseconds from taking a batch out of the due cleanups until its last cleanup has run
+	 */
+	public double getMaxBatchRunMillis() {
+		return maxBatchNanos.get()/(double)TimeUnit.MILLISECONDS.toNanos(1);
 	}
-	
-	
+	/**
+	 * Set the processed, batch, latency and batch run time counters back to 0.
+	 * {@link #getRegistered()} and {@link #getBacklog()} are not counters and are not affected.
+	 */
+	public void resetCounters() {
+		processed.reset();
+		batches.reset();
+		batchNanos.reset();
+		maxBatchNanos.set(0);
+		latencyNanos.reset();
+		maxLatencyNanos.set(0);
+	}
+	@Override
+	public String toString() {
+		return "DefaultReferenceManager: "+shards.length+" shards, "+getRegistered()+" registered, "
+				+getBacklog()+" backlog, "+getProcessed()+" processed in "+getBatches()+" batches";
+	}
+
 }
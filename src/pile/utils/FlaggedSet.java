@@ -0,0 +1,415 @@
+package pile.utils;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact set whose elements each carry up to 8 flags, given as bit masks ({@code 1}, {@code 2}, {@code 4}, ...).
+ * An element is a member as long as at least one of its flags is set.
+ * <p>
+ * Up to {@link #THRESHOLD} elements are kept in an array with a parallel array of flag bytes,
+ * which is much smaller than a {@link HashSet} per flag and fast to scan for such sizes.
+ * Above that, there is one {@link HashSet} per flag, so that the cost of the operations
+ * on one flag does not depend on how many elements carry other flags.
+ * <p>
+ * The {@link Set} methods treat {@link #DEFAULT} as the flag to {@link #add(Object) add};
+ * {@link #remove(Object)} clears all flags. All methods are synchronized on this object; iterators
+ * work on a snapshot.
+ * @author bb
+ *
+ * @param <E>
+ */
+public final class FlaggedSet<E> extends AbstractSet<E>{
+	/**
+	 * The flag used by {@link #add(Object)}
+	 */
+	public static final int DEFAULT = 1;
+	/**
+	 * The maximum number of elements that are stored in arrays
+	 */
+	public static final int THRESHOLD = 8;
+	private static final Object[] NO_KEYS = {};
+	private static final byte[] NO_FLAGS = {};
+
+	private Object[] keys = NO_KEYS;
+	private byte[] flags = NO_FLAGS;
+	/**
+	 * The number of elements, in both modes
+	 */
+	private int size;
+	/**
+	 * Indexed by the number of trailing zeros of the flag; {@code null} while the arrays are used
+	 */
+	private HashSet<Object>[] big;
+
+	private static int index(int flag) {
+		if(Integer.bitCount(flag)!=1 || flag>=1<<8)
+			throw new IllegalArgumentException("Not a single flag: "+flag);
+		return Integer.numberOfTrailingZeros(flag);
+	}
+	/**
+	 * @param o
+	 * @param fi
+	 * @return Whether the element has a flag other than the one with index <code>fi</code> set; only for the hashed mode
+	 */
+	private boolean inOther(Object o, int fi) {
+		for(int j=0; j<big.length; ++j)
+			if(j!=fi && big[j]!=null && big[j].contains(o))
+				return true;
+		return false;
+	}
+	private int find(Object o) {
+		for(int i=0; i<size; ++i)
+			if(keys[i]==o || o!=null && o.equals(keys[i]))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Set a flag on an element, adding it if necessary.
+	 * @param e
+	 * @param flag
+	 * @return Whether the flag has not been set before
+	 */
+	public synchronized boolean set(E e, int flag) {
+		int fi = index(flag);
+		if(big!=null) {
+			HashSet<Object> s = big[fi];
+			if(s==null)
+				big[fi] = s = new HashSet<>();
+			if(!s.add(e))
+				return false;
+			if(!inOther(e, fi))
+				++size;
+			return true;
+		}
+		int i = find(e);
+		if(i>=0) {
+			if((flags[i] & flag)!=0)
+				return false;
+			flags[i] |= flag;
+			return true;
+		}
+		if(size==THRESHOLD) {
+			toBig();
+			return set(e, flag);
+		}
+		if(size==keys.length) {
+			int nl = Math.min(THRESHOLD, Math.max(2, size*2));
+			keys = Arrays.copyOf(keys, nl);
+			flags = Arrays.copyOf(flags, nl);
+		}
+		keys[size] = e;
+		flags[size] = (byte) flag;
+		++size;
+		return true;
+	}
+	private void toBig() {
+		@SuppressWarnings("unchecked")
+		HashSet<Object>[] b = (HashSet<Object>[]) new HashSet<?>[8];
+		big = b;
+		for(int i=0; i<size; ++i) {
+			for(int fi=0; fi<8; ++fi) {
+				if((flags[i] & (1<<fi))!=0) {
+					if(big[fi]==null)
+						big[fi]=new HashSet<>();
+					big[fi].add(keys[i]);
+				}
+			}
+		}
+		keys = NO_KEYS;
+		flags = NO_FLAGS;
+	}
+	/**
+	 * Clear a flag on an element, removing it if no flags remain.
+	 * @param o
+	 * @param flag
+	 * @return Whether the flag had been set
+	 */
+	public synchronized boolean unset(Object o, int flag) {
+		int fi = index(flag);
+		if(big!=null) {
+			HashSet<Object> s = big[fi];
+			if(s==null || !s.remove(o))
+				return false;
+			if(!inOther(o, fi))
+				--size;
+			if(s.isEmpty())
+				big[fi] = null;
+			shrinkIfEmpty();
+			return true;
+		}
+		int i = find(o);
+		if(i<0 || (flags[i] & flag)==0)
+			return false;
+		flags[i] &= ~flag;
+		if(flags[i]==0)
+			removeAt(i);
+		return true;
+	}
+	private void removeAt(int i) {
+		--size;
+		keys[i] = keys[size];
+		flags[i] = flags[size];
+		keys[size] = null;
+		flags[size] = 0;
+		if(size==0) {
+			keys = NO_KEYS;
+			flags = NO_FLAGS;
+		}
+	}
+	private void shrinkIfEmpty() {
+		for(HashSet<Object> s: big)
+			if(s!=null)
+				return;
+		big = null;
+		size = 0;
+	}
+	/**
+	 * @param o
+	 * @param flag
+	 * @return Whether the element is a member with the given flag set
+	 */
+	public synchronized boolean has(Object o, int flag) {
+		int fi = index(flag);
+		if(big!=null) {
+			HashSet<Object> s = big[fi];
+			return s!=null && s.contains(o);
+		}
+		int i = find(o);
+		return i>=0 && (flags[i] & flag)!=0;
+	}
+	/**
+	 * @param flag
+	 * @return Whether any element has the given flag set
+	 */
+	public synchronized boolean any(int flag) {
+		int fi = index(flag);
+		if(big!=null)
+			return big[fi]!=null;
+		for(int i=0; i<size; ++i)
+			if((flags[i] & flag)!=0)
+				return true;
+		return false;
+	}
+	/**
+	 * @param flag
+	 * @return The number of elements that have the given flag set
+	 */
+	public synchronized int count(int flag) {
+		int fi = index(flag);
+		if(big!=null)
+			return big[fi]==null?0:big[fi].size();
+		int ret = 0;
+		for(int i=0; i<size; ++i)
+			if((flags[i] & flag)!=0)
+				++ret;
+		return ret;
+	}
+	/**
+	 * Clear a flag on all elements
+	 * @param flag
+	 */
+	public synchronized void unsetAll(int flag) {
+		int fi = index(flag);
+		if(big!=null) {
+			HashSet<Object> s = big[fi];
+			if(s==null)
+				return;
+			big[fi] = null;
+			for(Object o: s)
+				if(!inOther(o, fi))
+					--size;
+			shrinkIfEmpty();
+			return;
+		}
+		for(int i=size-1; i>=0; --i) {
+			if((flags[i] & flag)!=0) {
+				flags[i] &= ~flag;
+				if(flags[i]==0)
+					removeAt(i);
+			}
+		}
+	}
+	/**
+	 * Copy the elements that have the given flag set into an array.
+	 * @param flag
+	 * @param a Used if it is large enough, like {@link #toArray(Object[])}
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T[] toArray(int flag, T[] a) {
+		int fi = index(flag);
+		if(big!=null) {
+			if(big[fi]!=null)
+				return big[fi].toArray(a);
+			if(a.length>0)
+				a[0] = null;
+			return a;
+		}
+		int n = count(flag);
+		T[] ret = a.length>=n?a:Arrays.copyOf(a, n);
+		int j=0;
+		for(int i=0; i<size; ++i)
+			if((flags[i] & flag)!=0)
+				ret[j++] = (T) keys[i];
+		if(ret.length>n)
+			ret[n] = null;
+		return ret;
+	}
+	/**
+	 * @param flag
+	 * @return A read-only view of the elements that have the given flag set
+	 */
+	public Set<E> view(int flag) {
+		index(flag);
+		return new AbstractSet<E>() {
+			@Override
+			public boolean contains(Object o) {
+				return has(o, flag);
+			}
+			@Override
+			public boolean isEmpty() {
+				return !any(flag);
+			}
+			@Override
+			public int size() {
+				return count(flag);
+			}
+			@SuppressWarnings("unchecked")
+			@Override
+			public Iterator<E> iterator() {
+				return Collections.unmodifiableList(Arrays.asList((E[])FlaggedSet.this.toArray(flag, new Object[0]))).iterator();
+			}
+		};
+	}
+
+	@Override
+	public boolean add(E e) {
+		return set(e, DEFAULT);
+	}
+	@Override
+	public synchronized boolean contains(Object o) {
+		if(big!=null) {
+			for(HashSet<Object> s: big)
+				if(s!=null && s.contains(o))
+					return true;
+			return false;
+		}
+		return find(o)>=0;
+	}
+	@Override
+	public synchronized boolean remove(Object o) {
+		if(big!=null) {
+			boolean ret = false;
+			for(int fi=0; fi<8; ++fi) {
+				HashSet<Object> s = big[fi];
+				if(s!=null && s.remove(o)) {
+					ret = true;
+					if(s.isEmpty())
+						big[fi] = null;
+				}
+			}
+			if(ret) {
+				--size;
+				shrinkIfEmpty();
+			}
+			return ret;
+		}
+		int i = find(o);
+		if(i<0)
+			return false;
+		removeAt(i);
+		return true;
+	}
+	@Override
+	public synchronized void clear() {
+		big = null;
+		keys = NO_KEYS;
+		flags = NO_FLAGS;
+		size = 0;
+	}
+	@Override
+	public synchronized boolean isEmpty() {
+		return size==0;
+	}
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+	/**
+	 * @return The only non-<code>null</code> set of the hashed mode, or <code>null</code> if there are several
+	 */
+	private HashSet<Object> onlyBig() {
+		HashSet<Object> ret = null;
+		for(HashSet<Object> s: big) {
+			if(s!=null) {
+				if(ret!=null)
+					return null;
+				ret = s;
+			}
+		}
+		return ret;
+	}
+	/**
+	 * @return All elements of the hashed mode, each once
+	 */
+	private LinkedHashSet<Object> union() {
+		LinkedHashSet<Object> all = new LinkedHashSet<>(size*4/3+1);
+		for(HashSet<Object> s: big)
+			if(s!=null)
+				all.addAll(s);
+		return all;
+	}
+	@Override
+	public synchronized Object[] toArray() {
+		if(big!=null) {
+			HashSet<Object> only = onlyBig();
+			return only!=null?only.toArray():union().toArray();
+		}
+		return Arrays.copyOf(keys, size);
+	}
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized <T> T[] toArray(T[] a) {
+		if(big!=null) {
+			HashSet<Object> only = onlyBig();
+			return only!=null?only.toArray(a):union().toArray(a);
+		}
+		T[] ret = a.length>=size?a:(T[]) Arrays.copyOf(a, size, a.getClass());
+		System.arraycopy(keys, 0, ret, 0, size);
+		if(ret.length>size)
+			ret[size] = null;
+		return ret;
+	}
+	@Override
+	public Iterator<E> iterator() {
+		Object[] s = toArray();
+		return new Iterator<E>() {
+			int next;
+			@Override
+			public boolean hasNext() {
+				return next<s.length;
+			}
+			@SuppressWarnings("unchecked")
+			@Override
+			public E next() {
+				if(next>=s.length)
+					throw new NoSuchElementException();
+				return (E) s[next++];
+			}
+			@Override
+			public void remove() {
+				if(next==0)
+					throw new IllegalStateException();
+				FlaggedSet.this.remove(s[next-1]);
+			}
+		};
+	}
+}
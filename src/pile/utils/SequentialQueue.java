@@ -1,34 +1,47 @@
 package pile.utils;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import pile.interop.exec.StandardExecutors;
 import pile.interop.wait.GuardedCondition;
+import pile.interop.wait.LockMonitor;
 import pile.interop.wait.NativeCondition;
 import pile.interop.wait.WaitService;
 
 /**
  * A facility where {@link Runnable}s can be enqueued to run sequentially.
+ * <p>
+ * Enqueueing is lock-free: Producers append to a linked list by swapping its tail, and a single worker
+ * runs all jobs that are available in one pass, without locking anything per job. The worker is
+ * borrowed from an {@link ExecutorService} when jobs arrive and given back as soon as the queue is empty.
+ * <p>
+ * Optionally, the number of waiting jobs can be {@link #setCapacity(int, OverflowPolicy) limited}.
+ * The queue depth and how long jobs have waited are counted; see {@link #getQueueDepth()} and
+ * {@link #getMeanLatencyNanos()}.
  * @author bb
  *
  */
 public class SequentialQueue extends AbstractExecutorService implements ExecutorWithRecentThread {
 	private final static Logger log=Logger.getLogger("SequentialQueue");
 
-	Future<?> queueWorkerFuture;
+	volatile Future<?> queueWorkerFuture;
 	volatile Thread queueWorkerThread;
-	ArrayDeque<Runnable> q;
 	private String name;
 	Runnable afterJob;
-	ExecutorService exa;
+	volatile ExecutorService exa;
 	final WaitService ws;
 	/**
 	 * Make a new {@link SequentialQueue}
@@ -114,88 +127,370 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 		this.exa = exa;
 		this.ws = ws==null?WaitService.get():ws;
 	}
+	/**
+	 * Formerly decided how long an idle worker waited for more jobs before giving its {@link Thread} back.
+	 * The worker now gives it back as soon as the queue is empty, so this is no longer called, and overriding it has no effect.
+	 * @param nopTimes How often the worker had already waited in vain
+	 * @return The time in milliseconds to wait, or 0 to give the thread back
+	 * @deprecated Not called any more
+	 */
+	@Deprecated
 	protected long waitTime(int nopTimes) {
-		return nopTimes>2?0:1000;
+		return 0;
+	}
+	/**
+	 * What {@link SequentialQueue#enqueue(Runnable)} does when the queue is at its {@link SequentialQueue#getCapacity() capacity}.
+	 * The capacity is a soft limit: {@link #BLOCK} accepts jobs from the worker anyway, and {@link #DROP_OLDEST} 
+	 * accepts the job if the waiting jobs are still being linked in and none of them can be dropped yet.
+	 * Jobs of {@link SequentialQueue#syncEnqueue(Runnable)} are always accepted.
+	 * @author bb
+	 *
+	 */
+	public static enum OverflowPolicy{
+		/**
+		 * Wait until there is room. The worker itself never waits; its jobs are always accepted.
+		 */
+		BLOCK,
+		/**
+		 * Discard the oldest job that has not started yet. If none can be discarded, because the waiting jobs 
+		 * are still being linked in by their producers, the job is accepted anyway.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Run the job in the calling {@link Thread}, bypassing the queue. This slows down producers,
+		 * but the job may run concurrently with, and out of order with, the queued jobs.
+		 */
+		RUN_IN_CALLER
+	}
+	/**
+	 * A queued job. The job is claimed (by the worker, or to discard it) by atomically
+	 * replacing it with <code>null</code>.
+	 */
+	private static final class Node extends AtomicReference<Runnable>{
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Set once by the producer that links the next node. {@link SequentialQueue#dropOldest()} may later
+		 * move it forward past discarded nodes, but never past a node whose own {@link #next} is still <code>null</code>.
+		 */
+		volatile Node next;
+		final long enqueuedAt;
+		Node(Runnable task, long enqueuedAt){
+			super(task);
+			this.enqueuedAt = enqueuedAt;
+		}
+	}
+	/**
+	 * The last node that the worker has claimed. Only the worker moves it.
+	 */
+	private volatile Node head = new Node(null, 0);
+	private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+	/**
+	 * The most recently enqueued node. Producers swap themselves in and then link the previous tail to themselves.
+	 */
+	private final AtomicReference<Node> tail = new AtomicReference<>(head);
+	/**
+	 * The number of jobs that have been enqueued and not been claimed yet
+	 */
+	private final AtomicInteger depth = new AtomicInteger();
+	/**
+	 * Whether a worker has been submitted and not yet finished
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	/**
+	 * The number of threads waiting in {@link #enqueue(Runnable)} or {@link #syncEnqueue(Runnable, int)}
+	 * for the queue to become shorter
+	 */
+	private final AtomicInteger waiters = new AtomicInteger();
+	/**
+	 * Signalled when the queue becomes shorter, when a job of {@link #syncEnqueue(Runnable)} has run and when 
+	 * the queue is closed. The state it signals is not guarded by any monitor, so waiters take the 
+	 * {@link LockMonitor#generation() generation} before checking it and never wait inside <code>synchronized</code>.
+	 */
+	private final LockMonitor changed = new LockMonitor();
+	private volatile int capacity;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	// written only by the worker
+	private volatile long started;
+	private volatile long totalLatency;
+	private volatile long maxLatency;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong overflows = new AtomicLong();
+
+	/**
+	 * Limit the number of jobs that may wait in the queue.
+	 * This is a soft limit, which the {@link #getQueueDepth() queue depth} may exceed in the cases that
+	 * {@link OverflowPolicy} lists.
+	 * @param capacity The maximum number of jobs that have not started yet, or 0 for no limit
+	 * @param policy What to do with a job that does not fit
+	 * @return {@code this}
+	 */
+	public SequentialQueue setCapacity(int capacity, OverflowPolicy policy) {
+		if(capacity<0)
+			throw new IllegalArgumentException("negative capacity");
+		this.overflowPolicy = Objects.requireNonNull(policy);
+		this.capacity = capacity;
+		notifyWaiters();
+		return this;
+	}
+	/**
+	 * @return The maximum number of waiting jobs, or 0 if there is no limit. This is a soft limit; 
+	 * see {@link #setCapacity(int, OverflowPolicy)}.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
 	}
 	/**
-	 * Submit a job.
+	 * Submit a job. This does not lock anything, unless the queue is full and the {@link OverflowPolicy} is
+	 * {@link OverflowPolicy#BLOCK BLOCK}.
 	 * @param task
 	 */
-	synchronized public void enqueue(Runnable task) {
+	public void enqueue(Runnable task) {
 		if(closed)
 			return;
-		if(q==null)
-			q=new ArrayDeque<>();
-		q.add(task);
-		WaitService.get().notifyAll(this);
-		if(queueWorkerFuture==null) {
-			try {
-				if(exa==null)
-					exa = StandardExecutors.unlimited();
-				queueWorkerFuture = exa.submit(() -> {
-					ArrayDeque<Runnable> queue = q;
-					Thread ct = Thread.currentThread();
-					String oldName = ct.getName();
-					Future<?> self;
-					synchronized (this) {
-						self = queueWorkerFuture;
-						if(self==null)
-							return;
-						queueWorkerThread = Thread.currentThread();
-					}
-					try {
-						ct.setName("SequentialQueue worker: "+name);
-						while(true) {
-							Runnable r=null;
-							try {
-								int nopTimes=0;
-								synchronized(this) {
-									while(queue.isEmpty()) {
-										long waitTime = waitTime(nopTimes);
-
-										if(waitTime<=0) {
-											assert queueWorkerFuture==self;
-											if(queueWorkerFuture==self) {
-												queueWorkerFuture=null;
-												queueWorkerThread=null;
-											}
-											return;
-										}
-										WaitService.get().wait(this, waitTime);
-										nopTimes++;
-									}
-									r = queue.poll();
-								}
-							} catch (InterruptedException e) {
-								//							e.printStackTrace();
-							}
-							
-							ws.clearInterrupted();
-							if(r!=null) {
-								//							System.out.println("queue length: "+queue.size());
-								StandardExecutors.safe(r);
-								StandardExecutors.safe(afterJob);
-							}
-						}
-					}catch(RuntimeException|Error x){
-						log.log(Level.WARNING, "", x);
-					}finally {
-						synchronized(this) {
-							if(queueWorkerFuture==self) {
-								queueWorkerFuture=null;
-								queueWorkerThread=null;
-							}
-						}
-						ct.setName(oldName);
-
+		if(!reserve()) {
+			overflows.incrementAndGet();
+			switch(overflowPolicy) {
+			case RUN_IN_CALLER:
+				StandardExecutors.safe(task);
+				StandardExecutors.safe(afterJob);
+				return;
+			case DROP_OLDEST:
+				do {
+					if(!dropOldest()) {
+						// the waiting jobs are still being linked in; don't wait for them
+						depth.incrementAndGet();
+						break;
 					}
-				});
-			}finally {
-
+				}while(!reserve());
+				break;
+			case BLOCK:
+				if(isQueueWorkerThread()) {
+					depth.incrementAndGet();
+					break;
+				}
+				awaitRoom();
+				break;
 			}
 		}
-
-
+		link(task);
+	}
+	/**
+	 * Submit a job regardless of the capacity. Used for the jobs that {@link #syncEnqueue(Runnable)} waits for,
+	 * because running them in the caller or dropping them would break the promise that all earlier jobs have run.
+	 * @param task
+	 */
+	private void enqueueIgnoringCapacity(Runnable task) {
+		if(closed)
+			return;
+		depth.incrementAndGet();
+		link(task);
+	}
+	private void link(Runnable task) {
+		Node n = new Node(task, System.nanoTime());
+		tail.getAndSet(n).next = n;
+		if(!scheduled.get() && scheduled.compareAndSet(false, true))
+			startWorker();
+	}
+	/**
+	 * Count a job as waiting, if it fits
+	 */
+	private boolean reserve() {
+		while(true) {
+			int d = depth.get();
+			int c = capacity;
+			if(c>0 && d>=c)
+				return false;
+			if(depth.compareAndSet(d, d+1))
+				return true;
+		}
+	}
+	private void awaitRoom() {
+		boolean interrupted = false;
+		waiters.incrementAndGet();
+		try {
+			while(true) {
+				int seen = changed.generation();
+				if(reserve())
+					return;
+				if(closed) {
+					depth.incrementAndGet();
+					return;
+				}
+				try {
+					changed.awaitChangeMillis(ws, seen, 100);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}finally {
+			waiters.decrementAndGet();
+			if(interrupted)
+				ws.interrupt(Thread.currentThread());
+		}
+	}
+	private void notifyWaiters() {
+		if(waiters.get()>0)
+			changed.signalAll();
+	}
+	/**
+	 * Discard the oldest waiting job
+	 * @return Whether there was one
+	 */
+	private boolean dropOldest() {
+		Node h = head;
+		Node first = h.next;
+		for(Node n = first; n!=null; n = n.next) {
+			Runnable r = n.get();
+			if(r!=null && n.compareAndSet(r, null)) {
+				depth.decrementAndGet();
+				dropped.incrementAndGet();
+				// Unlink the discarded nodes up to and including this one, so that the next drop does not scan
+				// them again and they can be collected while the worker is busy. The last node stays linked,
+				// because a producer may still link the next node to it.
+				Node next = n.next;
+				if(next!=null)
+					NEXT.compareAndSet(h, first, next);
+				return true;
+			}
+		}
+		return false;
+	}
+	private void startWorker() {
+		ExecutorService exa = this.exa;
+		if(exa==null)
+			this.exa = exa = StandardExecutors.unlimited();
+		try {
+			queueWorkerFuture = exa.submit(this::work);
+		}catch(RuntimeException x) {
+			scheduled.set(false);
+			throw x;
+		}
+	}
+	private void work() {
+		Thread ct = Thread.currentThread();
+		String oldName = ct.getName();
+		try {
+			ct.setName("SequentialQueue worker: "+name);
+			do {
+				queueWorkerThread = ct;
+				drain();
+				queueWorkerThread = null;
+				scheduled.set(false);
+				// a job may have been enqueued after the queue was drained, but before the flag was cleared
+			}while(!isEmpty() && scheduled.compareAndSet(false, true));
+		}catch(RuntimeException|Error x){
+			log.log(Level.WARNING, "", x);
+			queueWorkerThread = null;
+			scheduled.set(false);
+			if(!isEmpty() && scheduled.compareAndSet(false, true))
+				startWorker();
+		}finally {
+			ct.setName(oldName);
+			ws.clearInterrupted();
+			if(closed) {
+				changed.signalAll();
+				synchronized (this) {
+					ws.notifyAll(this);
+				}
+			}
+		}
+	}
+	/**
+	 * Run all jobs that are available, without locking anything
+	 */
+	private void drain() {
+		Node h = head;
+		while(true) {
+			Node n = h.next;
+			if(n==null) {
+				if(tail.get()==h)
+					return;
+				// a producer has swapped the tail but not linked the node yet
+				Thread.yield();
+				continue;
+			}
+			head = h = n;
+			Runnable r = n.getAndSet(null);
+			if(r==null)
+				continue;
+			depth.decrementAndGet();
+			notifyWaiters();
+			long latency = System.nanoTime()-n.enqueuedAt;
+			totalLatency += latency;
+			if(latency>maxLatency)
+				maxLatency = latency;
+			++started;
+			ws.clearInterrupted();
+			StandardExecutors.safe(r);
+			StandardExecutors.safe(afterJob);
+		}
+	}
+	private boolean isEmpty() {
+		Node h = head;
+		return h.next==null && tail.get()==h;
+	}
+	/**
+	 * @return The number of jobs that are waiting to be run
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+	/**
+	 * For tests and diagnostics
+	 * @return The number of nodes that are linked after the one the worker has claimed last,
+	 * including those of discarded jobs that have not been unlinked yet
+	 */
+	public int _linkedNodes() {
+		int ret = 0;
+		for(Node n = head.next; n!=null; n = n.next)
+			++ret;
+		return ret;
+	}
+	/**
+	 * @return The number of jobs that the worker has started
+	 */
+	public long getStartedCount() {
+		return started;
+	}
+	/**
+	 * @return The number of jobs that have been discarded because of {@link OverflowPolicy#DROP_OLDEST}, {@link #clearQueue()}
+	 * or {@link #trimQueue(int, boolean)}
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+	/**
+	 * @return How often a job did not fit into the queue
+	 */
+	public long getOverflowCount() {
+		return overflows.get();
+	}
+	/**
+	 * @return The average time in nanoseconds that a job started by the worker has waited in the queue
+	 */
+	public double getMeanLatencyNanos() {
+		long c = started;
+		return c==0?0:(double)totalLatency/c;
+	}
+	/**
+	 * @return The longest time in nanoseconds that a job started by the worker has waited in the queue
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatency;
+	}
+	/**
+	 * Reset the counters. This is not atomic with respect to jobs being completed at the same time.
+	 */
+	public void resetStatistics() {
+		started = 0;
+		totalLatency = 0;
+		maxLatency = 0;
+		dropped.set(0);
+		overflows.set(0);
 	}
 	/**
 	 * Wait until all currently queued jobs have been executed
@@ -226,22 +521,22 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 	 */
 	public void syncEnqueue(Runnable runThis) throws InterruptedException {
 		class Wrapper implements Runnable{
-			boolean ran = false;
+			volatile boolean ran = false;
 			@Override
 			public void run() {
 				StandardExecutors.safe(runThis);
-				synchronized (this) {
-					ran = true;
-					WaitService.get().notifyAll(this);
-				}
-
+				ran = true;
+				changed.signalAll();
 			}
 		}
 		Wrapper w = new Wrapper();
-		enqueue(w);
-		synchronized (w) {
-			while(!w.ran)
-				WaitService.get().wait(w, 1000);
+		enqueueIgnoringCapacity(w);
+		WaitService ws = WaitService.get();
+		while(true) {
+			int seen = changed.generation();
+			if(w.ran)
+				return;
+			changed.awaitChangeMillis(ws, seen, 1000);
 		}
 
 	}
@@ -252,22 +547,26 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 	 */
 	public void syncEnqueue(Runnable runThis, int limit) throws InterruptedException {
 		class Wrapper implements Runnable{
-			boolean ran = false;
+			volatile boolean ran = false;
 			@Override
 			public void run() {
 				StandardExecutors.safe(runThis);
-				synchronized (SequentialQueue.this) {
-					ran = true;
-					WaitService.get().notifyAll(SequentialQueue.this);
-				}
-
+				ran = true;
+				changed.signalAll();
 			}
 		}
 		Wrapper w = new Wrapper();
-		enqueue(w);
-		synchronized (this) {
-			while(!w.ran && q.size()>limit)
-				WaitService.get().wait(this);
+		enqueueIgnoringCapacity(w);
+		waiters.incrementAndGet();
+		try {
+			while(true) {
+				int seen = changed.generation();
+				if(w.ran || depth.get()<=limit)
+					break;
+				changed.awaitChangeMillis(ws, seen, 100);
+			}
+		}finally {
+			waiters.decrementAndGet();
 		}
 
 	}
@@ -275,42 +574,57 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 	 * Test whether the current thread is currently the worker {@link Thread} of this {@link SequentialQueue}
 	 * @return
 	 */
-	public synchronized boolean isQueueWorkerThread() {
+	public boolean isQueueWorkerThread() {
 		return Thread.currentThread()==queueWorkerThread;
 	}
 	/**
 	 * Discard all currently queued jobs
 	 */
-	public synchronized void clearQueue() {
-		if(q!=null)
-			q.clear();
+	public void clearQueue() {
+		for(Node n = head.next; n!=null; n = n.next)
+			discard(n);
+	}
+	private Runnable discard(Node n) {
+		Runnable r = n.getAndSet(null);
+		if(r!=null) {
+			depth.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+		return r;
 	}
 	
 	/**
-	 * Discard all currently queued jobs
+	 * Discard queued jobs until at most the given number remain
+	 * @param maxSize
+	 * @param removeFromFrontNotBack Whether to discard the oldest rather than the newest jobs
 	 */
-	public synchronized void trimQueue(int maxSize, boolean removeFromFrontNotBack) {
-		if(q!=null) {
-			while(q.size()>maxSize) {
-				if(removeFromFrontNotBack)
-                    q.removeFirst();
-                else
-                    q.removeLast();
-			}
+	public void trimQueue(int maxSize, boolean removeFromFrontNotBack) {
+		if(removeFromFrontNotBack) {
+			while(depth.get()>maxSize && dropOldest());
+		}else {
+			ArrayList<Node> waiting = new ArrayList<>();
+			for(Node n = head.next; n!=null; n = n.next)
+				if(n.get()!=null)
+					waiting.add(n);
+			for(int i=waiting.size()-1; i>=maxSize && depth.get()>maxSize; --i)
+				discard(waiting.get(i));
 		}
+		notifyWaiters();
 	}
 	/**
 	 * Interrupt the worker {@link Thread} of this {@link SequentialQueue}
 	 */
-	public synchronized void interrupt() {
-		if(queueWorkerThread!=null)
-			ws.interrupt(queueWorkerThread);
+	public void interrupt() {
+		Thread t = queueWorkerThread;
+		if(t!=null)
+			ws.interrupt(t);
 	}
 	/**
 	 * 
-	 * @return The future that represents the worker {@link Thread} of this {@link SequentialQueue}
+	 * @return The future that represents the most recently started worker of this {@link SequentialQueue};
+	 * it may have finished already.
 	 */
-	public synchronized Future<?> getQueueWorker() {
+	public Future<?> getQueueWorker() {
 		return queueWorkerFuture;
 	}
 	
@@ -319,24 +633,36 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 		return queueWorkerThread;
 	}
 	
-	boolean closed;
+	volatile boolean closed;
 	@Override
-	public synchronized void shutdown() {
+	public void shutdown() {
 		closed = true;
-		if(queueWorkerFuture!=null)
-			queueWorkerFuture.cancel(true);
-		notifyAll();
-
+		Future<?> f = queueWorkerFuture;
+		if(f!=null)
+			f.cancel(true);
+		changed.signalAll();
+		synchronized (this) {
+			ws.notifyAll(this);
+		}
 	}
 	@Override
-	public synchronized List<Runnable> shutdownNow() {
+	public List<Runnable> shutdownNow() {
 		closed = true;
-		if(queueWorkerFuture!=null)
-			queueWorkerFuture.cancel(true);
-		ArrayList<Runnable> ret = q==null ? new ArrayList<>() : new ArrayList<>(q);
-		if(q!=null)
-			q.clear();
-		notifyAll();
+		Future<?> f = queueWorkerFuture;
+		if(f!=null)
+			f.cancel(true);
+		ArrayList<Runnable> ret = new ArrayList<>();
+		for(Node n = head.next; n!=null; n = n.next) {
+			Runnable r = n.getAndSet(null);
+			if(r!=null) {
+				depth.decrementAndGet();
+				ret.add(r);
+			}
+		}
+		changed.signalAll();
+		synchronized (this) {
+			ws.notifyAll(this);
+		}
 		return ret;
 	}
 	@Override
@@ -345,7 +671,7 @@ public class SequentialQueue extends AbstractExecutorService implements Executor
 	}
 	@Override
 	public boolean isTerminated() {
-		return closed && queueWorkerFuture==null && (q==null || q.isEmpty()); 
+		return closed && !scheduled.get() && depth.get()==0; 
 	}
 	@Override
 	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
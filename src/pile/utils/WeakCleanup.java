@@ -101,6 +101,10 @@ public abstract class WeakCleanup<E> extends WeakReference<E> implements Runnabl
 	 * and to run the handler.
 	 */
 	public static void runIfWeak(Object o, Runnable run, Supplier<? extends ReferenceQueue<? super Object>> rm) {
+		if(rm instanceof DefaultReferenceManager) {
+			((DefaultReferenceManager) rm).register(o, Runnable::run, run);
+			return;
+		}
 		Bucket n=new Bucket(o, run, rm);
 		synchronized (buckets) {
 			n.position=buckets.size();
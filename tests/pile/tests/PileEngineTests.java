@@ -0,0 +1,1996 @@
+package pile.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import pile.aspect.AssociationStore;
+import pile.aspect.Dependency;
+import pile.aspect.ReadValue.InvalidValueException;
+import pile.aspect.combinations.ReadWriteListenDependency;
+import pile.aspect.HasAssociations.AssociationKey;
+import pile.aspect.HasAssociations.ReferencePolicy;
+import pile.aspect.HasAssociations.SimpleAssociationKey;
+import pile.aspect.limitedresource.LimitedResource;
+import pile.aspect.limitedresource.Supplicant;
+import pile.aspect.listen.ListenValue.ListenerManager;
+import pile.aspect.listen.RateLimitedValueListener;
+import pile.aspect.listen.ValueEvent;
+import pile.aspect.listen.ValueListener;
+import pile.aspect.suppress.MockBlock;
+import pile.aspect.suppress.SafeCloseable;
+import pile.aspect.transform.TransformHandler;
+import pile.aspect.transform.TransformReaction;
+import pile.impl.HeightOrderedPropagation;
+import pile.impl.Independent;
+import pile.impl.ListChangeSet;
+import pile.impl.ListView;
+import pile.impl.PileList;
+import pile.impl.PileImpl;
+import pile.impl.Piles;
+import pile.impl.WriteBatch;
+import pile.interop.exec.RecomputationScheduler;
+import pile.interop.exec.StandardExecutors;
+import pile.interop.exec.TimerWheel;
+import pile.interop.exec.VirtualThreads;
+import pile.interop.jfr.PileEvents;
+import pile.interop.metrics.NodeMetrics;
+import pile.interop.metrics.PileMetrics;
+import pile.interop.preferences.FileWatcher;
+import pile.interop.preferences.SynchronizingFilesBackedValue;
+import pile.interop.wait.LockMonitor;
+import pile.interop.wait.ObservableCondition;
+import pile.interop.wait.WaitService;
+import pile.specialized_bool.IndependentBool;
+import pile.specialized_bool.PileBool;
+import pile.specialized_bool.combinations.ReadListenDependencyBool;
+import pile.specialized_double.IndependentDouble;
+import pile.specialized_double.PileDouble;
+import pile.specialized_double.combinations.ReadListenDependencyDouble;
+import pile.specialized_int.IndependentInt;
+import pile.specialized_int.PileInt;
+import pile.specialized_int.combinations.ReadListenDependencyInt;
+import pile.utils.DefaultReferenceManager;
+import pile.utils.FlaggedSet;
+import pile.utils.Functional;
+import pile.utils.SequentialQueue;
+import pile.utils.SequentialQueue.OverflowPolicy;
+
+/**
+ * Checks for the optional engine modes (propagation, scheduling, storage). Zero-dependency;
+ * run with {@code java -cp <out> pile.tests.PileEngineTests}.
+ */
+public class PileEngineTests {
+	public static void main(String[] args) {
+		Check.run("height-ordered propagation", PileEngineTests::heightOrdered);
+		Check.run("copy-on-write listeners", PileEngineTests::copyOnWriteListeners);
+		Check.run("primitive path", PileEngineTests::primitivePath);
+		Check.run("incremental aggregation", PileEngineTests::incrementalAggregation);
+		Check.run("recomputation scheduler", PileEngineTests::recomputationScheduler);
+		Check.run("admission control", PileEngineTests::admissionControl);
+		Check.run("file watcher", PileEngineTests::fileWatcher);
+		Check.run("compact dependency bookkeeping", PileEngineTests::compactDependencies);
+		Check.run("lock-free reads", PileEngineTests::lockFreeReads);
+		Check.run("write batches", PileEngineTests::writeBatches);
+		Check.run("conflating writes", PileEngineTests::conflatingWrites);
+		Check.run("sequential queue", PileEngineTests::sequentialQueue);
+		Check.run("virtual threads", PileEngineTests::virtualThreads);
+		Check.run("runtime metrics", PileEngineTests::runtimeMetrics);
+		Check.run("flight recorder events", PileEngineTests::flightRecorderEvents);
+		Check.run("association store", PileEngineTests::associationStore);
+		Check.run("timer wheel", PileEngineTests::timerWheel);
+		Check.run("concurrent transforms", PileEngineTests::concurrentTransforms);
+		Check.run("reference cleanup", PileEngineTests::referenceCleanup);
+		Check.run("dynamic dependency recording", PileEngineTests::dynamicDependencyRecording);
+		Check.run("pull evaluation", PileEngineTests::pullEvaluation);
+		Check.run("cold when unobserved", PileEngineTests::coldWhenUnobserved);
+		Check.run("bulk list mutations", PileEngineTests::bulkListMutations);
+		Check.run("incremental list views", PileEngineTests::incrementalListViews);
+		System.exit(Check.summary("PileEngineTests"));
+	}
+
+	static void heightOrdered() throws InterruptedException {
+		Check.section("height-ordered propagation: diamond");
+		HeightOrderedPropagation.setEnabled(true);
+		try {
+			IndependentInt a = Piles.independent(1).build();
+			PileInt b = Piles.computeInt(() -> a.get() + 1).whenChanged(a);
+			PileInt c = Piles.computeInt(() -> a.get() * 2).whenChanged(a);
+			AtomicInteger runs = new AtomicInteger();
+			PileInt d = Piles.computeInt(() -> {
+				runs.incrementAndGet();
+				return b.get() + c.get();
+			}).whenChanged(b, c);
+			Check.eq("1+1 + 1*2", 4, d.getValid());
+			runs.set(0);
+			a.set(5);
+			Check.eq("5+1 + 5*2", 16, d.getValid());
+			Check.eq("d recomputed once", 1, runs.get());
+			a.set(6);
+			Check.eq("6+1 + 6*2", 19, d.getValid());
+		}finally {
+			HeightOrderedPropagation.setEnabled(false);
+		}
+
+		Check.section("height-ordered propagation: uneven diamond");
+		HeightOrderedPropagation.setEnabled(true);
+		try {
+			List<String> recomputed = Collections.synchronizedList(new ArrayList<>());
+			IndependentInt a = Piles.independent(1).build();
+			PileInt b = Piles.computeInt(() -> {recomputed.add("b"); return a.get() + 1;}).whenChanged(a);
+			PileInt b2 = Piles.computeInt(() -> {recomputed.add("b2"); return b.get() + 1;}).whenChanged(b);
+			PileInt b3 = Piles.computeInt(() -> {recomputed.add("b3"); return b2.get() + 1;}).whenChanged(b2);
+			PileInt c = Piles.computeInt(() -> {recomputed.add("c"); return a.get() * 2;}).whenChanged(a);
+			PileInt d = Piles.computeInt(() -> {recomputed.add("d"); return b3.get() + c.get();}).whenChanged(b3, c);
+			Check.eq("heights", Arrays.asList(0, 1, 2, 3, 1, 4),
+					Arrays.asList(a, b, b2, b3, c, d).stream().map(HeightOrderedPropagation::heightOf).collect(Collectors.toList()));
+			List<Object> fired = Collections.synchronizedList(new ArrayList<>());
+			for(PileInt v: Arrays.asList(b, b3, c, d))
+				v.addValueListener(e->fired.add(e.getSource()));
+			Check.eq("1+3 + 1*2", 6, d.getValid());
+			recomputed.clear();
+			a.set(5);
+			Check.eq("5+3 + 5*2", 18, d.getValid());
+			Check.eq("each recomputed once", 5, recomputed.size());
+			Check.that("c before b2", recomputed.indexOf("c")<recomputed.indexOf("b2"));
+			Check.that("d last", recomputed.indexOf("d")==4);
+			// the recursive queues fire the join before some of the values it depends on
+			Check.that("events fire in the order of height", eventually(()->fired.size()==4));
+			List<Integer> firedHeights = fired.stream().map(v->v==b || v==c?1:v==b3?3:4).collect(Collectors.toList());
+			List<Integer> sortedHeights = new ArrayList<>(firedHeights);
+			Collections.sort(sortedHeights);
+			Check.eq("heights of the fired values", sortedHeights, firedHeights);
+
+			c.addDependency(b3);
+			Check.eq("adding a dependency raises c", 4, HeightOrderedPropagation.heightOf(c));
+			Check.eq("and the values above it", 5, HeightOrderedPropagation.heightOf(d));
+		}finally {
+			HeightOrderedPropagation.setEnabled(false);
+		}
+	}
+
+	static void copyOnWriteListeners() {
+		Check.section("copy-on-write ListenerManager");
+		ListenerManager m = new ListenerManager("src", true, true);
+		ArrayList<String> order = new ArrayList<>();
+		ValueListener late = ((ValueListener) e -> order.add("late")).withPrio(5);
+		ValueListener early = ((ValueListener) e -> order.add("early")).withPrio(-5);
+		ValueListener[] self = { null };
+		self[0] = e -> { order.add("mid"); m.removeValueListener(self[0]); };
+		m.addValueListener(late);
+		m.addValueListener(self[0]);
+		m.addValueListener(early);
+		ValueEvent ev = new ValueEvent("src");
+		m.fireValueChange(ev);
+		Check.eq("priority order", "[early, mid, late]", order.toString());
+		order.clear();
+		m.fireValueChange(ev);
+		Check.eq("removal during firing takes effect next time", "[early, late]", order.toString());
+		m.removeValueListener(early);
+		m.removeValueListener(late);
+		order.clear();
+		m.fireValueChange(ev);
+		Check.that("no listeners left", order.isEmpty() && !m.hasValueListener(late));
+	}
+
+	static void primitivePath() throws InterruptedException {
+		Check.section("primitive readers, setters and fulfill");
+		IndependentDouble x = Piles.independent(2.0).build();
+		PileDouble sq = Piles.computeAsDouble(() -> x.getAsDouble() * x.getAsDouble()).whenChanged(x);
+		Check.eqD("computeAsDouble", 4.0, sq.getValid().doubleValue());
+		Double box = sq.get();
+		x.setDouble(-2.0);
+		Check.eqD("recomputed", 4.0, sq.getValid().doubleValue());
+		Check.that("unchanged result keeps its box", box == sq.get());
+		Double xBox = x.get();
+		x.setDouble(-2.0);
+		Check.that("setDouble reuses an equal box", xBox == x.get());
+		x.setNull();
+		Check.that("null reads as NaN", Double.isNaN(x.getAsDouble()) && x.getAsDouble(7) == 7);
+		IndependentInt i = Piles.independent(3).build();
+		Check.eq("getAsInt(ifNull)", 3, i.getAsInt(0));
+		i.setInt(4);
+		Check.eq("setInt", 4, i.get());
+		IntSupplier asSupplier = i;
+		Check.eq("IntSupplier", 4, asSupplier.getAsInt());
+		i.setNull();
+		Check.that("null reads as 0", i.getAsInt()==0 && i.getAsInt(-1)==-1);
+		Check.that("withinTolerance", PileDouble.withinTolerance(0.1).test(1.0, 1.05)
+				&& !PileDouble.withinTolerance(0.1).test(1.0, 1.2)
+				&& !PileDouble.withinTolerance(0.1).test(1.0, null));
+
+		Check.section("primitive accessors and setters");
+		IndependentDouble a = Piles.independent(1.5).build();
+		PileDouble half = Piles.computeAsDouble(() -> a.getAsDouble() / 2).whenChanged(a);
+		Check.eqD("computed double", 0.75, half.getAsDouble());
+		a.setDouble(3);
+		Check.eqD("independent double", 3.0, a.getAsDouble());
+		Check.eqD("follows recomputation", half.getValid().doubleValue(), half.getAsDouble());
+		Check.eqD("value is 1.5", 1.5, half.getAsDouble());
+		half.permaInvalidate();
+		Check.that("invalid reads as NaN", Double.isNaN(half.getAsDouble()) && half.get()==null);
+		PileDouble damped = Piles.computeAsDouble(() -> a.getAsDouble()).equivalence(PileDouble.withinTolerance(0.1)).whenChanged(a);
+		Double dampedBox = damped.getValid();
+		damped.setDouble(3.05);
+		Check.that("tolerated value keeps the box", dampedBox == damped.get() && damped.getAsDouble() == 3.0);
+		damped.setDouble(3.5);
+		Check.eqD("value outside the tolerance is stored", 3.5, damped.getAsDouble());
+		IndependentDouble dampedIndependent = Piles.independent(1.0).equivalence(PileDouble.withinTolerance(0.1)).build();
+		Double independentBox = dampedIndependent.get();
+		dampedIndependent.setDouble(1.01);
+		Check.that("tolerated independent value keeps the box", independentBox == dampedIndependent.get());
+		half.destroy();
+		damped.destroy();
+
+		IndependentInt n = Piles.independent(5).build();
+		PileInt negated = Piles.computeAsInt(() -> -n.getAsInt()).whenChanged(n);
+		Check.eq("computed int", -5, negated.getAsInt());
+		n.setInt(1000);
+		Check.eq("int follows", -1000, negated.getValid().intValue());
+		Check.eq("unboxed int", -1000, negated.getAsInt());
+		negated.destroy();
+		Check.eq("destroyed reads as 0", 0, negated.getAsInt());
+
+		IndependentBool flag = Piles.independent(false).build();
+		PileBool notFlag = PileBool.rb().recompute(() -> !flag.isTrue()).whenChanged(flag);
+		Check.that("bool accessors", flag.isFalse() && !flag.getAsBoolean() && notFlag.isTrue() && !notFlag.isFalse());
+		flag.set(true);
+		notFlag.getValid();
+		Check.that("bool accessors follow", flag.isTrue() && notFlag.isFalse() && !notFlag.getAsBoolean());
+		flag.setNull();
+		Check.that("null is neither true nor false", !flag.isTrue() && !flag.isFalse());
+		notFlag.destroy();
+	}
+
+	static void incrementalAggregation() throws InterruptedException {
+		Check.section("incremental sum / min / conjunction");
+		IndependentInt[] in = new IndependentInt[100];
+		for(int i=0; i<in.length; ++i)
+			in[i] = Piles.independent(i).build();
+		ReadListenDependencyInt sum = PileInt.sum(in);
+		ReadListenDependencyInt min = PileInt.min(in);
+		Check.eq("sum 0..99", 4950, sum.getValid());
+		Check.eq("min 0..99", 0, min.getValid());
+		in[0].set(1000);
+		in[42].set(-7);
+		Check.eq("sum after two changes", 4950 + 1000 - 42 - 7, sum.getValid());
+		Check.eq("min after two changes", -7, min.getValid());
+		in[42].set(null);
+		Check.that("null input makes the result null", sum.getValid() == null && min.getValid() == null);
+		in[42].set(42);
+		Check.eq("sum recovers from null", 4950 + 1000, sum.getValid());
+		Check.eq("min recovers from null", 1, min.getValid());
+
+		IndependentDouble[] d = new IndependentDouble[8];
+		for(int i=0; i<d.length; ++i)
+			d[i] = Piles.independent(1.5).build();
+		ReadListenDependencyDouble dsum = PileDouble.sum(Arrays.asList(d));
+		Check.eqD("double sum", 12, dsum.getValid());
+		d[3].set(Double.POSITIVE_INFINITY);
+		Check.that("infinite sum", dsum.getValid() == Double.POSITIVE_INFINITY);
+		d[3].set(1.5);
+		Check.eqD("finite again", 12, dsum.getValid());
+
+		IndependentBool[] b = new IndependentBool[20];
+		for(int i=0; i<b.length; ++i)
+			b[i] = Piles.independent(true).build();
+		ReadListenDependencyBool all = PileBool.conjunction(b);
+		Check.eq("all true", true, all.getValid());
+		b[13].set(false);
+		Check.eq("one false", false, all.getValid());
+		b[13].set(true);
+		Check.eq("all true again", true, all.getValid());
+		Check.eq("empty sum", 0, PileInt.sum().getValid());
+
+		Check.section("aggregates keep the names of the binary trees");
+		IndependentBool[] named = new IndependentBool[5];
+		for(int i=0; i<named.length; ++i)
+			named[i] = Piles.independent(true).name("b"+i).build();
+		Check.eq("conjunction", Piles.aggregate(Piles.andAggregator, named).dependencyName(),
+				PileBool.conjunction(named).dependencyName());
+		Check.eq("disjunction with a neutral constant", Piles.aggregate(Piles.orAggregator, named).dependencyName(),
+				PileBool.disjunction(named[0], Piles.FALSE, named[1], named[2], named[3], named[4]).dependencyName());
+		Check.eq("single input", named[0].dependencyName()+" readOnly", PileBool.conjunction(named[0]).dependencyName());
+	}
+
+	static volatile boolean spin;
+	static void recomputationScheduler() throws Exception {
+		Check.section("priorities and coalescing");
+		RecomputationScheduler sched = new RecomputationScheduler(1);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		spin = true;
+		// keep the only worker busy without blocking, so that no extra worker is started
+		sched.execute(()->{while(spin) Thread.yield();});
+		Object key = new Object();
+		Future<?> k1 = sched.submit(key, 0, ()->order.add("k1"));
+		Future<?> k2 = sched.submit(key, 0, ()->order.add("k2"));
+		sched.submit(null, 0, ()->order.add("low"));
+		Future<?> high = sched.submit(null, 5, ()->order.add("high"));
+		Check.that("superseded task is cancelled", k1.isCancelled());
+		spin = false;
+		high.get(5, TimeUnit.SECONDS);
+		sched.shutdown();
+		Check.that("terminates", sched.awaitTermination(5, TimeUnit.SECONDS));
+		Check.eq("order", Arrays.asList("high", "k2", "low"), order);
+		Check.that("replacement ran", k2.isDone() && !k2.isCancelled());
+
+		Check.section("bounded, but does not deadlock");
+		sched = new RecomputationScheduler(2);
+		AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+		ArrayList<Future<?>> fs = new ArrayList<>();
+		for(int i=0; i<20; ++i)
+			fs.add(sched.submit(()->{
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				long end = System.nanoTime() + 2_000_000;
+				while(System.nanoTime() < end)
+					Thread.yield();
+				running.decrementAndGet();
+			}));
+		for(Future<?> f: fs)
+			f.get(5, TimeUnit.SECONDS);
+		Check.that("at most 2 tasks at a time", maxRunning.get() <= 2);
+		sched.shutdown();
+		RecomputationScheduler single = new RecomputationScheduler(1);
+		Future<String> outer = single.submit(()->{
+			// the only worker waits for a task queued behind it
+			Future<String> inner = single.submit(()->"done");
+			return inner.get();
+		});
+		Check.eq("nested wait completes", "done", outer.get(5, TimeUnit.SECONDS));
+		single.shutdown();
+
+		Check.section("piles use the configured scheduler");
+		ExecutorService before = StandardExecutors.recomputation();
+		RecomputationScheduler piles = new RecomputationScheduler(2);
+		StandardExecutors.setRecomputation(piles);
+		try {
+			IndependentInt in = Piles.independent(1).name("scheduled in").build();
+			PileImpl<Integer> a = Piles.compute(()->in.get()+1).name("scheduled a")
+					.delay(0).recomputationPriority(3).whenChanged(in);
+			// a cancelled recomputation of b may still run while a is invalid
+			PileImpl<Integer> b = Piles.compute(()->{
+				Integer av = a.get();
+				return av==null ? null : av*10;
+			}).name("scheduled b").delay(0).whenChanged(a);
+			Check.eq("chain", 20, b.getValid(5000));
+			for(int i=2; i<50; ++i)
+				in.set(i);
+			Check.eq("after a burst", 500, b.getValid(5000));
+			Check.eq("priority stored", 3, RecomputationScheduler.getPriority(a));
+		}finally {
+			StandardExecutors.setRecomputation(before);
+			piles.shutdown();
+		}
+	}
+
+	static void admissionControl() throws Exception {
+		Check.section("supplicants are served in order");
+		LimitedResource r = new LimitedResource("test connections", 2);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		class Named extends Supplicant{
+			final String n;
+			Named(String n, long units, int priority) {
+				super(units, priority, Long.MAX_VALUE);
+				this.n = n;
+			}
+			@Override
+			protected void granted(LimitedResource res) {
+				order.add(n);
+			}
+		}
+		Check.that("tryAcquire", r.tryAcquire(2));
+		r.request(new Named("late", 1, 5));
+		r.request(new Named("big", 2, 0));
+		Named withdrawn = new Named("withdrawn", 1, -1);
+		r.request(withdrawn);
+		Check.eq("queue length", 3, r.queueLength().get());
+		Check.that("withdraw", r.withdraw(withdrawn));
+		r.release(1);
+		Check.eq("big request blocks the ones behind it", Collections.emptyList(), order);
+		r.release(1);
+		Check.eq("big one first", Arrays.asList("big"), order);
+		r.release(2);
+		Check.eq("then the late one", Arrays.asList("big", "late"), order);
+		Check.eq("usage", 1L, r.usage().get());
+		r.release(1);
+		Check.eq("usage after release", 0L, r.usage().get());
+
+		Check.section("recomputations acquire and release units");
+		LimitedResource db = new LimitedResource("test db", 2);
+		AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+		IndependentInt in = Piles.independent(0).build();
+		ArrayList<PileImpl<Integer>> piles = new ArrayList<>();
+		for(int i=0; i<6; ++i) {
+			int k = i;
+			piles.add(Piles.compute(()->{
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return in.get()+k;
+			}).delay(0).consumes(db, 1).whenChanged(in));
+		}
+		in.set(10);
+		for(int i=0; i<piles.size(); ++i)
+			Check.eq("value "+i, 10+i, piles.get(i).getValid(5000));
+		Check.that("at most 2 at a time", maxRunning.get() <= 2);
+		Check.eq("all released", 0L, db.getUsed());
+
+		Check.section("cancelled recomputations stop waiting");
+		Check.that("take everything", db.tryAcquire(2));
+		in.set(20);
+		Check.that("waiting", !piles.get(0).isValid() && db.getQueueLength() > 0);
+		in.set(30);
+		db.release(2);
+		for(int i=0; i<piles.size(); ++i)
+			Check.eq("value "+i, 30+i, piles.get(i).getValid(5000));
+		Check.eq("released again", 0L, db.getUsed());
+		Check.eq("nobody waiting", 0, db.queueLength().get());
+
+		Check.section("unnamed resources can be combined");
+		LimitedResource unnamed = new LimitedResource(null, 1);
+		PileImpl<Integer> both = Piles.compute(()->in.get()+1).delay(0).consumes(db, 1).consumes(unnamed, 1).whenChanged(in);
+		in.set(40);
+		Check.eq("value", 41, both.getValid(5000));
+		Check.eq("unnamed released", 0L, unnamed.getUsed());
+
+		Check.section("raising the capacity signals availability");
+		AtomicInteger signalled = new AtomicInteger();
+		unnamed.available.addObserver(new ObservableCondition.ConditionObserver() {
+			@Override public void observe(boolean all) {signalled.incrementAndGet();}
+			@Override public boolean shouldRemove() {return false;}
+		});
+		Check.that("take it", unnamed.tryAcquire(1));
+		unnamed.setMax(2);
+		Check.that("signalled", signalled.get()>0);
+		unnamed.release(1);
+	}
+
+	static boolean eventually(BooleanSupplier c) throws InterruptedException {
+		long t0 = System.currentTimeMillis();
+		while(!c.getAsBoolean()) {
+			if(System.currentTimeMillis()-t0 > 5000)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+	/**
+	 * @return A waiting thread that has a method of the given name on its stack, or <code>null</code>
+	 */
+	static ThreadInfo waitingIn(String method) {
+		return waitingIn(null, method);
+	}
+	/**
+	 * @param cls The class declaring the method, or <code>null</code> for any
+	 */
+	static ThreadInfo waitingIn(Class<?> cls, String method) {
+		for(ThreadInfo t: ManagementFactory.getThreadMXBean().dumpAllThreads(false, false)) {
+			if(t.getThreadState()!=Thread.State.WAITING && t.getThreadState()!=Thread.State.TIMED_WAITING)
+				continue;
+			for(StackTraceElement e: t.getStackTrace())
+				if(e.getMethodName().equals(method) && (cls==null || e.getClassName().equals(cls.getName())))
+					return t;
+		}
+		return null;
+	}
+	static void fileWatcher() throws Exception {
+		Check.section("watched files are re-read without polling");
+		Path dir = Files.createTempDirectory("pile-watch");
+		Path file = dir.resolve("value.txt");
+		FileWatcher watcher = new FileWatcher(20);
+		SynchronizingFilesBackedValue<String> a = SynchronizingFilesBackedValue.forSingleFile(
+				Piles.constant(file), SynchronizingFilesBackedValue.STRING_CODEC, ()->"default");
+		SynchronizingFilesBackedValue<String> b = SynchronizingFilesBackedValue.forSingleFile(
+				Piles.constant(file), SynchronizingFilesBackedValue.STRING_CODEC, ()->"default");
+		SafeCloseable wa = a.autoWatch(watcher, null, 0);
+		SafeCloseable wb = b.autoWatch(watcher, null, 0);
+		a.set("from a");
+		Check.that("other value sees the write", eventually(()->"from a".equals(b.get())));
+		Thread.sleep(50);
+		Files.write(file, "external write".getBytes(StandardCharsets.UTF_8));
+		Check.that("external write reaches a", eventually(()->"external write".equals(a.get())));
+		Check.that("external write reaches b", eventually(()->"external write".equals(b.get())));
+
+		Check.section("closed watches are not notified");
+		wb.close();
+		Thread.sleep(50);
+		Files.write(file, "after close".getBytes(StandardCharsets.UTF_8));
+		Check.that("still watched", eventually(()->"after close".equals(a.get())));
+		Thread.sleep(100);
+		Check.eq("no longer watched", "external write", b.get());
+		wa.close();
+		for(Path p: Files.list(dir).toArray(Path[]::new))
+			Files.delete(p);
+		Files.delete(dir);
+	}
+
+	static void compactDependencies() throws InterruptedException {
+		Check.section("flags survive the switch to hashed storage and back");
+		FlaggedSet<Integer> set = new FlaggedSet<>();
+		for(int i=0; i<FlaggedSet.THRESHOLD; ++i)
+			set.set(i, 1);
+		set.set(3, 4);
+		Check.that("flag set", set.has(3, 4) && !set.has(2, 4) && set.count(4) == 1);
+		for(int i=FlaggedSet.THRESHOLD; i<3*FlaggedSet.THRESHOLD; ++i)
+			set.set(i, 2);
+		Check.that("hashed", set.has(3, 4) && set.has(3, 1) && set.has(20, 2) && !set.has(20, 1));
+		Check.eq("counts", Arrays.asList(FlaggedSet.THRESHOLD, 2*FlaggedSet.THRESHOLD, 1),
+				Arrays.asList(set.count(1), set.count(2), set.count(4)));
+		Check.eq("union size", 3*FlaggedSet.THRESHOLD, set.size());
+		set.set(20, 1);
+		Check.eq("a second flag does not count twice", 3*FlaggedSet.THRESHOLD, set.size());
+		set.remove(20);
+		set.unset(21, 1);
+		Check.eq("removing counts once", 3*FlaggedSet.THRESHOLD-1, set.size());
+		Check.eq("snapshot", set.size(), set.toArray(new Integer[0]).length);
+		Check.eq("snapshot of all flags", set.size(), new HashSet<>(Arrays.asList(set.toArray())).size());
+		set.set(20, 2);
+		set.unsetAll(2);
+		set.unset(3, 4);
+		Check.that("flag cleared", !set.any(2) && !set.any(4) && set.size() == FlaggedSet.THRESHOLD);
+		set.unsetAll(1);
+		Check.that("empty", set.isEmpty());
+
+		Check.section("piles with growing and shrinking dependency sets");
+		IndependentInt[] in = new IndependentInt[3*FlaggedSet.THRESHOLD];
+		for(int i=0; i<in.length; ++i)
+			in[i] = Piles.independent(1).build();
+		PileImpl<Integer> p = Piles.compute(()->{
+			int s = 0;
+			for(IndependentInt x: in)
+				s += x.getAsInt(0);
+			return s;
+		}).whenChanged(in[0]);
+		Check.eq("one dependency", 1, p.getDependencies().length);
+		for(IndependentInt x: in)
+			p.addDependency(x, true);
+		Check.eq("all dependencies", in.length, p.getDependencies().length);
+		Check.eq("sum", in.length, p.getValid(1000));
+		in[5].set(10);
+		Check.eq("recomputed", in.length+9, p.getValid(1000));
+		for(int i=1; i<in.length; ++i)
+			p.removeDependency(in[i]);
+		Check.that("only the first", p.dependsOn(in[0]) && !p.dependsOn(in[5]) && p.getDependencies().length == 1);
+		in[0].set(2);
+		Check.eq("still recomputes", in.length+10, p.getValid(1000));
+	}
+
+	static void lockFreeReads() throws Exception {
+		Check.section("readers only see values that were valid");
+		IndependentInt x = Piles.independent(0).build();
+		PileInt twice = Piles.computeAsInt(() -> x.getAsInt(0) * 2).whenChanged(x);
+		Check.eq("initial", 0, twice.getValid(1000));
+		AtomicInteger bad = new AtomicInteger();
+		AtomicInteger seen = new AtomicInteger();
+		spin = true;
+		Thread[] readers = new Thread[2];
+		for(int r=0; r<readers.length; ++r) {
+			readers[r] = new Thread(() -> {
+				while(spin) {
+					Integer v = twice.get();
+					if(v != null) {
+						seen.incrementAndGet();
+						if(v % 2 != 0)
+							bad.incrementAndGet();
+					}
+					Integer old = twice.getOldIfInvalid();
+					if(old != null && old % 2 != 0)
+						bad.incrementAndGet();
+					if(twice.isValidNull())
+						bad.incrementAndGet();
+				}
+			});
+			readers[r].start();
+		}
+		for(int i=1; i<=2000; ++i)
+			x.set(i);
+		spin = false;
+		for(Thread t: readers)
+			t.join();
+		Check.eq("no inconsistent reads", 0, bad.get());
+		Check.that("readers saw valid values", seen.get() > 0);
+		Check.eq("final value", 4000, twice.getValid(1000));
+		Check.that("isValid", twice.isValid());
+	}
+
+	static void writeBatches() throws InterruptedException {
+		Check.section("one recomputation and one event per batch");
+		IndependentInt qty = Piles.independent(1).build();
+		IndependentDouble price = Piles.independent(2.0).build();
+		Independent<String> symbol = Piles.<String>genericIndependent().init("A").build();
+		AtomicInteger recomputations = new AtomicInteger();
+		PileImpl<String> quote = Piles.compute(()->{
+			recomputations.incrementAndGet();
+			return symbol.get()+" "+qty.get()*price.get();
+		}).whenChanged(qty, price, symbol);
+		Check.eq("initial", "A 2.0", quote.getValid(1000));
+		AtomicInteger events = new AtomicInteger();
+		quote.addValueListener(e->events.incrementAndGet());
+		AtomicInteger qtyEvents = new AtomicInteger();
+		qty.addValueListener(e->{
+			qtyEvents.incrementAndGet();
+			Check.eq("target listeners see the whole batch", "B", symbol.get());
+		});
+		recomputations.set(0);
+		int assigned = Piles.writeBatch().set(qty, 3).set(price, 1.5).set(symbol, "B").set(qty, 4).apply();
+		Check.eq("assigned", 3, assigned);
+		Check.eq("value", "B 6.0", quote.getValid(1000));
+		Check.eq("one recomputation", 1, recomputations.get());
+		Check.eq("one event", 1, events.get());
+		Check.eq("one target event", 1, qtyEvents.get());
+
+		Check.section("unchanged targets are skipped");
+		recomputations.set(0);
+		Check.eq("nothing assigned", 0, Piles.writeBatch().set(qty, 4).set(symbol, "B").apply());
+		Check.eq("no recomputation", 0, recomputations.get());
+
+		Check.section("corrected values are compared");
+		AtomicInteger capEvents = new AtomicInteger();
+		IndependentInt capped = Piles.independent(10).corrector(v->v==null?null:Math.min(v, 10)).build();
+		capped.addValueListener(e->capEvents.incrementAndGet());
+		Check.eq("corrected to the current value", 0, Piles.writeBatch().set(capped, 15).apply());
+		Check.eq("no event", 0, capEvents.get());
+		Check.eq("corrected write", 1, Piles.writeBatch().set(capped, -1).set(qty, 4).apply());
+		Check.eq("corrected once", -1, capped.get());
+
+		Check.section("sealed targets always reach their interceptor");
+		IndependentInt backing = Piles.independent(0).name("backing").build();
+		IndependentInt front = Piles.independent(0).name("front").build();
+		front.seal(backing::set, false);
+		Check.eq("forwarded", 1, Piles.writeBatch().set(front, 7).apply());
+		Check.eq("backing written", 7, backing.get());
+		Check.eq("front lags", 0, front.get());
+		Check.eq("forwarded although it equals the front's own value", 1, Piles.writeBatch().set(front, 0).apply());
+		Check.eq("backing written again", 0, backing.get());
+
+		Check.section("a failing target does not block the others");
+		IndependentInt sealed = Piles.independent(0).build();
+		sealed.seal();
+		PileImpl<Integer> sum = Piles.compute(()->sealed.get()+qty.get()).whenChanged(sealed, qty);
+		Check.eq("initial sum", 4, sum.getValid(1000));
+		WriteBatch b = Piles.writeBatch().set(sealed, 1).set(qty, 5);
+		Check.throwsX("sealed target", RuntimeException.class, b::apply);
+		Check.eq("other target assigned", 5, qty.get());
+		Check.eq("sum valid again", 5, sum.getValid(1000));
+		Check.throwsX("only once", IllegalStateException.class, b::apply);
+	}
+
+	static void conflatingWrites() throws InterruptedException {
+		Check.section("ticks faster than the depender recomputes");
+		IndependentDouble tick = Piles.independent(0.0).conflating().build();
+		Check.that("isConflating", tick.isConflating());
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger finished = new AtomicInteger();
+		PileImpl<Double> slow = Piles.compute(()->{
+			started.incrementAndGet();
+			double v = tick.get();
+			long end = System.nanoTime() + 10_000_000;
+			while(System.nanoTime() < end)
+				Thread.yield();
+			finished.incrementAndGet();
+			return v;
+		}).delay(0).whenChanged(tick);
+		Check.eqD("initial", 0, slow.getValid(5000));
+		started.set(0);
+		finished.set(0);
+		for(int i=1; i<=200; ++i) {
+			tick.set((double)i);
+			Thread.sleep(1);
+		}
+		long deadline = System.currentTimeMillis()+5000;
+		while(tick.get()!=200 && System.currentTimeMillis()<deadline)
+			Thread.sleep(5);
+		Check.eqD("latest value wins", 200, tick.get());
+		Check.eqD("depender sees it", 200, slow.getValid(5000));
+		Check.that("recomputations finish under load ("+finished.get()+")", finished.get() >= 2);
+		Check.that("writes were conflated ("+started.get()+" recomputations)", started.get() < 100);
+
+		Check.section("writes without a busy depender are immediate");
+		IndependentInt idle = Piles.independent(0).conflating().build();
+		PileImpl<Integer> fast = Piles.compute(()->idle.get()+1).whenChanged(idle);
+		for(int i=1; i<=10; ++i) {
+			idle.set(i);
+			Check.eq("immediate "+i, i, idle.get());
+		}
+		Check.eq("depender", 11, fast.getValid(1000));
+
+		Check.section("a batch write supersedes a waiting conflated write");
+		tick.set(1.0);
+		Check.eqD("settled", 1, slow.getValid(5000));
+		List<Double> seen = Collections.synchronizedList(new ArrayList<>());
+		tick.addValueListener(e->seen.add(tick.get()));
+		tick.set(2.0);
+		Thread.sleep(2);
+		tick.set(3.0);
+		Check.that("3 is waiting", tick.get()!=3);
+		Piles.writeBatch().set(tick, 4.0).apply();
+		Check.eqD("batch write", 4, tick.get());
+		Check.eqD("depender", 4, slow.getValid(5000));
+		Thread.sleep(50);
+		Check.eqD("the stale write is not applied later", 4, tick.get());
+		Check.that("nor before the batch write ("+seen+")", !seen.contains(3.0));
+	}
+
+	static void sequentialQueue() throws Exception {
+		Check.section("many producers, one job at a time, in order");
+		SequentialQueue q = new SequentialQueue("test queue");
+		int producers = 4, jobs = 5000;
+		int[] last = new int[producers];
+		Arrays.fill(last, -1);
+		AtomicInteger running = new AtomicInteger(), outOfOrder = new AtomicInteger(), overlaps = new AtomicInteger();
+		Thread[] ts = new Thread[producers];
+		for(int p=0; p<producers; ++p) {
+			int producer = p;
+			ts[p] = new Thread(()->{
+				for(int i=0; i<jobs; ++i) {
+					int job = i;
+					q.enqueue(()->{
+						if(running.incrementAndGet()!=1)
+							overlaps.incrementAndGet();
+						if(last[producer]!=job-1)
+							outOfOrder.incrementAndGet();
+						last[producer] = job;
+						running.decrementAndGet();
+					});
+				}
+			});
+			ts[p].start();
+		}
+		for(Thread t: ts)
+			t.join();
+		q.sync();
+		Check.eq("no overlaps", 0, overlaps.get());
+		Check.eq("in order", 0, outOfOrder.get());
+		Check.eq("all ran", (long)producers*jobs+1, q.getStartedCount());
+		Check.eq("empty", 0, q.getQueueDepth());
+		Check.that("latency measured", q.getMeanLatencyNanos()>0 && q.getMaxLatencyNanos()>=q.getMeanLatencyNanos());
+		long deadline = System.currentTimeMillis()+5000;
+		while(q.getRecentThread()!=null && System.currentTimeMillis()<deadline)
+			Thread.sleep(1);
+		Check.that("idle worker is given back", q.getRecentThread()==null);
+
+		Check.section("drop oldest");
+		CountDownLatch release = new CountDownLatch(1);
+		SequentialQueue dq = new SequentialQueue("dropping").setCapacity(3, OverflowPolicy.DROP_OLDEST);
+		List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch blocking = new CountDownLatch(1);
+		dq.enqueue(()->{
+			blocking.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		blocking.await();
+		for(int i=0; i<10; ++i) {
+			int job = i;
+			dq.enqueue(()->ran.add(job));
+		}
+		Check.eq("depth at capacity", 3, dq.getQueueDepth());
+		release.countDown();
+		// sync() would enqueue a job, too, and push out another one
+		deadline = System.currentTimeMillis()+5000;
+		while(ran.size()<3 && System.currentTimeMillis()<deadline)
+			Thread.sleep(1);
+		Check.eq("newest kept", Arrays.asList(7, 8, 9), ran);
+		Check.eq("dropped", 7L, dq.getDroppedCount());
+
+		Check.section("dropping stays cheap while the worker is stuck");
+		CountDownLatch stuck = new CountDownLatch(1);
+		CountDownLatch unstuck = new CountDownLatch(1);
+		SequentialQueue sq = new SequentialQueue("stuck").setCapacity(100, OverflowPolicy.DROP_OLDEST);
+		sq.enqueue(()->{
+			stuck.countDown();
+			try {
+				unstuck.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		stuck.await();
+		long t0 = System.nanoTime();
+		int maxLinked = 0;
+		for(int i=0; i<40000; ++i) {
+			sq.enqueue(Functional.NOP);
+			if(i%1000==0)
+				maxLinked = Math.max(maxLinked, sq._linkedNodes());
+		}
+		long millis = (System.nanoTime()-t0)/1000000;
+		Check.that("linear time: "+millis+" ms", millis<1000);
+		Check.that("discarded nodes unlinked: "+maxLinked, maxLinked<=102 && sq._linkedNodes()<=102);
+		Check.eq("depth at capacity", 100, sq.getQueueDepth());
+		unstuck.countDown();
+		sq.sync();
+		Check.eq("all but the capacity dropped", 40000L-100, sq.getDroppedCount());
+
+		Check.section("run in caller");
+		CountDownLatch release2 = new CountDownLatch(1);
+		CountDownLatch blocking2 = new CountDownLatch(1);
+		SequentialQueue cq = new SequentialQueue("caller runs").setCapacity(1, OverflowPolicy.RUN_IN_CALLER);
+		cq.enqueue(()->{
+			blocking2.countDown();
+			try {
+				release2.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		blocking2.await();
+		Thread[] where = new Thread[2];
+		cq.enqueue(()->where[0] = Thread.currentThread());
+		cq.enqueue(()->where[1] = Thread.currentThread());
+		Check.that("overflowing job ran in caller", where[1]==Thread.currentThread());
+		release2.countDown();
+		cq.sync();
+		Check.that("queued job ran in worker", where[0]!=null && where[0]!=Thread.currentThread());
+		Check.eq("overflows", 1L, cq.getOverflowCount());
+
+		Check.section("block");
+		CountDownLatch release3 = new CountDownLatch(1);
+		CountDownLatch blocking3 = new CountDownLatch(1);
+		SequentialQueue bq = new SequentialQueue("blocking").setCapacity(1, OverflowPolicy.BLOCK);
+		bq.enqueue(()->{
+			blocking3.countDown();
+			try {
+				release3.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		blocking3.await();
+		AtomicInteger bran = new AtomicInteger();
+		Thread producer = new Thread(()->{
+			bq.enqueue(bran::incrementAndGet);
+			bq.enqueue(bran::incrementAndGet);
+		});
+		producer.start();
+		producer.join(200);
+		Check.that("producer waits for room", producer.isAlive());
+		release3.countDown();
+		producer.join(5000);
+		Check.that("producer continues", !producer.isAlive());
+		bq.sync();
+		Check.eq("both ran", 2, bran.get());
+	}
+
+	static void virtualThreads() throws Exception {
+		Check.section("scheduled tasks are handed off");
+		ExecutorService target = Executors.newCachedThreadPool(r->new Thread(r, "hand-off target"));
+		ScheduledExecutorService ses = VirtualThreads.handingOffTo(target, StandardExecutors.DEFAULT_THREAD_FACTORY);
+		try {
+			Check.eq("runs in the target", "hand-off target",
+					ses.schedule(()->Thread.currentThread().getName(), 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+			CountDownLatch periodic = new CountDownLatch(3);
+			Future<?> p = ses.scheduleWithFixedDelay(periodic::countDown, 0, 5, TimeUnit.MILLISECONDS);
+			Check.that("periodic tasks repeat", periodic.await(5, TimeUnit.SECONDS));
+			p.cancel(false);
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch interrupted = new CountDownLatch(1);
+			Future<?> blocking = ses.schedule(()->{
+				started.countDown();
+				try {
+					Thread.sleep(10_000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+			}, 0, TimeUnit.MILLISECONDS);
+			started.await(5, TimeUnit.SECONDS);
+			blocking.cancel(true);
+			Check.that("cancel interrupts the target thread", interrupted.await(5, TimeUnit.SECONDS));
+			Future<?> never = ses.schedule(()->{}, 1, TimeUnit.HOURS);
+			never.cancel(false);
+			Check.that("cancelled tasks are removed", ((java.util.concurrent.ThreadPoolExecutor)ses).getQueue().isEmpty());
+		}finally {
+			ses.shutdownNow();
+			target.shutdownNow();
+		}
+
+		Check.section("waiting outside the mutex");
+		LockMonitor.setUsedByAllThreads(true);
+		try {
+			IndependentInt in = Piles.independent(1).build();
+			PileImpl<Integer> slow = Piles.compute(()->in.get()*10).delay(50).whenChanged(in);
+			Check.eq("getValid", 10, slow.getValid(5000));
+			in.set(2);
+			Check.that("invalid while delayed", !slow.isValid());
+			Check.eq("getValid after a change", 20, slow.getValid());
+			in.set(3);
+			slow.await(slow::isValid);
+			Check.eq("await", 30, slow.get());
+			in.set(4);
+			Check.that("timed await gives up", !slow.await(()->false, 20));
+			LockMonitor lm = new LockMonitor();
+			int seen = lm.generation();
+			lm.signalAll();
+			Check.that("a signal since the generation was seen is not lost", lm.awaitChangeMillis(WaitService.get(), seen, 5000));
+			Check.that("times out without a signal", !lm.awaitChangeMillis(WaitService.get(), lm.generation(), 10));
+		}finally {
+			LockMonitor.setUsedByAllThreads(false);
+		}
+
+		Check.section("pulls and inform queues wait outside the mutex");
+		LockMonitor.setUsedByAllThreads(true);
+		try {
+			IndependentInt in = Piles.independent(1).build();
+			CountDownLatch release = new CountDownLatch(1);
+			PileImpl<Integer> sleepy;
+			try(MockBlock lazy = Piles.lazySubgraph()){
+				sleepy = Piles.compute(()->{
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return in.get()*3;
+				}).whenChanged(in);
+			}
+			// the first reader starts the recomputation, the second one waits for it to end
+			ExecutorService readers = Executors.newFixedThreadPool(2);
+			try {
+				Future<Integer> first = readers.submit(()->sleepy.get());
+				Check.that("recomputation started", eventually(sleepy::_isRecomputationPendingOrOngoing));
+				Future<Integer> second = readers.submit(()->sleepy.get());
+				Check.that("a reader waits for the recomputation", eventually(()->waitingIn("__awaitRecomputationEnd")!=null));
+				ThreadInfo waiting = waitingIn("__awaitRecomputationEnd");
+				String lock = waiting==null || waiting.getLockInfo()==null?null:waiting.getLockInfo().getClassName();
+				Check.that("it waits on a condition, not the monitor: "+lock, lock!=null && lock.contains("ConditionObject"));
+				release.countDown();
+				Check.eq("first", 3, first.get(5, TimeUnit.SECONDS));
+				Check.eq("second", 3, second.get(5, TimeUnit.SECONDS));
+			}finally {
+				readers.shutdownNow();
+			}
+
+			// concurrent writers contend for the inform queue of the value they write
+			IndependentInt shared = Piles.independent(0).build();
+			PileImpl<Integer> follower = Piles.compute(()->shared.get()+1).whenChanged(shared);
+			ExecutorService writers = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<?>> done = new ArrayList<>();
+				for(int t=0; t<8; ++t)
+					done.add(writers.submit(()->{
+						for(int i=0; i<200; ++i)
+							shared.set(i);
+					}));
+				for(Future<?> f: done)
+					f.get(30, TimeUnit.SECONDS);
+				shared.set(1000);
+				Check.eq("follower caught up", 1001, follower.getValid(5000));
+			}finally {
+				writers.shutdownNow();
+			}
+
+			// resources and queues used to wait in their own monitors
+			LimitedResource res = new LimitedResource("one", 1);
+			res.acquire(1, 0, Long.MAX_VALUE);
+			SequentialQueue q = new SequentialQueue("held");
+			CountDownLatch holdQueue = new CountDownLatch(1);
+			q.enqueue(()->{
+				try {
+					holdQueue.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			ExecutorService waiters = Executors.newFixedThreadPool(2);
+			try {
+				Future<?> acquirer = waiters.submit(()->{
+					res.acquire(1, 0, Long.MAX_VALUE);
+					res.release(1);
+					return null;
+				});
+				Future<?> syncer = waiters.submit(()->{
+					q.sync();
+					return null;
+				});
+				Check.that("acquire waits", eventually(()->waitingIn(LimitedResource.class, "acquire")!=null));
+				Check.that("syncEnqueue waits", eventually(()->waitingIn(SequentialQueue.class, "syncEnqueue")!=null));
+				for(ThreadInfo waiting: new ThreadInfo[] {waitingIn(LimitedResource.class, "acquire"), waitingIn(SequentialQueue.class, "syncEnqueue")}) {
+					String lock = waiting==null || waiting.getLockInfo()==null?null:waiting.getLockInfo().getClassName();
+					Check.that("waits on a condition, not a monitor: "+lock, lock!=null && lock.contains("ConditionObject"));
+				}
+				res.release(1);
+				holdQueue.countDown();
+				acquirer.get(5, TimeUnit.SECONDS);
+				syncer.get(5, TimeUnit.SECONDS);
+				Check.eq("units given back", 0L, res.getUsed());
+			}finally {
+				waiters.shutdownNow();
+			}
+		}finally {
+			LockMonitor.setUsedByAllThreads(false);
+		}
+
+		Check.section("virtual thread mode");
+		if(!VirtualThreads.isSupported()) {
+			ExecutorService before = StandardExecutors.unlimited();
+			Check.that("not switched without support", !StandardExecutors.useVirtualThreads());
+			Check.that("executors unchanged", before==StandardExecutors.unlimited() && !StandardExecutors.isUsingVirtualThreads());
+			Check.throwsX("no factory", UnsupportedOperationException.class, ()->VirtualThreads.factory("x"));
+		}else {
+			ExecutorService ex = VirtualThreads.newPerTaskExecutor("test-virtual-");
+			try {
+				Check.that("runs in a virtual thread",
+						ex.submit(()->Thread.currentThread().getName().startsWith("test-virtual-")).get(5, TimeUnit.SECONDS));
+			}finally {
+				ex.shutdown();
+			}
+		}
+	}
+
+	static void runtimeMetrics() throws Exception {
+		Check.section("nothing is recorded while disabled");
+		IndependentInt in = Piles.independent(1).name("metrics in").build();
+		PileImpl<Integer> twice = Piles.compute(()->in.get()*2).name("metrics twice").whenChanged(in);
+		Check.eq("value", 2, twice.getValid());
+		int before = PileMetrics.size();
+		in.set(2);
+		Check.eq("recomputed", 4, twice.getValid());
+		Check.eq("no metrics registered", before, PileMetrics.size());
+
+		Check.section("counts, times and fan-out");
+		PileMetrics.setEnabled(true);
+		try {
+			PileImpl<Integer> plus = Piles.compute(()->twice.get()+1).name("metrics plus").whenChanged(twice);
+			AtomicInteger heard = new AtomicInteger();
+			twice.addValueListener(e->heard.incrementAndGet());
+			for(int i=3; i<=7; ++i) {
+				in.set(i);
+				Check.eq("recomputed "+i, 2*i+1, plus.getValid());
+			}
+			NodeMetrics.Snapshot s = PileMetrics.snapshot().stream()
+					.filter(x->"metrics twice".equals(x.getName())).findFirst().orElse(null);
+			Check.that("registered", s!=null);
+			Check.eq("recomputations", 5L, s.getRecomputations());
+			Check.eq("fan-out", 1, s.getFanOut());
+			Check.that("listener dispatches recorded", s.getListenerDispatches()>=heard.get() && heard.get()>0);
+			Check.that("time spent invalid", s.getInvalidNanos()>0);
+			long inHistogram = 0;
+			for(long c: s.getHistogram())
+				inHistogram += c;
+			Check.eq("histogram counts each recomputation", 5L, inHistogram);
+			Check.that("percentile is an upper bound", s.getRecomputeNanosPercentile(1)>=s.getRecomputeNanos()/5);
+
+			Check.section("hottest values");
+			PileImpl<Integer> busy = Piles.compute(()->{
+				long until = System.nanoTime()+2_000_000;
+				while(System.nanoTime()<until)
+					;
+				return in.get();
+			}).name("metrics busy").whenChanged(in);
+			for(int i=0; i<5; ++i) {
+				in.set(100+i);
+				busy.getValid();
+			}
+			List<NodeMetrics.Snapshot> hot = PileMetrics.hottest(NodeMetrics.Snapshot.BY_RECOMPUTE_TIME, 2);
+			Check.eq("top n", 2, hot.size());
+			Check.eq("slowest first", "metrics busy", hot.get(0).getName());
+
+			Check.section("reset");
+			PileMetrics.reset();
+			s = PileMetrics.hottest(NodeMetrics.Snapshot.BY_RECOMPUTATIONS, 1).get(0);
+			Check.eq("counters are zero", 0L, s.getRecomputations());
+		}finally {
+			PileMetrics.setEnabled(false);
+		}
+	}
+
+	static void flightRecorderEvents() throws Exception {
+		Check.section("no tokens without a recording");
+		Check.that("recomputation", PileEvents.recomputationStarted(false)==null);
+		Check.that("transaction", PileEvents.transactionBegan()==null);
+		PileEvents.recomputationEnded(null, null, false);
+		if(!PileEvents.COMPILED_IN)
+			return;
+
+		Check.section("recomputations and transactions are recorded");
+		Path file = Files.createTempFile("pile", ".jfr");
+		try(Recording r = new Recording()) {
+			r.enable("pile.Recomputation").withoutThreshold();
+			r.enable("pile.Transaction").withoutThreshold();
+			r.enable("pile.ListenerDispatch").withoutThreshold();
+			r.start();
+			IndependentInt in = Piles.independent(1).name("jfr in").build();
+			PileImpl<Integer> twice = Piles.compute(()->in.get()*2).name("jfr twice").whenChanged(in);
+			twice.addValueListener(e->{});
+			for(int i=2; i<=4; ++i) {
+				in.set(i);
+				Check.eq("value", i*2, twice.getValid());
+			}
+			r.stop();
+			r.dump(file);
+			int recomputations = 0, transactions = 0, dispatches = 0;
+			for(RecordedEvent e: RecordingFile.readAllEvents(file)) {
+				if(!"jfr twice".equals(e.getString("value")))
+					continue;
+				switch(e.getEventType().getName()) {
+				case "pile.Recomputation":
+					if("fulfilled".equals(e.getString("outcome")))
+						++recomputations;
+					break;
+				case "pile.Transaction": ++transactions; break;
+				case "pile.ListenerDispatch": ++dispatches; break;
+				}
+			}
+			Check.that("recomputations", recomputations>=3);
+			Check.that("transactions", transactions>=3);
+			Check.that("listener dispatches", dispatches>=3);
+		}finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	static void associationStore() throws InterruptedException {
+		Check.section("few and many keys");
+		IndependentInt v = Piles.independent(1).build();
+		ArrayList<AssociationKey<Integer>> keys = new ArrayList<>();
+		boolean readBack = true;
+		for(int i=0; i<50; ++i) {
+			AssociationKey<Integer> k = new SimpleAssociationKey<>();
+			keys.add(k);
+			v.putAssociation(k, i);
+			readBack &= Integer.valueOf(i).equals(v.getAssociation(k));
+		}
+		Check.that("each key right after putting it", readBack);
+		boolean allThere = true;
+		for(int i=0; i<50; ++i)
+			allThere &= Integer.valueOf(i).equals(v.getAssociation(keys.get(i)));
+		Check.that("all keys after growing", allThere);
+		v.putAssociation(keys.get(7), null);
+		Check.that("null is stored", v.getAssociation(keys.get(7))==null);
+		Check.eq("neighbours untouched", 8, v.getAssociation(keys.get(8)));
+		Check.that("unknown key", v.getAssociation(new SimpleAssociationKey<Integer>())==null);
+		AtomicInteger made = new AtomicInteger();
+		Check.eq("if absent: present", 3, v.putAssociationIfAbsentAndGet(keys.get(3), made::incrementAndGet));
+		Check.eq("no value made", 0, made.get());
+
+		Check.section("collected keys and values are dropped");
+		AssociationStore store = new AssociationStore();
+		AssociationKey<Object> weak = new SimpleAssociationKey<>(ReferencePolicy.WEAK);
+		store.put(weak, ReferencePolicy.WEAK.wrap(new Object(), null, null));
+		for(int i=0; i<20; ++i)
+			store.put(new SimpleAssociationKey<Integer>(), i);
+		AssociationKey<Integer> kept = new SimpleAssociationKey<>();
+		store.put(kept, 42);
+		for(int i=0; i<10 && store.liveSize()>1; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Check.eq("only the reachable key with a present value", 1, store.liveSize());
+		Check.eq("its value", 42, store.get(kept));
+		for(int i=0; i<3; ++i)
+			store.put(new SimpleAssociationKey<Integer>(), i);
+		Check.eq("still there after more puts", 42, store.get(kept));
+	}
+
+	static void timerWheel() throws Exception {
+		Check.section("same tick, one batch");
+		TimerWheel w = new TimerWheel(5, 64, StandardExecutors::delayed, StandardExecutors::unlimited);
+		CountDownLatch ran = new CountDownLatch(100);
+		AtomicInteger cancelledRan = new AtomicInteger();
+		Future<?> cancelled = w.schedule(cancelledRan::incrementAndGet, 20);
+		for(int i=0; i<100; ++i)
+			w.schedule(ran::countDown, 20);
+		Check.that("cancel before due", cancelled.cancel(false) && cancelled.isCancelled());
+		Check.that("all ran", ran.await(5, TimeUnit.SECONDS));
+		Check.eq("fired", 100L, w.getFired());
+		Check.that("few batches", w.getBatches()<=3);
+		Check.eq("cancelled did not run", 0, cancelledRan.get());
+
+		Check.section("longer than one revolution");
+		long t0 = System.nanoTime();
+		CountDownLatch late = new CountDownLatch(1);
+		TimerWheel.Timeout lateRun = w.schedule(late::countDown, 400);
+		Check.that("ran", late.await(5, TimeUnit.SECONDS));
+		Check.that("not before its delay", System.nanoTime()-t0>=TimeUnit.MILLISECONDS.toNanos(400));
+		lateRun.get(1, TimeUnit.SECONDS);
+		Check.that("done", lateRun.isDone() && !lateRun.isCancelled());
+		for(int i=0; i<100 && w.getPending()>0; ++i)
+			Thread.sleep(10);
+		Check.eq("nothing pending", 0, w.getPending());
+
+		Check.section("rate-limited listeners coalesce");
+		TimerWheel shared = StandardExecutors.timerWheel();
+		long coalescedBefore = shared.getCoalesced();
+		AtomicInteger runs = new AtomicInteger();
+		RateLimitedValueListener l = RateLimitedValueListener.wrap(30, 30, true, false, (Runnable)runs::incrementAndGet);
+		for(int i=0; i<50; ++i)
+			l.valueChanged(null);
+		for(int i=0; i<100 && runs.get()==0; ++i)
+			Thread.sleep(10);
+		Thread.sleep(100);
+		Check.eq("one run for the burst", 1, runs.get());
+		Check.that("coalesced events counted", shared.getCoalesced()-coalescedBefore>=49);
+	}
+
+	static PileImpl<Integer>[] transformChain(int length) {
+		IndependentInt in = Piles.independent(0).build();
+		@SuppressWarnings("unchecked")
+		PileImpl<Integer>[] ret = (PileImpl<Integer>[]) new PileImpl<?>[length];
+		for(int i=0; i<length; ++i) {
+			PileImpl<Integer> prev = i==0?null:ret[i-1];
+			ret[i] = i==0
+					?Piles.compute(()->in.get()).whenChanged(in)
+					:Piles.compute(()->prev.get()).whenChanged(prev);
+			ret[i]._setTransformHandler(TransformHandler.justPropagate_noTransaction());
+		}
+		return ret;
+	}
+	static void concurrentTransforms() throws Exception {
+		Check.section("disjoint subgraphs do not wait for each other");
+		PileImpl<Integer>[] a = transformChain(3);
+		PileImpl<Integer>[] b = transformChain(3);
+		CountDownLatch bDone = new CountDownLatch(1);
+		AtomicInteger sawB = new AtomicInteger();
+		a[0]._setTransformHandler((v, t)->{
+			try {
+				if(bDone.await(5, TimeUnit.SECONDS))
+					sawB.incrementAndGet();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return TransformReaction.JUST_PROPAGATE_NO_TRANSACTION;
+		});
+		ExecutorService ex = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> fa = ex.submit(()->{a[0].transform("t", null); return null;});
+			Thread.sleep(50);
+			Future<?> fb = ex.submit(()->{b[0].transform("t", null); bDone.countDown(); return null;});
+			fb.get(5, TimeUnit.SECONDS);
+			fa.get(10, TimeUnit.SECONDS);
+			Check.eq("b finished while a was collecting", 1, sawB.get());
+
+			Check.section("overlapping transforms take turns");
+			PileImpl<Integer>[] c = transformChain(20);
+			List<Future<?>> fs = new ArrayList<>();
+			for(int i=0; i<2; ++i) {
+				int start = i*5;
+				fs.add(ex.submit(()->{
+					for(int k=0; k<50; ++k)
+						c[start].transform("t", null);
+					return null;
+				}));
+			}
+			for(Future<?> f: fs)
+				f.get(30, TimeUnit.SECONDS);
+			Check.eq("chain still consistent", 0, c[19].getValid(1000));
+		}finally {
+			ex.shutdownNow();
+		}
+
+		Check.section("deep chains do not overflow the stack");
+		PileImpl<Integer>[] deep = transformChain(5000);
+		Throwable[] failure = {null};
+		Thread t = new Thread(null, ()->{
+			try {
+				deep[0].transform("t", null);
+			}catch(Throwable x) {
+				failure[0]=x;
+			}
+		}, "deep transform", 256*1024);
+		t.start();
+		t.join(30000);
+		Check.that("finished", !t.isAlive());
+		Check.eq("no error", null, failure[0]);
+	}
+
+	static void referenceCleanup() throws Exception {
+		Check.section("sharded batches");
+		DefaultReferenceManager rm = new DefaultReferenceManager(3, 64);
+		int n = 10000;
+		CountDownLatch cleaned = new CountDownLatch(n);
+		AtomicInteger cancelledRan = new AtomicInteger();
+		Object kept = new Object();
+		DefaultReferenceManager.Registration<AtomicInteger> cancelled = rm.register(new Object(), AtomicInteger::incrementAndGet, cancelledRan);
+		Check.that("cancel", cancelled.cancel());
+		Check.that("cancel only once", !cancelled.cancel());
+		rm.register(kept, AtomicInteger::incrementAndGet, cancelledRan);
+		for(int i=0; i<n; ++i)
+			rm.register(new Object(), CountDownLatch::countDown, cleaned);
+		for(int i=0; i<50 && cleaned.getCount()>0; ++i) {
+			System.gc();
+			cleaned.await(100, TimeUnit.MILLISECONDS);
+		}
+		Check.eq("all cleaned", 0L, cleaned.getCount());
+		// the counters are updated after each action has run
+		for(int i=0; i<100 && (rm.getBacklog()>0 || rm.getProcessed()<n); ++i)
+			Thread.sleep(10);
+		Check.eq("cancelled and reachable did not run", 0, cancelledRan.get());
+		Check.eq("only the reachable one stays registered", 1L, rm.getRegistered());
+		Check.that("processed", rm.getProcessed()>=n);
+		Check.that("batched", rm.getBatches()<rm.getProcessed());
+		Check.that("batch run time measured", rm.getMaxBatchRunMillis()>=rm.getMeanBatchRunMillis());
+		Check.that("latency measured", rm.getMaxLatencyMillis()>=rm.getMeanLatencyMillis());
+		Check.eq("no backlog left", 0L, rm.getBacklog());
+
+		Check.section("runIfWeak");
+		CountDownLatch ran = new CountDownLatch(1);
+		rm.runIfWeak(new Object(), ran::countDown);
+		for(int i=0; i<50 && ran.getCount()>0; ++i) {
+			System.gc();
+			ran.await(100, TimeUnit.MILLISECONDS);
+		}
+		Check.eq("ran", 0L, ran.getCount());
+		Check.that("kept alive until here", kept.hashCode()==System.identityHashCode(kept));
+
+		Check.section("failing handlers restart the worker once");
+		// the expected failures are logged at SEVERE by Shard.safeRun
+		Logger managerLog = Logger.getLogger("DefaultReferenceManager");
+		Level managerLevel = managerLog.getLevel();
+		managerLog.setLevel(Level.OFF);
+		try {
+			// the workers inherit the thread group, so they can be told apart from other managers' workers
+			ThreadGroup group = new ThreadGroup("failing cleanups") {
+				@Override
+				public void uncaughtException(Thread t, Throwable e) {
+					// the dying worker rethrows the expected failure
+				}
+			};
+			DefaultReferenceManager failing = new DefaultReferenceManager(1, 64);
+			Thread starter = new Thread(group, failing::startWorker);
+			starter.start();
+			starter.join();
+			CountDownLatch gateEntered = new CountDownLatch(1);
+			CountDownLatch gateOpen = new CountDownLatch(1);
+			failing.register(new Object(), l->{
+				gateEntered.countDown();
+				try {
+					gateOpen.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, null);
+			for(int i=0; i<50 && gateEntered.getCount()>0; ++i) {
+				System.gc();
+				gateEntered.await(100, TimeUnit.MILLISECONDS);
+			}
+			Check.eq("gate entered", 0L, gateEntered.getCount());
+			// enqueue the failing handlers while the worker is held up, so they all land in one batch
+			for(int i=0; i<10; ++i)
+				failing.register(new Object(), x->{throw new AssertionError("expected cleanup failure");}, null);
+			// cleared registrations count as backlog while they wait in the queue
+			Check.that("all failures due", eventually(()->{
+				System.gc();
+				return failing.getBacklog()==10;
+			}));
+			Thread.sleep(50);
+			gateOpen.countDown();
+			Check.that("waiting behind the gate counts as latency", eventually(()->failing.getMaxLatencyMillis()>=50));
+			Check.that("one replacement worker", eventually(()->failing.getProcessed()==11 && group.activeCount()==1));
+			Thread.sleep(100);
+			Check.eq("still one worker", 1, group.activeCount());
+			CountDownLatch after = new CountDownLatch(1);
+			failing.runIfWeak(new Object(), after::countDown);
+			for(int i=0; i<50 && after.getCount()>0; ++i) {
+				System.gc();
+				after.await(100, TimeUnit.MILLISECONDS);
+			}
+			Check.eq("queue still served", 0L, after.getCount());
+		}finally {
+			managerLog.setLevel(managerLevel);
+		}
+	}
+
+	static void dynamicDependencyRecording() throws InterruptedException {
+		Check.section("same dependencies every time");
+		PileMetrics.setEnabled(true);
+		try {
+			IndependentBool sel = Piles.independent(true).build();
+			IndependentInt a = Piles.independent(1).build();
+			IndependentInt b = Piles.independent(2).build();
+			AtomicInteger runs = new AtomicInteger();
+			PileImpl<Integer> p = Piles.compute(()->{
+				runs.incrementAndGet();
+				return sel.isTrue()?a.get():b.get();
+			}).name("recorded p").dynamicDependencies().build();
+			Supplier<NodeMetrics.Snapshot> metrics = ()->PileMetrics.snapshot().stream()
+					.filter(x->"recorded p".equals(x.getName())).findFirst().get();
+			Check.eq("a", 1, p.getValid(1000));
+			Check.that("depends on sel and a", p.dependsOn(sel) && p.dependsOn(a) && !p.dependsOn(b));
+			a.set(2);
+			Check.eq("follows a", 2, p.getValid(1000));
+			long modCount = metrics.get().getDependencyChanges();
+			long diffs = metrics.get().getDynamicDependencyDiffs();
+			for(int i=3; i<20; ++i) {
+				a.set(i);
+				Check.eq("follows a", i, p.getValid(1000));
+			}
+			Check.that("still sel and a", p.dependsOn(sel) && p.dependsOn(a) && !p.dependsOn(b));
+			Check.eq("two dependencies", 2, p.getDependencies().length);
+			Check.eq("dependencies not touched", modCount, metrics.get().getDependencyChanges());
+			Check.eq("recorded dependencies not compared", diffs, metrics.get().getDynamicDependencyDiffs());
+
+			Check.section("the set changes");
+			sel.set(false);
+			Check.eq("b", 2, p.getValid(1000));
+			Check.that("depends on sel and b", p.dependsOn(sel) && p.dependsOn(b) && !p.dependsOn(a));
+			Check.that("compared", metrics.get().getDynamicDependencyDiffs()>diffs && metrics.get().getDependencyChanges()!=modCount);
+			b.set(7);
+			Check.eq("follows b", 7, p.getValid(1000));
+			int before = runs.get();
+			a.set(100);
+			Check.eq("a is no longer a dependency", 7, p.getValid(1000));
+			Check.eq("no recomputation for a", before, runs.get());
+			sel.set(true);
+			Check.eq("back to a", 100, p.getValid(1000));
+			Check.that("sel and a again", p.dependsOn(sel) && p.dependsOn(a) && !p.dependsOn(b));
+
+			Check.section("a dependency removed from outside");
+			p.removeDependency(a, false, false);
+			a.set(101);
+			p.revalidate();
+			Check.eq("recorded again", 101, p.getValid(1000));
+			Check.that("a is back", p.dependsOn(a));
+		}finally {
+			PileMetrics.setEnabled(false);
+		}
+	}
+
+	static void pullEvaluation() throws Exception {
+		Check.section("only the requested cone is computed");
+		IndependentInt x = Piles.independent(1).build();
+		AtomicInteger aRuns = new AtomicInteger(), bRuns = new AtomicInteger(), cRuns = new AtomicInteger();
+		PileImpl<Integer> a, b, c;
+		try(MockBlock lazy = Piles.lazySubgraph()){
+			a = Piles.compute(()->{aRuns.incrementAndGet(); return x.get()+1;}).whenChanged(x);
+			b = Piles.compute(()->{bRuns.incrementAndGet(); return x.get()+2;}).whenChanged(x);
+			PileImpl<Integer> fa = a;
+			c = Piles.compute(()->{cRuns.incrementAndGet(); return fa.get()*10;}).whenChanged(a);
+		}
+		Check.that("built lazy", a.isLazyValidating() && b.isLazyValidating() && c.isLazyValidating());
+		Check.that("nothing computed yet", aRuns.get()==0 && bRuns.get()==0 && cRuns.get()==0);
+		Check.eq("c pulled", 20, c.get());
+		Check.that("a and c computed once", aRuns.get()==1 && cRuns.get()==1);
+		Check.eq("b not computed", 0, bRuns.get());
+
+		Check.section("invalidation only marks");
+		AtomicInteger events = new AtomicInteger();
+		ValueListener l = e->events.incrementAndGet();
+		c.addValueListener(l);
+		x.set(5);
+		Check.that("a and c invalid", !a.isValidAsync() && !c.isValidAsync());
+		Check.that("not recomputed", aRuns.get()==1 && cRuns.get()==1);
+		Check.that("listener told of the invalidation", events.get()>0);
+		int eventsBefore = events.get();
+		Check.eq("pulled again", 60, c.get());
+		Check.that("listener told of the new value", events.get()>eventsBefore);
+		Check.eq("still no b", 0, bRuns.get());
+		c.removeValueListener(l);
+
+		Check.section("independent branches in parallel");
+		ForkJoinPool pool = new ForkJoinPool(4);
+		StandardExecutors.setPull(pool);
+		try {
+			Set<Thread> threads = ConcurrentHashMap.newKeySet();
+			CountDownLatch together = new CountDownLatch(4);
+			List<PileImpl<Integer>> branches = new ArrayList<>();
+			PileImpl<Integer> root;
+			try(MockBlock lazy = Piles.lazySubgraph()){
+				for(int i=0; i<4; ++i) {
+					int k = i;
+					branches.add(Piles.compute(()->{
+						threads.add(Thread.currentThread());
+						together.countDown();
+						try {
+							together.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return x.get()+k;
+					}).whenChanged(x));
+				}
+				root = Piles.compute(()->{
+					int sum = 0;
+					for(PileImpl<Integer> p: branches)
+						sum += p.get();
+					return sum;
+				}).whenChanged(branches.toArray(new PileImpl<?>[0]));
+			}
+			long t0 = System.nanoTime();
+			Check.eq("sum", 4*5+0+1+2+3, root.get());
+			Check.that("branches met", together.getCount()==0);
+			Check.that("several threads", threads.size()>1);
+			Check.that("did not wait for the latch timeout", System.nanoTime()-t0<TimeUnit.SECONDS.toNanos(4));
+		}finally {
+			StandardExecutors.setPull(null);
+			pool.shutdown();
+		}
+
+		Check.section("diamonds and long chains");
+		AtomicInteger sharedRuns = new AtomicInteger();
+		PileImpl<Integer> end;
+		try(MockBlock lazy = Piles.lazySubgraph()){
+			PileImpl<Integer> shared = Piles.compute(()->{sharedRuns.incrementAndGet(); return x.get();}).whenChanged(x);
+			PileImpl<Integer> l1 = Piles.compute(()->shared.get()+1).whenChanged(shared);
+			PileImpl<Integer> r1 = Piles.compute(()->shared.get()+2).whenChanged(shared);
+			PileImpl<Integer> prev = Piles.compute(()->l1.get()+r1.get()).whenChanged(l1, r1);
+			for(int i=0; i<500; ++i) {
+				PileImpl<Integer> p = prev;
+				prev = Piles.compute(()->p.get()+1).whenChanged(p);
+			}
+			end = prev;
+		}
+		Check.eq("end of chain", 5+1+5+2+500, end.get());
+		Check.eq("shared computed once", 1, sharedRuns.get());
+
+		Check.section("wide diamonds, repeatedly");
+		int wideFailures = 0;
+		for(int round=0; round<300; ++round) {
+			IndependentInt source = Piles.independent(5).name("wide source "+round).build();
+			PileImpl<Integer> sum;
+			try(MockBlock lazy = Piles.lazySubgraph()){
+				PileImpl<Integer> top = Piles.compute(source::get).name("wide top").whenChanged(source);
+				ArrayList<PileImpl<Integer>> branches = new ArrayList<>();
+				for(int i=0; i<16; ++i) {
+					int offset = i;
+					branches.add(Piles.compute(()->top.get()+offset).name("wide branch "+i).whenChanged(top));
+				}
+				sum = Piles.compute(()->{
+					int total = 0;
+					for(PileImpl<Integer> branch: branches)
+						total += branch.get();
+					return total;
+				}).name("wide sum").whenChanged(branches.toArray(new PileImpl<?>[0]));
+			}
+			Integer got = sum.get();
+			if(got==null || got!=16*5+16*15/2)
+				++wideFailures;
+		}
+		Check.eq("every pull finished", 0, wideFailures);
+
+		Check.section("reads with a timeout or without waiting");
+		CountDownLatch slow = new CountDownLatch(1);
+		PileImpl<Integer> sleepy;
+		try(MockBlock lazy = Piles.lazySubgraph()){
+			sleepy = Piles.compute(()->{
+				try {
+					slow.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return x.get()*2;
+			}).whenChanged(x);
+		}
+		long t0 = System.nanoTime();
+		Check.eq("timed out", null, sleepy.getValid(100));
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-t0);
+		Check.that("getValid kept to its timeout: "+waited+" ms", waited<1000);
+		t0 = System.nanoTime();
+		Check.eq("no old value yet", null, sleepy.getOldIfInvalid());
+		try {
+			sleepy.getValidOrThrow();
+			Check.that("getValidOrThrow throws", false);
+		}catch(InvalidValueException e) {
+		}
+		waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-t0);
+		Check.that("the non-waiting getters did not wait: "+waited+" ms", waited<1000);
+		slow.countDown();
+		Check.eq("valid once the recomputation ends", 10, sleepy.getValid(5000));
+	}
+
+	static int countDependers(Dependency d) {
+		int[] n = {0};
+		d.giveDependers(dd->++n[0]);
+		return n[0];
+	}
+	static void coldWhenUnobserved() throws Exception {
+		Check.section("unobserved values go cold");
+		IndependentInt x = Piles.independent(1).build();
+		AtomicInteger runs = new AtomicInteger();
+		PileImpl<Integer> a = Piles.compute(()->{runs.incrementAndGet(); return x.get()+1;})
+				.coldWhenUnobserved()
+				.whenChanged(x);
+		Check.that("cold", a.isCold());
+		Check.eq("not attached", 0, countDependers(x));
+		int before = runs.get();
+		for(int i=2; i<=5; ++i)
+			x.set(i);
+		Check.eq("no recomputation while cold", before, runs.get());
+		Check.eq("reading warms up", 6, a.get());
+		Check.that("warm", !a.isCold());
+		Check.eq("attached", 1, countDependers(x));
+
+		Check.section("values warmed up by reading go cold again");
+		before = runs.get();
+		x.set(6);
+		Check.that("cold after the next change", eventually(a::isCold));
+		Check.eq("detached after the next change", 0, countDependers(x));
+		for(int i=7; i<=9; ++i)
+			x.set(i);
+		Check.eq("no recomputation after going cold", before, runs.get());
+		Check.eq("reading warms up again", 10, a.get());
+		Check.eq("recomputed once", before+1, runs.get());
+
+		Check.section("listeners keep values warm");
+		a.setColdWhenUnobserved(true);
+		Check.that("cold again", a.isCold());
+		AtomicInteger events = new AtomicInteger();
+		ValueListener l = e->events.incrementAndGet();
+		a.addValueListener(l);
+		Check.that("warm while listened to", !a.isCold());
+		Check.eq("revalidated", 10, a.get());
+		x.set(10);
+		Check.eq("follows its dependency", 11, a.get());
+		Check.that("listener informed", events.get()>0);
+		a.removeValueListener(l);
+		Check.that("cold without listener", a.isCold());
+		Check.eq("detached", 0, countDependers(x));
+		before = runs.get();
+		x.set(20);
+		Check.eq("no recomputation without listener", before, runs.get());
+
+		Check.section("dependers keep values warm");
+		PileImpl<Integer> b = Piles.compute(()->a.get()*2).whenChanged(a);
+		Check.that("warm while depended on", !a.isCold());
+		Check.eq("depender sees the current value", 42, b.get());
+		x.set(30);
+		Check.eq("changes propagate", 62, b.get());
+		b.destroy();
+		Check.that("cold after the depender is gone", a.isCold());
+		Check.eq("detached again", 0, countDependers(x));
+
+		Check.section("dependency destroyed while cold");
+		IndependentInt y = Piles.independent(1).build();
+		PileImpl<Integer> c = Piles.compute(()->y.get()).coldWhenUnobserved().whenChanged(y);
+		Check.that("essential", c.isEssential(y));
+		y.destroy();
+		Check.that("destroyed with its essential dependency", c.isDestroyed());
+		Check.eq("no dependencies left", 0, c.getDependencies().length);
+		IndependentInt z = Piles.independent(2).build();
+		PileImpl<Integer> e = Piles.compute(()->z.isDestroyed()?-1:z.get()).coldWhenUnobserved().build();
+		e.addDependency(z, false);
+		e.setColdWhenUnobserved(true);
+		Check.that("cold with a plain dependency", e.isCold() && !e.isEssential(z));
+		z.destroy();
+		Check.eq("reading drops the destroyed dependency", -1, e.get());
+		Check.eq("dropped", 0, e.getDependencies().length);
+
+		Check.section("adding and removing dependencies while going cold and warm");
+		IndependentInt u = Piles.independent(1).build();
+		PileImpl<Integer> f = Piles.compute(()->u.get()).coldWhenUnobserved().build();
+		Thread toggler = new Thread(()->{
+			for(int i=0; i<2000; ++i) {
+				f.get();
+				f.setColdWhenUnobserved(true);
+			}
+		});
+		toggler.start();
+		for(int i=0; i<2000; ++i) {
+			f.addDependency(u, false);
+			f.removeDependency(u);
+		}
+		toggler.join();
+		Check.eq("not attached without the dependency", 0, countDependers(u));
+		f.addDependency(u, false);
+		f.get();
+		Check.eq("attached while warm", 1, countDependers(u));
+		f.setColdWhenUnobserved(true);
+		Check.eq("detached while cold", 0, countDependers(u));
+	}
+
+	static class IntList extends PileList<Integer>{
+		final List<String> hooks = new ArrayList<>();
+		IntList() {
+			super("ints");
+		}
+		@Override
+		protected ReadWriteListenDependency<Integer> wrap(Integer e) {
+			return new Independent<>(e);
+		}
+		@Override
+		protected void intervalAdded(int begin, int end) {
+			hooks.add("+"+begin+".."+end);
+		}
+		@Override
+		protected void intervalRemoved(int begin, int end) {
+			hooks.add("-"+begin+".."+end);
+		}
+		@Override
+		protected void contentsChanged(int begin, int end) {
+			hooks.add("~"+begin+".."+end);
+		}
+	}
+	static List<Integer> range(int from, int to){
+		List<Integer> ret = new ArrayList<>();
+		for(int i=from; i<to; ++i)
+			ret.add(i);
+		return ret;
+	}
+	static void bulkListMutations() throws Exception {
+		Check.section("addAll invalidates the head once");
+		IntList l = new IntList();
+		List<ListChangeSet> changes = new ArrayList<>();
+		l.changes().addValueListener(e->changes.add(l.changes().get()));
+		AtomicInteger validityEvents = new AtomicInteger();
+		l.head().validity().addValueListener(e->validityEvents.incrementAndGet());
+		l.addAll(range(0, 10000));
+		Check.eq("size", 10000, l.size());
+		Check.that("head valid", l.head().isValid());
+		Check.that("at most one invalidation", validityEvents.get()<=2);
+		Check.eq("one change set", 1, changes.size());
+		Check.eq("inserted", "[INSERTED [0, 9999]]", changes.get(0).toString());
+		Check.eq("hook", Arrays.asList("+0..9999"), l.hooks);
+
+		Check.section("replaceRange");
+		changes.clear();
+		l.hooks.clear();
+		l.replaceRange(10, 20, Arrays.asList(-1, -2, -3));
+		Check.eq("size", 9993, l.size());
+		Check.eq("elements", Arrays.asList(9, -1, -2, -3, 20), l.toArrayList().subList(9, 14));
+		Check.eq("change set", "[UPDATED [10, 12], REMOVED [13, 19]]", changes.get(0).toString());
+		Check.eq("hooks", Arrays.asList("~10..12", "-13..19"), l.hooks);
+		Check.eq("size delta", -7, changes.get(0).sizeDelta());
+
+		Check.section("setAll");
+		changes.clear();
+		l.hooks.clear();
+		l.setAll(range(100, 105));
+		Check.eq("elements", range(100, 105), l.toArrayList());
+		Check.eq("change set", "[UPDATED [0, 4], REMOVED [5, 9992]]", changes.get(0).toString());
+		l.setAll(range(0, 8));
+		Check.eq("growing", "[UPDATED [0, 4], INSERTED [5, 7]]", changes.get(1).toString());
+
+		Check.section("retainAll");
+		changes.clear();
+		l.hooks.clear();
+		Check.that("removed some", l.retainAll(Arrays.asList(0, 3, 4, 7)));
+		Check.eq("elements", Arrays.asList(0, 3, 4, 7), l.toArrayList());
+		Check.eq("runs from the last to the first", "[REMOVED [5, 6], REMOVED [1, 2]]", changes.get(0).toString());
+		Check.that("nothing to remove", !l.retainAll(Arrays.asList(0, 3, 4, 7)));
+		Check.eq("no change set", 1, changes.size());
+		List<Integer> failing = new ArrayList<Integer>(Arrays.asList(0, 4)) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public boolean contains(Object o) {
+				if(Integer.valueOf(4).equals(o))
+					throw new IllegalStateException("test");
+				return super.contains(o);
+			}
+		};
+		try {
+			l.retainAll(failing);
+			Check.that("exception passed on", false);
+		}catch(IllegalStateException x) {
+			Check.eq("failed decision leaves the list untouched", Arrays.asList(0, 3, 4, 7), l.toArrayList());
+		}
+		Check.eq("still no change set", 1, changes.size());
+
+		Check.section("single mutations report change sets too");
+		changes.clear();
+		l.hooks.clear();
+		l.set(1, 33);
+		l.add(5);
+		l.remove(0);
+		Check.eq("hooks", Arrays.asList("~1..1", "+4..4", "-0..0"), l.hooks);
+		Check.eq("change sets", 3, changes.size());
+		AtomicInteger headEvents = new AtomicInteger();
+		l.head().addValueListener(e->headEvents.incrementAndGet());
+		l.get(0).set(333);
+		Check.that("element changes still reach the head", headEvents.get()>0);
+
+		Check.section("removeIf reports removed runs");
+		l.addAll(range(10, 16));
+		List<Integer> mirrored = replay(l.view());
+		changes.clear();
+		l.hooks.clear();
+		l.removeIf(x->x%2!=0);
+		Check.eq("elements", Arrays.asList(4, 10, 12, 14), l.toArrayList());
+		Check.eq("runs from the last to the first", "[REMOVED [9, 9], REMOVED [7, 7], REMOVED [5, 5], REMOVED [2, 3], REMOVED [0, 0]]", changes.get(0).toString());
+		Check.eq("hooks", Arrays.asList("-9..9", "-7..7", "-5..5", "-2..3", "-0..0"), l.hooks);
+		Check.eq("size delta", -6, changes.get(0).sizeDelta());
+		Check.eq("mirror", l.toArrayList(), mirrored);
+
+		Check.section("manipulate reports one change set");
+		changes.clear();
+		l.hooks.clear();
+		l.manipulate(()->{
+			l.add(1);
+			l.add(2);
+			l.remove(0);
+			l.manipulate(()->l.set(0, 11));
+		});
+		Check.eq("elements", Arrays.asList(11, 12, 14, 1, 2), l.toArrayList());
+		Check.eq("growing", "[[UPDATED [0, 3], INSERTED [4, 4]]]", changes.toString());
+		Check.eq("hooks", Arrays.asList("~0..3", "+4..4"), l.hooks);
+		changes.clear();
+		l.hooks.clear();
+		l.manipulate(()->{
+			l.remove(0);
+			l.remove(0);
+		});
+		Check.eq("shrinking", "[[UPDATED [0, 2], REMOVED [3, 4]]]", changes.toString());
+		Check.eq("hooks", Arrays.asList("~0..2", "-3..4"), l.hooks);
+		Check.eq("size delta", -2, changes.get(0).sizeDelta());
+		Check.eq("mirror", l.toArrayList(), mirrored);
+	}
+
+	/**
+	 * Follow the change sets of a view in a plain list, reading inserted and updated elements from the view
+	 * when the change set is delivered
+	 */
+	static <E> List<E> replay(ListView<E> v){
+		List<E> ret = new ArrayList<>(v.toArrayList());
+		v.changes().addValueListener(e->{
+			for(ListChangeSet.Range r: v.changes().get().getRanges()) {
+				switch(r.kind) {
+				case REMOVED:
+					ret.subList(r.begin, r.end+1).clear();
+					break;
+				case INSERTED:
+					for(int i=r.begin; i<=r.end; ++i)
+						ret.add(i, v.get(i));
+					break;
+				case UPDATED:
+					for(int i=r.begin; i<=r.end; ++i)
+						ret.set(i, v.get(i));
+					break;
+				}
+			}
+		});
+		return ret;
+	}
+	static void incrementalListViews() throws Exception {
+		Check.section("views follow bulk mutations");
+		IntList l = new IntList();
+		l.addAll(range(0, 20));
+		ListView<Integer> squares = l.view().map(x->x*x);
+		ListView<Integer> even = l.view().filter(x->x%2==0);
+		ListView<Integer> desc = l.view().sorted(Collections.reverseOrder());
+		ListView<Integer> evenDesc = even.sorted(Collections.reverseOrder());
+		l.replaceRange(2, 10, Arrays.asList(100, 101));
+		l.retainAll(Arrays.asList(0, 1, 100, 101, 12, 13, 14));
+		l.addAll(1, Arrays.asList(7, 8));
+		List<Integer> expect = Arrays.asList(0, 7, 8, 1, 100, 101, 12, 13, 14);
+		Check.eq("list", expect, l.toArrayList());
+		Check.eq("mirror", expect, l.view().toArrayList());
+		Check.eq("mapped", Arrays.asList(0, 49, 64, 1, 10000, 10201, 144, 169, 196), squares.toArrayList());
+		Check.eq("filtered", Arrays.asList(0, 8, 100, 12, 14), even.toArrayList());
+		Check.eq("sorted", Arrays.asList(101, 100, 14, 13, 12, 8, 7, 1, 0), desc.toArrayList());
+		Check.eq("filtered, then sorted", Arrays.asList(100, 14, 12, 8, 0), evenDesc.toArrayList());
+
+		Check.section("editing one element changes one index");
+		List<ListChangeSet> evenChanges = new ArrayList<>();
+		even.changes().addValueListener(e->evenChanges.add(even.changes().get()));
+		List<ListChangeSet> descChanges = new ArrayList<>();
+		desc.changes().addValueListener(e->descChanges.add(desc.changes().get()));
+		AtomicInteger mapCalls = new AtomicInteger();
+		ListView<Integer> counted = l.view().map(x->{mapCalls.incrementAndGet(); return x;});
+		mapCalls.set(0);
+		l.get(4).set(99);
+		Check.eq("filter drops it", "[REMOVED [2, 2]]", evenChanges.get(0).toString());
+		Check.eq("sort keeps it in place", "[UPDATED [1, 1]]", descChanges.get(0).toString());
+		Check.eq("map applied once", 1, mapCalls.get());
+		l.get(4).set(2);
+		Check.eq("filter takes it back", "[INSERTED [2, 2]]", evenChanges.get(1).toString());
+		Check.eq("sort moves it", "[REMOVED [1, 1], INSERTED [6, 6]]", descChanges.get(1).toString());
+		Check.eq("filtered", Arrays.asList(0, 8, 2, 12, 14), even.toArrayList());
+		Check.eq("sorted", Arrays.asList(101, 14, 13, 12, 8, 7, 2, 1, 0), desc.toArrayList());
+
+		Check.section("views read through the head");
+		PileInt evenCount = Piles.computeInt(()->even.size()).whenChanged(even.head());
+		Check.eq("initial", 5, evenCount.get());
+		l.add(4);
+		Check.eq("after add", 6, evenCount.get());
+
+		Check.section("views stay consistent under random mutations");
+		Random rnd = new Random(25);
+		IntList r = new IntList();
+		r.addAll(range(0, 50));
+		ListView<Integer> mod = r.view().map(x->x%7);
+		ListView<Integer> small = mod.filter(x->x<4);
+		ListView<Integer> sorted = r.view().sorted(Integer::compare);
+		ListView<Integer> smallSorted = small.sorted(Integer::compare);
+		List<Integer> smallReplay = replay(small);
+		List<Integer> sortedReplay = replay(sorted);
+		List<Integer> smallSortedReplay = replay(smallSorted);
+		for(int round=0; round<300; ++round) {
+			int n = r.size();
+			int a = rnd.nextInt(n+1);
+			int b = a+rnd.nextInt(n-a+1);
+			switch(rnd.nextInt(6)) {
+			case 0:
+				r.addAll(a, range(0, rnd.nextInt(5)).stream().map(x->rnd.nextInt(100)).collect(Collectors.toList()));
+				break;
+			case 1:
+				r.replaceRange(a, Math.min(b, a+5), range(0, rnd.nextInt(6)).stream().map(x->rnd.nextInt(100)).collect(Collectors.toList()));
+				break;
+			case 2:
+				if(rnd.nextInt(10)==0)
+					r.retainAll(range(0, 90));
+				else if(rnd.nextInt(10)==0)
+					r.removeIf(x->x%10==a%10);
+				break;
+			case 3:
+				if(a<n)
+					r.remove(a);
+				break;
+			default:
+				if(a<n)
+					r.get(a).set(rnd.nextInt(100));
+				break;
+			}
+		}
+		List<Integer> all = r.toArrayList();
+		List<Integer> expectMod = all.stream().map(x->x%7).collect(Collectors.toList());
+		List<Integer> expectSmall = expectMod.stream().filter(x->x<4).collect(Collectors.toList());
+		List<Integer> expectSorted = new ArrayList<>(all);
+		Collections.sort(expectSorted);
+		List<Integer> expectSmallSorted = new ArrayList<>(expectSmall);
+		Collections.sort(expectSmallSorted);
+		Check.eq("mapped", expectMod, mod.toArrayList());
+		Check.eq("filtered", expectSmall, small.toArrayList());
+		Check.eq("sorted", expectSorted, sorted.toArrayList());
+		Check.eq("filtered, then sorted", expectSmallSorted, smallSorted.toArrayList());
+		Check.eq("filtered change sets", expectSmall, smallReplay);
+		Check.eq("sorted change sets", expectSorted, sortedReplay);
+		Check.eq("filtered, then sorted change sets", expectSmallSorted, smallSortedReplay);
+
+		Check.section("destroying a view detaches it");
+		small.destroy();
+		Check.that("derived view destroyed", smallSorted.isDestroyed());
+		r.addAll(Arrays.asList(1, 2, 3));
+		Check.eq("destroyed view no longer follows", expectSmall, smallReplay);
+		Check.eq("other views still follow", r.size(), sorted.size());
+		r.destroy();
+		Check.that("list view destroyed with the list", mod.isDestroyed() && sorted.isDestroyed());
+
+		Check.section("reading a filtered view while the list changes");
+		IntList c = new IntList();
+		ListView<Integer> evens = c.view().filter(x->x%2==0);
+		List<Integer> block = range(0, 200).stream().map(x->2*x).collect(Collectors.toList());
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread writer = new Thread(()->{
+			while(!stop.get()) {
+				c.addAll(block);
+				c.clear();
+			}
+		}, "list writer");
+		writer.start();
+		Throwable failure = null;
+		int badSnapshots = 0;
+		try {
+			for(long end = System.currentTimeMillis()+300; System.currentTimeMillis()<end; ) {
+				ArrayList<Integer> snapshot = evens.toArrayList();
+				if(!snapshot.isEmpty() && !snapshot.equals(block))
+					++badSnapshots;
+			}
+		}catch(Throwable x) {
+			failure = x;
+		}finally {
+			stop.set(true);
+			writer.join();
+		}
+		Check.eq("no exception", null, failure);
+		Check.eq("only whole snapshots", 0, badSnapshots);
+	}
+}